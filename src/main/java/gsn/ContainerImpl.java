@@ -29,11 +29,14 @@
 package gsn;
 
 import gsn.beans.StreamElement;
-import gsn.storage.StorageManager;
+import gsn.beans.VSensorConfig;
+import gsn.storage.Rollups;
 import gsn.vsensor.AbstractVirtualSensor;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
@@ -54,7 +57,11 @@ public class ContainerImpl  {
 	
 	private static ContainerImpl singleton;
 	
-	private static final Object                                          psLock                             = new Object( );
+	/**
+	 * The write path of each virtual sensor, by virtual sensor name. There is
+	 * no lock shared between virtual sensors.
+	 */
+	private final ConcurrentHashMap<String, VirtualSensorWriter>          writers                            = new ConcurrentHashMap<String, VirtualSensorWriter>( );
 
 	private ContainerImpl() {
 
@@ -68,25 +75,66 @@ public class ContainerImpl  {
 
 
 	public void publishData ( AbstractVirtualSensor sensor ,StreamElement data) throws SQLException {
-		String name = sensor.getVirtualSensorConfiguration( ).getName( ).toLowerCase();
-		StorageManager storageMan = Main.getStorage(sensor.getVirtualSensorConfiguration().getName());
-		synchronized ( psLock ) {
-			storageMan.executeInsert( name ,sensor.getVirtualSensorConfiguration().getOutputStructure(), data );
+		getWriter( sensor.getVirtualSensorConfiguration( ) ).write( data );
+	}
+
+	/**
+	 * Persists stream elements that didn't go through the virtual sensor, such
+	 * as archives loaded directly into its table, in one transaction. The
+	 * rollups and the data listeners see them as the produced ones.
+	 */
+	public void publishData ( VSensorConfig config , List<StreamElement> data ) throws SQLException {
+		getWriter( config ).writeBatch( data );
+	}
+
+	private VirtualSensorWriter getWriter ( VSensorConfig config ) {
+		String name = config.getName( ).toLowerCase( );
+		VirtualSensorWriter writer = writers.get( name );
+		if ( writer == null || writer.getConfig( ) != config ) {
+			VirtualSensorWriter newWriter = new VirtualSensorWriter( this , config );
+			if ( writer == null ) {
+				writer = writers.putIfAbsent( name , newWriter );
+				if ( writer == null )
+					writer = newWriter;
+			} else if ( writers.replace( name , writer , newWriter ) ) {
+				// the virtual sensor was reloaded
+				writer.flush( );
+				writer = newWriter;
+			} else {
+				writer = writers.get( name );
+			}
 		}
-		
+		return writer;
+	}
+
+	/**
+	 * Flushes the pending stream elements of the virtual sensor and forgets its
+	 * write path, called when the virtual sensor is unloaded.
+	 */
+	public void releaseVirtualSensor ( VSensorConfig config ) {
+		VirtualSensorWriter writer = writers.remove( config.getName( ).toLowerCase( ) );
+		if ( writer != null )
+			writer.flush( );
+		Rollups.release( config );
+	}
+
+	/**
+	 * Hands a persisted stream element to the data listeners. This is done
+	 * outside of any lock of the write path.
+	 */
+	void fireDataPublished ( StreamElement data , VSensorConfig config ) {
 		for (VirtualSensorDataListener listener : dataListeners) {
-			listener.consume(data, sensor.getVirtualSensorConfiguration());
+			listener.consume(data, config);
 		}
 	}
 
-	private ArrayList<VirtualSensorDataListener> dataListeners = new ArrayList<VirtualSensorDataListener>();
+	private final CopyOnWriteArrayList<VirtualSensorDataListener> dataListeners = new CopyOnWriteArrayList<VirtualSensorDataListener>();
 
-	public synchronized void addVSensorDataListener(VirtualSensorDataListener listener) {
-		if (!dataListeners.contains(listener))
-			dataListeners.add(listener);
+	public void addVSensorDataListener(VirtualSensorDataListener listener) {
+		dataListeners.addIfAbsent(listener);
 	}
 
-	public synchronized void removeVSensorDataListener(VirtualSensorDataListener listener) {
+	public void removeVSensorDataListener(VirtualSensorDataListener listener) {
 		dataListeners.remove(listener);
 	}
 
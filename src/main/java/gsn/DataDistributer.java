@@ -29,10 +29,12 @@ package gsn;
 
 import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
+import gsn.beans.windowing.CompiledQuery;
 import gsn.http.rest.DefaultDistributionRequest;
 import gsn.http.rest.DeliverySystem;
 import gsn.http.rest.DistributionRequest;
 import gsn.http.rest.LocalDeliveryWrapper;
+import gsn.http.rest.RestDelivery;
 import gsn.networking.zeromq.ZeroMQDelivery;
 import gsn.networking.zeromq.ZeroMQWrapper;
 import gsn.storage.DataEnumerator;
@@ -43,12 +45,18 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import gsn.storage.StorageManager;
 import org.apache.log4j.Logger;
@@ -60,6 +68,10 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
 
     private static int keepAlivePeriod = -1;
 
+    public static final int LIVE_BUFFER_SIZE = 1000;
+
+    private static int liveBufferSize = -1;
+
     private javax.swing.Timer keepAliveTimer = null;
 
     private static transient Logger logger = Logger.getLogger(DataDistributer.class);
@@ -107,6 +119,16 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
         return keepAlivePeriod;
     }
 
+    /**
+     * Maximum number of stream elements waiting in memory for a listener
+     * before it falls back to the database, 0 disables the in memory delivery.
+     */
+    public static int getLiveBufferSize() {
+        if (liveBufferSize == -1)
+            liveBufferSize = System.getProperty("distributerBufferSize") == null ? LIVE_BUFFER_SIZE : Integer.parseInt(System.getProperty("distributerBufferSize"));
+        return liveBufferSize;
+    }
+
     private HashMap<DistributionRequest, PreparedStatement> preparedStatements = new HashMap<DistributionRequest, PreparedStatement>();
 
     private ArrayList<DistributionRequest> listeners = new ArrayList<DistributionRequest>();
@@ -119,6 +141,109 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
 
     private ConcurrentHashMap<DistributionRequest, Boolean> candidatesForNextRound = new ConcurrentHashMap<DistributionRequest, Boolean>();
 
+    /**
+     * The queries of the listeners which can be evaluated in memory on the
+     * published stream elements, the other listeners always read the table.
+     */
+    private HashMap<DistributionRequest, CompiledQuery> compiledQueries = new HashMap<DistributionRequest, CompiledQuery>();
+
+    /**
+     * The listeners which are up to date with the table of their virtual
+     * sensor. The published stream elements are filtered and buffered for them
+     * without querying the database. Locker contains such a listener as long as
+     * its buffer isn't empty.
+     */
+    private ConcurrentHashMap<DistributionRequest, ArrayBlockingQueue<LiveElement>> liveListeners = new ConcurrentHashMap<DistributionRequest, ArrayBlockingQueue<LiveElement>>();
+
+    /**
+     * The position of each live listener in the table of its virtual sensor.
+     */
+    private ConcurrentHashMap<DistributionRequest, LivePosition> livePositions = new ConcurrentHashMap<DistributionRequest, LivePosition>();
+
+    /**
+     * The live listeners whose buffer overflowed, they go back to the database
+     * from the last stream element delivered.
+     */
+    private ConcurrentHashMap<DistributionRequest, Boolean> overflowedListeners = new ConcurrentHashMap<DistributionRequest, Boolean>();
+
+    /**
+     * Timestamp and primary key of the row of the last stream element
+     * delivered from memory to each listener which caught up since, these
+     * elements don't have a primary key.
+     */
+    private ConcurrentHashMap<DistributionRequest, long[]> resumePositions = new ConcurrentHashMap<DistributionRequest, long[]>();
+
+    /**
+     * A stream element buffered for a live listener, with the timestamp of the
+     * published stream element it comes from (the query may not select it)
+     * and the rank of the latter among the published ones sharing this
+     * timestamp.
+     */
+    private static class LiveElement {
+
+        final StreamElement se;
+
+        final long timed;
+
+        final int rank;
+
+        LiveElement(StreamElement se, long timed, int rank) {
+            this.se = se;
+            this.timed = timed;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Where a live listener stands in the table of its virtual sensor, the
+     * rows being inserted in the order the stream elements are published.
+     */
+    private static class LivePosition {
+
+        /**
+         * The greatest primary key of the table when the listener went live.
+         */
+        final long basePk;
+
+        long lastPublished = Long.MIN_VALUE;
+
+        int published;
+
+        long deliveredTimed;
+
+        /**
+         * The rank of the last stream element delivered, 0 if none was.
+         */
+        int deliveredRank;
+
+        LivePosition(long basePk) {
+            this.basePk = basePk;
+        }
+    }
+
+    /**
+     * Released by the non blocking deliveries when their full queue is
+     * drained, and when a listener has new stream elements, for the delivery
+     * thread waiting while all the listeners having something to deliver are
+     * full.
+     */
+    private final Semaphore writable = new Semaphore(0);
+
+    private final Runnable writableListener = new Runnable() {
+        public void run() {
+            wakeUp();
+        }
+    };
+
+    /**
+     * Wakes the delivery thread up if it waits for a listener to be writable,
+     * without accumulating the permits.
+     */
+    private void wakeUp() {
+        if (writable.availablePermits() == 0)
+            writable.release();
+    }
+
     public void addListener(DistributionRequest listener) {
         synchronized (listeners) {
             if (!listeners.contains(listener)) {
@@ -129,15 +254,24 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
                     query += " AND ";
                 else
                     query += " WHERE ";
-                query += " timed > " + listener.getStartTime() + " and pk > ? order by timed asc ";
+                query += " timed >= ? and pk > ? order by timed asc ";
                 PreparedStatement prepareStatement = null;
                 try {
                     prepareStatement = getPersistantConnection(listener.getVSensorConfig()).prepareStatement(query); //prepareStatement = StorageManager.getInstance().getConnection().prepareStatement(query);
                     prepareStatement.setMaxRows(1000); // Limit the number of rows loaded in memory.
+                    prepareStatement.setFetchSize(1000);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
                 preparedStatements.put(listener, prepareStatement);
+                if (listener.getModel() == null && getLiveBufferSize() > 0) {
+                    VSensorConfig config = listener.getVSensorConfig();
+                    CompiledQuery compiledQuery = CompiledQuery.compile(listener.getQuery(), config.getName(), config.getOutputStructure());
+                    if (compiledQuery != null && !compiledQuery.isAggregate())
+                        compiledQueries.put(listener, compiledQuery);
+                }
+                if (listener.getDeliverySystem() instanceof RestDelivery)
+                    ((RestDelivery) listener.getDeliverySystem()).setWritableListener(writableListener);
                 listeners.add(listener);
                 addListenerToCandidates(listener);
 
@@ -157,6 +291,141 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
         if (dataEnum.hasMoreElements()) {
             candidateListeners.put(listener, dataEnum);
             locker.add(listener);
+            wakeUp();
+        } else if (compiledQueries.containsKey(listener)) {
+            // up to date, the next stream elements are delivered from memory
+            Long basePk = getMaxPk(listener);
+            if (basePk == null)
+                return;
+            logger.debug("The listener: " + listener.toString() + " is up to date, switching to the in memory delivery.");
+            livePositions.put(listener, new LivePosition(basePk));
+            liveListeners.put(listener, new ArrayBlockingQueue<LiveElement>(getLiveBufferSize()));
+        }
+    }
+
+    /**
+     * @return the greatest primary key of the table of the listener, -1 if it
+     *         is empty, null if it can't be read.
+     */
+    private Long getMaxPk(DistributionRequest listener) {
+        PreparedStatement ps = null;
+        try {
+            ps = getPersistantConnection(listener.getVSensorConfig()).prepareStatement("select max(pk) from " + listener.getVSensorConfig().getName());
+            ResultSet rs = ps.executeQuery();
+            long toReturn = rs.next() ? rs.getLong(1) : -1;
+            if (rs.wasNull())
+                toReturn = -1;
+            rs.close();
+            return toReturn;
+        } catch (Exception e) {
+            logger.error("Reading the primary keys of " + listener.getVSensorConfig().getName() + " failed: " + e.getMessage(), e);
+            return null;
+        } finally {
+            close(ps);
+        }
+    }
+
+    /**
+     * @return the timestamp and the primary key of the row of the last stream
+     *         element delivered from memory to the listener: the row having
+     *         the rank of the delivered element among the ones inserted with
+     *         its timestamp since the listener went live.
+     */
+    private long[] getResumePosition(DistributionRequest listener, LivePosition position) {
+        if (position.deliveredRank == 0)
+            return new long[] { Long.MIN_VALUE, position.basePk };
+        long pk = position.basePk;
+        PreparedStatement ps = null;
+        try {
+            ps = getPersistantConnection(listener.getVSensorConfig()).prepareStatement("select pk from " + listener.getVSensorConfig().getName() + " where timed = ? and pk > ? order by pk asc");
+            ps.setMaxRows(position.deliveredRank);
+            ps.setLong(1, position.deliveredTimed);
+            ps.setLong(2, position.basePk);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next())
+                pk = rs.getLong(1);
+            rs.close();
+        } catch (Exception e) {
+            // the rows sharing the timestamp are delivered again rather than lost
+            logger.error("Reading the primary keys of " + listener.getVSensorConfig().getName() + " failed: " + e.getMessage(), e);
+        } finally {
+            close(ps);
+        }
+        return new long[] { position.deliveredTimed, pk };
+    }
+
+    private static void close(PreparedStatement ps) {
+        if (ps == null)
+            return;
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Filters a published stream element for a live listener and buffers the
+     * result. If the buffer is full, the listener is marked to catch up from
+     * the database, where the dropped elements are.
+     */
+    private void addToLiveBuffer(DistributionRequest listener, ArrayBlockingQueue<LiveElement> buffer, StreamElement se) {
+        if (overflowedListeners.containsKey(listener))
+            return;
+        LivePosition position = livePositions.get(listener);
+        if (se.getTimeStamp() != position.lastPublished) {
+            position.lastPublished = se.getTimeStamp();
+            position.published = 0;
+        }
+        // counts the elements filtered out too, as their rows are in the table
+        int rank = ++position.published;
+        List<StreamElement> result = compiledQueries.get(listener).evaluate(Collections.singletonList(se));
+        if (result.isEmpty())
+            return;
+        synchronized (buffer) {
+            if (!locker.contains(listener))
+                locker.add(listener);
+            wakeUp();
+            if (!buffer.offer(new LiveElement(result.get(0), se.getTimeStamp(), rank))) {
+                logger.debug("The buffer of the listener: " + listener.toString() + " is full, it will catch up from the database.");
+                buffer.clear();
+                overflowedListeners.put(listener, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Takes the next buffered stream element of a live listener, null if
+     * there is none.
+     */
+    private LiveElement pollLiveBuffer(DistributionRequest listener, ArrayBlockingQueue<LiveElement> buffer) {
+        synchronized (buffer) {
+            LiveElement live = buffer.poll();
+            if (buffer.isEmpty() && !overflowedListeners.containsKey(listener))
+                while (locker.remove(listener)) ;
+            return live;
+        }
+    }
+
+    /**
+     * Moves the overflowed live listeners back to the database. Called by the
+     * delivery thread only, so that no buffered element is being delivered
+     * meanwhile.
+     */
+    private void catchUpOverflowedListeners() {
+        if (overflowedListeners.isEmpty())
+            return;
+        synchronized (listeners) {
+            for (DistributionRequest listener : overflowedListeners.keySet()) {
+                overflowedListeners.remove(listener);
+                liveListeners.remove(listener);
+                LivePosition position = livePositions.remove(listener);
+                while (locker.remove(listener)) ;
+                if (position != null)
+                    resumePositions.put(listener, getResumePosition(listener, position));
+                if (listeners.contains(listener))
+                    addListenerToCandidates(listener);
+            }
         }
     }
 
@@ -210,6 +479,12 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
                 try {
                     candidatesForNextRound.remove(listener);
                     removeListenerFromCandidates(listener);
+                    liveListeners.remove(listener);
+                    overflowedListeners.remove(listener);
+                    livePositions.remove(listener);
+                    resumePositions.remove(listener);
+                    compiledQueries.remove(listener);
+                    while (locker.remove(listener)) ;
                     preparedStatements.get(listener).close();
                     listener.close();
                     logger.warn("Removing listener completely from Distributer [Listener: " + listener.toString() + "]");
@@ -227,7 +502,11 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
             for (DistributionRequest listener : listeners)
                 if (listener.getVSensorConfig() == config) {
                     logger.debug("sending stream element " + (se == null ? "second-chance-se" : se.toString()) + " produced by " + config.getName() + " to listener =>" + listener.toString());
-                    if (!candidateListeners.containsKey(listener)) {
+                    ArrayBlockingQueue<LiveElement> buffer = liveListeners.get(listener);
+                    if (buffer != null) {
+                        if (se != null)
+                            addToLiveBuffer(listener, buffer, se);
+                    } else if (!candidateListeners.containsKey(listener)) {
                         addListenerToCandidates(listener);
                     } else {
                         candidatesForNextRound.put(listener, Boolean.TRUE);
@@ -248,8 +527,16 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
                 logger.error(e.getMessage(), e);
             }
 
+            catchUpOverflowedListeners();
 
+            boolean delivered = false;
+            boolean blocked = false;
             for (Entry<DistributionRequest, DataEnumerator> item : candidateListeners.entrySet()) {
+                if (isBlocked(item.getKey(), false)) {
+                    blocked = true;
+                    continue;
+                }
+                delivered = true;
                 boolean success = flushStreamElement(item.getValue(), item.getKey());
                 if (success == false)
                     removeListener(item.getKey());
@@ -262,9 +549,54 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
                     }
                 }
             }
+
+            for (Entry<DistributionRequest, ArrayBlockingQueue<LiveElement>> item : liveListeners.entrySet()) {
+                if (isBlocked(item.getKey(), true)) {
+                    blocked = true;
+                    continue;
+                }
+                LiveElement live = pollLiveBuffer(item.getKey(), item.getValue());
+                if (live == null)
+                    continue;
+                delivered = true;
+                if (item.getKey().isClosed() || !item.getKey().deliverStreamElement(live.se)) {
+                    logger.debug("Delivering an stream element from memory failed [Listener: " + item.getKey().toString() + "]");
+                    removeListener(item.getKey());
+                } else {
+                    LivePosition position = livePositions.get(item.getKey());
+                    if (position != null) {
+                        position.deliveredTimed = live.timed;
+                        position.deliveredRank = live.rank;
+                    }
+                }
+            }
+
+            if (blocked && !delivered) {
+                try {
+                    // the timeout also covers the listeners closed meanwhile
+                    writable.tryAcquire(1, TimeUnit.SECONDS);
+                    writable.drainPermits();
+                } catch (InterruptedException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
         }
     }
 
+    /**
+     * @return true if the listener has a non blocking delivery with a full
+     *         queue. The stream elements from memory are still delivered to it
+     *         unless its slow consumer policy leaves them to the distributer.
+     */
+    private boolean isBlocked(DistributionRequest listener, boolean live) {
+        if (!(listener.getDeliverySystem() instanceof RestDelivery))
+            return false;
+        RestDelivery delivery = (RestDelivery) listener.getDeliverySystem();
+        if (delivery.isClosed() || delivery.isWritable())
+            return false;
+        return !live || delivery.getPolicy() == RestDelivery.SlowConsumerPolicy.buffer;
+    }
+
     public boolean vsLoading(VSensorConfig config) {
     	synchronized (listeners) {
     		if (Main.getContainerConfig().isZMQEnabled() && getInstance(ZeroMQDelivery.class) == this){
@@ -304,8 +636,10 @@ public class DataDistributer implements VirtualSensorDataListener, VSensorStateC
 
         PreparedStatement prepareStatement = preparedStatements.get(listener);
         try {
-            //prepareStatement.setLong(1, listener.getStartTime());
-            prepareStatement.setLong(1, listener.getLastVisitedPk());
+            // the elements delivered from memory have no primary key, the one of their row is resolved when catching up
+            long[] resume = resumePositions.get(listener);
+            prepareStatement.setLong(1, resume == null ? listener.getStartTime() : Math.max(resume[0], listener.getStartTime()));
+            prepareStatement.setLong(2, resume == null ? listener.getLastVisitedPk() : Math.max(resume[1], listener.getLastVisitedPk()));
         } catch (SQLException e) {
             logger.error(e.getMessage(), e);
             return new DataEnumerator();
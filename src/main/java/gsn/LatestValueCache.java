@@ -0,0 +1,175 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/LatestValueCache.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.storage.DataEnumerator;
+import gsn.storage.StorageManager;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The most recent stream element of each loaded virtual sensor, for the
+ * pages and services showing the latest values without querying the
+ * database.
+ * <p>
+ * The cache is read from the output table when the virtual sensor is loaded,
+ * then kept up to date with the persisted stream elements (a stream element
+ * replaces the cached one unless it is older) and dropped when the virtual
+ * sensor is unloaded. The stream elements of a virtual sensor which isn't
+ * loaded, or was loaded again since, are ignored. Nothing is cached for the
+ * virtual sensors without any stream element yet, their output table may be
+ * filled by other means.
+ */
+public class LatestValueCache implements VirtualSensorDataListener, VSensorStateChangeListener {
+
+	private static transient Logger logger = Logger.getLogger(LatestValueCache.class);
+
+	private static final LatestValueCache singleton = new LatestValueCache();
+
+	/**
+	 * Marks the empty output tables.
+	 */
+	private static final StreamElement NONE = new StreamElement();
+
+	private final ConcurrentHashMap<String, StreamElement> latest = new ConcurrentHashMap<String, StreamElement>();
+
+	/**
+	 * The configuration of each loaded virtual sensor, a new one for each loading.
+	 */
+	private final ConcurrentHashMap<String, VSensorConfig> loaded = new ConcurrentHashMap<String, VSensorConfig>();
+
+	private LatestValueCache() {
+	}
+
+	public static LatestValueCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * @return the most recent stream element of the virtual sensor, null if
+	 *         it has none or if reading it failed.
+	 */
+	public StreamElement getLatest(String vsName) {
+		String key = vsName.toLowerCase();
+		StreamElement se = latest.get(key);
+		if (se == null) {
+			// empty, not loaded through the VSensorLoader, or its reading failed
+			VSensorConfig config = loaded.get(key);
+			se = read(vsName, config != null ? Main.getStorage(config) : Main.getStorage(vsName));
+			if (se == null || se == NONE)
+				return null;
+			if (config != null) {
+				offer(key, se, config);
+				// unless a more recent one was produced meanwhile
+				StreamElement current = latest.get(key);
+				if (current != null)
+					se = current;
+			}
+		}
+		return se;
+	}
+
+	public void consume(StreamElement se, VSensorConfig config) {
+		offer(config.getName().toLowerCase(), se, config);
+	}
+
+	/**
+	 * Caches the stream element of the given loading of the virtual sensor.
+	 */
+	private void offer(String key, StreamElement se, VSensorConfig config) {
+		if (loaded.get(key) != config)
+			return;
+		offer(key, se);
+		// unloaded meanwhile
+		if (loaded.get(key) != config)
+			latest.remove(key, se);
+	}
+
+	private void offer(String key, StreamElement se) {
+		while (true) {
+			StreamElement current = latest.get(key);
+			if (current == null) {
+				if (latest.putIfAbsent(key, se) == null)
+					return;
+			} else if (current.getTimeStamp() > se.getTimeStamp()) {
+				return;
+			} else if (latest.replace(key, current, se)) {
+				return;
+			}
+		}
+	}
+
+	public synchronized boolean vsLoading(VSensorConfig config) {
+		String key = config.getName().toLowerCase();
+		loaded.put(key, config);
+		StreamElement se = read(config.getName(), Main.getStorage(config));
+		// the virtual sensor may already have produced a stream element
+		if (se != null && se != NONE)
+			offer(key, se, config);
+		return true;
+	}
+
+	public synchronized boolean vsUnLoading(VSensorConfig config) {
+		String key = config.getName().toLowerCase();
+		// unless loaded again meanwhile, the configurations being equal by name
+		if (loaded.get(key) == config) {
+			loaded.remove(key);
+			latest.remove(key);
+		}
+		return true;
+	}
+
+	public void release() throws Exception {
+		loaded.clear();
+		latest.clear();
+	}
+
+	/**
+	 * @return the most recent stream element in the output table (the last
+	 *         inserted one for equal timestamps), NONE if the table is empty
+	 *         and null on error.
+	 */
+	private StreamElement read(String vsName, StorageManager storage) {
+		StringBuilder query = new StringBuilder("select * from ").append(vsName).append(" where timed = (select max(timed) from ").append(vsName).append(") order by pk desc");
+		DataEnumerator result = null;
+		try {
+			result = storage.executeQuery(query, true);
+			return result.hasMoreElements() ? result.nextElement() : NONE;
+		} catch (SQLException e) {
+			logger.error("ERROR IN EXECUTING, query: " + query);
+			logger.error(e.getMessage(), e);
+			return null;
+		} finally {
+			if (result != null)
+				result.close();
+		}
+	}
+}
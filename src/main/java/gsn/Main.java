@@ -213,6 +213,7 @@ public final class Main {
 		}
 
 		vsloader.addVSensorStateChangeListener(new SQLValidatorIntegration(SQLValidator.getInstance()));
+		vsloader.addVSensorStateChangeListener(LatestValueCache.getInstance());
 		vsloader.addVSensorStateChangeListener(DataDistributer.getInstance(LocalDeliveryWrapper.class));
 		vsloader.addVSensorStateChangeListener(DataDistributer.getInstance(PushDelivery.class));
 		vsloader.addVSensorStateChangeListener(DataDistributer.getInstance(WPPushDelivery.class));
@@ -221,6 +222,7 @@ public final class Main {
 		if (containerConfig.isZMQEnabled())
 			vsloader.addVSensorStateChangeListener(DataDistributer.getInstance(ZeroMQDelivery.class));
 
+		ContainerImpl.getInstance().addVSensorDataListener(LatestValueCache.getInstance());
 		ContainerImpl.getInstance().addVSensorDataListener(DataDistributer.getInstance(LocalDeliveryWrapper.class));
 		ContainerImpl.getInstance().addVSensorDataListener(DataDistributer.getInstance(PushDelivery.class));
 		ContainerImpl.getInstance().addVSensorDataListener(DataDistributer.getInstance(WPPushDelivery.class));
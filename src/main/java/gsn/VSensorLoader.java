@@ -37,6 +37,7 @@ import gsn.beans.InputStream;
 import gsn.beans.Modifications;
 import gsn.beans.StreamSource;
 import gsn.beans.VSensorConfig;
+import gsn.storage.Rollups;
 import gsn.wrappers.AbstractWrapper;
 import gsn.wrappers.WrappersUtil;
 
@@ -214,6 +215,12 @@ public class VSensorLoader extends Thread {
                 Main.getStorage(vs).executeCreateTable(vs.getName(), vs.getOutputStructure(), pool.getConfig().getIsTimeStampUnique());
             else
                 logger.info("Reusing the existing " + vs.getName() + " table.");
+            try {
+                Rollups.load(vs);
+            } catch (SQLException e) {
+                // the queries use the output table
+                logger.error("The rollups of " + vs.getName() + " are not available: " + e.getMessage(), e);
+            }
         } catch (SQLException e) {
             if (e.getMessage().toLowerCase().contains("table already exists")) {
                 logger.error(e.getMessage());
@@ -43,10 +43,12 @@ public class VirtualSensor {
     private VSensorConfig config = null;
     private long lastModified = -1;
     private int noOfCallsToReturnVS = 0;
+    private VirtualSensorQueue queue = null;
 
     public VirtualSensor(VSensorConfig config) {
         this.config = config;
         this.lastModified = new File(config.getFileName()).lastModified();
+        this.queue = VirtualSensorQueue.create(this);
     }
 
     public synchronized AbstractVirtualSensor borrowVS() throws VirtualSensorInitializationFailedException {
@@ -79,8 +81,11 @@ public class VirtualSensor {
     }
 
     public synchronized void closePool() {
+        if (queue != null)
+            queue.close();
         if (virtualSensor != null) {
             virtualSensor.dispose();
+            ContainerImpl.getInstance().releaseVirtualSensor(config);
             if (logger.isDebugEnabled())
                 logger.debug("VS " + config.getName() + " is now released.");
         } else if (logger.isDebugEnabled())
@@ -103,6 +108,14 @@ public class VirtualSensor {
         return config;
     }
 
+    /**
+     * @return the queue decoupling the wrappers from the processing class, null
+     *         if the stream elements are delivered synchronously.
+     */
+    public VirtualSensorQueue getQueue() {
+        return queue;
+    }
+
     /**
      * @return the lastModified
      */
@@ -0,0 +1,335 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/VirtualSensorQueue.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import gsn.beans.StreamElement;
+import gsn.vsensor.AbstractVirtualSensor;
+
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded queue between the wrappers feeding a virtual sensor and its
+ * processing class. The input streams enqueue the results of their queries
+ * from the wrapper threads and return immediately, the elements are then
+ * handed to <code>AbstractVirtualSensor.dataAvailable</code> by a shared pool
+ * of workers. At most one worker drains a given queue at a time, so the
+ * processing class still sees the elements one by one and in order.
+ * <p>
+ * The queue is enabled with the <code>queue-size</code> init-param of the
+ * virtual sensor, and <code>queue-overflow</code> selects what happens when
+ * it is full:
+ * <ul>
+ * <li><code>block</code> (default): the wrapper waits for some room,</li>
+ * <li><code>drop-oldest</code>: the oldest element is dropped,</li>
+ * <li><code>sample</code>: only one element out of
+ * <code>queue-sampling</code> (default 2) is kept, replacing the oldest one.</li>
+ * </ul>
+ * The number of workers is set by the <code>vsQueueWorkers</code> system
+ * property and defaults to the number of processors.
+ */
+public class VirtualSensorQueue {
+
+	private static final transient Logger logger = Logger.getLogger(VirtualSensorQueue.class);
+
+	public static final String QUEUE_SIZE = "queue-size";
+
+	public static final String QUEUE_OVERFLOW = "queue-overflow";
+
+	public static final String QUEUE_SAMPLING = "queue-sampling";
+
+	public enum OverflowPolicy {
+		BLOCK, DROP_OLDEST, SAMPLE
+	}
+
+	/**
+	 * Maximum number of elements processed by a worker before giving the
+	 * other queues a chance.
+	 */
+	private static final int DRAIN_BATCH_SIZE = 256;
+
+	private static final long SATURATION_WARNING_INTERVAL = 60 * 1000;
+
+	private static ExecutorService workers;
+
+	private static class Item {
+
+		final String inputStreamName;
+
+		final StreamElement element;
+
+		final long enqueuedAt;
+
+		Item(String inputStreamName, StreamElement element) {
+			this.inputStreamName = inputStreamName;
+			this.element = element;
+			this.enqueuedAt = System.nanoTime();
+		}
+	}
+
+	private final VirtualSensor pool;
+
+	private final ArrayBlockingQueue<Item> queue;
+
+	private final OverflowPolicy policy;
+
+	private final int samplingInterval;
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private volatile boolean closed = false;
+
+	private final AtomicInteger overflowCounter = new AtomicInteger();
+
+	private final AtomicLong enqueued = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong processed = new AtomicLong();
+
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	private volatile long maxWaitNanos = 0;
+
+	private volatile int maxDepth = 0;
+
+	private volatile long lastSaturationWarning = 0;
+
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	public VirtualSensorQueue(VirtualSensor pool, int capacity, OverflowPolicy policy, int samplingInterval) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("The capacity of the queue should be positive: " + capacity);
+		this.pool = pool;
+		this.queue = new ArrayBlockingQueue<Item>(capacity);
+		this.policy = policy;
+		this.samplingInterval = Math.max(1, samplingInterval);
+	}
+
+	/**
+	 * Creates the queue described by the init-params of the virtual sensor.
+	 *
+	 * @return null if the virtual sensor doesn't use a queue or if the
+	 *         parameters are invalid, in which case the elements are delivered
+	 *         synchronously.
+	 */
+	public static VirtualSensorQueue create(VirtualSensor pool) {
+		TreeMap<String, String> params = pool.getConfig().getMainClassInitialParams();
+		String size = params.get(QUEUE_SIZE);
+		if (size == null)
+			return null;
+		String name = pool.getConfig().getName();
+		try {
+			int capacity = Integer.parseInt(size.trim());
+			if (capacity <= 0)
+				return null;
+			OverflowPolicy policy = OverflowPolicy.BLOCK;
+			String overflow = params.get(QUEUE_OVERFLOW);
+			if (overflow != null)
+				policy = OverflowPolicy.valueOf(overflow.trim().toUpperCase().replace('-', '_'));
+			String sampling = params.get(QUEUE_SAMPLING);
+			int samplingInterval = sampling == null ? 2 : Integer.parseInt(sampling.trim());
+			if (logger.isInfoEnabled())
+				logger.info("The virtual sensor " + name + " uses a queue of " + capacity + " elements (" + policy + " on overflow).");
+			return new VirtualSensorQueue(pool, capacity, policy, samplingInterval);
+		} catch (IllegalArgumentException e) {
+			logger.error("Invalid queue parameters for the virtual sensor " + name + ", the elements will be delivered synchronously: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			int count = System.getProperty("vsQueueWorkers") == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(System.getProperty("vsQueueWorkers"));
+			final AtomicInteger threadCounter = new AtomicInteger();
+			workers = Executors.newFixedThreadPool(Math.max(1, count), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "VirtualSensorQueue-" + threadCounter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+
+	/**
+	 * Enqueues an element for the virtual sensor, applying the overflow policy
+	 * if the queue is full.
+	 *
+	 * @return false if the element was dropped.
+	 */
+	public boolean put(String inputStreamName, StreamElement element) throws InterruptedException {
+		if (closed)
+			return false;
+		Item item = new Item(inputStreamName, element);
+		boolean accepted = queue.offer(item);
+		if (!accepted) {
+			saturated();
+			switch (policy) {
+			case BLOCK:
+				while (!closed && !(accepted = queue.offer(item, 100, TimeUnit.MILLISECONDS)))
+					schedule();
+				break;
+			case SAMPLE:
+				if (overflowCounter.incrementAndGet() % samplingInterval != 0)
+					break;
+				// keeps this one in place of the oldest
+			case DROP_OLDEST:
+				while (!(accepted = queue.offer(item)))
+					if (queue.poll() != null)
+						dropped.incrementAndGet();
+				break;
+			}
+		}
+		if (accepted) {
+			enqueued.incrementAndGet();
+			int depth = queue.size();
+			if (depth > maxDepth)
+				maxDepth = depth;
+			schedule();
+		} else {
+			dropped.incrementAndGet();
+		}
+		return accepted;
+	}
+
+	private void saturated() {
+		long now = System.currentTimeMillis();
+		if (now - lastSaturationWarning > SATURATION_WARNING_INTERVAL) {
+			lastSaturationWarning = now;
+			logger.warn("The queue of the virtual sensor " + pool.getConfig().getName() + " is full (" + getCapacity() + " elements), applying the " + policy
+					+ " policy.");
+		}
+	}
+
+	private void schedule() {
+		if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+			getWorkers().execute(drainTask);
+	}
+
+	private void drain() {
+		AbstractVirtualSensor sensor = null;
+		try {
+			Item item;
+			for (int i = 0; i < DRAIN_BATCH_SIZE && !closed && (item = queue.poll()) != null; i++) {
+				long wait = System.nanoTime() - item.enqueuedAt;
+				totalWaitNanos.addAndGet(wait);
+				if (wait > maxWaitNanos)
+					maxWaitNanos = wait;
+				if (sensor == null)
+					sensor = pool.borrowVS();
+				try {
+					sensor.dataAvailable(item.inputStreamName, item.element);
+				} catch (final UnsupportedOperationException e) {
+					logger.warn("The stream element produced by the virtual sensor is dropped because of the following error : ");
+					logger.warn(e.getMessage(), e);
+				}
+				processed.incrementAndGet();
+			}
+		} catch (final VirtualSensorInitializationFailedException e) {
+			logger.error("The stream element can't deliver its data to the virtual sensor " + pool.getConfig().getName()
+					+ " because initialization of that virtual sensor failed");
+			logger.error(e.getMessage(), e);
+		} catch (final RuntimeException e) {
+			logger.error(e.getMessage(), e);
+		} finally {
+			pool.returnVS(sensor);
+			scheduled.set(false);
+		}
+		if (!closed)
+			schedule();
+	}
+
+	/**
+	 * Drops the pending elements and stops accepting new ones.
+	 */
+	public void close() {
+		closed = true;
+		int pending = queue.size();
+		queue.clear();
+		if (pending > 0)
+			logger.warn(pending + " pending elements of the virtual sensor " + pool.getConfig().getName() + " are dropped.");
+	}
+
+	public int getDepth() {
+		return queue.size();
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public long getEnqueuedCount() {
+		return enqueued.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getProcessedCount() {
+		return processed.get();
+	}
+
+	/**
+	 * @return the average time spent by the processed elements in the queue,
+	 *         in milliseconds.
+	 */
+	public double getAverageWaitTime() {
+		long count = processed.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+	}
+
+	/**
+	 * @return the longest time spent by an element in the queue, in
+	 *         milliseconds.
+	 */
+	public double getMaxWaitTime() {
+		return maxWaitNanos / 1e6;
+	}
+}
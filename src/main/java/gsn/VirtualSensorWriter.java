@@ -0,0 +1,258 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/VirtualSensorWriter.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import gsn.beans.DataField;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.storage.Rollups;
+import gsn.storage.StorageManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Write path of the output table of one virtual sensor. The writers of
+ * different virtual sensors don't share any lock, so they persist their
+ * stream elements in parallel, each one on a connection of the
+ * <code>StorageManager</code> of its virtual sensor.
+ * <p>
+ * With the <code>group-commit</code> init-param (in milliseconds), the stream
+ * elements produced within that delay are inserted together, as one batch in
+ * one transaction, and only then handed to the data listeners. The group is
+ * also flushed as soon as it reaches <code>group-commit-size</code> elements
+ * (500 by default).
+ * <p>
+ * The persisted stream elements are added to the rollups of the virtual
+ * sensor, if it has some.
+ */
+class VirtualSensorWriter {
+
+	private static final transient Logger logger = Logger.getLogger(VirtualSensorWriter.class);
+
+	public static final String GROUP_COMMIT = "group-commit";
+
+	public static final String GROUP_COMMIT_SIZE = "group-commit-size";
+
+	private static final int DEFAULT_GROUP_COMMIT_SIZE = 500;
+
+	private static ScheduledExecutorService flusher;
+
+	private final ContainerImpl container;
+
+	private final VSensorConfig config;
+
+	private final String tableName;
+
+	private final DataField[] fields;
+
+	private final long groupCommitInterval;
+
+	private final int groupCommitSize;
+
+	private final Rollups rollups;
+
+	/**
+	 * Stream elements waiting for the next group commit, null if no flush is
+	 * scheduled.
+	 */
+	private ArrayList<StreamElement> pending = null;
+
+	/**
+	 * Keeps the groups, and their notifications, in order.
+	 */
+	private final Object flushLock = new Object();
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	VirtualSensorWriter(ContainerImpl container, VSensorConfig config) {
+		this.container = container;
+		this.config = config;
+		this.tableName = config.getName().toLowerCase();
+		this.fields = config.getOutputStructure();
+		this.groupCommitInterval = parse(GROUP_COMMIT, 0);
+		this.groupCommitSize = (int) Math.max(1, parse(GROUP_COMMIT_SIZE, DEFAULT_GROUP_COMMIT_SIZE));
+		this.rollups = Rollups.get(config.getName());
+	}
+
+	private long parse(String param, long defaultValue) {
+		String value = config.getMainClassInitialParams().get(param);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for the " + param + " parameter of the virtual sensor " + config.getName() + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getFlusher() {
+		if (flusher == null)
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "VirtualSensorWriter-flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return flusher;
+	}
+
+	VSensorConfig getConfig() {
+		return config;
+	}
+
+	private StorageManager getStorage() {
+		return Main.getStorage(config);
+	}
+
+	/**
+	 * Persists the stream element and notifies the data listeners, or adds it
+	 * to the current group if group commit is enabled.
+	 */
+	void write(StreamElement se) throws SQLException {
+		if (groupCommitInterval <= 0) {
+			getStorage().executeInsert(tableName, fields, se);
+			published(se);
+			return;
+		}
+		boolean full;
+		synchronized (this) {
+			if (pending == null) {
+				pending = new ArrayList<StreamElement>();
+				getFlusher().schedule(flushTask, groupCommitInterval, TimeUnit.MILLISECONDS);
+			}
+			pending.add(se);
+			full = pending.size() >= groupCommitSize;
+		}
+		if (full)
+			flush();
+	}
+
+	/**
+	 * Inserts the current group, if any, in one transaction and then notifies
+	 * the data listeners.
+	 */
+	void flush() {
+		synchronized (flushLock) {
+			List<StreamElement> group;
+			synchronized (this) {
+				if (pending == null)
+					return;
+				group = pending;
+				pending = null;
+			}
+			// the timer of this group may still fire, it will find nothing or the next group
+			StorageManager storage = getStorage();
+			Connection connection = null;
+			try {
+				connection = storage.getConnection();
+				storage.executeBatchInsert(tableName, fields, group, connection);
+			} catch (SQLException e) {
+				storage.close(connection);
+				connection = null;
+				if (group.size() > 1 && isDuplicateEntry(e)) {
+					// a single duplicate shouldn't drop the whole group
+					insertOneByOne(storage, group);
+				} else {
+					logger.error("The group of " + group.size() + " stream elements of " + config.getName() + " is dropped: " + e.getMessage(), e);
+				}
+				return;
+			} finally {
+				storage.close(connection);
+			}
+			for (StreamElement se : group)
+				published(se);
+		}
+	}
+
+	/**
+	 * Persists stream elements in one transaction, after the current group if
+	 * any, and then notifies the data listeners.
+	 */
+	void writeBatch(List<StreamElement> batch) throws SQLException {
+		synchronized (flushLock) {
+			flush();
+			StorageManager storage = getStorage();
+			Connection connection = null;
+			try {
+				connection = storage.getConnection();
+				storage.executeBatchInsert(tableName, fields, batch, connection);
+			} finally {
+				storage.close(connection);
+			}
+			for (StreamElement se : batch)
+				published(se);
+		}
+	}
+
+	private void insertOneByOne(StorageManager storage, List<StreamElement> group) {
+		for (StreamElement se : group) {
+			try {
+				storage.executeInsert(tableName, fields, se);
+				published(se);
+			} catch (SQLException e) {
+				if (!isDuplicateEntry(e))
+					logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	private void published(StreamElement se) {
+		if (rollups != null)
+			rollups.add(se);
+		container.fireDataPublished(se, config);
+	}
+
+	/**
+	 * @return true if the insert, or one of the inserts of the batch, violated
+	 *         an integrity constraint (SQLState class 23), such as the unique
+	 *         timed of the table.
+	 */
+	static boolean isDuplicateEntry(SQLException e) {
+		for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+			if (cause.getSQLState() != null && cause.getSQLState().startsWith("23"))
+				return true;
+			// drivers without SQLState
+			if (cause.getMessage() != null && cause.getMessage().toLowerCase().contains("duplicate entry"))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/H2SafeStorageBackend.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import gsn.acquisition2.messages.DataMsg;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the entries of each requester in a table of the safe storage
+ * database, one row per entry with the values in an <code>ARRAY</code>
+ * column.
+ */
+public class H2SafeStorageBackend implements SafeStorageBackend {
+
+  private SafeStorageDB storage;
+
+  public H2SafeStorageBackend(SafeStorageDB storage) {
+    this.storage = storage;
+  }
+
+  public SafeStorageLog open(String requester, boolean keepProcessed) throws IOException {
+    try {
+      return new TableLog(storage.prepareTableIfNeeded(requester), keepProcessed);
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * The tables are dropped by <code>SafeStorageDB.dropAllTables</code>.
+   */
+  public void clear() {
+  }
+
+  private class TableLog implements SafeStorageLog {
+
+    private PreparedStatement insertPS;
+
+    private PreparedStatement readerPS;
+
+    private PreparedStatement acknowledgePS;
+
+    TableLog(String tableName, boolean keepProcessed) throws SQLException {
+      insertPS = storage.getConnection().prepareStatement("insert into " + tableName + " (stream_element) values (?)", PreparedStatement.RETURN_GENERATED_KEYS);
+      readerPS = storage.createPreparedStatement("select pk,stream_element,created_at from " + tableName + " where processed = false and pk > ? order by pk asc limit ?");
+      if (keepProcessed)
+        acknowledgePS = storage.createPreparedStatement("update " + tableName + " set PROCESSED  = true where pk <= ? and PROCESSED = false ");
+      else
+        acknowledgePS = storage.createPreparedStatement("delete from " + tableName + " where pk <= ? ");
+    }
+
+    public synchronized long append(Serializable[] values) throws IOException {
+      try {
+        insertPS.clearParameters();
+        insertPS.setObject(1, values);
+        insertPS.executeUpdate();
+        ResultSet generatedKeys = insertPS.getGeneratedKeys();
+        generatedKeys.next();
+        long pk = generatedKeys.getLong(1);
+        generatedKeys.close();
+        return pk;
+      } catch (SQLException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+
+    public synchronized List<DataMsg> read(long afterSequenceNumber, int max) throws IOException {
+      ArrayList<DataMsg> toReturn = new ArrayList<DataMsg>();
+      try {
+        readerPS.clearParameters();
+        readerPS.setLong(1, afterSequenceNumber);
+        readerPS.setInt(2, max);
+        ResultSet rs = readerPS.executeQuery();
+        while (rs.next()) {
+          long pk = rs.getLong(1);
+          Object[] se = (Object[]) rs.getArray(2).getArray();
+          long ts = rs.getTimestamp(3).getTime();
+          toReturn.add(new DataMsg(se, pk, ts));
+        }
+        rs.close();
+      } catch (SQLException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+      return toReturn;
+    }
+
+    public synchronized void acknowledge(long sequenceNumber) throws IOException {
+      try {
+        acknowledgePS.clearParameters();
+        acknowledgePS.setLong(1, sequenceNumber);
+        acknowledgePS.executeUpdate();
+      } catch (SQLException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+  }
+}
@@ -31,6 +31,8 @@ import gsn.acquisition2.wrappers.AbstractWrapper2;
 import gsn.beans.AddressBean;
 import gsn.wrappers.WrappersUtil;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -53,11 +55,14 @@ public class SafeStorage {
   
   private SafeStorageDB storage ;
   
+  private SafeStorageBackend backend ;
+  
   private Hashtable<String, AbstractWrapper2> loadedWrappers;
   
   public SafeStorage(int safeStoragePort) throws ClassNotFoundException, SQLException {
 
 	  storage = new SafeStorageDB(safeStoragePort);		
+	  backend = createBackend(safeStoragePort, storage);
 	  wrappers = WrappersUtil.loadWrappers(new HashMap<String, Class<?>>(),SAFE_STORAGE_WRAPPERS_PROPERTIES);
 	  storage.executeSQL("create table if not exists SETUP (pk INTEGER NOT NULL AUTO_INCREMENT PRIMARY KEY, table_name varchar not null unique, requester varchar not null unique,created_at TIMESTAMP default CURRENT_TIMESTAMP() not null )");
 	  storage.executeSQL("create table if not exists HELLO (wrapper_id VARCHAR NOT NULL PRIMARY KEY, hellomsg OTHER NOT NULL)");
@@ -79,6 +84,28 @@ public class SafeStorage {
 	  }
   }
   
+  /**
+   * Creates the backend selected by the <code>backend</code> property of the
+   * safe storage properties: <code>h2</code> (default) keeps the entries in
+   * the safe storage database, <code>segmented</code> in segment files
+   * (see <code>SegmentedLog</code>) under <code>path</code>, whose size and
+   * fsync interval are set by <code>segment-size</code> (bytes) and
+   * <code>sync-interval</code> (milliseconds).
+   */
+  public static SafeStorageBackend createBackend(int safeStoragePort, SafeStorageDB storage) {
+    String backend = SafeStorageDB.getProperty("backend", "h2");
+    if (backend.equalsIgnoreCase("segmented")) {
+      File directory = new File(SafeStorageDB.getProperty("path", "."), "log" + safeStoragePort);
+      int segmentSize = Integer.parseInt(SafeStorageDB.getProperty("segment-size", Integer.toString(SegmentedSafeStorageBackend.DEFAULT_SEGMENT_SIZE)));
+      long syncInterval = Long.parseLong(SafeStorageDB.getProperty("sync-interval", Long.toString(SegmentedSafeStorageBackend.DEFAULT_SYNC_INTERVAL)));
+      logger.warn("Safe storage entries are stored in the segments of " + directory.getAbsolutePath());
+      return new SegmentedSafeStorageBackend(directory, segmentSize, syncInterval);
+    }
+    if (!backend.equalsIgnoreCase("h2"))
+      logger.error("Unknown safe storage backend >" + backend + "<, using h2.");
+    return new H2SafeStorageBackend(storage);
+  }
+
   public  Class < ? > getWrapperClass ( String id ) {
     try {
       String className =  wrappers.getProperty(id);
@@ -123,7 +150,7 @@ public class SafeStorage {
        return null;
     }
     try {
-      String table_name = storage.prepareTableIfNeeded(helloMsg.getRequster());
+      SafeStorageLog log = backend.open(helloMsg.getRequster(), keepProcessed);
 
       PreparedStatement psave = storage.createPreparedStatement("INSERT INTO hello VALUES (?,?)");
       PreparedStatement pis = storage.createPreparedStatement("SELECT * FROM hello where wrapper_id=?");
@@ -140,14 +167,15 @@ public class SafeStorage {
       pis.close();
       rs.close();
 	  
-      PreparedStatement ps = storage.createPreparedStatement("insert into "+table_name+" (stream_element) values (?)");
-      wrapper.setTableName(table_name);
       wrapper.setNetwork(network);
-      wrapper.setPreparedStatement(ps);
+      wrapper.setLog(log);
       wrapper.setKeepProcessedSafeStorageEntries(keepProcessed) ;
     } catch ( SQLException e ) {
       logger.error ( e.getMessage ( ) , e );
       return null;
+    } catch ( IOException e ) {
+      logger.error ( e.getMessage ( ) , e );
+      return null;
     } 
     wrapper.start ( );
     loadedWrappers.put(helloMsg.getRequster(), wrapper);
@@ -177,5 +205,9 @@ public class SafeStorage {
     return storage;
   }
   
+  public SafeStorageBackend getBackend() {
+    return backend;
+  }
+  
   
 }
@@ -0,0 +1,49 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/SafeStorageBackend.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import java.io.IOException;
+
+/**
+ * Where the safe storage keeps the entries produced by its wrappers. It is
+ * selected by the <code>backend</code> property of
+ * <code>conf/safestorage.properties</code>.
+ */
+public interface SafeStorageBackend {
+
+  /**
+   * Returns the log of the requester, creating it if needed. The existing
+   * entries and the processed ones are kept across restarts.
+   * @param keepProcessed false if the processed entries can be discarded.
+   */
+  public SafeStorageLog open(String requester, boolean keepProcessed) throws IOException;
+
+  /**
+   * Discards every log.
+   */
+  public void clear() throws IOException;
+
+}
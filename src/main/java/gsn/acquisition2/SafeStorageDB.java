@@ -57,6 +57,15 @@ public class SafeStorageDB {
     connection = getConnection();
   }
 
+  /**
+   * Connects to the given H2 database instead of the one of a safe storage port.
+   */
+  public SafeStorageDB(String dbUrl) throws ClassNotFoundException, SQLException {
+    Class.forName("org.h2.Driver");
+    this.dbUrl = dbUrl;
+    connection = getConnection();
+  }
+
   private void close(Connection c) {
     try {
       if (c!=null && !c.isClosed())
@@ -156,6 +165,27 @@ public class SafeStorageDB {
 
     }
 
+    /*
+    * Returns a property of the safe storage properties file,
+    * or the default value if the file or the property is missing
+    * */
+    public static String getProperty(String key, String defaultValue) {
+        Properties props = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(SAFESTORAGE_PROPERTIES_FILE);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return defaultValue;
+        }
+        String value = props.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
     /*
     * Creates a well-formed db url using the path given the database name
     * and default properties files
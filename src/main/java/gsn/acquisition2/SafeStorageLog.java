@@ -0,0 +1,57 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/SafeStorageLog.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import gsn.acquisition2.messages.DataMsg;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The entries stored by the safe storage for one requester, identified by
+ * increasing sequence numbers.
+ */
+public interface SafeStorageLog {
+
+  /**
+   * Stores an entry.
+   * @return the sequence number of the entry.
+   */
+  public long append(Serializable[] values) throws IOException;
+
+  /**
+   * Returns up to <code>max</code> unprocessed entries whose sequence number
+   * is greater than <code>afterSequenceNumber</code>, in order.
+   */
+  public List<DataMsg> read(long afterSequenceNumber, int max) throws IOException;
+
+  /**
+   * Marks every entry up to the sequence number as processed.
+   */
+  public void acknowledge(long sequenceNumber) throws IOException;
+
+}
@@ -0,0 +1,458 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/SegmentedLog.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import gsn.acquisition2.messages.DataMsg;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Append-only log kept in a directory of memory mapped segment files, named
+ * after the sequence number of their first entry. Each entry is stored as
+ * <pre>
+ * int length | int CRC32 | long created_at | length bytes of Kryo serialized values
+ * </pre>
+ * The segments are preallocated with zeros, a zero length marks the end of
+ * the data. On opening, the last segment is scanned and truncated at the
+ * first incomplete or corrupted entry.
+ * <p>
+ * The appends are only written to the mapped memory, the segment is forced
+ * to the disk every <code>syncInterval</code> milliseconds (on every append
+ * if it is 0) and when it is full.
+ * <p>
+ * Each consumer checkpoints the sequence number of the last entry it
+ * processed in a <code>.offset</code> file. Unless the processed entries are
+ * kept, a segment is deleted as soon as every consumer is past its last entry.
+ */
+public class SegmentedLog implements SafeStorageLog {
+
+  private static transient Logger logger = Logger.getLogger ( SegmentedLog.class );
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private static final String OFFSET_SUFFIX = ".offset";
+
+  private static final int HEADER_SIZE = 16;
+
+  private static ScheduledExecutorService syncer;
+
+  private final File directory;
+
+  private final String consumer;
+
+  private final boolean keepProcessed;
+
+  private final int segmentSize;
+
+  private final ArrayList<Segment> segments = new ArrayList<Segment>();
+
+  /**
+   * Sequence number of the last entry processed by each consumer.
+   */
+  private final HashMap<String, Long> offsets = new HashMap<String, Long>();
+
+  private long nextSequence = 1;
+
+  private boolean dirty = false;
+
+  private boolean closed = false;
+
+  private final boolean syncOnAppend;
+
+  private ScheduledFuture<?> syncTask = null;
+
+  private final Kryo kryo = new Kryo();
+
+  private final Output output = new Output(1024, -1);
+
+  private final CRC32 crc = new CRC32();
+
+  private static class Segment {
+
+    final File file;
+
+    final long baseSequence;
+
+    final MappedByteBuffer buffer;
+
+    int count = 0;
+
+    /**
+     * Position of the end of the data, the capacity if the segment is not
+     * the last one.
+     */
+    int end;
+
+    /**
+     * Position of the entry following the last one read.
+     */
+    long cursorSequence = -1;
+
+    int cursorPosition = 0;
+
+    Segment(File file, long baseSequence, int size) throws IOException {
+      this.file = file;
+      this.baseSequence = baseSequence;
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        if (raf.length() < size)
+          raf.setLength(size);
+        // the mapping stays valid once the file is closed
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+      } finally {
+        raf.close();
+      }
+      end = buffer.capacity();
+    }
+
+    long lastSequence() {
+      return baseSequence + count - 1;
+    }
+  }
+
+  /**
+   * Opens (or creates) the log stored in the directory.
+   * @param consumer name of the consumer reading and acknowledging through the <code>SafeStorageLog</code> methods.
+   * @param segmentSize minimum size of the segments in bytes.
+   * @param syncInterval maximum delay in milliseconds before the appended entries are forced to the disk.
+   */
+  public SegmentedLog(File directory, String consumer, boolean keepProcessed, int segmentSize, long syncInterval) throws IOException {
+    this.directory = directory;
+    this.consumer = consumer;
+    this.keepProcessed = keepProcessed;
+    this.segmentSize = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Can't create the directory " + directory.getAbsolutePath());
+
+    File[] files = directory.listFiles();
+    Arrays.sort(files);
+    long maxOffset = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(SEGMENT_SUFFIX)) {
+        long baseSequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        if (!segments.isEmpty()) {
+          Segment previous = segments.get(segments.size() - 1);
+          previous.count = (int) (baseSequence - previous.baseSequence);
+        }
+        segments.add(new Segment(file, baseSequence, 0));
+      } else if (name.endsWith(OFFSET_SUFFIX)) {
+        long offset = readOffset(file);
+        offsets.put(name.substring(0, name.length() - OFFSET_SUFFIX.length()), offset);
+        maxOffset = Math.max(maxOffset, offset);
+      }
+    }
+    if (!segments.isEmpty()) {
+      Segment last = segments.get(segments.size() - 1);
+      scan(last);
+      nextSequence = last.baseSequence + last.count;
+    }
+    // the segments may all have been deleted
+    nextSequence = Math.max(nextSequence, maxOffset + 1);
+    if (!offsets.containsKey(toFileName(consumer)))
+      offsets.put(toFileName(consumer), segments.isEmpty() ? nextSequence - 1 : segments.get(0).baseSequence - 1);
+    logger.warn("Opened the log " + directory.getAbsolutePath() + " (" + segments.size() + " segments, next entry: " + nextSequence + ")");
+
+    syncOnAppend = syncInterval <= 0;
+    if (!syncOnAppend)
+      syncTask = getSyncer().scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            sync();
+          } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+          }
+        }
+      }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+  }
+
+  private static synchronized ScheduledExecutorService getSyncer() {
+    if (syncer == null)
+      syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "SegmentedLog-sync");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    return syncer;
+  }
+
+  /**
+   * @return a file name made of the letters, digits, - and _ of the name.
+   */
+  public static String toFileName(String name) {
+    return name.replaceAll("[^A-Za-z0-9_-]", "_");
+  }
+
+  private int checksum(long createdAt, byte[] payload, int length) {
+    crc.reset();
+    for (int shift = 56; shift >= 0; shift -= 8)
+      crc.update((int) (createdAt >>> shift));
+    crc.update(payload, 0, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Counts the valid entries of the last segment and truncates it after them.
+   */
+  private void scan(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    int position = 0;
+    int count = 0;
+    while (position + HEADER_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(position);
+      if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity())
+        break;
+      long createdAt = buffer.getLong(position + 8);
+      byte[] payload = new byte[length];
+      ByteBuffer data = buffer.duplicate();
+      data.position(position + HEADER_SIZE);
+      data.get(payload);
+      if (buffer.getInt(position + 4) != checksum(createdAt, payload, length)) {
+        logger.warn("Corrupted entry " + (segment.baseSequence + count) + " in " + segment.file.getAbsolutePath() + ", the log is truncated.");
+        break;
+      }
+      position += HEADER_SIZE + length;
+      count++;
+    }
+    if (position + 4 <= buffer.capacity())
+      buffer.putInt(position, 0);
+    segment.count = count;
+    segment.end = position;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed)
+      throw new IOException("The log " + directory.getAbsolutePath() + " is closed.");
+  }
+
+  public synchronized long append(Serializable[] values) throws IOException {
+    checkOpen();
+    output.clear();
+    kryo.writeObject(output, values);
+    byte[] payload = output.getBuffer();
+    int length = output.position();
+    long createdAt = System.currentTimeMillis();
+
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    // keeps room for the zero length marking the end
+    if (segment == null || segment.end + HEADER_SIZE + length + 4 > segment.buffer.capacity())
+      segment = roll(HEADER_SIZE + length + 4);
+    MappedByteBuffer buffer = segment.buffer;
+    int position = segment.end;
+    buffer.putLong(position + 8, createdAt);
+    ByteBuffer data = buffer.duplicate();
+    data.position(position + HEADER_SIZE);
+    data.put(payload, 0, length);
+    buffer.putInt(position + 4, checksum(createdAt, payload, length));
+    buffer.putInt(position + HEADER_SIZE + length, 0);
+    // the length is written last, an entry is only readable once complete
+    buffer.putInt(position, length);
+    segment.end += HEADER_SIZE + length;
+    segment.count++;
+    if (syncOnAppend)
+      buffer.force();
+    else
+      dirty = true;
+    return nextSequence++;
+  }
+
+  /**
+   * Forces the completed segment to the disk and starts a new one.
+   */
+  private Segment roll(int minimumSize) throws IOException {
+    if (!segments.isEmpty()) {
+      Segment last = segments.get(segments.size() - 1);
+      if (last.count == 0) {
+        // too small or left empty by a crash, its file is reused
+        segments.remove(segments.size() - 1);
+      } else {
+        last.buffer.force();
+        last.end = last.buffer.capacity();
+      }
+    }
+    Segment segment = new Segment(new File(directory, String.format("%020d", nextSequence) + SEGMENT_SUFFIX), nextSequence, Math.max(segmentSize, minimumSize));
+    segment.end = 0;
+    segments.add(segment);
+    return segment;
+  }
+
+  /**
+   * Forces the appended entries to the disk.
+   */
+  public synchronized void sync() {
+    if (!dirty || closed || segments.isEmpty())
+      return;
+    segments.get(segments.size() - 1).buffer.force();
+    dirty = false;
+  }
+
+  public synchronized List<DataMsg> read(long afterSequenceNumber, int max) throws IOException {
+    checkOpen();
+    ArrayList<DataMsg> toReturn = new ArrayList<DataMsg>();
+    long sequence = Math.max(afterSequenceNumber, getOffset(consumer)) + 1;
+    for (int i = 0; i < segments.size() && toReturn.size() < max; i++) {
+      Segment segment = segments.get(i);
+      if (sequence < segment.baseSequence)
+        sequence = segment.baseSequence;
+      if (sequence > segment.lastSequence())
+        continue;
+      int position = locate(segment, sequence);
+      while (sequence <= segment.lastSequence() && toReturn.size() < max) {
+        int length = segment.buffer.getInt(position);
+        long createdAt = segment.buffer.getLong(position + 8);
+        byte[] payload = new byte[length];
+        ByteBuffer data = segment.buffer.duplicate();
+        data.position(position + HEADER_SIZE);
+        data.get(payload);
+        Serializable[] values = kryo.readObject(new Input(payload), Serializable[].class);
+        toReturn.add(new DataMsg(values, sequence, createdAt));
+        position += HEADER_SIZE + length;
+        sequence++;
+      }
+      segment.cursorSequence = sequence;
+      segment.cursorPosition = position;
+    }
+    return toReturn;
+  }
+
+  /**
+   * @return the position of the entry in the segment, the entries being
+   *         usually read in sequence.
+   */
+  private int locate(Segment segment, long sequence) {
+    if (segment.cursorSequence == sequence)
+      return segment.cursorPosition;
+    int position = 0;
+    for (long skipped = segment.baseSequence; skipped < sequence; skipped++)
+      position += HEADER_SIZE + segment.buffer.getInt(position);
+    return position;
+  }
+
+  public void acknowledge(long sequenceNumber) throws IOException {
+    acknowledge(consumer, sequenceNumber);
+  }
+
+  /**
+   * Checkpoints the last entry processed by a consumer and deletes the
+   * segments processed by all the consumers, unless they are kept.
+   */
+  public synchronized void acknowledge(String consumer, long sequenceNumber) throws IOException {
+    checkOpen();
+    String name = toFileName(consumer);
+    long offset = Math.min(sequenceNumber, nextSequence - 1);
+    Long previous = offsets.get(name);
+    if (previous != null && previous >= offset)
+      return;
+    offsets.put(name, offset);
+    writeOffset(name, offset);
+    if (keepProcessed)
+      return;
+    long processed = Long.MAX_VALUE;
+    for (Long consumerOffset : offsets.values())
+      processed = Math.min(processed, consumerOffset);
+    // the last segment is kept for the next appends
+    while (segments.size() > 1 && segments.get(0).lastSequence() <= processed) {
+      Segment segment = segments.remove(0);
+      if (!segment.file.delete())
+        logger.warn("Can't delete the processed segment " + segment.file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * @return the sequence number of the last entry processed by the consumer.
+   */
+  public synchronized long getOffset(String consumer) {
+    Long offset = offsets.get(toFileName(consumer));
+    return offset == null ? 0 : offset;
+  }
+
+  private static long readOffset(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readLong();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the checkpoint to a temporary file renamed over the previous one,
+   * so that a crash leaves either of them.
+   */
+  private void writeOffset(String name, long offset) throws IOException {
+    File temporary = new File(directory, name + OFFSET_SUFFIX + ".tmp");
+    FileOutputStream stream = new FileOutputStream(temporary);
+    DataOutputStream out = new DataOutputStream(stream);
+    try {
+      out.writeLong(offset);
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      out.close();
+    }
+    File file = new File(directory, name + OFFSET_SUFFIX);
+    if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file)))
+      throw new IOException("Can't write the checkpoint " + file.getAbsolutePath());
+  }
+
+  public synchronized void close() {
+    if (closed)
+      return;
+    if (syncTask != null)
+      syncTask.cancel(false);
+    sync();
+    closed = true;
+    segments.clear();
+  }
+}
@@ -0,0 +1,88 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/SegmentedSafeStorageBackend.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the entries of each requester in a <code>SegmentedLog</code>, in a
+ * sub directory named after the requester. The requester is the consumer of
+ * its log.
+ */
+public class SegmentedSafeStorageBackend implements SafeStorageBackend {
+
+  private static transient Logger logger = Logger.getLogger ( SegmentedSafeStorageBackend.class );
+
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  public static final long DEFAULT_SYNC_INTERVAL = 100;
+
+  private File directory;
+
+  private int segmentSize;
+
+  private long syncInterval;
+
+  private HashMap<String, SegmentedLog> logs = new HashMap<String, SegmentedLog>();
+
+  public SegmentedSafeStorageBackend(File directory, int segmentSize, long syncInterval) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.syncInterval = syncInterval;
+  }
+
+  public synchronized SafeStorageLog open(String requester, boolean keepProcessed) throws IOException {
+    SegmentedLog log = logs.get(requester);
+    if (log == null) {
+      log = new SegmentedLog(new File(directory, SegmentedLog.toFileName(requester)), requester, keepProcessed, segmentSize, syncInterval);
+      logs.put(requester, log);
+    }
+    return log;
+  }
+
+  public synchronized void clear() throws IOException {
+    for (SegmentedLog log : logs.values())
+      log.close();
+    logs.clear();
+    File[] logDirectories = directory.listFiles();
+    if (logDirectories == null)
+      return;
+    for (File logDirectory : logDirectories) {
+      File[] files = logDirectory.listFiles();
+      if (files != null)
+        for (File file : files)
+          if (!file.delete())
+            throw new IOException("Can't delete " + file.getAbsolutePath());
+      logger.warn("Drop log >" + logDirectory.getName() + "<");
+      if (!logDirectory.delete())
+        throw new IOException("Can't delete " + logDirectory.getAbsolutePath());
+    }
+  }
+}
@@ -31,6 +31,13 @@ import gsn.acquisition2.messages.DataMsg;
 public interface MessageHandler {
   
   public boolean messageToBeProcessed(DataMsg dataMessage);
+
+  /**
+   * Processes the messages of a batch in order.
+   * @return the number of messages processed before the first failure, only
+   * the ones processed and durably stored are acknowledged.
+   */
+  public int messagesToBeProcessed(DataMsg[] dataMessages);
   
   public void restartConnection () ;
   
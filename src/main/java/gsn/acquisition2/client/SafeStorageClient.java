@@ -68,6 +68,12 @@ public class SafeStorageClient {
           return true;
         }
 
+        public int messagesToBeProcessed(DataMsg[] dataMessages) {
+          for (DataMsg dataMessage : dataMessages)
+            logger.debug(dataMessage);
+          return dataMessages.length;
+        }
+
 		public void restartConnection() {
 			// TODO Auto-generated method stub
 			
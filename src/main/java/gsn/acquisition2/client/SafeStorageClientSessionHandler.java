@@ -28,6 +28,7 @@ package gsn.acquisition2.client;
 
 import gsn.acquisition2.messages.AbstractMessage;
 import gsn.acquisition2.messages.AcknowledgmentMsg;
+import gsn.acquisition2.messages.DataBatchMsg;
 import gsn.acquisition2.messages.DataMsg;
 import gsn.acquisition2.messages.HelloMsg;
 import gsn.beans.AddressBean;
@@ -48,6 +49,18 @@ public class SafeStorageClientSessionHandler extends IoHandlerAdapter {
     this.handler=handler;
     helloMsg = new HelloMsg(wrapprDetails,requester);
   }
+
+  /**
+   * Asks the server for up to <code>windowSize</code> unacknowledged frames
+   * of <code>batchSize</code> messages each.
+   */
+  public SafeStorageClientSessionHandler(AddressBean wrapprDetails,MessageHandler handler,String requester,int windowSize,int batchSize) {
+    this.handler=handler;
+    HelloMsg hello = new HelloMsg(wrapprDetails,requester);
+    hello.setWindowSize(windowSize);
+    hello.setBatchSize(batchSize);
+    helloMsg = hello;
+  }
   
   public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
 	  logger.error(cause.getMessage(), cause);
@@ -55,6 +68,18 @@ public class SafeStorageClientSessionHandler extends IoHandlerAdapter {
   }
   public void messageReceived(IoSession session, Object message) throws Exception {
     logger.debug("Received data from the server");
+    if (message instanceof DataBatchMsg) {
+      DataMsg[] messages = ((DataBatchMsg) message).getMessages();
+      int processed = handler.messagesToBeProcessed(messages);
+      // acknowledges every message up to the last processed one
+      if (processed > 0)
+        session.write(new AcknowledgmentMsg(AcknowledgmentMsg.SUCCESS,messages[processed - 1].getSequenceNumber()));
+      if (processed < messages.length) {
+        session.write(new AcknowledgmentMsg(AcknowledgmentMsg.FAILURE,messages[processed].getSequenceNumber()));
+        logger.debug("Sending Nack");
+      }
+      return;
+    }
     DataMsg dataMsg = (DataMsg) message;
     if (handler.messageToBeProcessed(dataMsg)) {
       session.write(new AcknowledgmentMsg(AcknowledgmentMsg.SUCCESS,dataMsg.getSequenceNumber()));
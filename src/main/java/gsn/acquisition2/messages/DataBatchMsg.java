@@ -0,0 +1,50 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/acquisition2/messages/DataBatchMsg.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2.messages;
+/**
+ * Several data messages sent in one frame, in increasing sequence number
+ * order. The whole batch is acknowledged by the sequence number of its last
+ * message.
+ */
+public class DataBatchMsg extends AbstractMessage {
+
+  private static final long serialVersionUID = -2716400571893625140L;
+
+  private DataMsg[] messages;
+
+  public DataBatchMsg(DataMsg[] messages) {
+    this.messages = messages;
+  }
+
+  public DataMsg[] getMessages() {
+    return messages;
+  }
+
+  public long getLastSequenceNumber() {
+    return messages.length == 0 ? -1 : messages[messages.length - 1].getSequenceNumber();
+  }
+
+}
@@ -37,6 +37,18 @@ public class HelloMsg extends AbstractMessage {
   
   private String requster = null;
 
+  /**
+   * Maximum number of data frames sent without being acknowledged, the
+   * acknowledgments being cumulative.
+   */
+  private int windowSize = 1;
+
+  /**
+   * Maximum number of data messages sent in a <code>DataBatchMsg</code>, 0
+   * for sending each one as a plain <code>DataMsg</code>.
+   */
+  private int batchSize = 0;
+
   public boolean isContinueOnError() {
     return continueOnError;
   }
@@ -71,4 +83,20 @@ public class HelloMsg extends AbstractMessage {
   public String getRequster() {
     return requster;
   }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public void setWindowSize(int windowSize) {
+    this.windowSize = windowSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
 }
@@ -98,6 +98,7 @@ public class SafeStorageServer {
 		case SS_CLEAN_MODE : {
 			SafeStorageDB storage = new SafeStorageDB(safeStorageServerPort);
 			storage.dropAllTables();
+			SafeStorage.createBackend(safeStorageServerPort, storage).clear();
 			logger.warn("SafeStorage database is now clean and empty.");
 			break;
 		}
@@ -27,19 +27,29 @@
 package gsn.acquisition2.server;
 
 import gsn.acquisition2.SafeStorage;
+import gsn.acquisition2.SafeStorageLog;
 import gsn.acquisition2.messages.AcknowledgmentMsg;
+import gsn.acquisition2.messages.DataBatchMsg;
 import gsn.acquisition2.messages.DataMsg;
 import gsn.acquisition2.messages.HelloMsg;
 import gsn.acquisition2.wrappers.AbstractWrapper2;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.mina.common.IoHandlerAdapter;
 import org.apache.mina.common.IoSession;
 
+/**
+ * Sends the entries of the safe storage to a client with a sliding window:
+ * up to <code>windowSize</code> frames (each one a <code>DataMsg</code> or a
+ * <code>DataBatchMsg</code> of up to <code>batchSize</code> entries, as asked
+ * by the <code>HelloMsg</code>) are in flight. The acknowledgments are
+ * cumulative, an ack marks as processed every entry up to its sequence number.
+ */
 public class SafeStorageServerSessionHandler extends IoHandlerAdapter{
 	
 	private static final String SESSION_STATE_KEY = "ssk";
@@ -70,29 +80,26 @@ public class SafeStorageServerSessionHandler extends IoHandlerAdapter{
 			}
 			SessionState sstate = new SessionState () ;
 			sstate.setWrapper(wrapper);
-			sstate.setReaderPS(ss.getStorage().createPreparedStatement("select pk,stream_element,created_at from "+wrapper.getTableName()+" where processed = false order by pk asc limit 1"));	
+			sstate.setWindowSize(Math.max(1, hello.getWindowSize()));
+			sstate.setBatchSize(hello.getBatchSize());
 			logger.debug("isKeepProcessedSafeStorageEntries: " + wrapper.isKeepProcessedSafeStorageEntries());
-			if (wrapper.isKeepProcessedSafeStorageEntries()) {
-				sstate.setSuccessAckUpdatePS(ss.getStorage().createPreparedStatement("update "+wrapper.getTableName()+" set PROCESSED  = true where pk = ? "));
-			}
-			else {
-				sstate.setSuccessAckUpdatePS(ss.getStorage().createPreparedStatement("delete from " + wrapper.getTableName() + " where pk = ? "));
-			}
 			session.setAttribute(SESSION_STATE_KEY, sstate);
 		}
 		if (message instanceof AcknowledgmentMsg) {
 			AcknowledgmentMsg ack = (AcknowledgmentMsg)message;
 			if (!ack.isAck()) {
-				logger.error("Recieved Nack for Hello Message sent for "+((HelloMsg) message).getWrapperDetails().toString());
+				logger.error("Recieved Nack for the data message "+ack.getSeqNumber());
 				logger.error("Closing the connection to the SafeStorageServer...");
 				session.close();
 				return;
 			}else {
 				SessionState sstate = (SessionState) session.getAttribute(SESSION_STATE_KEY);
 				if (sstate != null) {
-					sstate.getSuccessAckUpdatePS().clearParameters();
-					sstate.getSuccessAckUpdatePS().setLong(1, ack.getSeqNumber());
-					sstate.getSuccessAckUpdatePS().executeUpdate();
+					// cumulative: every entry up to the acknowledged one is processed
+					sstate.getWrapper().getLog().acknowledge(ack.getSeqNumber());
+					LinkedList<Long> inFlight = sstate.getInFlight();
+					while (!inFlight.isEmpty() && inFlight.getFirst() <= ack.getSeqNumber())
+						inFlight.removeFirst();
 				}
 				else {
 					logger.error("No Session State found for session >" + session + "<");
@@ -105,31 +112,37 @@ public class SafeStorageServerSessionHandler extends IoHandlerAdapter{
 	}
 
 	/**
-	 * Send one (block until one available to be sent).
+	 * Fills the window with frames of unsent entries (block until one is
+	 * available to be sent if nothing is in flight).
 	 * @param session
 	 * @throws InterruptedException 
 	 */
-	private void postData(IoSession session) throws SQLException, InterruptedException{
+	private void postData(IoSession session) throws IOException, InterruptedException{
 		
 		SessionState sstate = (SessionState) session.getAttribute(SESSION_STATE_KEY);
 		if (sstate == null) {
 			logger.error("No Session State found for session >" + session + "<");
 			return ;
 		}
-		ResultSet rs = sstate.getReaderPS().executeQuery();
-		if (rs.next()) {
-			long pk =rs.getLong(1);
-			Object[]  se = (Object[]) rs.getArray(2).getArray();
-			long ts = rs.getTimestamp(3).getTime();
-			rs.close();
-			session.write(new DataMsg(se,pk,ts));
+		while (sstate.getInFlight().size() < sstate.getWindowSize()) {
+			SafeStorageLog log = sstate.getWrapper().getLog();
+			List<DataMsg> messages = log.read(sstate.getLastSentPk(), Math.max(1, sstate.getBatchSize()));
+			if (messages.isEmpty()) {
+				if (!sstate.getInFlight().isEmpty())
+					return; // the next ack fills the window again
+				logger.debug("Blocking for the wrapper's until a new data have generated.");
+				sstate.getWrapper().canReaderDB();
+				continue;
+			}
+			long lastPk = messages.get(messages.size() - 1).getSequenceNumber();
+			sstate.setLastSentPk(lastPk);
+			sstate.getInFlight().addLast(lastPk);
+			if (sstate.getBatchSize() > 0)
+				session.write(new DataBatchMsg(messages.toArray(new DataMsg[messages.size()])));
+			else
+				session.write(messages.get(0));
 			logger.debug("Sending data");
 		}
-		else { 
-			logger.debug("Blocking for the wrapper's until a new data have generated.");
-			sstate.getWrapper().canReaderDB();
-			postData(session);
-		}
 	}
 
 	public void sessionClosed(IoSession session) throws Exception {
@@ -140,9 +153,6 @@ public class SafeStorageServerSessionHandler extends IoHandlerAdapter{
 			return ;
 		}
 		
-		if (sstate.getReaderPS() != null) sstate.getReaderPS().close();
-		if (sstate.getSuccessAckUpdatePS() != null) sstate.getSuccessAckUpdatePS().close();
-		
 		logger.warn("Session >" + session + "< is closed");
 		
 		// Update the number of clients using this wrapper.
@@ -159,34 +169,54 @@ public class SafeStorageServerSessionHandler extends IoHandlerAdapter{
 
 		private AbstractWrapper2 wrapper;
 		
-		private PreparedStatement readerPS = null;
-		
-		private PreparedStatement successAckUpdatePS;
+		private int windowSize = 1;
+
+		private int batchSize = 0;
+
+		private long lastSentPk = -1;
+
+		/**
+		 * Sequence number of the last entry of each unacknowledged frame.
+		 */
+		private LinkedList<Long> inFlight = new LinkedList<Long>();
 
 		public SessionState () {}
 
-		public AbstractWrapper2 getWrapper() {
-			return wrapper;
+		public int getWindowSize() {
+			return windowSize;
 		}
 
-		public void setWrapper(AbstractWrapper2 wrapper) {
-			this.wrapper = wrapper;
+		public void setWindowSize(int windowSize) {
+			this.windowSize = windowSize;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public void setBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+		}
+
+		public long getLastSentPk() {
+			return lastSentPk;
 		}
 
-		public PreparedStatement getReaderPS() {
-			return readerPS;
+		public void setLastSentPk(long lastSentPk) {
+			this.lastSentPk = lastSentPk;
 		}
 
-		public void setReaderPS(PreparedStatement readerPS) {
-			this.readerPS = readerPS;
+		public LinkedList<Long> getInFlight() {
+			return inFlight;
 		}
 
-		public PreparedStatement getSuccessAckUpdatePS() {
-			return successAckUpdatePS;
+		public AbstractWrapper2 getWrapper() {
+			return wrapper;
 		}
 
-		public void setSuccessAckUpdatePS(PreparedStatement successAckUpdatePS) {
-			this.successAckUpdatePS = successAckUpdatePS;
+		public void setWrapper(AbstractWrapper2 wrapper) {
+			this.wrapper = wrapper;
 		}
+
 	}
 }
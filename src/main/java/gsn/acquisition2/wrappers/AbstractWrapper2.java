@@ -27,11 +27,10 @@
 
 package gsn.acquisition2.wrappers;
 
+import gsn.acquisition2.SafeStorageLog;
 import gsn.beans.AddressBean;
 
 import java.io.Serializable;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
@@ -49,7 +48,7 @@ public abstract class AbstractWrapper2  extends Thread{
   
   private IoSession network;
  
-  private PreparedStatement insertPS;
+  private SafeStorageLog log;
   
   private boolean keepProcessedSafeStorageEntries = true;
  
@@ -87,21 +86,15 @@ public abstract class AbstractWrapper2  extends Thread{
     this.network = network;
   }
   /**
-   * Data stored as an array into the storage.
+   * Data stored as an array into the safe storage log.
    * The meaning of each item should be specified through the documentation in the header.
    * @param values
    */
   protected void postStreamElement(Serializable... values)  {
     try {
-      insertPS.clearParameters();
-      insertPS.setObject(1,values);
-      insertPS.executeUpdate();
+      long sqlNo = log.append(values);// Getting the SEQ_NO
 
       if (queue.isEmpty()) {
-        final ResultSet generatedKeys = insertPS.getGeneratedKeys();
-        generatedKeys.next();
-        Long sqlNo = generatedKeys.getLong(1);// Getting the SEQ_NO
-        generatedKeys.close();
         queue.put(sqlNo);
       }
     }catch (Exception e) {
@@ -110,8 +103,12 @@ public abstract class AbstractWrapper2  extends Thread{
     }
   }
   
-  public void setPreparedStatement(PreparedStatement preparedStatement) {
-    this.insertPS = preparedStatement;
+  public SafeStorageLog getLog() {
+    return log;
+  }
+
+  public void setLog(SafeStorageLog log) {
+    this.log = log;
   }
   /**
    * Only called by the handler once handler has consumed every non-processed entries from the db.
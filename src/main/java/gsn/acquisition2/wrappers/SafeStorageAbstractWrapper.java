@@ -29,10 +29,14 @@ package gsn.acquisition2.wrappers;
 
 import gsn.acquisition2.client.MessageHandler;
 import gsn.acquisition2.client.SafeStorageClientSessionHandler;
+import gsn.acquisition2.messages.DataMsg;
 import gsn.beans.AddressBean;
+import gsn.beans.StreamElement;
 import gsn.wrappers.AbstractWrapper;
 
 import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
 
 import org.apache.log4j.Logger;
 import org.apache.mina.common.ConnectFuture;
@@ -48,10 +52,18 @@ import org.apache.mina.transport.socket.nio.SocketConnectorConfig;
  * ss-host
  * wrapper-name
  *
+ * Optional parameters:
+ * ss-window (default 8), the number of frames the server sends without waiting for their acknowledgment
+ * ss-batch-size (default 100), the number of data messages per frame, 0 for one message per frame
+ *
  */
 public abstract class SafeStorageAbstractWrapper extends AbstractWrapper implements MessageHandler{
 	
 	private static final long CONNECTION_RETRY_TIME = 10000;
+
+	public static final int DEFAULT_WINDOW_SIZE = 8;
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
   
   private final transient Logger     logger                 = Logger.getLogger ( SafeStorageAbstractWrapper.class );
 
@@ -66,6 +78,13 @@ public abstract class SafeStorageAbstractWrapper extends AbstractWrapper impleme
   String key,ss_host;
   AddressBean wrapperDetails;
   int ss_port;
+  int windowSize, batchSize;
+
+  /**
+   * Collects the stream elements produced while processing a batch, null
+   * otherwise.
+   */
+  private ArrayList<StreamElement> batch = null;
   
   public boolean initialize() {
     String wrapper = getActiveAddressBean().getPredicateValue("wrapper-name");
@@ -75,6 +94,8 @@ public abstract class SafeStorageAbstractWrapper extends AbstractWrapper impleme
     key = new StringBuilder(vs).append("/").append(inputStreamName).append("/").append(wrapper).toString();
     ss_host = getActiveAddressBean().getPredicateValue("ss-host");
     ss_port = getActiveAddressBean().getPredicateValueAsInt("ss-port",-1);
+    windowSize = Math.max(1, getActiveAddressBean().getPredicateValueAsInt("ss-window",DEFAULT_WINDOW_SIZE));
+    batchSize = Math.max(0, getActiveAddressBean().getPredicateValueAsInt("ss-batch-size",DEFAULT_BATCH_SIZE));
     return true;
   }
   public void run() {
@@ -109,7 +130,7 @@ public abstract class SafeStorageAbstractWrapper extends AbstractWrapper impleme
     cfg.getFilterChain().addLast("codec",   new ProtocolCodecFilter(oscf));
     IoSession session = null;
     try {
-      ConnectFuture future = connector.connect(new InetSocketAddress(host, port), new SafeStorageClientSessionHandler(wrapperDetails,handler,key ), cfg);
+      ConnectFuture future = connector.connect(new InetSocketAddress(host, port), new SafeStorageClientSessionHandler(wrapperDetails,handler,key,windowSize,batchSize ), cfg);
       future.join();
       session = future.getSession();
       return true;
@@ -126,4 +147,36 @@ public abstract class SafeStorageAbstractWrapper extends AbstractWrapper impleme
   public void restartConnection () {
 	  run();
   }
-}
\ No newline at end of file
+
+  /**
+   * Processes the messages one by one and stores the stream elements they
+   * produce with a single batch insert. As none of them is acknowledged
+   * when this insert fails, the whole batch is sent again.
+   */
+  public int messagesToBeProcessed(DataMsg[] dataMessages) {
+    batch = new ArrayList<StreamElement>(dataMessages.length);
+    int processed = 0;
+    try {
+      while (processed < dataMessages.length && messageToBeProcessed(dataMessages[processed]))
+        processed++;
+    } finally {
+      ArrayList<StreamElement> toPost = batch;
+      batch = null;
+      try {
+        storeStreamElements(toPost);
+      } catch (SQLException e) {
+        logger.error("Storing the stream elements of the batch failed: " + e.getMessage(), e);
+        processed = 0;
+      }
+    }
+    return processed;
+  }
+
+  protected Boolean postStreamElement(StreamElement streamElement) {
+    if (batch != null && streamElement != null) {
+      batch.add(streamElement);
+      return true;
+    }
+    return super.postStreamElement(streamElement);
+  }
+}
\ No newline at end of file
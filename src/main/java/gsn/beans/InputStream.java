@@ -31,13 +31,17 @@ package gsn.beans;
 import gsn.Main;
 import gsn.VirtualSensor;
 import gsn.VirtualSensorInitializationFailedException;
+import gsn.VirtualSensorQueue;
 import gsn.utils.CaseInsensitiveComparator;
 import gsn.vsensor.AbstractVirtualSensor;
 
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
@@ -265,6 +269,52 @@ public class InputStream implements Serializable{
 	}
 
 	public boolean executeQuery( final CharSequence alias ) throws SQLException{
+		if ( !acceptsData( alias ) )
+			return false;
+
+		if ( !queryCached ) {
+			rewriteQuery();
+			if ( logger.isDebugEnabled( ) && queryCached)
+				logger.debug( new StringBuilder( ).append( "Rewritten SQL: " ).append( this.rewrittenSQL ).append( "(" ).append( Main.getWindowStorage().isThereAnyResult( this.rewrittenSQL ) ).append( ")" )
+						.toString( ) );
+		}
+		int elementCounterForDebugging = 0;
+		if ( queryCached && Main.getWindowStorage().isThereAnyResult( this.rewrittenSQL ) ) {
+			this.currentCount++;
+			if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "Executing the main query for InputStream : " ).append( this.getInputStreamName( ) ).toString( ) );
+
+			final Enumeration < StreamElement > resultOfTheQuery = Main.getWindowStorage().executeQuery( this.rewrittenSQL , false );
+			elementCounterForDebugging = deliver( resultOfTheQuery );
+		}
+		if ( logger.isDebugEnabled( ) ) {
+			logger.debug( new StringBuilder( ).append( "Input Stream's result has *" ).append( elementCounterForDebugging ).append( "* stream elements" ).toString( ) );
+		}
+		return true;
+	}
+
+	/**
+	 * Delivers the content of a window which is already evaluated in memory by
+	 * the stream source, the rewritten query is not executed in this case.
+	 */
+	public boolean executeQuery( final CharSequence alias , final List < StreamElement > windowContent ) {
+		if ( !acceptsData( alias ) )
+			return false;
+		int elementCounterForDebugging = 0;
+		if ( !windowContent.isEmpty( ) ) {
+			this.currentCount++;
+			elementCounterForDebugging = deliver( Collections.enumeration( windowContent ) );
+		}
+		if ( logger.isDebugEnabled( ) ) {
+			logger.debug( new StringBuilder( ).append( "Input Stream's result has *" ).append( elementCounterForDebugging ).append( "* stream elements" ).toString( ) );
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the virtual sensor is set and that neither the count nor the rate
+	 * limit of this input stream is reached.
+	 */
+	private boolean acceptsData( final CharSequence alias ) {
 		if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "Notified by StreamSource on the alias: " ).append( alias ).toString( ) );
 		if ( this.pool == null ) {
 			logger.debug( "The input is dropped b/c the VSensorInstance is not set yet." );
@@ -282,43 +332,44 @@ public class InputStream implements Serializable{
 			return false;
 		}
 		this.lastVisited = currentTimeMillis;
+		return true;
+	}
 
-		if ( !queryCached ) {
-			rewriteQuery();
-			if ( logger.isDebugEnabled( ) && queryCached)
-				logger.debug( new StringBuilder( ).append( "Rewritten SQL: " ).append( this.rewrittenSQL ).append( "(" ).append( Main.getWindowStorage().isThereAnyResult( this.rewrittenSQL ) ).append( ")" )
-						.toString( ) );
-		}
+	private int deliver( final Enumeration < StreamElement > resultOfTheQuery ) {
 		int elementCounterForDebugging = 0;
-		if ( queryCached && Main.getWindowStorage().isThereAnyResult( this.rewrittenSQL ) ) {
-			this.currentCount++;
-			AbstractVirtualSensor sensor = null;
-			if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "Executing the main query for InputStream : " ).append( this.getInputStreamName( ) ).toString( ) );
-
-			final Enumeration < StreamElement > resultOfTheQuery = Main.getWindowStorage().executeQuery( this.rewrittenSQL , false );
+		final VirtualSensorQueue queue = pool.getQueue( );
+		if ( queue != null ) {
 			try {
-				sensor = pool.borrowVS( );
 				while ( resultOfTheQuery.hasMoreElements( ) ) {
 					elementCounterForDebugging++;
-					StreamElement element= resultOfTheQuery.nextElement( );
-					sensor.dataAvailable( this.getInputStreamName( ) , element );
+					queue.put( this.getInputStreamName( ) , resultOfTheQuery.nextElement( ) );
 				}
-			} catch ( final UnsupportedOperationException e ) {
-				logger.warn( "The stream element produced by the virtual sensor is dropped because of the following error : " );
-				logger.warn( e.getMessage( ) , e );
-			} catch ( final VirtualSensorInitializationFailedException e ) {
-				logger.error( "The stream element can't deliver its data to the virtual sensor " + sensor.getVirtualSensorConfiguration( ).getName( )
-						+ " because initialization of that virtual sensor failed" );
-				logger.error(e.getMessage(),e);
-			} finally {
-				this.pool.returnVS( sensor );
+			} catch ( final InterruptedException e ) {
+				logger.warn( "Interrupted while waiting for the queue of the virtual sensor " + pool.getConfig( ).getName( ) + ", the remaining stream elements are dropped." );
+				Thread.currentThread( ).interrupt( );
 			}
-
+			return elementCounterForDebugging;
 		}
-		if ( logger.isDebugEnabled( ) ) {
-			logger.debug( new StringBuilder( ).append( "Input Stream's result has *" ).append( elementCounterForDebugging ).append( "* stream elements" ).toString( ) );
+		AbstractVirtualSensor sensor = null;
+		try {
+			sensor = pool.borrowVS( );
+			// the whole window at once, the processing class may evaluate it in parallel
+			final ArrayList < StreamElement > window = new ArrayList < StreamElement >( );
+			while ( resultOfTheQuery.hasMoreElements( ) )
+				window.add( resultOfTheQuery.nextElement( ) );
+			elementCounterForDebugging = window.size( );
+			sensor.dataAvailable( this.getInputStreamName( ) , window.toArray( new StreamElement [ window.size( ) ] ) );
+		} catch ( final UnsupportedOperationException e ) {
+			logger.warn( "The stream element produced by the virtual sensor is dropped because of the following error : " );
+			logger.warn( e.getMessage( ) , e );
+		} catch ( final VirtualSensorInitializationFailedException e ) {
+			logger.error( "The stream element can't deliver its data to the virtual sensor " + sensor.getVirtualSensorConfiguration( ).getName( )
+					+ " because initialization of that virtual sensor failed" );
+			logger.error(e.getMessage(),e);
+		} finally {
+			this.pool.returnVS( sensor );
 		}
-		return true;
+		return elementCounterForDebugging;
 	}
 
 	private void rewriteQuery() {
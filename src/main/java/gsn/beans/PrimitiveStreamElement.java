@@ -0,0 +1,250 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/PrimitiveStreamElement.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans;
+
+import java.io.Serializable;
+
+/**
+ * Stream element keeping its numeric values unboxed. The numeric fields are
+ * stored in a <code>long[]</code> (the floating point ones as their raw bits),
+ * the strings and binaries in an <code>Object[]</code> and the nulls in a bit
+ * set, following the slots of a shared <code>StreamElementSchema</code>. A
+ * sample is therefore a handful of objects whatever the number of fields.
+ * <p>
+ * The values are accessed by position; <code>getData</code> and
+ * <code>toStreamElement</code> provide the boxed view expected by the rest of
+ * GSN.
+ */
+public final class PrimitiveStreamElement {
+
+	private final StreamElementSchema schema;
+
+	private long timeStamp;
+
+	private final long[] primitives;
+
+	private final Object[] objects;
+
+	private final long[] nulls;
+
+	/**
+	 * Creates an element whose fields are all null.
+	 */
+	public PrimitiveStreamElement(StreamElementSchema schema, long timeStamp) {
+		this.schema = schema;
+		this.timeStamp = timeStamp;
+		this.primitives = new long[schema.getPrimitiveCount()];
+		this.objects = schema.getObjectCount() == 0 ? null : new Object[schema.getObjectCount()];
+		this.nulls = new long[(schema.getFieldCount() + 63) >>> 6];
+		for (int i = 0; i < schema.getFieldCount(); i++)
+			nulls[i >>> 6] |= 1L << i;
+	}
+
+	public PrimitiveStreamElement(StreamElementSchema schema, Serializable[] data, long timeStamp) {
+		this(schema, timeStamp);
+		if (data.length != schema.getFieldCount())
+			throw new IllegalArgumentException("The length of the data doesn't match the number of fields of the schema.");
+		for (int i = 0; i < data.length; i++)
+			setData(i, data[i]);
+	}
+
+	/**
+	 * Unboxes a stream element, matching its fields by name.
+	 */
+	public static PrimitiveStreamElement from(StreamElementSchema schema, StreamElement se) {
+		PrimitiveStreamElement toReturn = new PrimitiveStreamElement(schema, se.getTimeStamp());
+		String[] names = se.getFieldNames();
+		Serializable[] values = se.getData();
+		for (int i = 0; i < names.length; i++) {
+			int field = schema.indexOf(names[i]);
+			if (field >= 0)
+				toReturn.setData(field, values[i]);
+		}
+		return toReturn;
+	}
+
+	public StreamElementSchema getSchema() {
+		return schema;
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+	public void setTimeStamp(long timeStamp) {
+		this.timeStamp = timeStamp;
+	}
+
+	public boolean isNull(int field) {
+		return (nulls[field >>> 6] & (1L << field)) != 0;
+	}
+
+	public void setNull(int field) {
+		nulls[field >>> 6] |= 1L << field;
+		if (!schema.isPrimitiveField(field))
+			objects[schema.getSlot(field)] = null;
+	}
+
+	private void setNotNull(int field) {
+		nulls[field >>> 6] &= ~(1L << field);
+	}
+
+	private boolean isFloatingPoint(int field) {
+		byte type = schema.getFieldType(field);
+		return type == DataTypes.DOUBLE || type == DataTypes.FLOAT;
+	}
+
+	private void checkPrimitive(int field) {
+		if (!schema.isPrimitiveField(field))
+			throw new IllegalArgumentException("The field " + schema.getFieldName(field) + " isn't numeric.");
+	}
+
+	/**
+	 * Sets a numeric field, the value being converted to a floating point one
+	 * if needed.
+	 */
+	public void setLong(int field, long value) {
+		checkPrimitive(field);
+		primitives[schema.getSlot(field)] = isFloatingPoint(field) ? Double.doubleToRawLongBits(value) : value;
+		setNotNull(field);
+	}
+
+	/**
+	 * Sets a numeric field, the value being truncated if the field is an
+	 * integer one.
+	 */
+	public void setDouble(int field, double value) {
+		checkPrimitive(field);
+		primitives[schema.getSlot(field)] = isFloatingPoint(field) ? Double.doubleToRawLongBits(value) : (long) value;
+		setNotNull(field);
+	}
+
+	public void setString(int field, String value) {
+		setObject(field, value);
+	}
+
+	public void setBytes(int field, byte[] value) {
+		setObject(field, value);
+	}
+
+	private void setObject(int field, Object value) {
+		if (schema.isPrimitiveField(field))
+			throw new IllegalArgumentException("The field " + schema.getFieldName(field) + " is numeric.");
+		if (value == null) {
+			setNull(field);
+			return;
+		}
+		objects[schema.getSlot(field)] = value;
+		setNotNull(field);
+	}
+
+	/**
+	 * @return the value of a numeric field, 0 if it is null.
+	 */
+	public long getLong(int field) {
+		checkPrimitive(field);
+		long raw = primitives[schema.getSlot(field)];
+		return isFloatingPoint(field) ? (long) Double.longBitsToDouble(raw) : raw;
+	}
+
+	/**
+	 * @return the value of a numeric field, 0 if it is null.
+	 */
+	public double getDouble(int field) {
+		checkPrimitive(field);
+		long raw = primitives[schema.getSlot(field)];
+		return isFloatingPoint(field) ? Double.longBitsToDouble(raw) : raw;
+	}
+
+	public String getString(int field) {
+		Object value = isNull(field) ? null : objects[schema.getSlot(field)];
+		return value instanceof byte[] ? new String((byte[]) value) : (String) value;
+	}
+
+	public byte[] getBytes(int field) {
+		Object value = isNull(field) ? null : objects[schema.getSlot(field)];
+		return value instanceof String ? ((String) value).getBytes() : (byte[]) value;
+	}
+
+	/**
+	 * Sets a field from its boxed value, as found in a
+	 * <code>StreamElement</code>.
+	 */
+	public void setData(int field, Serializable value) {
+		if (value == null)
+			setNull(field);
+		else if (!schema.isPrimitiveField(field))
+			setObject(field, value);
+		else if (value instanceof Double || value instanceof Float)
+			setDouble(field, ((Number) value).doubleValue());
+		else if (value instanceof Number)
+			setLong(field, ((Number) value).longValue());
+		else
+			throw new IllegalArgumentException("The field " + schema.getFieldName(field) + " is defined as " + DataTypes.TYPE_NAMES[schema.getFieldType(field)]
+					+ " while the actual data in the field is of type : *" + value.getClass().getCanonicalName() + "*");
+	}
+
+	/**
+	 * @return the boxed value of the field, of the class expected for its type
+	 *         by <code>StreamElement</code>.
+	 */
+	public Serializable getData(int field) {
+		if (isNull(field))
+			return null;
+		switch (schema.getFieldType(field)) {
+		case DataTypes.TINYINT:
+			return (byte) getLong(field);
+		case DataTypes.SMALLINT:
+			return (short) getLong(field);
+		case DataTypes.INTEGER:
+			return (int) getLong(field);
+		case DataTypes.BIGINT:
+			return getLong(field);
+		case DataTypes.FLOAT:
+			return (float) getDouble(field);
+		case DataTypes.DOUBLE:
+			return getDouble(field);
+		default:
+			return (Serializable) objects[schema.getSlot(field)];
+		}
+	}
+
+	public Serializable getData(String fieldName) {
+		int field = schema.indexOf(fieldName);
+		return field == -1 ? null : getData(field);
+	}
+
+	/**
+	 * @return a <code>StreamElement</code> with the same values, sharing the
+	 *         names, the types and the index of the schema.
+	 */
+	public StreamElement toStreamElement() {
+		Serializable[] data = new Serializable[schema.getFieldCount()];
+		for (int i = 0; i < data.length; i++)
+			data[i] = getData(i);
+		return new StreamElement(schema, data, timeStamp);
+	}
+}
@@ -48,6 +48,12 @@ public final class StreamElement implements Serializable {
 
 	private transient TreeMap < String , Integer > indexedFieldNames = null;
 
+	/**
+	 * The shared structure of the element, if it was built from one. It then
+	 * replaces <code>indexedFieldNames</code>.
+	 */
+	private transient StreamElementSchema         schema            = null;
+
 	private long                                   timeStamp         = -1;
 
 	private String [ ]                             fieldNames;
@@ -83,13 +89,18 @@ public final class StreamElement implements Serializable {
 		this(outputStructure,data,System.currentTimeMillis());
 	}
 	public StreamElement ( DataField [ ] outputStructure , final Serializable [ ] data , final long timeStamp ) {
-		this.fieldNames = new String [ outputStructure.length ];
-		this.fieldTypes = new Byte [ outputStructure.length ];
+		this( StreamElementSchema.of( outputStructure ) , data , timeStamp );
+	}
+
+	/**
+	 * Creates a stream element sharing the names, the types and the index of
+	 * the schema, which are neither copied nor computed again.
+	 */
+	public StreamElement ( final StreamElementSchema schema , final Serializable [ ] data , final long timeStamp ) {
+		this.schema = schema;
+		this.fieldNames = schema.getFieldNames( );
+		this.fieldTypes = schema.getFieldTypes( );
 		this.timeStamp = timeStamp;
-		for ( int i = 0 ; i < this.fieldNames.length ; i++ ) {
-			this.fieldNames[ i ] = outputStructure[ i ].getName( ).toLowerCase( );
-			this.fieldTypes[ i ] = outputStructure[ i ].getDataTypeID( );
-		}
 		if ( this.fieldNames.length != data.length ) throw new IllegalArgumentException( "The length of dataFileNames and the actual data provided in the constructor of StreamElement doesn't match." );
 		this.verifyTypesCompatibility( this.fieldTypes , data );
 		this.fieldValues = data;
@@ -240,6 +251,10 @@ public final class StreamElement implements Serializable {
 		return this.fieldValues;
 	}
 
+	public final Serializable getData ( final int index ) {
+		return this.fieldValues[ index ];
+	}
+
 	public void setData (int index,Serializable data ) {
 		this.fieldValues[index]=data;
 	}
@@ -286,8 +301,7 @@ public final class StreamElement implements Serializable {
 	 * @return The value corresponding to the named tuple.
 	 */
 	public final Serializable getData ( final String fieldName ) {
-		generateIndex();
-		Integer index = indexedFieldNames.get( fieldName );
+		Integer index = indexOf( fieldName );
 		if (index == null) {
 			logger.info("There is a request for field "+fieldName+" for StreamElement: "+this.toString()+". As the requested field doesn't exist, GSN returns Null to the callee.");
 			return null;
@@ -303,8 +317,7 @@ public final class StreamElement implements Serializable {
 	 * @return The type of the value corresponding to the named tuple.
 	 */
 	public final Byte getType ( final String fieldName ) {
-		generateIndex();
-		Integer index = indexedFieldNames.get( fieldName );
+		Integer index = indexOf( fieldName );
 		if (index == null) {
 			logger.warn("There is a request for type of field "+fieldName+" for StreamElement: "+this.toString()+". As the requested field doesn't exist, GSN returns Null to the callee.");
 			return null;
@@ -485,6 +498,15 @@ public final class StreamElement implements Serializable {
 	 * Build the index for mapping field name to their positions in the array if it is not yet built
 	 * This assumes that StreamElements cannot change their structure
 	 */
+	private Integer indexOf ( String fieldName ) {
+		if ( schema != null ) {
+			int index = schema.indexOf( fieldName );
+			return index == -1 ? null : index;
+		}
+		generateIndex();
+		return indexedFieldNames.get( fieldName );
+	}
+
 	private void generateIndex(){
 		if ( indexedFieldNames == null ) {
 			indexedFieldNames = new TreeMap < String , Integer >( new CaseInsensitiveComparator( ) );
@@ -500,8 +522,7 @@ public final class StreamElement implements Serializable {
 	 * @throws IllegalArgumentException
 	 */
 	protected void setData(String fieldName, Serializable data) throws IllegalArgumentException {
-		generateIndex();
-		Integer index = indexedFieldNames.get( fieldName );
+		Integer index = indexOf( fieldName );
 		if (index == null) {
 			logger.warn("There is a request for setting field "+fieldName+" for StreamElement: "+this.toString()+". But the requested field doesn't exist.");
 		}
@@ -0,0 +1,216 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/StreamElementSchema.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable structure shared by the stream elements produced from the same
+ * <code>DataField[]</code>: the lower cased field names, their types and the
+ * index from the names to the positions. The stream elements built on a
+ * schema neither copy the names and types nor build their own index.
+ * <p>
+ * It also assigns each field a slot in the storage of a
+ * <code>PrimitiveStreamElement</code>: the numeric fields go to a
+ * <code>long[]</code> (the floating point ones as raw bits) and the strings
+ * and binaries to an <code>Object[]</code>.
+ * <p>
+ * The arrays returned by the getters are shared and must not be modified.
+ */
+public final class StreamElementSchema {
+
+	/**
+	 * Beyond this number of distinct structures, the schemas aren't cached.
+	 */
+	private static final int MAX_CACHED_SCHEMAS = 1024;
+
+	/**
+	 * The schemas of the output structures, keyed by their field names and
+	 * types.
+	 */
+	private static final ConcurrentHashMap<Key, StreamElementSchema> schemas = new ConcurrentHashMap<Key, StreamElementSchema>();
+
+	/**
+	 * The field names and types of a structure, as the <code>DataField</code>
+	 * are mutable and arrays don't override equals and hashCode.
+	 */
+	private static final class Key {
+
+		private final String[] names;
+
+		private final byte[] types;
+
+		private final int hash;
+
+		Key(DataField[] structure) {
+			names = new String[structure.length];
+			types = new byte[structure.length];
+			for (int i = 0; i < structure.length; i++) {
+				names[i] = structure[i].getName();
+				types[i] = structure[i].getDataTypeID();
+			}
+			hash = 31 * Arrays.hashCode(names) + Arrays.hashCode(types);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && Arrays.equals(types, other.types) && Arrays.equals(names, other.names);
+		}
+	}
+
+	private final String[] names;
+
+	private final Byte[] types;
+
+	/**
+	 * Built on the first lookup by name.
+	 */
+	private volatile HashMap<String, Integer> index = null;
+
+	/**
+	 * Position of each field in the primitive or in the object slots.
+	 */
+	private final int[] slots;
+
+	private final int primitiveCount;
+
+	private final int objectCount;
+
+	public StreamElementSchema(DataField[] structure) {
+		String[] names = new String[structure.length];
+		Byte[] types = new Byte[structure.length];
+		for (int i = 0; i < structure.length; i++) {
+			names[i] = structure[i].getName().toLowerCase();
+			types[i] = structure[i].getDataTypeID();
+		}
+		this.names = names;
+		this.types = types;
+		this.slots = new int[names.length];
+		int primitives = 0;
+		int objects = 0;
+		for (int i = 0; i < names.length; i++)
+			slots[i] = isPrimitive(types[i]) ? primitives++ : objects++;
+		this.primitiveCount = primitives;
+		this.objectCount = objects;
+	}
+
+	/**
+	 * Returns the schema of the output structure, which is only built once
+	 * for the structures having the same field names and types. The callers
+	 * producing many stream elements should rather keep the schema.
+	 */
+	public static StreamElementSchema of(DataField[] structure) {
+		Key key = new Key(structure);
+		StreamElementSchema schema = schemas.get(key);
+		if (schema == null) {
+			schema = new StreamElementSchema(structure);
+			if (schemas.size() < MAX_CACHED_SCHEMAS) {
+				StreamElementSchema existing = schemas.putIfAbsent(key, schema);
+				if (existing != null)
+					schema = existing;
+			}
+		}
+		return schema;
+	}
+
+	static boolean isPrimitive(byte type) {
+		switch (type) {
+		case DataTypes.TINYINT:
+		case DataTypes.SMALLINT:
+		case DataTypes.INTEGER:
+		case DataTypes.BIGINT:
+		case DataTypes.FLOAT:
+		case DataTypes.DOUBLE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	public int getFieldCount() {
+		return names.length;
+	}
+
+	public String[] getFieldNames() {
+		return names;
+	}
+
+	public Byte[] getFieldTypes() {
+		return types;
+	}
+
+	public String getFieldName(int field) {
+		return names[field];
+	}
+
+	public byte getFieldType(int field) {
+		return types[field];
+	}
+
+	/**
+	 * @return the position of the field, ignoring the case and the
+	 *         surrounding spaces, or -1 if there is no such field.
+	 */
+	public int indexOf(String fieldName) {
+		if (fieldName == null)
+			return -1;
+		HashMap<String, Integer> index = this.index;
+		if (index == null) {
+			index = new HashMap<String, Integer>();
+			for (int i = 0; i < names.length; i++)
+				index.put(names[i], i);
+			this.index = index;
+		}
+		Integer position = index.get(fieldName);
+		if (position == null)
+			position = index.get(fieldName.trim().toLowerCase());
+		return position == null ? -1 : position;
+	}
+
+	boolean isPrimitiveField(int field) {
+		return isPrimitive(types[field]);
+	}
+
+	int getSlot(int field) {
+		return slots[field];
+	}
+
+	int getPrimitiveCount() {
+		return primitiveCount;
+	}
+
+	int getObjectCount() {
+		return objectCount;
+	}
+}
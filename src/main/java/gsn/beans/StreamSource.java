@@ -41,6 +41,7 @@ import gsn.wrappers.AbstractWrapper;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
@@ -355,6 +356,15 @@ public static final String DEFAULT_QUERY = "select * from wrapper";
 	  
   }
   
+  /**
+   * Same as <code>windowSlided()</code> but the content of the window is already
+   * evaluated (in memory) and is directly delivered to the input stream.
+   */
+  public boolean windowSlided(List<StreamElement> windowContent) throws SQLException{
+	  if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "Data availble in the stream *" ).append( getAlias( ) ).append( "*" ).toString( ) );
+	  return inputStream.executeQuery( getUIDStr() , windowContent );
+  }
+  
   public void setQueryRewriter(QueryRewriter rewriter){
 	  this.queryRewriter = rewriter;
   }
@@ -0,0 +1,557 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/CompiledQuery.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java operator pipeline (filter, then projection or aggregation) compiled from
+ * a stream source query, or from a query over the table of a virtual sensor.
+ * Only the common shapes are supported:
+ *
+ * <pre>
+ * select * | column [as name], ... from wrapper [where condition and ...]
+ * select avg|min|max|count|sum|var_pop|var_samp|stddev_pop|stddev_samp(column|*) [as name], ... from wrapper [where condition and ...]
+ * </pre>
+ *
+ * where a condition is <code>column op literal</code> (op being one of
+ * <code>= &lt;&gt; != &lt; &lt;= &gt; &gt;=</code>) or
+ * <code>column is [not] null</code>. Everything else (joins, functions,
+ * group by, or, nested queries...) is left to the SQL engine:
+ * <code>compile</code> returns null for such queries.
+ */
+public class CompiledQuery {
+
+	public static final String TIMED_FIELD = "timed";
+
+	private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5, IS_NULL = 6, IS_NOT_NULL = 7;
+
+	private static final String[] AGGREGATE_FUNCTIONS = { "avg", "min", "max", "count", "sum", "var_pop", "var_samp", "stddev_pop", "stddev_samp" };
+
+	private Column[] columns;
+
+	private Condition[] conditions;
+
+	private boolean aggregate;
+
+	private String[] outputNames;
+
+	private Byte[] outputTypes;
+
+	private int timedIndex = -1;
+
+	private CompiledQuery() {
+	}
+
+	/**
+	 * Compiles the query against the output structure of the wrapper.
+	 *
+	 * @return the compiled query or null if the query can't be compiled.
+	 */
+	public static CompiledQuery compile(CharSequence query, DataField[] inputStructure) {
+		return compile(query, "wrapper", inputStructure);
+	}
+
+	/**
+	 * Compiles a query selecting from the given table (e.g. the one of a
+	 * virtual sensor) whose structure is <code>inputStructure</code>.
+	 *
+	 * @return the compiled query or null if the query can't be compiled.
+	 */
+	public static CompiledQuery compile(CharSequence query, String tableName, DataField[] inputStructure) {
+		if (query == null || tableName == null || inputStructure == null)
+			return null;
+		return new Parser(tokenize(query.toString()), tableName, inputStructure).parse();
+	}
+
+	public boolean isAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * @return the output field names, the <code>timed</code> column (if
+	 *         selected) is not part of them as it becomes the timestamp of the
+	 *         produced stream elements.
+	 */
+	public String[] getOutputNames() {
+		return outputNames;
+	}
+
+	public Byte[] getOutputTypes() {
+		return outputTypes;
+	}
+
+	/**
+	 * Accepts the stream elements as selected by the window.
+	 */
+	public boolean accept(StreamElement se) {
+		for (Condition condition : conditions)
+			if (!condition.accept(se))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Evaluates the query on the content of a window (newest element first).
+	 * An aggregation always produces exactly one stream element, as the SQL
+	 * engine does, even on an empty window.
+	 */
+	public List<StreamElement> evaluate(List<StreamElement> window) {
+		if (aggregate) {
+			Serializable[] values = new Serializable[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				values[i] = aggregate(columns[i], window);
+			return Collections.singletonList(output(values));
+		}
+		ArrayList<StreamElement> toReturn = new ArrayList<StreamElement>();
+		for (StreamElement se : window) {
+			if (!accept(se))
+				continue;
+			Serializable[] values = new Serializable[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				values[i] = columns[i].valueOf(se);
+			toReturn.add(output(values));
+		}
+		return toReturn;
+	}
+
+	private Serializable aggregate(Column column, List<StreamElement> window) {
+		SlidingAggregator aggregator = column.newAggregator(false);
+		for (StreamElement se : window)
+			if (accept(se))
+				aggregator.add(column.input == null ? null : column.input.valueOf(se));
+		return aggregator.value();
+	}
+
+	/**
+	 * Builds the output stream element out of the values of all the columns,
+	 * moving the <code>timed</code> column to the timestamp.
+	 */
+	protected StreamElement output(Serializable[] values) {
+		Serializable[] data = new Serializable[outputNames.length];
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0, j = 0; i < values.length; i++) {
+			if (i == timedIndex) {
+				if (values[i] instanceof Number)
+					timestamp = ((Number) values[i]).longValue();
+			} else
+				data[j++] = values[i];
+		}
+		return new StreamElement(outputNames, outputTypes, data, timestamp);
+	}
+
+	Column[] getColumns() {
+		return columns;
+	}
+
+	static boolean isNumeric(byte type) {
+		switch (type) {
+		case DataTypes.TINYINT:
+		case DataTypes.SMALLINT:
+		case DataTypes.INTEGER:
+		case DataTypes.BIGINT:
+		case DataTypes.TIME:
+		case DataTypes.FLOAT:
+		case DataTypes.DOUBLE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	static boolean isFloatingPoint(byte type) {
+		return type == DataTypes.FLOAT || type == DataTypes.DOUBLE;
+	}
+
+	/**
+	 * A field of the wrapper or an aggregate over one of them.
+	 */
+	static class Column {
+
+		String name;
+
+		byte type;
+
+		/**
+		 * Position of the field in the stream elements produced by the wrapper,
+		 * -1 for the timestamp.
+		 */
+		int index;
+
+		/**
+		 * Aggregate function name, null for a plain field.
+		 */
+		String function;
+
+		/**
+		 * The aggregated field, null for <code>count(*)</code>.
+		 */
+		Column input;
+
+		Serializable valueOf(StreamElement se) {
+			if (index == -1)
+				return se.getTimeStamp();
+			String[] names = se.getFieldNames();
+			if (index < names.length && names[index].equalsIgnoreCase(name))
+				return se.getData()[index];
+			return se.getData(name);
+		}
+
+		SlidingAggregator newAggregator(boolean evictable) {
+			return new SlidingAggregator(function, input == null ? DataTypes.BIGINT : input.type, input == null, evictable);
+		}
+	}
+
+	/**
+	 * A <code>column op literal</code> condition of the where clause.
+	 */
+	static class Condition {
+
+		Column column;
+
+		int operator;
+
+		Serializable literal;
+
+		boolean accept(StreamElement se) {
+			Serializable value = column.valueOf(se);
+			if (operator == IS_NULL)
+				return value == null;
+			if (operator == IS_NOT_NULL)
+				return value != null;
+			if (value == null)
+				return false;
+			int comparison;
+			if (literal instanceof Double)
+				comparison = Double.compare(((Number) value).doubleValue(), (Double) literal);
+			else
+				comparison = value.toString().compareTo((String) literal);
+			switch (operator) {
+			case EQ:
+				return comparison == 0;
+			case NE:
+				return comparison != 0;
+			case LT:
+				return comparison < 0;
+			case LE:
+				return comparison <= 0;
+			case GT:
+				return comparison > 0;
+			default:
+				return comparison >= 0;
+			}
+		}
+	}
+
+	/**
+	 * Splits the query in identifiers (possibly qualified), numbers, quoted
+	 * strings and symbols. Returns null on a lexical error.
+	 */
+	static List<String> tokenize(String query) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < query.length()) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '.') {
+				int start = i;
+				while (i < query.length() && (Character.isLetterOrDigit(query.charAt(i)) || query.charAt(i) == '_' || query.charAt(i) == '.'))
+					i++;
+				tokens.add(query.substring(start, i));
+			} else if (c == '\'') {
+				StringBuilder literal = new StringBuilder("'");
+				i++;
+				while (true) {
+					if (i >= query.length())
+						return null;
+					if (query.charAt(i) == '\'') {
+						if (i + 1 < query.length() && query.charAt(i + 1) == '\'') {
+							literal.append('\'');
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					literal.append(query.charAt(i++));
+				}
+				tokens.add(literal.toString());
+			} else if ((c == '<' || c == '>' || c == '!') && i + 1 < query.length() && (query.charAt(i + 1) == '=' || (c == '<' && query.charAt(i + 1) == '>'))) {
+				tokens.add(query.substring(i, i + 2));
+				i += 2;
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Recursive descent parser of the supported query shapes.
+	 */
+	private static class Parser {
+
+		private List<String> tokens;
+
+		private int position = 0;
+
+		private String tableName;
+
+		private DataField[] inputStructure;
+
+		Parser(List<String> tokens, String tableName, DataField[] inputStructure) {
+			this.tokens = tokens;
+			this.tableName = tableName;
+			this.inputStructure = inputStructure;
+		}
+
+		private String peek() {
+			return position < tokens.size() ? tokens.get(position) : null;
+		}
+
+		private boolean accept(String token) {
+			if (token.equalsIgnoreCase(peek())) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		CompiledQuery parse() {
+			if (tokens == null || !accept("select"))
+				return null;
+			CompiledQuery query = new CompiledQuery();
+			ArrayList<Column> columns = new ArrayList<Column>();
+			ArrayList<String> aliases = new ArrayList<String>();
+			do {
+				if (accept("*")) {
+					for (int i = 0; i < inputStructure.length; i++) {
+						columns.add(resolve(inputStructure[i].getName()));
+						aliases.add(null);
+					}
+					columns.add(resolve(TIMED_FIELD));
+					aliases.add(null);
+					continue;
+				}
+				Column column = parseColumn();
+				if (column == null)
+					return null;
+				String alias = null;
+				if (accept("as")) {
+					alias = peek();
+					if (!isIdentifier(alias))
+						return null;
+					position++;
+				} else if (isIdentifier(peek())) {
+					alias = tokens.get(position++);
+				}
+				columns.add(column);
+				aliases.add(alias);
+			} while (accept(","));
+			if (!accept("from") || !accept(tableName))
+				return null;
+			ArrayList<Condition> conditions = new ArrayList<Condition>();
+			if (accept("where")) {
+				do {
+					Condition condition = parseCondition();
+					if (condition == null)
+						return null;
+					conditions.add(condition);
+				} while (accept("and"));
+			}
+			accept(";");
+			if (peek() != null)
+				return null;
+
+			int aggregates = 0;
+			for (Column column : columns)
+				if (column.function != null)
+					aggregates++;
+			if (aggregates > 0 && aggregates != columns.size())
+				return null; // plain fields next to aggregates need a group by
+			query.aggregate = aggregates > 0;
+			query.columns = columns.toArray(new Column[columns.size()]);
+			query.conditions = conditions.toArray(new Condition[conditions.size()]);
+
+			ArrayList<String> outputNames = new ArrayList<String>();
+			ArrayList<Byte> outputTypes = new ArrayList<Byte>();
+			for (int i = 0; i < columns.size(); i++) {
+				String name = aliases.get(i) == null ? columns.get(i).name : aliases.get(i).toLowerCase();
+				if (name.equals(TIMED_FIELD) && query.timedIndex == -1) {
+					query.timedIndex = i;
+					continue;
+				}
+				outputNames.add(name);
+				outputTypes.add(columns.get(i).type);
+			}
+			query.outputNames = outputNames.toArray(new String[outputNames.size()]);
+			query.outputTypes = outputTypes.toArray(new Byte[outputTypes.size()]);
+			return query;
+		}
+
+		private Column parseColumn() {
+			String token = peek();
+			if (!isIdentifier(token))
+				return null;
+			position++;
+			if (!accept("("))
+				return resolve(token);
+			String function = token.toLowerCase();
+			boolean supported = false;
+			for (String name : AGGREGATE_FUNCTIONS)
+				supported |= name.equals(function);
+			if (!supported)
+				return null;
+			Column column = new Column();
+			column.function = function;
+			if (accept("*")) {
+				if (!function.equals("count"))
+					return null;
+				column.name = "count(*)";
+			} else {
+				column.input = resolve(peek());
+				if (column.input == null)
+					return null;
+				position++;
+				column.name = function + "(" + column.input.name + ")";
+			}
+			if (!accept(")"))
+				return null;
+			if (function.equals("count")) {
+				column.type = DataTypes.BIGINT;
+			} else if (function.equals("min") || function.equals("max")) {
+				if (column.input.type == DataTypes.BINARY)
+					return null;
+				column.type = column.input.type;
+			} else {
+				if (!isNumeric(column.input.type))
+					return null;
+				column.type = function.equals("sum") && !isFloatingPoint(column.input.type) ? DataTypes.BIGINT : DataTypes.DOUBLE;
+			}
+			return column;
+		}
+
+		private Condition parseCondition() {
+			Condition condition = new Condition();
+			condition.column = resolve(peek());
+			if (condition.column == null)
+				return null;
+			position++;
+			if (accept("is")) {
+				condition.operator = accept("not") ? IS_NOT_NULL : IS_NULL;
+				return accept("null") ? condition : null;
+			}
+			String operator = peek();
+			String[] operators = { "=", "<>", "<", "<=", ">", ">=" };
+			int[] codes = { EQ, NE, LT, LE, GT, GE };
+			condition.operator = -1;
+			for (int i = 0; i < operators.length; i++)
+				if (operators[i].equals(operator))
+					condition.operator = codes[i];
+			if ("!=".equals(operator))
+				condition.operator = NE;
+			if (condition.operator == -1)
+				return null;
+			position++;
+			String literal = peek();
+			if (literal == null)
+				return null;
+			position++;
+			if (literal.startsWith("'")) {
+				if (isNumeric(condition.column.type))
+					return null;
+				condition.literal = literal.substring(1);
+			} else {
+				boolean negative = literal.equals("-");
+				if (negative) {
+					literal = peek();
+					if (literal == null)
+						return null;
+					position++;
+				}
+				if (!isNumeric(condition.column.type))
+					return null;
+				try {
+					condition.literal = negative ? -Double.parseDouble(literal) : Double.parseDouble(literal);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+			if (condition.column.type == DataTypes.BINARY)
+				return null;
+			return condition;
+		}
+
+		/**
+		 * Resolves a (possibly table qualified) field name against the output
+		 * structure of the wrapper.
+		 */
+		private Column resolve(String name) {
+			if (!isIdentifier(name))
+				return null;
+			int dot = name.indexOf('.');
+			if (dot >= 0) {
+				if (!name.substring(0, dot).equalsIgnoreCase(tableName))
+					return null;
+				name = name.substring(dot + 1);
+			}
+			Column column = new Column();
+			column.name = name.toLowerCase();
+			if (column.name.equals(TIMED_FIELD)) {
+				column.index = -1;
+				column.type = DataTypes.BIGINT;
+				return column;
+			}
+			for (int i = 0; i < inputStructure.length; i++) {
+				if (inputStructure[i].getName().equalsIgnoreCase(column.name)) {
+					column.index = i;
+					column.type = inputStructure[i].getDataTypeID();
+					return column;
+				}
+			}
+			return null;
+		}
+
+		private static boolean isIdentifier(String token) {
+			if (token == null || token.length() == 0 || !(Character.isLetter(token.charAt(0)) || token.charAt(0) == '_'))
+				return false;
+			for (String keyword : new String[] { "select", "from", "where", "and", "or", "not", "as", "is", "null", "group", "order", "by", "limit",
+					"having", "distinct", "join", "on", "union" })
+				if (keyword.equalsIgnoreCase(token))
+					return false;
+			return true;
+		}
+	}
+}
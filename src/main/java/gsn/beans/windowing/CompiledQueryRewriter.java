@@ -0,0 +1,104 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/CompiledQueryRewriter.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.StreamElement;
+import gsn.beans.StreamSource;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Evaluates the query of a stream source as a <code>CompiledQuery</code> on
+ * the <code>MemoryWindow</code> of its wrapper. Compared to the
+ * <code>SQLViewQueryRewriter</code>, a slide doesn't issue any SQL statement:
+ * the window is selected in memory, filtered, projected or aggregated, and
+ * the result is handed to the input stream. The aggregations are maintained
+ * incrementally from one slide to the next (see <code>SlidingAggregation</code>),
+ * so that a slide costs the same whatever the size of the window.
+ */
+public class CompiledQueryRewriter extends MemoryWindowQueryRewriter {
+
+	private static final transient Logger logger = Logger.getLogger(CompiledQueryRewriter.class);
+
+	protected CompiledQuery query;
+
+	/**
+	 * Aggregation state of the stream source, null if the query isn't an
+	 * aggregation.
+	 */
+	protected SlidingAggregation aggregation;
+
+	public CompiledQueryRewriter(MemoryWindow window, boolean usingRemoteTimestamp) {
+		super(window, usingRemoteTimestamp);
+	}
+
+	/**
+	 * Returns true if the query of the stream source can be compiled and its
+	 * input stream simply forwards the stream source.
+	 */
+	public static boolean canHandle(StreamSource streamSource) {
+		return isPassThroughInputStream(streamSource)
+				&& CompiledQuery.compile(streamSource.getSqlQuery(), streamSource.getWrapper().getOutputFormat()) != null;
+	}
+
+	@Override
+	public boolean initialize() {
+		super.initialize();
+		query = CompiledQuery.compile(streamSource.getSqlQuery(), streamSource.getWrapper().getOutputFormat());
+		if (query == null) {
+			logger.error("The query of the stream source " + streamSource.getAlias() + " can't be compiled: " + streamSource.getSqlQuery());
+			return false;
+		}
+		if (query.isAggregate())
+			aggregation = new SlidingAggregation(query);
+		return true;
+	}
+
+	@Override
+	public boolean dataAvailable(long timestamp) {
+		List<StreamElement> result;
+		long[] bounds;
+		if (aggregation != null && (bounds = getWindowBounds(timestamp)) != null)
+			result = Collections.singletonList(aggregation.slide(window, bounds[0], bounds[1], streamSource.getSamplingRate()));
+		else
+			result = query.evaluate(selectWindow(timestamp));
+		if (result.isEmpty())
+			return false;
+		if (logger.isDebugEnabled()) {
+			logger.debug(streamSource.getWrapper().getWrapperName() + " - Output stream produced/received from a wrapper " + streamSource.toString());
+		}
+		try {
+			return streamSource.windowSlided(result);
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+		}
+		return false;
+	}
+}
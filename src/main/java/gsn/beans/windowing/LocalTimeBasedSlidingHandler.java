@@ -71,7 +71,8 @@ public class LocalTimeBasedSlidingHandler implements SlidingHandler {
     }
 
     public void addStreamSource(StreamSource streamSource) {
-        SQLViewQueryRewriter rewriter = new LTBSQLViewQueryRewriter();
+        QueryRewriter rewriter = wrapper.getMemoryWindow() != null ? wrapper.createMemoryWindowQueryRewriter()
+                : new LTBSQLViewQueryRewriter();
         rewriter.setStreamSource(streamSource);
         rewriter.initialize();
         if (streamSource.getWindowingType() != WindowType.TIME_BASED_SLIDE_ON_EACH_TUPLE) {
@@ -165,7 +166,12 @@ public class LocalTimeBasedSlidingHandler implements SlidingHandler {
             timed1 = System.currentTimeMillis() - maxWindowSize;
         }
 
-        if (maxTupleCount > 0) {
+        if (maxTupleCount > 0 && wrapper.getMemoryWindow() != null) {
+            timed2 = wrapper.getMemoryWindow().getTimestamp(maxTupleCount - 1, System.currentTimeMillis() - maxSlideForTupleBased);
+            if (timed2 == -1) {
+                return -1;
+            }
+        } else if (maxTupleCount > 0) {
             StringBuilder query = new StringBuilder();
             if (Main.getWindowStorage().isH2() || Main.getWindowStorage().isMysqlDB()) {
                 query.append(" select timed from ").append(wrapper.getDBAliasInStr()).append(" where timed <= ");
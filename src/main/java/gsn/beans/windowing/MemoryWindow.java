@@ -0,0 +1,180 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/MemoryWindow.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.StreamElement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-heap replacement for the per-wrapper window table. The stream elements are
+ * kept in a growable ring buffer ordered by timestamp (the wrapper refuses out
+ * of order elements, so appending is enough to keep the order). The retention
+ * is still driven by the sliding handlers through <code>removeOlderThan</code>,
+ * exactly like the <code>delete ... where timed &lt; ?</code> statement used
+ * for the SQL window tables.
+ */
+public class MemoryWindow {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private StreamElement[] elements = new StreamElement[INITIAL_CAPACITY];
+
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Position of the oldest element in the ring.
+	 */
+	private int head = 0;
+
+	private int size = 0;
+
+	/**
+	 * Appends the stream element at the newest end of the window. The caller is
+	 * responsible for rejecting out of order elements.
+	 */
+	public synchronized void add(StreamElement se) {
+		if (size == elements.length)
+			grow();
+		int tail = (head + size) % elements.length;
+		elements[tail] = se;
+		timestamps[tail] = se.getTimeStamp();
+		size++;
+	}
+
+	private void grow() {
+		StreamElement[] newElements = new StreamElement[elements.length * 2];
+		long[] newTimestamps = new long[elements.length * 2];
+		for (int i = 0; i < size; i++) {
+			newElements[i] = elements[(head + i) % elements.length];
+			newTimestamps[i] = timestamps[(head + i) % elements.length];
+		}
+		elements = newElements;
+		timestamps = newTimestamps;
+		head = 0;
+	}
+
+	/**
+	 * Drops all the elements having a timestamp strictly smaller than the
+	 * provided one.
+	 *
+	 * @return the number of removed elements.
+	 */
+	public synchronized int removeOlderThan(long timed) {
+		int removed = 0;
+		while (size > 0 && timestamps[head] < timed) {
+			elements[head] = null;
+			head = (head + 1) % elements.length;
+			size--;
+			removed++;
+		}
+		if (size == 0)
+			head = 0;
+		return removed;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < elements.length; i++)
+			elements[i] = null;
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return the timestamp of the newest element or <code>Long.MIN_VALUE</code>
+	 *         if the window is empty.
+	 */
+	public synchronized long getNewestTimestamp() {
+		if (size == 0)
+			return Long.MIN_VALUE;
+		return timestamps[(head + size - 1) % elements.length];
+	}
+
+	/**
+	 * Returns the timestamp of the element located <code>offset</code>
+	 * positions before the newest element having a timestamp smaller or equal
+	 * to <code>upperBound</code>. This is the in-memory counterpart of
+	 * <code>select timed from wrapper where timed &lt;= upperBound order by timed desc limit 1 offset ?</code>.
+	 *
+	 * @return the timestamp or -1 if there is no such element.
+	 */
+	public synchronized long getTimestamp(long offset, long upperBound) {
+		int last = lastIndexNotAfter(upperBound);
+		if (offset < 0 || last - offset < 0)
+			return -1;
+		return timestamps[(head + (int) (last - offset)) % elements.length];
+	}
+
+	/**
+	 * Selects the content of a window, newest element first (same order as the
+	 * <code>order by timed desc</code> of the SQL views).
+	 *
+	 * @param lowerBound inclusive lower bound on the timestamp.
+	 * @param upperBound inclusive upper bound on the timestamp.
+	 * @param maxCount maximum number of returned elements, negative for no limit.
+	 * @param samplingRate the sampling rate of the stream source, elements are
+	 *            kept when <code>timed mod 100 &lt; samplingRate * 100</code>.
+	 */
+	public synchronized List<StreamElement> select(long lowerBound, long upperBound, long maxCount, float samplingRate) {
+		ArrayList<StreamElement> toReturn = new ArrayList<StreamElement>();
+		int last = lastIndexNotAfter(upperBound);
+		long taken = 0;
+		for (int i = last; i >= 0 && (maxCount < 0 || taken < maxCount); i--) {
+			int index = (head + i) % elements.length;
+			if (timestamps[index] < lowerBound)
+				break;
+			taken++;
+			if (samplingRate < 1 && (timestamps[index] % 100) >= samplingRate * 100)
+				continue;
+			toReturn.add(elements[index]);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Binary search (timestamps are strictly increasing) returning the logical
+	 * position of the newest element whose timestamp is &lt;= upperBound, or -1.
+	 */
+	private int lastIndexNotAfter(long upperBound) {
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[(head + middle) % elements.length] <= upperBound) {
+				found = middle;
+				low = middle + 1;
+			} else
+				high = middle - 1;
+		}
+		return found;
+	}
+}
@@ -0,0 +1,171 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/MemoryWindowQueryRewriter.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.InputStream;
+import gsn.beans.StreamElement;
+import gsn.beans.StreamSource;
+import gsn.storage.SQLUtils;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Evaluates the window of a stream source directly on the <code>MemoryWindow</code>
+ * of its wrapper, without creating any view in the window storage. The
+ * selected stream elements are handed to the input stream without any
+ * further processing, so this rewriter only supports stream sources whose
+ * queries select the whole window (see <code>canHandle</code>).
+ */
+public class MemoryWindowQueryRewriter extends QueryRewriter {
+
+	private static final transient Logger logger = Logger.getLogger(MemoryWindowQueryRewriter.class);
+
+	protected MemoryWindow window;
+
+	private boolean usingRemoteTimestamp;
+
+	public MemoryWindowQueryRewriter(MemoryWindow window, boolean usingRemoteTimestamp) {
+		this.window = window;
+		this.usingRemoteTimestamp = usingRemoteTimestamp;
+	}
+
+	/**
+	 * Returns true if the stream source can be evaluated without the SQL
+	 * engine, that is both the stream source query and the query of its input
+	 * stream select all the fields of the window.
+	 */
+	public static boolean canHandle(StreamSource streamSource) {
+		return isSelectAll(streamSource.getSqlQuery(), "wrapper") && isPassThroughInputStream(streamSource);
+	}
+
+	/**
+	 * Returns true if the input stream of the stream source has no other source
+	 * and forwards the stream source unchanged (<code>select * from alias</code>).
+	 */
+	protected static boolean isPassThroughInputStream(StreamSource streamSource) {
+		InputStream inputStream = streamSource.getInputStream();
+		if (inputStream == null || inputStream.getSources() == null || inputStream.getSources().length != 1 || inputStream.getQuery() == null)
+			return false;
+		return isSelectAll(inputStream.getQuery(), streamSource.getAlias());
+	}
+
+	protected static String normalize(CharSequence query) {
+		String toReturn = query.toString().trim().toLowerCase().replaceAll("\\s+", " ");
+		if (toReturn.endsWith(";"))
+			toReturn = toReturn.substring(0, toReturn.length() - 1).trim();
+		return toReturn;
+	}
+
+	private static boolean isSelectAll(CharSequence query, CharSequence table) {
+		return normalize(query).equals("select * from " + table.toString().toLowerCase());
+	}
+
+	@Override
+	public boolean initialize() {
+		if (streamSource == null) {
+			throw new RuntimeException("Null Pointer Exception: streamSource is null");
+		}
+		return true;
+	}
+
+	@Override
+	public StringBuilder rewrite(String query) {
+		if (streamSource == null) {
+			throw new RuntimeException("Null Pointer Exception: streamSource is null");
+		}
+		return SQLUtils.newRewrite(query, streamSource.getAlias(), streamSource.getUIDStr());
+	}
+
+	@Override
+	public void dispose() {
+	}
+
+	@Override
+	public boolean dataAvailable(long timestamp) {
+		List<StreamElement> windowContent = selectWindow(timestamp);
+		if (windowContent.isEmpty())
+			return false;
+		if (logger.isDebugEnabled()) {
+			logger.debug(streamSource.getWrapper().getWrapperName() + " - Output stream produced/received from a wrapper " + streamSource.toString());
+		}
+		// the virtual sensor gets its own copies, as it would from a DataEnumerator
+		for (int i = 0; i < windowContent.size(); i++)
+			windowContent.set(i, new StreamElement(windowContent.get(i)));
+		try {
+			return streamSource.windowSlided(windowContent);
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Selects the content of the window ending at the given timestamp, newest
+	 * element first.
+	 */
+	protected List<StreamElement> selectWindow(long timestamp) {
+		long[] bounds = getWindowBounds(timestamp);
+		if (bounds == null)
+			return Collections.emptyList();
+		return window.select(bounds[0], bounds[1], -1, streamSource.getSamplingRate());
+	}
+
+	/**
+	 * Computes the inclusive timestamp bounds of the window ending at the given
+	 * timestamp, with the same semantic as the views generated by the sliding
+	 * handlers (the tuple based windows start at the n-th newest element,
+	 * before sampling).
+	 *
+	 * @return the lower and upper bounds or null if the window is always empty.
+	 */
+	protected long[] getWindowBounds(long timestamp) {
+		long windowSize = streamSource.getParsedStorageSize();
+		if (windowSize == StreamSource.STORAGE_SIZE_NOT_SET)
+			windowSize = 1;
+		if (streamSource.getSamplingRate() == 0 || windowSize == 0)
+			return null;
+		switch (streamSource.getWindowingType()) {
+		case TUPLE_BASED_SLIDE_ON_EACH_TUPLE:
+		case TUPLE_BASED:
+		case TUPLE_BASED_WIN_TIME_BASED_SLIDE:
+			long upperBound = streamSource.getWindowingType() == WindowType.TUPLE_BASED_SLIDE_ON_EACH_TUPLE ? Long.MAX_VALUE : timestamp;
+			long lowerBound = window.getTimestamp(windowSize - 1, upperBound);
+			return new long[] { lowerBound == -1 ? Long.MIN_VALUE : lowerBound, upperBound };
+		case TIME_BASED:
+		case TIME_BASED_WIN_TUPLE_BASED_SLIDE:
+			return new long[] { timestamp - windowSize, timestamp };
+		case TIME_BASED_SLIDE_ON_EACH_TUPLE:
+		default:
+			if (usingRemoteTimestamp)
+				return new long[] { timestamp - windowSize, Long.MAX_VALUE };
+			return new long[] { System.currentTimeMillis() - windowSize + 1, Long.MAX_VALUE };
+		}
+	}
+}
@@ -66,7 +66,8 @@ public class RemoteTimeBasedSlidingHandler implements SlidingHandler {
 	}
 
 	public void addStreamSource(StreamSource streamSource) {
-		SQLViewQueryRewriter rewriter = new RTBSQLViewQueryRewriter();
+		QueryRewriter rewriter = wrapper.getMemoryWindow() != null ? wrapper.createMemoryWindowQueryRewriter()
+				: new RTBSQLViewQueryRewriter();
 		rewriter.setStreamSource(streamSource);
 		streamSource.setQueryRewriter(rewriter);
 		rewriter.initialize();
@@ -144,7 +145,21 @@ public class RemoteTimeBasedSlidingHandler implements SlidingHandler {
 			}
 		}
 
-		if (maxWindowSize > 0) {
+		MemoryWindow memoryWindow = wrapper.getMemoryWindow();
+		if (memoryWindow != null) {
+			if (maxWindowSize > 0) {
+				if (memoryWindow.size() == 0)
+					return -1;
+				timed1 = memoryWindow.getNewestTimestamp() - maxWindowSize;
+			}
+			if (maxTupleCount > 0) {
+				timed2 = memoryWindow.getTimestamp(maxTupleCount - 1, System.currentTimeMillis() - timediff - maxSlideForTupleBased);
+				if (timed2 == -1)
+					return -1;
+			}
+		}
+
+		if (memoryWindow == null && maxWindowSize > 0) {
 			StringBuilder query = new StringBuilder();
 			query.append("select max(timed) - ").append(maxWindowSize).append(" from ").append(wrapper.getDBAliasInStr());
 
@@ -165,7 +180,7 @@ public class RemoteTimeBasedSlidingHandler implements SlidingHandler {
 				Main.getWindowStorage().close(conn);
 			}
 		}
-		if (maxTupleCount > 0) {
+		if (memoryWindow == null && maxTupleCount > 0) {
 			StringBuilder query = new StringBuilder();
 			if (Main.getWindowStorage().isH2() || Main.getWindowStorage().isMysqlDB() || Main.getWindowStorage().isPostgres()) {
 				query.append(" select timed from ").append(wrapper.getDBAliasInStr()).append(" where timed <= ");
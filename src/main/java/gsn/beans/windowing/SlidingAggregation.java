@@ -0,0 +1,138 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/SlidingAggregation.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Incremental evaluation of an aggregation <code>CompiledQuery</code> over the
+ * successive windows of a stream source. The bounds of the windows only move
+ * forward, so between two slides the elements newer than the previous window
+ * are added to the aggregates and the ones older than the new lower bound are
+ * evicted, without going over the rest of the window again.
+ */
+public class SlidingAggregation {
+
+	private CompiledQuery query;
+
+	private CompiledQuery.Column[] columns;
+
+	private SlidingAggregator[] aggregators;
+
+	/**
+	 * The inputs of the aggregates for the elements currently in the window,
+	 * oldest first.
+	 */
+	private ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+	/**
+	 * Timestamp of the newest element of the memory window already taken into
+	 * account.
+	 */
+	private long newest;
+
+	private long lowerBound;
+
+	private static class Entry {
+
+		long timed;
+
+		Serializable[] inputs;
+
+		Entry(long timed, Serializable[] inputs) {
+			this.timed = timed;
+			this.inputs = inputs;
+		}
+	}
+
+	public SlidingAggregation(CompiledQuery query) {
+		if (!query.isAggregate())
+			throw new IllegalArgumentException("The query isn't an aggregation.");
+		this.query = query;
+		this.columns = query.getColumns();
+		reset();
+	}
+
+	public synchronized void reset() {
+		aggregators = new SlidingAggregator[columns.length];
+		for (int i = 0; i < columns.length; i++)
+			aggregators[i] = columns[i].newAggregator(true);
+		entries.clear();
+		newest = Long.MIN_VALUE;
+		lowerBound = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Moves the window to the given bounds (both inclusive) and returns the
+	 * result of the aggregation over it.
+	 */
+	public synchronized StreamElement slide(MemoryWindow window, long lowerBound, long upperBound, float samplingRate) {
+		long windowNewest = window.getNewestTimestamp();
+		long upper = Math.min(upperBound, windowNewest);
+		if (lowerBound < this.lowerBound || upper < newest)
+			reset(); // the window went backwards, starts from scratch
+		this.lowerBound = lowerBound;
+
+		while (!entries.isEmpty() && entries.peekFirst().timed < lowerBound) {
+			Entry entry = entries.pollFirst();
+			for (int i = 0; i < aggregators.length; i++)
+				aggregators[i].evict(entry.inputs[i]);
+		}
+
+		if (upper > newest) {
+			List<StreamElement> added = window.select(Math.max(newest == Long.MIN_VALUE ? newest : newest + 1, lowerBound), upper, -1, samplingRate);
+			for (int i = added.size() - 1; i >= 0; i--) {
+				StreamElement se = added.get(i);
+				if (!query.accept(se))
+					continue;
+				Serializable[] inputs = new Serializable[columns.length];
+				for (int j = 0; j < columns.length; j++) {
+					if (columns[j].input != null)
+						inputs[j] = columns[j].input.valueOf(se);
+					aggregators[j].add(inputs[j]);
+				}
+				entries.addLast(new Entry(se.getTimeStamp(), inputs));
+			}
+			newest = upper;
+		}
+
+		Serializable[] values = new Serializable[aggregators.length];
+		for (int i = 0; i < aggregators.length; i++)
+			values[i] = aggregators[i].value();
+		return query.output(values);
+	}
+
+	/**
+	 * @return the number of elements currently aggregated.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,197 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/SlidingAggregator.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import gsn.beans.DataTypes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * State of one aggregate function over a FIFO window, skipping the nulls like
+ * SQL. Values enter at the newest end with <code>add</code> and leave at the
+ * oldest end with <code>evict</code>, both in O(1) amortized time:
+ * <ul>
+ * <li>count, sum and avg subtract the evicted value,</li>
+ * <li>the variances and standard deviations use Welford's updates, which
+ * can be reverted as well,</li>
+ * <li>min and max use a two-stack queue, each stack keeping the running
+ * extremum of its values.</li>
+ * </ul>
+ * When <code>evictable</code> is false (one shot evaluation of a window),
+ * min and max only keep the current extremum.
+ */
+class SlidingAggregator {
+
+	private String function;
+
+	private byte inputType;
+
+	/**
+	 * <code>count(*)</code> counts the rows, including the null values.
+	 */
+	private boolean countRows;
+
+	private boolean evictable;
+
+	private long count = 0;
+
+	private long longSum = 0;
+
+	private double doubleSum = 0;
+
+	private double mean = 0;
+
+	private double m2 = 0;
+
+	/**
+	 * Values added since the last transfer to <code>outExtrema</code> and
+	 * their extremum.
+	 */
+	private ArrayList<Serializable> inStack = new ArrayList<Serializable>();
+
+	private Serializable inExtremum = null;
+
+	/**
+	 * Running extrema of the oldest values, the top of the stack (end of the
+	 * list) being the extremum of all of them.
+	 */
+	private ArrayList<Serializable> outExtrema = new ArrayList<Serializable>();
+
+	SlidingAggregator(String function, byte inputType, boolean countRows, boolean evictable) {
+		this.function = function;
+		this.inputType = inputType;
+		this.countRows = countRows;
+		this.evictable = evictable;
+	}
+
+	private boolean isExtremum() {
+		return function.equals("min") || function.equals("max");
+	}
+
+	private boolean isVariance() {
+		return function.startsWith("var_") || function.startsWith("stddev_");
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Serializable combine(Serializable a, Serializable b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		int comparison = ((Comparable) a).compareTo(b);
+		if (function.equals("min"))
+			return comparison <= 0 ? a : b;
+		return comparison >= 0 ? a : b;
+	}
+
+	void add(Serializable value) {
+		if (isExtremum()) {
+			if (evictable)
+				inStack.add(value);
+			inExtremum = combine(inExtremum, value);
+			return;
+		}
+		if (value == null) {
+			if (countRows)
+				count++;
+			return;
+		}
+		count++;
+		if (isVariance()) {
+			double x = ((Number) value).doubleValue();
+			double delta = x - mean;
+			mean += delta / count;
+			m2 += delta * (x - mean);
+		} else if (isFloatingPoint()) {
+			doubleSum += ((Number) value).doubleValue();
+		} else if (!function.equals("count")) {
+			longSum += ((Number) value).longValue();
+		}
+	}
+
+	/**
+	 * Removes the oldest value, which has to be provided for all the functions
+	 * but min and max.
+	 */
+	void evict(Serializable value) {
+		if (isExtremum()) {
+			if (outExtrema.isEmpty()) {
+				Serializable running = null;
+				for (int i = inStack.size() - 1; i >= 0; i--)
+					outExtrema.add(running = combine(running, inStack.get(i)));
+				inStack.clear();
+				inExtremum = null;
+			}
+			if (!outExtrema.isEmpty())
+				outExtrema.remove(outExtrema.size() - 1);
+			return;
+		}
+		if (value == null) {
+			if (countRows)
+				count--;
+			return;
+		}
+		count--;
+		if (count == 0) {
+			// drops the rounding errors accumulated by the floating point updates
+			longSum = 0;
+			doubleSum = 0;
+			mean = 0;
+			m2 = 0;
+		} else if (isVariance()) {
+			double x = ((Number) value).doubleValue();
+			double delta = x - mean;
+			mean -= delta / count;
+			m2 = Math.max(0, m2 - delta * (x - mean));
+		} else if (isFloatingPoint()) {
+			doubleSum -= ((Number) value).doubleValue();
+		} else if (!function.equals("count")) {
+			longSum -= ((Number) value).longValue();
+		}
+	}
+
+	private boolean isFloatingPoint() {
+		return inputType == DataTypes.FLOAT || inputType == DataTypes.DOUBLE;
+	}
+
+	Serializable value() {
+		if (isExtremum())
+			return outExtrema.isEmpty() ? inExtremum : combine(inExtremum, outExtrema.get(outExtrema.size() - 1));
+		if (function.equals("count"))
+			return count;
+		if (count == 0)
+			return null;
+		if (function.equals("sum"))
+			return isFloatingPoint() ? (Serializable) doubleSum : (Serializable) longSum;
+		if (function.equals("avg"))
+			return isFloatingPoint() ? doubleSum / count : (double) longSum / count;
+		if (function.endsWith("_samp") && count < 2)
+			return null;
+		double variance = m2 / (function.endsWith("_samp") ? count - 1 : count);
+		return function.startsWith("stddev_") ? Math.sqrt(variance) : variance;
+	}
+}
@@ -73,7 +73,8 @@ public class TupleBasedSlidingHandler implements SlidingHandler {
 		} else {
 			streamSources.add(streamSource);
 		}
-		SQLViewQueryRewriter rewriter = new TupleBasedSQLViewQueryRewriter();
+		QueryRewriter rewriter = wrapper.getMemoryWindow() != null ? wrapper.createMemoryWindowQueryRewriter()
+				: new TupleBasedSQLViewQueryRewriter();
 		rewriter.setStreamSource(streamSource);
 		rewriter.initialize();
 	}
@@ -123,7 +124,19 @@ public class TupleBasedSlidingHandler implements SlidingHandler {
 			}
 		}
 
-		if (maxTupleCount > 0) {
+		MemoryWindow memoryWindow = wrapper.getMemoryWindow();
+		if (memoryWindow != null) {
+			if (maxTupleCount > 0 && (timed1 = memoryWindow.getTimestamp(maxTupleCount - 1, Long.MAX_VALUE)) == -1)
+				return -1;
+			if (maxWindowSize > 0) {
+				timed2 = memoryWindow.getTimestamp(maxTupleForTimeBased - 1, Long.MAX_VALUE);
+				if (timed2 == -1)
+					return -1;
+				timed2 -= maxWindowSize;
+			}
+		}
+
+		if (memoryWindow == null && maxTupleCount > 0) {
 			StringBuilder query = new StringBuilder();
 			if (Main.getWindowStorage().isH2() || Main.getWindowStorage().isMysqlDB() || Main.getWindowStorage().isPostgres()) {
 				query.append(" select timed from ").append(wrapper.getDBAliasInStr());
@@ -153,7 +166,7 @@ public class TupleBasedSlidingHandler implements SlidingHandler {
 			}
 		}
 
-		if (maxTupleCount > 0) {
+		if (memoryWindow == null && maxTupleCount > 0) {
 			StringBuilder query = new StringBuilder();
 			if (Main.getWindowStorage().isH2() || Main.getWindowStorage().isMysqlDB() || Main.getWindowStorage().isPostgres()) {
 				query.append(" select timed from ").append(wrapper.getDBAliasInStr());
@@ -183,7 +196,7 @@ public class TupleBasedSlidingHandler implements SlidingHandler {
 			}
 		}
 
-		if (maxWindowSize > 0) {
+		if (memoryWindow == null && maxWindowSize > 0) {
 			StringBuilder query = new StringBuilder();
 			if (Main.getWindowStorage().isMysqlDB() || Main.getWindowStorage().isPostgres()) {
 				query.append(" select timed - ").append(maxWindowSize).append(" from (select timed from ").append(wrapper.getDBAliasInStr());
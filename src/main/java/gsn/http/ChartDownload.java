@@ -26,6 +26,11 @@
 
 package gsn.http;
 
+import gsn.Main;
+import gsn.http.ac.DataSource;
+import gsn.http.ac.User;
+import gsn.vsensor.ChartRenderService;
+
 import java.io.IOException;
 
 import javax.servlet.ServletException;
@@ -35,6 +40,10 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Serves the last image rendered for a chart of a ChartVirtualSensor, from the
+ * cache of the ChartRenderService: /chart?vs=VS_NAME&field=INPUT_STREAM_NAME
+ */
 public class ChartDownload extends HttpServlet {
 	
 	private static final long serialVersionUID = 1L;
@@ -46,6 +55,34 @@ public class ChartDownload extends HttpServlet {
 	}
 
 	public void doPost ( HttpServletRequest req , HttpServletResponse res ) throws ServletException , IOException {
-		
+		String vsName = req.getParameter( "vs" );
+		String field = req.getParameter( "field" );
+		if ( vsName == null || (vsName = vsName.trim( )).length( ) == 0 ) {
+			res.sendError( WebConstants.MISSING_VSNAME_ERROR , "The virtual sensor name is missing" );
+			return;
+		}
+		if ( field == null || (field = field.trim( )).length( ) == 0 ) {
+			res.sendError( HttpServletResponse.SC_BAD_REQUEST , "The field parameter is missing." );
+			return;
+		}
+
+		User user = (User) req.getSession().getAttribute("user");
+		if ( Main.getContainerConfig().isAcEnabled() && DataSource.isVSManaged(vsName)) {
+			if(user == null || (! user.isAdmin() && ! user.hasReadAccessRight(vsName))) {
+				res.sendError(WebConstants.ACCESS_DENIED, "Access Control failed for vsName:" + vsName + " and user: " + (user == null ? "not logged in" : user.getUserName()));
+				return;
+			}
+		}
+
+		byte[] image = ChartRenderService.getInstance( ).getImage( vsName , field );
+		if ( image == null ) {
+			logger.debug( "No chart rendered for " + vsName + "/" + field );
+			res.sendError( HttpServletResponse.SC_NOT_FOUND , "The chart has not been rendered yet." );
+			return;
+		}
+		res.setHeader( "Cache-Control" , "no-cache" );
+		res.setContentType( "image/png" );
+		res.setContentLength( image.length );
+		res.getOutputStream( ).write( image );
 	}
 }
@@ -29,15 +29,18 @@
 
 package gsn.http;
 
+import gsn.LatestValueCache;
 import gsn.Main;
 import gsn.Mappings;
+import gsn.VirtualSensor;
+import gsn.VirtualSensorQueue;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.beans.WebInput;
 import gsn.http.ac.DataSource;
 import gsn.http.ac.User;
-import gsn.storage.DataEnumerator;
+import gsn.wrappers.general.CSVBackfill;
 import org.apache.commons.collections.KeyValue;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
@@ -47,11 +50,11 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.File;
 import java.io.IOException;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Locale;
 
 //import gsn.http.accesscontrol.User;
 
@@ -87,6 +90,34 @@ public class ContainerInfoHandler implements RequestHandler {
   }
 
   
+  /**
+   * Reports the saturation of the queue of the virtual sensor, if it has one.
+   */
+  private static void appendQueueStatus(StringBuilder sb, VirtualSensor sensor) {
+      VirtualSensorQueue queue = sensor == null ? null : sensor.getQueue();
+      if (queue == null)
+          return;
+      sb.append(" queue-depth=\"").append(queue.getDepth()).append("\"");
+      sb.append(" queue-capacity=\"").append(queue.getCapacity()).append("\"");
+      sb.append(" queue-max-depth=\"").append(queue.getMaxDepth()).append("\"");
+      sb.append(" queue-dropped=\"").append(queue.getDroppedCount()).append("\"");
+      sb.append(" queue-avg-wait=\"").append(String.format(Locale.ENGLISH, "%.3f", queue.getAverageWaitTime())).append("\"");
+      sb.append(" queue-max-wait=\"").append(String.format(Locale.ENGLISH, "%.3f", queue.getMaxWaitTime())).append("\"");
+  }
+
+  /**
+   * Reports the progress of the backfill of the virtual sensor, if it has one.
+   */
+  private static void appendBackfillStatus(StringBuilder sb, String vsName) {
+      CSVBackfill backfill = CSVBackfill.getBackfill(vsName);
+      if (backfill == null)
+          return;
+      sb.append(" backfill-state=\"").append(backfill.isFailed() ? "failed" : (backfill.isRunning() ? "running" : "done")).append("\"");
+      sb.append(" backfill-progress=\"").append(String.format(Locale.ENGLISH, "%.3f", backfill.getProgress())).append("\"");
+      sb.append(" backfill-rows=\"").append(backfill.getRows()).append("\"");
+      sb.append(" backfill-rate=\"").append(String.format(Locale.ENGLISH, "%.1f", backfill.getRowsPerSecond())).append("\"");
+  }
+
   //return only the requested sensor if specified (otherwise use null)
   //Added by Behnaz. New parameter User user to method buildOutput.
   public String buildOutput (String reqName, User user, boolean omitLatestValues) {
@@ -139,6 +170,8 @@ public class ContainerInfoHandler implements RequestHandler {
           if (sensorConfig.getDescription() != null) {
               sb.append(" description=\"").append(StringEscapeUtils.escapeXml(sensorConfig.getDescription())).append("\"");
           }
+          appendQueueStatus(sb, Mappings.getVSensorInstanceByVSName(sensorConfig.getName()));
+          appendBackfillStatus(sb, sensorConfig.getName());
           sb.append( ">\n" );
           ArrayList<StreamElement> ses = null;
           if (omitLatestValues == false) ses = getMostRecentValueFor(sensorConfig.getName());
@@ -285,18 +318,10 @@ public class ContainerInfoHandler implements RequestHandler {
    * @return
    */
   public static ArrayList<StreamElement> getMostRecentValueFor(String virtual_sensor_name) {
-    //System.out.println("GET NEW FOR = "+virtual_sensor_name);
-    StringBuilder query=  new StringBuilder("select * from " ).append(virtual_sensor_name).append( " where timed = (select max(timed) from " ).append(virtual_sensor_name).append(") order by pk desc limit 1");
     ArrayList<StreamElement> toReturn=new ArrayList<StreamElement>() ;
-    try {
-      DataEnumerator result = Main.getStorage(virtual_sensor_name).executeQuery( query , true );
-      while ( result.hasMoreElements( ) ) 
-        toReturn.add(result.nextElement());
-    } catch (SQLException e) {
-      logger.error("ERROR IN EXECUTING, query: "+query);
-      logger.error(e.getMessage(),e);
-      return null;
-    }
+    StreamElement se = LatestValueCache.getInstance().getLatest(virtual_sensor_name);
+    if (se != null)
+      toReturn.add(se);
     return toReturn;
   }
 }
@@ -250,9 +250,11 @@ public class DataDownload extends HttpServlet {
                 if (!commonReq) {
                     expression = generated_request_query;
                 }
-                generated_request_query = "select " + generated_request_query + " from " + vsName + where + "  order by timed DESC  ";
+                // without limit the rows are read oldest first and written as they come
+                boolean limited = commonReq && req.getParameter("nb") != null && !req.getParameter("nb").isEmpty();
+                generated_request_query = "select " + generated_request_query + " from " + vsName + where + "  order by timed " + (limited ? "DESC" : "ASC") + "  ";
                 if (commonReq)
-                    if (req.getParameter("nb") != null && req.getParameter("nb") != "") {
+                    if (req.getParameter("nb") != null && !req.getParameter("nb").isEmpty()) {
                         int nb = new Integer(req.getParameter("nb"));
                         if (nb < 0)
                             nb = 0;
@@ -320,12 +322,9 @@ public class DataDownload extends HttpServlet {
                         respond.println("# " + df.getKey().toString().toLowerCase() + ":" + df.getValue().toString());
                     }
                     respond.println("# description:" + sensorConfig.getDescription());
-                    LinkedList<StreamElement> streamElements = new LinkedList<StreamElement>();
-                    while (result.hasMoreElements()) {
-                        streamElements.add(result.nextElement());
-                    }
-                    while (!streamElements.isEmpty()) {
-                        StreamElement se = streamElements.removeLast();
+                    Enumeration<StreamElement> streamElements = oldestFirst(result, limited);
+                    while (streamElements.hasMoreElements()) {
+                        StreamElement se = streamElements.nextElement();
                         if (firstLine) {
                             nbFields = se.getFieldNames().length;
                             if (groupByTimed) {
@@ -384,12 +383,9 @@ public class DataDownload extends HttpServlet {
                     }
                     respond.println("\t<!-- description:" + StringEscapeUtils.escapeXml(sensorConfig.getDescription()) + " -->");
                     respond.println("<data>");
-                    LinkedList<StreamElement> streamElements = new LinkedList<StreamElement>();
-                    while (result.hasMoreElements()) {
-                        streamElements.add(result.nextElement());
-                    }
-                    while (!streamElements.isEmpty()) {
-                        StreamElement se = streamElements.removeLast();
+                    Enumeration<StreamElement> streamElements = oldestFirst(result, limited);
+                    while (streamElements.hasMoreElements()) {
+                        StreamElement se = streamElements.nextElement();
                         if (firstLine) {
                             respond.println("\t<line>");
                             nbFields = se.getFieldNames().length;
@@ -446,4 +442,22 @@ public class DataDownload extends HttpServlet {
             respond.flush();
         }
     }
+
+    /**
+     * Returns the elements from the oldest to the newest. A limited query
+     * selects the newest rows, which are buffered and reversed, otherwise the
+     * query is already sorted and the rows are read one by one, reusing the
+     * same stream element.
+     */
+    private static Enumeration<StreamElement> oldestFirst(DataEnumerator result, boolean reversed) {
+        if (!reversed) {
+            result.setReuseStreamElement(true);
+            return result;
+        }
+        LinkedList<StreamElement> streamElements = new LinkedList<StreamElement>();
+        while (result.hasMoreElements()) {
+            streamElements.addFirst(result.nextElement());
+        }
+        return Collections.enumeration(streamElements);
+    }
 }
\ No newline at end of file
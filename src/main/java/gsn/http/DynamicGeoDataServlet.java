@@ -32,8 +32,10 @@ import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
+import gsn.LatestValueCache;
 import gsn.Main;
 import gsn.Mappings;
+import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.http.ac.UserUtils;
 import org.apache.log4j.Logger;
@@ -108,23 +110,9 @@ public class DynamicGeoDataServlet extends HttpServlet {
 
         StringBuilder sqlQueryStr = new StringBuilder();
 
-        if (timed.equalsIgnoreCase("latest")) {
+        boolean latest = timed.equalsIgnoreCase("latest");
 
-            for (int i = 0; i < allowedSensors.size(); i++) {
-                sqlQueryStr.append("select '" + allowedSensors.get(i) + "'")
-                        .append(" as name, timed, ")
-                        .append(field)
-                        .append(", latitude, longitude, altitude ")
-                        .append(" from ")
-                        .append(allowedSensors.get(i))
-                        .append(" where timed = ( select max(timed) from ")
-                        .append(allowedSensors.get(i))
-                        .append(" )");
-                if (i < allowedSensors.size() - 1)
-                    sqlQueryStr.append("\n union \n");
-            }
-
-        } else { // timed explicitly specified
+        if (!latest) { // timed explicitly specified
             for (int i = 0; i < allowedSensors.size(); i++) {
                 sqlQueryStr.append("select '" + allowedSensors.get(i) + "'")
                         .append(" as name, timed, ")
@@ -153,7 +141,7 @@ public class DynamicGeoDataServlet extends HttpServlet {
                 .append("\n")
                 .append(sqlQueryStr)
                 .append("\n# -------\n")
-                .append(executeQuery(sqlQueryStr.toString(), field));
+                .append(latest ? readLatest(allowedSensors, field) : executeQuery(sqlQueryStr.toString(), field));
 
 
         if (debugMode)
@@ -266,6 +254,58 @@ public class DynamicGeoDataServlet extends HttpServlet {
     }
 
 
+    /*
+    * Same as executeQuery, with the latest stream element of each sensor taken from the cache
+    * */
+    public String readLatest(List<String> sensors, String fieldName) {
+
+        sensorReadingsList.clear(); // reset global sensor readings
+        geometryFactory = new GeometryFactory();
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# name, timed, ")
+                .append(fieldName)
+                .append(", latitude, longitude, altitude")
+                .append(NEWLINE);
+
+        for (String sensorName : sensors) {
+            StreamElement se = LatestValueCache.getInstance().getLatest(sensorName);
+            if (se == null)
+                continue;
+
+            Double latitude = toDouble(se.getData("latitude"));
+            Double longitude = toDouble(se.getData("longitude"));
+            Double altitude = toDouble(se.getData("altitude"));
+
+            Double value = toDouble(se.getData(fieldName));
+            Long timeStamp = se.getTimeStamp();
+
+            Point coordinates = geometryFactory.createPoint(new Coordinate(longitude, latitude));
+
+            SensorGeoReading sensorReadings = new SensorGeoReading(sensorName, coordinates, timeStamp, value, fieldName);
+            sensorReadingsList.add(sensorReadings);
+            sensorReadingsHash.put(sensorName, sensorReadings);
+
+            sb.append(sensorName).append(SEPARATOR)
+                    .append(timeStamp).append(SEPARATOR)
+                    .append(value).append(SEPARATOR)
+                    .append(latitude).append(SEPARATOR)
+                    .append(longitude).append(SEPARATOR)
+                    .append(altitude)
+                    .append(NEWLINE);
+        }
+
+        return sb.toString();
+    }
+
+    /*
+    * Same conversion as ResultSet.getDouble, null values read as 0
+    * */
+    private static Double toDouble(Object o) {
+        return o instanceof Number ? ((Number) o).doubleValue() : 0.0;
+    }
+
     public String executeQuery(String query, String fieldName) {
 
         sensorReadingsList.clear(); // reset global sensor readings
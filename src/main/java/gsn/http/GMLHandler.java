@@ -28,6 +28,7 @@
 
 package gsn.http;
 
+import gsn.LatestValueCache;
 import gsn.Main;
 import gsn.Mappings;
 import gsn.beans.DataField;
@@ -35,10 +36,8 @@ import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.http.ac.DataSource;
 import gsn.http.ac.User;
-import gsn.storage.DataEnumerator;
 
 import java.io.IOException;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -167,17 +166,10 @@ public class GMLHandler implements RequestHandler {
      * @return
      */
     public static ArrayList<StreamElement> getMostRecentValueFor(String virtual_sensor_name) {
-        StringBuilder query = new StringBuilder("select * from ").append(virtual_sensor_name).append(" where timed = (select max(timed) from ").append(virtual_sensor_name).append(")");
         ArrayList<StreamElement> toReturn = new ArrayList<StreamElement>();
-        try {
-            DataEnumerator result = Main.getStorage(virtual_sensor_name).executeQuery(query, true);
-            while (result.hasMoreElements())
-                toReturn.add(result.nextElement());
-        } catch (SQLException e) {
-            logger.error("ERROR IN EXECUTING, query: " + query);
-            logger.error(e.getMessage(), e);
-            return null;
-        }
+        StreamElement se = LatestValueCache.getInstance().getLatest(virtual_sensor_name);
+        if (se != null)
+            toReturn.add(se);
         return toReturn;
     }
 }
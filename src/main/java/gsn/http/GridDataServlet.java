@@ -210,7 +210,9 @@ public class GridDataServlet extends HttpServlet {
                     logger.warn("xcell: " + xcellStr);
                     logger.warn("ycell: " + ycellStr);
 
-                    Map<Long, Double> timeSeries = GridTools.executeQueryForCell2TimeSeriesAsListOfDoubles(query, xcell, ycell, sensor);
+                    // only the grids are needed, the cell is read in place from each of them
+                    String cellQuery = "select timed, grid from " + sensor + timeBounds;
+                    Map<Long, Double> timeSeries = GridTools.executeQueryForCell2TimeSeriesAsListOfDoubles(cellQuery, xcell, ycell, sensor);
                     Set<Long> keySetTimeSeries = (Set<Long>) timeSeries.keySet();
 
                     StringBuilder sbTimeSeries = new StringBuilder();
@@ -404,6 +404,15 @@ public class MultiDataDownload extends HttpServlet {
             parameterMap.put("sample", new String[] { req_sample });
             parameterMap.put("sampling_percentage", new String[] { req_sampling_perc });
         }
+        // lttb, min, max or avg instead of skipping rows
+        String req_sampling_mode = req.getParameter("sampling_mode");
+        if (req_sampling_mode != null) {
+            parameterMap.put("sampling_mode", new String[] { req_sampling_mode });
+        }
+        String req_sampling_field = req.getParameter("sampling_field");
+        if (req_sampling_field != null) {
+            parameterMap.put("sampling_field", new String[] { req_sampling_field });
+        }
 
         return parameterMap;
     }
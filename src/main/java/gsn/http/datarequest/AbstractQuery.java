@@ -26,6 +26,8 @@
 
 package gsn.http.datarequest;
 
+import gsn.storage.Rollups;
+
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
@@ -38,6 +40,7 @@ public class AbstractQuery {
     private AggregationCriterion aggregation;
     private String vsName;
     private ArrayList<StandardCriterion> criteria;
+    private boolean ascending = false;
 
     private static transient Logger logger = Logger.getLogger(AbstractQuery.class);
 
@@ -50,7 +53,10 @@ public class AbstractQuery {
         this.criteria = criteria;
 	}
 	
-	public StringBuilder getStandardQuery() {
+	/**
+	 * @return the <code>where</code> part of the queries, empty without criteria on this virtual sensor.
+	 */
+	private StringBuilder getWhereClause() {
 		    // Standard Criteria
 			StringBuilder partStandardCriteria = new StringBuilder () ;
 			if (criteria != null) {
@@ -79,6 +85,17 @@ public class AbstractQuery {
 				}
 				if (lastStandardCriterionLinkedToVs != null) partStandardCriteria.insert(0, "where ");
 			}
+			return partStandardCriteria;
+	}
+
+	public StringBuilder getStandardQuery() {
+			int level = getRollupLevel();
+			if (level >= 0) {
+				// for the buckets in memory to be counted
+				Rollups.get(vsName).flush();
+				return getRollupQuery(level);
+			}
+			StringBuilder partStandardCriteria = getWhereClause();
 
 			StringBuilder partFields = new StringBuilder () ;
 			for (int i = 0 ; i < fields.length ; i++) {
@@ -105,12 +122,185 @@ public class AbstractQuery {
 			sqlQuery.append(partFields);
 			sqlQuery.append("from ").append(vsName).append(" ");
 			sqlQuery.append(partStandardCriteria);
-			if (aggregation == null)	sqlQuery.append("order by timed desc ");
-			else 								sqlQuery.append("group by aggregation_interval desc ");
+			String order = ascending ? "asc " : "desc ";
+			if (aggregation == null)	sqlQuery.append("order by timed ").append(order);
+			else 								sqlQuery.append("group by aggregation_interval order by aggregation_interval ").append(order);
 
 			logger.debug("SQL Query built >" + sqlQuery.toString() + "<");
         return sqlQuery;
 	}
+
+	/**
+	 * @return the time range the criteria on this virtual sensor select, as
+	 *         inclusive bounds, null bounds being open, or null if they
+	 *         select something else than a time range.
+	 */
+	private Long[] getTimeBounds() {
+		Long[] bounds = new Long[2];
+		if (criteria == null)
+			return bounds;
+		StandardCriterion last = null;
+		for (StandardCriterion cc : criteria) {
+			if (cc.getVsname().compareTo("") != 0 && cc.getVsname().compareToIgnoreCase(vsName) != 0)
+				continue;
+			// the join of a criterion links it to the next one
+			if (last != null && !"and".equalsIgnoreCase(last.getCritJoin()))
+				return null;
+			last = cc;
+			if (!cc.getField().equalsIgnoreCase("timed") || (cc.getNegation() != null && cc.getNegation().trim().length() > 0))
+				return null;
+			long value;
+			try {
+				value = Long.parseLong(cc.getValue().trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			String operator = cc.getOperator().trim();
+			if (operator.equals(">="))
+				bounds[0] = bounds[0] == null ? value : Math.max(bounds[0], value);
+			else if (operator.equals(">"))
+				bounds[0] = bounds[0] == null ? value + 1 : Math.max(bounds[0], value + 1);
+			else if (operator.equals("<="))
+				bounds[1] = bounds[1] == null ? value : Math.min(bounds[1], value);
+			else if (operator.equals("<"))
+				bounds[1] = bounds[1] == null ? value - 1 : Math.min(bounds[1], value - 1);
+			else
+				return null;
+		}
+		return bounds;
+	}
+
+	/**
+	 * @return the coarsest rollup of the virtual sensor the aggregation can
+	 *         be computed from, -1 if it must be computed from the output
+	 *         table: the fields must be numeric, the criteria a time range
+	 *         containing whole buckets of the rollup, and the buckets of the
+	 *         rollup must make the aggregation intervals.
+	 */
+	private int getRollupLevel() {
+		Rollups rollups = Rollups.get(vsName);
+		if (aggregation == null || rollups == null)
+			return -1;
+		String operator = aggregation.getGroupOperator();
+		for (String field : fields) {
+			if (field.equalsIgnoreCase("timed"))
+				continue;
+			// the rollups don't have the primary keys, and the database may round the averages of integers
+			if (!rollups.hasField(field) || (operator.equals("avg") && rollups.isInteger(field)))
+				return -1;
+		}
+		Long[] bounds = getTimeBounds();
+		if (bounds == null)
+			return -1;
+		int level;
+		try {
+			level = Rollups.getLevel(Long.parseLong(aggregation.getTimeRange()), true);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		// the coarsest rollup with a bucket in the time range
+		for (; level >= 0; level--)
+			if (bounds[0] == null || bounds[1] == null || Rollups.ceil(bounds[0], Rollups.RESOLUTIONS[level]) < Rollups.floor(bounds[1] + 1, Rollups.RESOLUTIONS[level]))
+				return level;
+		return -1;
+	}
+
+	/**
+	 * @return the expression of the aggregation of the field over the rows of
+	 *         the <code>buckets</code> query of <code>getRollupQuery</code>.
+	 */
+	private String getRollupColumn(String field, String operator) {
+		if (operator.equals("avg"))
+			return "sum(" + Rollups.getColumn(field, "sum") + ")/sum(" + Rollups.getColumn(field, "count") + ")";
+		return operator + "(" + Rollups.getColumn(field, operator) + ")";
+	}
+
+	/**
+	 * The aggregation computed from the buckets of a rollup, which the
+	 * aggregation intervals are made of. The buckets the time range only
+	 * partially covers are replaced by the stream elements of the output
+	 * table in the time range, aggregated the same way.
+	 */
+	private StringBuilder getRollupQuery(int level) {
+		String operator = aggregation.getGroupOperator();
+		long resolution = Rollups.RESOLUTIONS[level];
+		Long[] bounds = getTimeBounds();
+		Long from = bounds[0] == null ? null : Rollups.ceil(bounds[0], resolution);
+		Long to = bounds[1] == null ? null : Rollups.floor(bounds[1] + 1, resolution);
+		// the columns of the rollup needed by the aggregation, and the same ones computed from a stream element
+		String[] operators = operator.equals("avg") ? new String[] { "sum", "count" } : new String[] { operator };
+		StringBuilder partFields = new StringBuilder();
+		StringBuilder bucketColumns = new StringBuilder("timed");
+		StringBuilder rawColumns = new StringBuilder("timed");
+		for (int i = 0 ; i < fields.length ; i++) {
+			if (partFields.length() > 0)
+				partFields.append(", ");
+			partFields.append(getRollupColumn(fields[i], operator)).append(" as " + fields[i]);
+			for (String op : operators) {
+				bucketColumns.append(", ").append(Rollups.getColumn(fields[i], op));
+				rawColumns.append(", ");
+				if (!op.equals("count"))
+					rawColumns.append(fields[i]);
+				else if (fields[i].equalsIgnoreCase("timed"))
+					rawColumns.append("1");
+				else
+					rawColumns.append("case when " + fields[i] + " is null then 0 else 1 end");
+				rawColumns.append(" as " + Rollups.getColumn(fields[i], op));
+			}
+		}
+		if (partFields.length() > 0)
+			partFields.append(", ");
+		partFields.append("floor(timed/" + aggregation.getTimeRange() + ") as aggregation_interval ");
+
+		StringBuilder buckets = new StringBuilder("select ").append(bucketColumns).append(" from ").append(Rollups.getTableName(vsName, level));
+		if (from != null || to != null) {
+			StringBuilder bucketCriteria = new StringBuilder();
+			StringBuilder rawCriteria = new StringBuilder();
+			if (from != null) {
+				bucketCriteria.append("timed >= " + from);
+				rawCriteria.append("(timed >= " + bounds[0] + " and timed < " + from + ")");
+			}
+			if (to != null) {
+				bucketCriteria.append(from != null ? " and " : "").append("timed < " + to);
+				rawCriteria.append(from != null ? " or " : "").append("(timed >= " + to + " and timed <= " + bounds[1] + ")");
+			}
+			buckets.append(" where ").append(bucketCriteria);
+			buckets.append(" union all select ").append(rawColumns).append(" from ").append(vsName).append(" where ").append(rawCriteria);
+		}
+
+		StringBuilder sqlQuery = new StringBuilder("select ");
+		sqlQuery.append(partFields);
+		sqlQuery.append("from (").append(buckets).append(") buckets ");
+		sqlQuery.append("group by aggregation_interval order by aggregation_interval ").append(ascending ? "asc " : "desc ");
+		logger.debug("SQL Query built >" + sqlQuery.toString() + "<");
+		return sqlQuery;
+	}
+
+	/**
+	 * Counts the rows (the groups when aggregating) the standard query would
+	 * return, and gives their time range: <code>count, min(timed), max(timed)</code>.
+	 */
+	public StringBuilder getStatisticsQuery() {
+		StringBuilder sqlQuery = new StringBuilder("select ");
+		if (aggregation == null)	sqlQuery.append("count(*)");
+		else						sqlQuery.append("count(distinct floor(timed/" + aggregation.getTimeRange() + "))");
+		sqlQuery.append(", min(timed), max(timed) from ").append(vsName).append(" ").append(getWhereClause());
+		logger.debug("SQL Query built >" + sqlQuery.toString() + "<");
+		return sqlQuery;
+	}
+
+	/**
+	 * Averages the time and the field over the buckets of <code>width</code> ms, oldest first:
+	 * <code>bucket, avg(timed), avg(field)</code>.
+	 */
+	public StringBuilder getBucketQuery(long width, String field) {
+		StringBuilder sqlQuery = new StringBuilder("select floor(timed/" + width + ") as bucket, avg(timed), avg(" + field + ") from ");
+		sqlQuery.append(vsName).append(" ").append(getWhereClause());
+		sqlQuery.append("group by floor(timed/" + width + ") order by bucket asc");
+		logger.debug("SQL Query built >" + sqlQuery.toString() + "<");
+		return sqlQuery;
+	}
+
 	/*public void setStandardQuery(StringBuilder standardQuery) {
 		this.standardQuery = standardQuery;
 	}*/
@@ -121,6 +311,18 @@ public class AbstractQuery {
 		this.limitCriterion = limitCriterion;
 	}
 
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Sorts the rows from the oldest to the newest instead of the default
+     * newest first.
+     */
+    public void setAscending(boolean ascending) {
+        this.ascending = ascending;
+    }
+
     public AggregationCriterion getAggregation() {
         return aggregation;
     }
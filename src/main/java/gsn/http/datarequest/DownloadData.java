@@ -33,14 +33,18 @@ import gsn.Mappings;
 import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.beans.DataField;
+import gsn.beans.DataTypes;
 import gsn.http.MultiDataDownload;
 import gsn.reports.beans.Stream;
 import gsn.storage.DataEnumerator;
+import gsn.storage.Rollups;
+import gsn.storage.StorageManager;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.LinkedList;
 import java.util.Map.Entry;
@@ -58,6 +62,10 @@ public class DownloadData extends AbstractDataRequest {
 
     private static final double MAX_SAMPLE_VALUES = 20000.0;
 
+    private static final String PARAM_SAMPLING_MODE = "sampling_mode";
+
+    private static final String PARAM_SAMPLING_FIELD = "sampling_field";
+
     public enum AllowedOutputType {
         csv,
         xml
@@ -67,6 +75,8 @@ public class DownloadData extends AbstractDataRequest {
 
     private String csvDelimiter = ",";
 
+    private Downsampler.Mode samplingMode = Downsampler.Mode.skip;
+
     public DownloadData(Map<String, String[]> requestParameters) throws DataRequestException {
         super(requestParameters);
     }
@@ -82,6 +92,15 @@ public class DownloadData extends AbstractDataRequest {
 
             ot = AllowedOutputType.valueOf(outputType);
 
+            String mode = QueriesBuilder.getParameter(requestParameters, PARAM_SAMPLING_MODE);
+            if (mode != null && mode.length() > 0) {
+                try {
+                    samplingMode = Downsampler.Mode.valueOf(mode.toLowerCase());
+                } catch (IllegalArgumentException e) {
+                    throw new DataRequestException("The >" + mode + "< sampling mode is not supported.");
+                }
+            }
+
             if (ot == AllowedOutputType.csv) {
                 //
                 if (QueriesBuilder.getParameter(requestParameters, "delimiter") != null && !QueriesBuilder.getParameter(requestParameters, "delimiter").equals("")) {
@@ -125,7 +144,15 @@ public class DownloadData extends AbstractDataRequest {
                 nextSqlQuery = iter.next();
                 Connection connection = null;
 
+                // without limit, the rows are read oldest first and written (or downsampled) as they come
+                boolean sampling = requestParameters.containsKey("sample") && "true".equalsIgnoreCase(requestParameters.get("sample")[0]);
+                boolean streaming = nextSqlQuery.getValue().getLimitCriterion() == null;
+                nextSqlQuery.getValue().setAscending(streaming);
+
                 connection = Main.getStorage(nextSqlQuery.getKey()).getConnection();
+                Downsampler sampler = null;
+                if (streaming && sampling)
+                    sampler = createDownsampler(nextSqlQuery.getKey(), nextSqlQuery.getValue(), connection);
                 de = Main.getStorage(nextSqlQuery.getKey()).streamedExecuteQuery(nextSqlQuery.getValue(), true, connection);
 
                 //get units in hash map
@@ -160,15 +187,30 @@ public class DownloadData extends AbstractDataRequest {
                 FieldsCollection fc = qbuilder.getVsnamesAndStreams().get(nextSqlQuery.getKey());
                 boolean wantTimed = true;
                 boolean firstLine = true;
+                if (streaming) {
+                    // the downsampler holds on to the rows of the current bucket
+                    de.setReuseStreamElement(sampler == null);
+                    while (de.hasMoreElements()) {
+                        StreamElement se = de.nextElement();
+                        if (sampler != null && (se = sampler.offer(se)) == null)
+                            continue;
+                        formatElement(respond, se, wantTimed, firstLine, fieldToUnitMap);
+                        firstLine = false;
+                    }
+                    StreamElement last = sampler == null ? null : sampler.finish();
+                    if (last != null)
+                        formatElement(respond, last, wantTimed, firstLine, fieldToUnitMap);
+                    if (ot == AllowedOutputType.xml)
+                        respond.println("\t</data>");
+                    continue;
+                }
                 LinkedList<StreamElement> streamElements = new LinkedList<StreamElement>();
                 while (de.hasMoreElements()) {
                     streamElements.add(de.nextElement());
                 }
 
                 double valsPerVS = MAX_SAMPLE_VALUES / numberOfFieldsInRequest();
-                if (requestParameters.containsKey("sample")
-                        && "true".equalsIgnoreCase(requestParameters.get("sample")[0])
-                        && streamElements.size() > valsPerVS){
+                if (sampling && streamElements.size() > valsPerVS){
                     //sampling
                     int numOfVals = streamElements.size();
                     int left = (int)valsPerVS;
@@ -239,6 +281,125 @@ public class DownloadData extends AbstractDataRequest {
         }
     }
 
+    /**
+     * Sets up the downsampling of a query read oldest first, from the number
+     * of rows it returns. The <code>min</code>, <code>max</code> and
+     * <code>avg</code> modes are turned into an aggregation of the query by
+     * buckets of time, the other modes into a <code>Downsampler</code>.
+     *
+     * @return null if the rows are written as they come.
+     */
+    private Downsampler createDownsampler(String vsName, AbstractQuery query, Connection connection) throws SQLException {
+        StorageManager storage = Main.getStorage(vsName);
+        long rows;
+        long minTime;
+        long maxTime;
+        ResultSet rs = storage.executeQueryWithResultSet(query.getStatisticsQuery(), connection);
+        try {
+            if (!rs.next())
+                return null;
+            rows = rs.getLong(1);
+            minTime = rs.getLong(2);
+            maxTime = rs.getLong(3);
+        } finally {
+            rs.close();
+        }
+
+        long target = (long) (MAX_SAMPLE_VALUES / Math.max(1, numberOfFieldsInRequest()));
+        if (requestParameters.containsKey("sampling_percentage")){
+            try{
+                int percentage = Integer.parseInt(requestParameters.get("sampling_percentage")[0]);
+                if (percentage > 0 && percentage <= 100 && rows*percentage > 100)
+                    target = rows*percentage/100;
+            } catch (Exception e) {}
+        }
+        if (rows <= target)
+            return null;
+
+        Downsampler.Mode mode = samplingMode;
+        if (mode != Downsampler.Mode.skip && query.getAggregation() != null) {
+            logger.debug("The " + vsName + " query is already aggregated, it is sampled by skipping rows.");
+            mode = Downsampler.Mode.skip;
+        }
+        // about target buckets over the time range
+        long width = (maxTime - minTime) / target + 1;
+        switch (mode) {
+        case min:
+        case max:
+        case avg:
+            // whole rollup buckets, for the query to be computed from them
+            int level = Rollups.get(vsName) == null ? -1 : Rollups.getLevel(width, false);
+            if (level >= 0)
+                width = width / Rollups.RESOLUTIONS[level] * Rollups.RESOLUTIONS[level];
+            try {
+                query.setAggregation(new AggregationCriterion(width + ":" + mode));
+            } catch (DataRequestException e) {
+                logger.error(e.getMessage(), e);
+            }
+            return null;
+        case lttb:
+            String field = getSamplingField(vsName, query);
+            if (field == null) {
+                logger.debug("The " + vsName + " query has no numeric field, it is sampled by skipping rows.");
+                break;
+            }
+            long[] keys = new long[(int) target + 2];
+            double[] times = new double[keys.length];
+            double[] values = new double[keys.length];
+            int buckets = 0;
+            rs = storage.executeQueryWithResultSet(query.getBucketQuery(width, field), connection);
+            try {
+                while (rs.next() && buckets < keys.length) {
+                    keys[buckets] = rs.getLong(1);
+                    times[buckets] = rs.getDouble(2);
+                    values[buckets] = rs.getDouble(3);
+                    buckets++;
+                }
+            } finally {
+                rs.close();
+            }
+            return Downsampler.lttb(field, width, keys, times, values, buckets);
+        default:
+            break;
+        }
+        return Downsampler.skip(rows, target);
+    }
+
+    /**
+     * @return the <code>sampling_field</code> parameter if it is a numeric
+     *         field of the query, else its first numeric field.
+     */
+    private String getSamplingField(String vsName, AbstractQuery query) {
+        String requested = QueriesBuilder.getParameter(requestParameters, PARAM_SAMPLING_FIELD);
+        DataField[] structure = Mappings.getVSensorConfig(vsName).getOutputStructure();
+        String first = null;
+        for (String field : query.getFields()) {
+            for (DataField df : structure) {
+                if (!df.getName().equalsIgnoreCase(field) || !isNumeric(df.getDataTypeID()))
+                    continue;
+                if (requested != null && requested.equalsIgnoreCase(field))
+                    return field;
+                if (first == null)
+                    first = field;
+            }
+        }
+        return first;
+    }
+
+    private static boolean isNumeric(byte type) {
+        switch (type) {
+        case DataTypes.TINYINT:
+        case DataTypes.SMALLINT:
+        case DataTypes.INTEGER:
+        case DataTypes.BIGINT:
+        case DataTypes.FLOAT:
+        case DataTypes.DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     private StreamElement sampleSkip (StreamElement [] seForSampling){
         return seForSampling[seForSampling.length - 1];
     }
@@ -254,6 +415,14 @@ public class DownloadData extends AbstractDataRequest {
         return toRet;
     }
 
+    private void formatElement(PrintWriter respond, StreamElement se, boolean wantTimed, boolean firstLine, HashMap<String, String> fieldToUnitMap) {
+        if (ot == AllowedOutputType.csv) {
+            formatCSVElement(respond, se, wantTimed, csvDelimiter, firstLine, fieldToUnitMap);
+        } else if (ot == AllowedOutputType.xml) {
+            formatXMLElement(respond, se, wantTimed, firstLine, fieldToUnitMap);
+        }
+    }
+
     private void formatCSVElement(PrintWriter respond, StreamElement se, boolean wantTimed, String cvsDelimiter, boolean firstLine, HashMap<String, String> fieldToUnitMap) {
         if (firstLine) {
             //names of vs fields (first line)
@@ -0,0 +1,231 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/http/datarequest/Downsampler.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.http.datarequest;
+
+import gsn.beans.StreamElement;
+
+/**
+ * Downsamples in a single pass the rows of a query read oldest first, only
+ * keeping the row(s) of the current bucket in memory. Each row is given to
+ * <code>offer</code>, which returns the row to write if one is selected, and
+ * <code>finish</code> returns the last one.
+ * <p>
+ * In the <code>skip</code> mode, the last row of each group of
+ * <code>ceil(rows / target)</code> rows is kept, as long as there are more
+ * rows left than points to output.
+ * <p>
+ * In the <code>lttb</code> mode (largest triangle three buckets), the rows
+ * are split in buckets of <code>floor(timed / width)</code> and the row of a
+ * bucket forming the largest triangle with the previously selected row and
+ * the average of the next bucket is kept. The averages of the buckets are
+ * computed beforehand by the database (see
+ * <code>AbstractQuery.getBucketQuery</code>), the first and the last rows
+ * are always kept.
+ * <p>
+ * The <code>min</code>, <code>max</code> and <code>avg</code> modes are
+ * aggregations done by the database, they don't need a downsampler.
+ */
+public class Downsampler {
+
+	public enum Mode {
+		skip,
+		lttb,
+		min,
+		max,
+		avg
+	}
+
+	private final Mode mode;
+
+	// skip
+
+	private long remaining;
+
+	private long left;
+
+	private long group;
+
+	private long inGroup = 0;
+
+	private StreamElement pending = null;
+
+	// lttb
+
+	private String field;
+
+	private int fieldIndex = -1;
+
+	private long width;
+
+	private long[] keys;
+
+	private double[] times;
+
+	private double[] values;
+
+	private int buckets;
+
+	private int bucket = 0;
+
+	private boolean started = false;
+
+	private double selectedTime;
+
+	private double selectedValue;
+
+	private StreamElement best = null;
+
+	private double bestArea;
+
+	private Downsampler(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @param rows the number of rows of the query.
+	 * @param target the number of points to output.
+	 */
+	public static Downsampler skip(long rows, long target) {
+		Downsampler sampler = new Downsampler(Mode.skip);
+		sampler.remaining = rows;
+		sampler.left = Math.max(1, target);
+		sampler.group = Math.max(1, (rows + sampler.left - 1) / sampler.left);
+		return sampler;
+	}
+
+	/**
+	 * @param field the field the triangles are computed on.
+	 * @param width the width of the buckets in ms.
+	 * @param keys the <code>floor(timed / width)</code> of the non empty buckets, in ascending order.
+	 * @param times the average time of each bucket.
+	 * @param values the average value of the field in each bucket.
+	 * @param buckets the number of buckets in the arrays.
+	 */
+	public static Downsampler lttb(String field, long width, long[] keys, double[] times, double[] values, int buckets) {
+		Downsampler sampler = new Downsampler(Mode.lttb);
+		sampler.field = field;
+		sampler.width = Math.max(1, width);
+		sampler.keys = keys;
+		sampler.times = times;
+		sampler.values = values;
+		sampler.buckets = buckets;
+		return sampler;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the row to write, null if none is selected yet.
+	 */
+	public StreamElement offer(StreamElement se) {
+		return mode == Mode.lttb ? offerTriangle(se) : offerSkip(se);
+	}
+
+	/**
+	 * @return the last row to write, null if there is none.
+	 */
+	public StreamElement finish() {
+		StreamElement toReturn = mode == Mode.lttb ? best : pending;
+		best = null;
+		pending = null;
+		return toReturn;
+	}
+
+	private StreamElement offerSkip(StreamElement se) {
+		if (inGroup == 0 && remaining <= left)
+			return se;
+		pending = se;
+		if (++inGroup < group)
+			return null;
+		inGroup = 0;
+		remaining -= group;
+		left--;
+		pending = null;
+		return se;
+	}
+
+	private StreamElement offerTriangle(StreamElement se) {
+		if (fieldIndex < 0) {
+			String[] names = se.getFieldNames();
+			for (int i = 0; i < names.length && fieldIndex < 0; i++)
+				if (names[i].equalsIgnoreCase(field))
+					fieldIndex = i;
+		}
+		long key = floorDiv(se.getTimeStamp(), width);
+		// the rows inserted since the averages were computed go to the last bucket
+		int current = bucket;
+		while (current < buckets - 1 && keys[current] < key)
+			current++;
+		double value = valueOf(se);
+
+		if (!started) {
+			started = true;
+			bucket = current;
+			select(se, value);
+			return se;
+		}
+
+		StreamElement toReturn = null;
+		if (current != bucket) {
+			if (best != null) {
+				toReturn = best;
+				select(best, valueOf(best));
+			}
+			best = null;
+			bucket = current;
+		}
+		if (bucket >= buckets - 1) {
+			// no next bucket, the most recent row is kept
+			best = se;
+		} else {
+			double area = Double.isNaN(value) ? -1 : Math.abs((selectedTime - times[bucket + 1]) * (value - selectedValue) - (selectedTime - se.getTimeStamp()) * (values[bucket + 1] - selectedValue));
+			if (best == null || area > bestArea) {
+				best = se;
+				bestArea = area;
+			}
+		}
+		return toReturn;
+	}
+
+	private void select(StreamElement se, double value) {
+		selectedTime = se.getTimeStamp();
+		selectedValue = Double.isNaN(value) && bucket < buckets ? values[bucket] : value;
+	}
+
+	private double valueOf(StreamElement se) {
+		if (fieldIndex < 0)
+			return Double.NaN;
+		Object value = se.getData()[fieldIndex];
+		return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x < 0)) ? q - 1 : q;
+	}
+}
@@ -45,8 +45,6 @@ public class StandardCriterion extends AbstractCriterion {
 	private String critValue	= null;
 	private String critOperator	= null;
 	
-	private static SimpleDateFormat sdf = new SimpleDateFormat (Main.getContainerConfig().getTimeFormat());
-
 	static {
 		allowedOp = new Hashtable<String, String> () ;
 		allowedOp.put("le", "<");
@@ -93,7 +91,7 @@ public class StandardCriterion extends AbstractCriterion {
 	}
 	
 	public String toString () {
-		String hrtf = critField.compareToIgnoreCase("timed") == 0 ? sdf.format(new Date (Long.parseLong(critValue))) : critValue;
+		String hrtf = critField.compareToIgnoreCase("timed") == 0 ? new SimpleDateFormat (Main.getContainerConfig().getTimeFormat()).format(new Date (Long.parseLong(critValue))) : critValue;
 		return critJoin + " " + critNeg + " " + critVsname + " " + critField + " " + critOperator + " " + hrtf;
 	}
 
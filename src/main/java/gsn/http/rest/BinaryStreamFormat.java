@@ -0,0 +1,417 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/http/rest/BinaryStreamFormat.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.http.rest;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+import gsn.beans.StreamElementSchema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the streams exchanged between GSN instances,
+ * negotiated through the <code>Accept</code> header as an alternative to the
+ * XStream serialization of <code>StreamElement4Rest</code>.
+ * <p>
+ * A stream starts with the magic <code>GSNB</code>, a version byte and the
+ * structure (the number of fields, then the name, type id, type and
+ * description of each field). It is followed by batches: the number of rows, then each row
+ * prefixed by its length in bytes. A row holds the difference with the
+ * timestamp of the previous row of the stream, a bitmap of the null fields
+ * and the values of the other fields in the order of the structure: the
+ * integers and times as zigzag varints, the doubles and floats in their IEEE
+ * representation, the strings in UTF-8 and the binaries as raw bytes, both
+ * prefixed by their length. A batch without rows is a keep alive message.
+ * <p>
+ * With the <code>+deflate</code> variant of the content type, everything
+ * after the content type is deflated and flushed at the end of each batch.
+ */
+public class BinaryStreamFormat {
+
+    public static final String CONTENT_TYPE = "application/x-gsn-stream";
+
+    public static final String CONTENT_TYPE_DEFLATE = CONTENT_TYPE + "+deflate";
+
+    /**
+     * Sent by the remote wrappers along with the <code>Accept</code> header,
+     * the maximum number of rows per batch.
+     */
+    public static final String BATCH_SIZE_HEADER = "X-GSN-Batch-Size";
+
+    private static final byte[] MAGIC = { 'G', 'S', 'N', 'B' };
+
+    private static final byte VERSION = 1;
+
+    private BinaryStreamFormat() {
+    }
+
+    /**
+     * @return the binary content type to answer with, null if the
+     *         <code>Accept</code> header requests none (or is null).
+     */
+    public static String negotiate(String accept) {
+        if (accept == null)
+            return null;
+        String toReturn = null;
+        for (String type : accept.split(",")) {
+            type = type.split(";")[0].trim();
+            if (type.equalsIgnoreCase(CONTENT_TYPE_DEFLATE))
+                return CONTENT_TYPE_DEFLATE;
+            if (type.equalsIgnoreCase(CONTENT_TYPE))
+                toReturn = CONTENT_TYPE;
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return the <code>Accept</code> header requesting the binary encoding,
+     *         the XML one remaining acceptable for the older instances.
+     */
+    public static String getAcceptHeader(boolean deflate) {
+        return (deflate ? CONTENT_TYPE_DEFLATE + ", " : "") + CONTENT_TYPE + ";q=0.9, */*;q=0.1";
+    }
+
+    /**
+     * @return true if the content type of a response or a request is one of
+     *         the binary ones.
+     */
+    public static boolean isBinary(String contentType) {
+        return contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE);
+    }
+
+    public static boolean isDeflated(String contentType) {
+        return contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_DEFLATE);
+    }
+
+    /**
+     * Writes the structure and the batches of rows of a stream.
+     */
+    public static class Encoder {
+
+        private final DataOutputStream out;
+
+        private DataField[] fields;
+
+        private byte[] types;
+
+        private final ByteArrayOutputStream rowBuffer = new ByteArrayOutputStream(256);
+
+        private final DataOutputStream row = new DataOutputStream(rowBuffer);
+
+        private final ByteArrayOutputStream batchBuffer = new ByteArrayOutputStream(4096);
+
+        private final DataOutputStream batch = new DataOutputStream(batchBuffer);
+
+        private int batchRows = 0;
+
+        private long lastTimestamp = 0;
+
+        /**
+         * The field names of the last row and the position in that row of
+         * each field of the structure.
+         */
+        private String[] lastNames = null;
+
+        private int[] positions;
+
+        public Encoder(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        public void writeStructure(DataField[] fields) throws IOException {
+            setStructure(fields);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(out, fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                out.writeUTF(fields[i].getName());
+                out.writeByte(types[i]);
+                out.writeUTF(fields[i].getType() != null ? fields[i].getType() : DataTypes.TYPE_NAMES[types[i]]);
+                out.writeBoolean(fields[i].getDescription() != null);
+                if (fields[i].getDescription() != null)
+                    out.writeUTF(fields[i].getDescription());
+            }
+        }
+
+        /**
+         * Sets the structure of a stream without header, such as the rows
+         * pushed after the registration.
+         */
+        public void setStructure(DataField[] fields) {
+            this.fields = fields;
+            types = new byte[fields.length];
+            for (int i = 0; i < fields.length; i++)
+                types[i] = fields[i].getDataTypeID();
+            lastNames = null;
+        }
+
+        /**
+         * Appends a row to the current batch, the values being taken from the
+         * fields of the stream element named as in the structure.
+         */
+        public void addRow(StreamElement se) throws IOException {
+            Serializable[] data = se.getData();
+            mapFields(se.getFieldNames());
+
+            rowBuffer.reset();
+            writeVarLong(row, zigzag(se.getTimeStamp() - lastTimestamp));
+            lastTimestamp = se.getTimeStamp();
+            byte[] nulls = new byte[(fields.length + 7) / 8];
+            for (int i = 0; i < fields.length; i++)
+                if (positions[i] < 0 || data[positions[i]] == null)
+                    nulls[i / 8] |= 1 << (i % 8);
+            row.write(nulls);
+            for (int i = 0; i < fields.length; i++)
+                if (positions[i] >= 0 && data[positions[i]] != null)
+                    writeValue(row, types[i], data[positions[i]]);
+
+            writeVarLong(batch, rowBuffer.size());
+            rowBuffer.writeTo(batch);
+            batchRows++;
+        }
+
+        /**
+         * Drops the current batch and restarts the timestamps from zero, for
+         * the batches decoded independently of each other.
+         */
+        public void reset() {
+            batchBuffer.reset();
+            batchRows = 0;
+            lastTimestamp = 0;
+        }
+
+        public int getBatchRows() {
+            return batchRows;
+        }
+
+        /**
+         * Writes the current batch, possibly empty, and flushes the stream.
+         */
+        public void flush() throws IOException {
+            writeVarLong(out, batchRows);
+            batchBuffer.writeTo(out);
+            batchBuffer.reset();
+            batchRows = 0;
+            out.flush();
+        }
+
+        private void mapFields(String[] names) {
+            // the stream elements of a virtual sensor usually share their names
+            if (names == lastNames)
+                return;
+            positions = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                positions[i] = -1;
+                if (i < names.length && names[i].equalsIgnoreCase(fields[i].getName()))
+                    positions[i] = i;
+                else
+                    for (int j = 0; j < names.length && positions[i] < 0; j++)
+                        if (names[j].equalsIgnoreCase(fields[i].getName()))
+                            positions[i] = j;
+            }
+            lastNames = names;
+        }
+    }
+
+    /**
+     * Reads the structure and the batches of rows of a stream.
+     */
+    public static class Decoder {
+
+        private final DataInputStream in;
+
+        private DataField[] fields;
+
+        private StreamElementSchema schema;
+
+        private byte[] types;
+
+        private long lastTimestamp = 0;
+
+        public Decoder(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        public DataField[] readStructure() throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++)
+                if (magic[i] != MAGIC[i])
+                    throw new IOException("Not a GSN binary stream.");
+            byte version = in.readByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported version of the GSN binary stream: " + version);
+            int count = (int) readVarLong(in);
+            fields = new DataField[count];
+            types = new byte[count];
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                types[i] = in.readByte();
+                fields[i] = new DataField(name, types[i]);
+                // with the precision, as in varchar(100)
+                fields[i].setType(in.readUTF());
+                if (in.readBoolean())
+                    fields[i].setDescription(in.readUTF());
+            }
+            schema = StreamElementSchema.of(fields);
+            return fields;
+        }
+
+        /**
+         * Sets the structure of a stream without header, such as the rows
+         * pushed after the registration.
+         */
+        public void setStructure(DataField[] fields) {
+            this.fields = fields;
+            types = new byte[fields.length];
+            for (int i = 0; i < fields.length; i++)
+                types[i] = fields[i].getDataTypeID();
+            schema = StreamElementSchema.of(fields);
+        }
+
+        /**
+         * Reads the next batch into <code>rows</code>, an empty batch being a
+         * keep alive message.
+         *
+         * @return false at the end of the stream.
+         */
+        public boolean readBatch(List<StreamElement> rows) throws IOException {
+            long count;
+            try {
+                count = readVarLong(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            for (long r = 0; r < count; r++) {
+                // the length of the row is only needed to skip it
+                readVarLong(in);
+                lastTimestamp += unzigzag(readVarLong(in));
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                in.readFully(nulls);
+                Serializable[] data = new Serializable[fields.length];
+                for (int i = 0; i < fields.length; i++)
+                    if ((nulls[i / 8] & (1 << (i % 8))) == 0)
+                        data[i] = readValue(in, types[i]);
+                rows.add(new StreamElement(schema, data, lastTimestamp));
+            }
+            return true;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, byte type, Serializable value) throws IOException {
+        switch (type) {
+        case DataTypes.TINYINT:
+        case DataTypes.SMALLINT:
+        case DataTypes.INTEGER:
+        case DataTypes.BIGINT:
+        case DataTypes.TIME:
+            writeVarLong(out, zigzag(((Number) value).longValue()));
+            break;
+        case DataTypes.DOUBLE:
+            out.writeDouble(((Number) value).doubleValue());
+            break;
+        case DataTypes.FLOAT:
+            out.writeFloat(((Number) value).floatValue());
+            break;
+        case DataTypes.CHAR:
+        case DataTypes.VARCHAR:
+            writeBytes(out, value.toString().getBytes("UTF-8"));
+            break;
+        default:
+            writeBytes(out, (byte[]) value);
+        }
+    }
+
+    private static Serializable readValue(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+        case DataTypes.TINYINT:
+            return (byte) unzigzag(readVarLong(in));
+        case DataTypes.SMALLINT:
+            return (short) unzigzag(readVarLong(in));
+        case DataTypes.INTEGER:
+            return (int) unzigzag(readVarLong(in));
+        case DataTypes.BIGINT:
+        case DataTypes.TIME:
+            return unzigzag(readVarLong(in));
+        case DataTypes.DOUBLE:
+            return in.readDouble();
+        case DataTypes.FLOAT:
+            return in.readFloat();
+        case DataTypes.CHAR:
+        case DataTypes.VARCHAR:
+            return new String(readBytes(in), "UTF-8");
+        default:
+            return readBytes(in);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in the GSN binary stream.");
+    }
+}
@@ -30,14 +30,19 @@ package gsn.http.rest;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
@@ -65,6 +70,12 @@ public class PushDelivery implements DeliverySystem {
 
 	private Writer writer;
 
+	private OutputStream stream;
+
+	private BinaryStreamFormat.Encoder encoder;
+
+	private ByteArrayOutputStream encoded;
+
 	private double notificationId;
 
 	public PushDelivery(String deliveryContactPoint,double notificaitonId, Writer writer) {
@@ -74,8 +85,31 @@ public class PushDelivery implements DeliverySystem {
 		this.notificationId = notificaitonId;
 	}
 
+	/**
+	 * Delivery in the <code>BinaryStreamFormat</code>: the structure is written to the stream and
+	 * each stream element is put as a batch of one row, the notification id being in the URL.
+	 */
+	public PushDelivery(String deliveryContactPoint,double notificaitonId, OutputStream stream) {
+		try {
+			httpPut = new HttpPut(deliveryContactPoint + (deliveryContactPoint.indexOf('?') < 0 ? "?" : "&") + NOTIFICATION_ID_KEY + "=" + URLEncoder.encode(Double.toString(notificaitonId), "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		this.stream = stream;
+		this.notificationId = notificaitonId;
+	}
+
 
 	public void writeStructure(DataField[] fields) throws IOException {
+		if (stream != null) {
+			new BinaryStreamFormat.Encoder(stream).writeStructure(fields);
+			stream.flush();
+			stream = null;
+			encoded = new ByteArrayOutputStream();
+			encoder = new BinaryStreamFormat.Encoder(encoded);
+			encoder.setStructure(fields);
+			return;
+		}
 		String xml = xstream.toXML(fields);
 		if (writer ==null)
 			throw new RuntimeException("The writer structue is null.");
@@ -84,6 +118,11 @@ public class PushDelivery implements DeliverySystem {
 	}
 
 	public boolean writeStreamElement(StreamElement se) {
+		if (encoder != null) {
+			boolean success = sendData(se);
+			isClosed = !success;
+			return success;
+		}
 		String xml = xstream.toXML(new StreamElement4Rest(se));
 		boolean success = sendData(xml);
 //		boolean success =true;
@@ -127,6 +166,28 @@ public class PushDelivery implements DeliverySystem {
 
 	}
 
+	private synchronized boolean sendData(StreamElement se) {
+		try {
+			// each batch is decoded on its own
+			encoded.reset();
+			encoder.reset();
+			encoder.addRow(se);
+			encoder.flush();
+			ByteArrayEntity entity = new ByteArrayEntity(encoded.toByteArray());
+			entity.setContentType(BinaryStreamFormat.CONTENT_TYPE);
+			httpPut.setEntity(entity);
+
+			HttpResponse response = httpclient.execute(httpPut);
+
+			int statusCode = response.getStatusLine().getStatusCode();
+			response.getEntity().getContent().close(); // releasing the connection to the http client's pool
+			return statusCode == RestStreamHanlder.SUCCESS_200;
+		} catch (Exception e) {
+			logger.warn(e.getMessage(),e);
+			return false;
+		}
+	}
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -36,6 +36,7 @@ import gsn.wrappers.AbstractWrapper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyStore;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -137,6 +138,8 @@ public class PushRemoteWrapper extends AbstractWrapper{
         httpPost.setEntity(new UrlEncodedFormEntity(postParameters, HTTP.UTF_8));
         //
         httpPost.getParams().setParameter(CoreProtocolPNames.USE_EXPECT_CONTINUE, Boolean.FALSE);
+        if (initParams.isBinary())
+            httpPost.setHeader("Accept", BinaryStreamFormat.getAcceptHeader(false));
         // Create local execution context
         HttpContext localContext = new BasicHttpContext();
         //
@@ -155,7 +158,10 @@ public class PushRemoteWrapper extends AbstractWrapper{
                 //
                 if (sc == HttpStatus.SC_OK) {
                     logger.debug(new StringBuilder().append("Wants to consume the structure packet from ").append(initParams.getRemoteContactPoint()));
-                    structure = (DataField[]) XSTREAM.fromXML(response.getEntity().getContent());
+                    if (BinaryStreamFormat.isBinary(response.getEntity().getContentType() == null ? null : response.getEntity().getContentType().getValue()))
+                        structure = new BinaryStreamFormat.Decoder(response.getEntity().getContent()).readStructure();
+                    else
+                        structure = (DataField[]) XSTREAM.fromXML(response.getEntity().getContent());
                     logger.debug("Connection established for: " + initParams.getRemoteContactPoint());
                     break;
                 } else {
@@ -209,9 +215,37 @@ public class PushRemoteWrapper extends AbstractWrapper{
         try {
         
             StreamElement4Rest se = (StreamElement4Rest) XSTREAM.fromXML(Xstream4Rest);
-            StreamElement streamElement = se.toStreamElement();
+            return manualDataInsertion(se.toStreamElement());
+        }
+        catch (XStreamException e){
+        	logger.warn(e.getMessage(), e);
+        	return false;
+        }
+    }
 
-        
+    /**
+     * Inserts the rows of a batch in the <code>BinaryStreamFormat</code>.
+     */
+    public boolean manualDataInsertion(InputStream batch) {
+        logger.debug(new StringBuilder().append("Received binary Stream Elements at the push wrapper."));
+        try {
+            BinaryStreamFormat.Decoder decoder = new BinaryStreamFormat.Decoder(batch);
+            decoder.setStructure(structure);
+            ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+            decoder.readBatch(rows);
+            boolean status = true;
+            for (StreamElement streamElement : rows)
+                status = status && manualDataInsertion(streamElement);
+            return status;
+        }
+        catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    public boolean manualDataInsertion(StreamElement streamElement) {
+        try {
             // If the stream element is out of order, we accept the stream element and wait for the next (update the last received time and return true)
             if (isOutOfOrder(streamElement)) {
                 lastReceivedTimestamp = streamElement.getTimeStamp();
@@ -229,16 +263,14 @@ public class PushRemoteWrapper extends AbstractWrapper{
             logger.warn(e.getMessage(), e);
             return false;
         }
-        catch (XStreamException e){
-        	logger.warn(e.getMessage(), e);
-        	return false;
-        }
     }
 
     public void run() {
         HttpPost httpPost = new HttpPost(initParams.getRemoteContactPointEncoded(lastReceivedTimestamp));
         //
         httpPost.getParams().setParameter(CoreProtocolPNames.USE_EXPECT_CONTINUE, Boolean.FALSE);
+        if (initParams.isBinary())
+            httpPost.setHeader("Accept", BinaryStreamFormat.getAcceptHeader(false));
         //
         HttpResponse response = null; //This is acting as keep alive.
         //
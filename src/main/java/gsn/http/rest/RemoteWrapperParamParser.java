@@ -46,6 +46,10 @@ public class RemoteWrapperParamParser {
 	private String query,deliveryContactPoint,remoteContactPoint;
 	private String username,password;
     private boolean isSSLRequired;
+    // The binary encoding is requested unless disabled, the older instances answer in XML.
+    private boolean isBinary;
+    private boolean isDeflate;
+    private int batchSize;
     // The default timeout is set to 3 times the rate of the periodical Keep alive messages.
     // The timeout can be overriden in the virtual sensor description files.
     private int timeout =  3 * DataDistributer.getKeepAlivePeriod();
@@ -65,6 +69,10 @@ public class RemoteWrapperParamParser {
 		password = addressBean.getPredicateValue( "password" );
 
         timeout = addressBean.getPredicateValueAsInt("timeout", timeout);
+
+        isBinary = !"xml".equalsIgnoreCase(addressBean.getPredicateValueWithDefault("encoding", "binary"));
+        isDeflate = "deflate".equalsIgnoreCase(addressBean.getPredicateValue("compression"));
+        batchSize = addressBean.getPredicateValueAsInt("batch-size", 1);
         
         /**
 		 * First looks for URL parameter, if it is there it will be used otherwise
@@ -134,6 +142,18 @@ public class RemoteWrapperParamParser {
         return isSSLRequired;
     }
 
+    public boolean isBinary() {
+        return isBinary;
+    }
+
+    public boolean isDeflate() {
+        return isDeflate;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     public String getRemoteContactPointEncoded(long lastModifiedTime) {
 		String toSend;
 		try {
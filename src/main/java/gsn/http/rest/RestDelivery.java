@@ -1,22 +1,22 @@
 /**
 * Global Sensor Networks (GSN) Source Code
 * Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
-* 
+*
 * This file is part of GSN.
-* 
+*
 * GSN is free software: you can redistribute it and/or modify
 * it under the terms of the GNU General Public License as published by
 * the Free Software Foundation, either version 3 of the License, or
 * (at your option) any later version.
-* 
+*
 * GSN is distributed in the hope that it will be useful,
 * but WITHOUT ANY WARRANTY; without even the implied warranty of
 * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
 * GNU General Public License for more details.
-* 
+*
 * You should have received a copy of the GNU General Public License
 * along with GSN.  If not, see <http://www.gnu.org/licenses/>.
-* 
+*
 * File: src/gsn/http/rest/RestDelivery.java
 *
 * @author Ali Salehi
@@ -30,10 +30,14 @@ package gsn.http.rest;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.continuation.Continuation;
@@ -41,62 +45,283 @@ import org.eclipse.jetty.io.WriterOutputStream;
 
 import com.thoughtworks.xstream.XStream;
 
+/**
+ * Streaming delivery over a suspended Jetty continuation, in XML or in the
+ * <code>BinaryStreamFormat</code> when the remote wrapper accepts it.
+ * <p>
+ * Writing a stream element only queues it and resumes the continuation, the
+ * queue being written by the servlet (see <code>drain</code>) in a thread of
+ * the container. The distributer is never blocked by a subscriber, and the
+ * threads are only used by the subscribers having something to write. In the
+ * binary format, the elements queued meanwhile are sent as one batch.
+ * <p>
+ * The queue holds at most <code>restOutboundBufferSize</code> elements
+ * (system property, 100 by default). The distributer stops reading the
+ * database for a subscriber with a full queue until it is drained, and the
+ * <code>restSlowConsumerPolicy</code> (system property, which
+ * <code>setPolicy</code> overrides for a delivery) decides for the
+ * elements produced meanwhile: <code>buffer</code> (default) leaves them to
+ * the distributer, which falls back to the database when they don't fit in
+ * memory, <code>drop</code> discards them, <code>coalesce</code> replaces the
+ * queued elements with the latest one and <code>disconnect</code> closes the
+ * connection.
+ */
 public class RestDelivery implements DeliverySystem {
 
-    private Continuation continuation;
-    private ObjectOutputStream objectStream;
+    public enum SlowConsumerPolicy {
+        buffer,
+        drop,
+        coalesce,
+        disconnect
+    }
+
+    public static final int OUTBOUND_BUFFER_SIZE = 100;
+
+    private static int outboundBufferSize = -1;
+
+    private static SlowConsumerPolicy slowConsumerPolicy = null;
+
+    private static transient Logger logger = Logger.getLogger(RestDelivery.class);
 
     private static final StreamElement keepAliveMsg = new StreamElement(new DataField[]{new DataField("keepalive", "string")}, new Serializable[]{"keep-alive message"}, Long.MIN_VALUE);
 
+    private final Continuation continuation;
+
+    private ObjectOutputStream objectStream;
+
+    private OutputStream stream;
+
+    private BinaryStreamFormat.Encoder encoder;
+
+    private final int batchSize;
+
+    private final ArrayDeque<StreamElement> queue = new ArrayDeque<StreamElement>();
+
+    /**
+     * True from the resume of the continuation until the servlet drains the queue.
+     */
+    private final AtomicBoolean resumed = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    private volatile boolean finished = false;
+
+    private volatile Runnable writableListener = null;
+
+    private volatile SlowConsumerPolicy policy = getSlowConsumerPolicy();
+
+    private long dropped = 0;
+
     public RestDelivery(Continuation connection) throws IOException {
+        this(connection, null, 1);
+    }
+
+    /**
+     * @param binaryType one of the content types of <code>BinaryStreamFormat</code>, null for XML.
+     * @param batchSize the maximum number of rows per batch in the binary format.
+     */
+    public RestDelivery(Continuation connection, String binaryType, int batchSize) throws IOException {
         this.continuation = connection;
-        XStream dataStream = StreamElement4Rest.getXstream();
-        objectStream = dataStream.createObjectOutputStream((new WriterOutputStream(continuation.getServletResponse().getWriter())));
+        this.batchSize = Math.max(1, batchSize);
+        if (binaryType == null) {
+            XStream dataStream = StreamElement4Rest.getXstream();
+            objectStream = dataStream.createObjectOutputStream((new WriterOutputStream(continuation.getServletResponse().getWriter())));
+        } else {
+            continuation.getServletResponse().setContentType(binaryType);
+            OutputStream out = continuation.getServletResponse().getOutputStream();
+            if (BinaryStreamFormat.isDeflated(binaryType))
+                out = new DeflaterOutputStream(out, true);
+            stream = new BufferedOutputStream(out, 8192);
+            encoder = new BinaryStreamFormat.Encoder(stream);
+        }
     }
 
-    private static transient Logger logger = Logger.getLogger(RestDelivery.class);
+    public static int getOutboundBufferSize() {
+        if (outboundBufferSize == -1)
+            outboundBufferSize = System.getProperty("restOutboundBufferSize") == null ? OUTBOUND_BUFFER_SIZE : Integer.parseInt(System.getProperty("restOutboundBufferSize"));
+        return outboundBufferSize;
+    }
+
+    public static SlowConsumerPolicy getSlowConsumerPolicy() {
+        if (slowConsumerPolicy == null)
+            slowConsumerPolicy = System.getProperty("restSlowConsumerPolicy") == null ? SlowConsumerPolicy.buffer : SlowConsumerPolicy.valueOf(System.getProperty("restSlowConsumerPolicy"));
+        return slowConsumerPolicy;
+    }
+
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(SlowConsumerPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * The listener is run when a full queue is drained.
+     */
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    /**
+     * @return true if the queue has room for a stream element.
+     */
+    public boolean isWritable() {
+        synchronized (queue) {
+            return queue.size() < getOutboundBufferSize();
+        }
+    }
 
     public void writeStructure(DataField[] fields) throws IOException {
-        objectStream.writeObject(fields);
-        objectStream.flush();
+        if (encoder != null) {
+            encoder.writeStructure(fields);
+            stream.flush();
+        } else {
+            objectStream.writeObject(fields);
+            objectStream.flush();
+        }
         continuation.getServletResponse().flushBuffer();
     }
 
-    public synchronized boolean writeStreamElement(StreamElement se) {
-        try {
-            objectStream.writeObject(new StreamElement4Rest(se));
-            objectStream.flush();
-            continuation.resume();
-            return ((LinkedBlockingQueue<Boolean>) continuation.getAttribute("status")).take();
-        } catch (Exception e) {
-            logger.debug(e.getMessage(), e);
+    public boolean writeStreamElement(StreamElement se) {
+        if (closed)
+            return false;
+        boolean disconnect = false;
+        synchronized (queue) {
+            if (queue.size() >= getOutboundBufferSize()) {
+                switch (policy) {
+                case drop:
+                    if (dropped++ % 1000 == 0)
+                        logger.warn("Slow consumer, " + dropped + " stream element(s) dropped.");
+                    return true;
+                case coalesce:
+                    queue.clear();
+                    break;
+                case disconnect:
+                    disconnect = true;
+                    break;
+                default:
+                    // the distributer waits for the queue to be drained, except for the keep alive messages
+                    break;
+                }
+            }
+            if (!disconnect)
+                queue.add(se);
+        }
+        // the continuation isn't resumed while holding the queue
+        if (disconnect) {
+            logger.warn("Slow consumer, closing the connection.");
+            close();
             return false;
         }
+        resume();
+        return true;
     }
 
     public boolean writeKeepAliveStreamElement() {
+        if (closed)
+            return false;
+        synchronized (queue) {
+            // only needed on idle connections
+            if (!queue.isEmpty())
+                return true;
+        }
         logger.debug("Sending the keepalive message.");
         return writeStreamElement(keepAliveMsg);
     }
 
-    public void close() {
+    private void resume() {
+        if (resumed.compareAndSet(false, true)) {
+            try {
+                continuation.resume();
+            } catch (IllegalStateException e) {
+                // already completed
+                logger.debug(e.getMessage(), e);
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the queued stream elements, called by the servlet in the thread
+     * resuming the continuation, after suspending it again.
+     *
+     * @return false once the delivery is closed and the continuation completed.
+     */
+    public boolean drain() {
+        resumed.set(false);
+        boolean wasFull = !isWritable();
         try {
-            if (objectStream != null){
-                objectStream.close();
-                continuation.complete();
+            while (!closed) {
+                StreamElement se;
+                synchronized (queue) {
+                    se = queue.poll();
+                }
+                if (se == null)
+                    break;
+                if (encoder != null) {
+                    if (se != keepAliveMsg)
+                        encoder.addRow(se);
+                    synchronized (queue) {
+                        // the elements queued meanwhile go to the same batch
+                        if (se != keepAliveMsg && encoder.getBatchRows() < batchSize && !queue.isEmpty())
+                            continue;
+                    }
+                    encoder.flush();
+                } else {
+                    objectStream.writeObject(new StreamElement4Rest(se));
+                    objectStream.flush();
+                    if (continuation.getServletResponse().getWriter().checkError())
+                        throw new IOException("Writing to the subscriber failed.");
+                }
             }
         } catch (Exception e) {
             logger.debug(e.getMessage(), e);
+            closed = true;
         }
+        if (wasFull && writableListener != null)
+            writableListener.run();
+        if (closed) {
+            finish();
+            return false;
+        }
+        return true;
     }
 
-    public boolean isClosed() {
+    /**
+     * Ends the stream and completes the continuation, once.
+     */
+    private synchronized void finish() {
+        if (finished)
+            return;
+        finished = true;
+        try {
+            if (encoder != null)
+                stream.close();
+            else if (objectStream != null)
+                objectStream.close();
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
+        }
         try {
-            return continuation.getServletResponse().getWriter().checkError();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return true;
+            continuation.complete();
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
         }
+    }
 
+    /**
+     * The connection is closed by the servlet, in the thread draining the queue.
+     */
+    public void close() {
+        closed = true;
+        synchronized (queue) {
+            queue.clear();
+        }
+        resume();
+    }
+
+    public boolean isClosed() {
+        return closed;
     }
 }
@@ -36,9 +36,12 @@ import gsn.wrappers.AbstractWrapper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.security.KeyStore;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.apache.http.HttpResponse;
@@ -79,6 +82,10 @@ public class RestRemoteWrapper extends AbstractWrapper {
 
     private ObjectInputStream inputStream;
 
+    private InputStream binaryStream;
+
+    private BinaryStreamFormat.Decoder decoder;
+
     private HttpResponse response;
 
     private HttpParams getHttpClientParams(int timeout) {
@@ -135,6 +142,10 @@ public class RestRemoteWrapper extends AbstractWrapper {
     public DataField[] connectToRemote() throws IOException, ClassNotFoundException {
         // Create the GET request
         HttpGet httpget = new HttpGet(initParams.getRemoteContactPointEncoded(lastReceivedTimestamp));
+        if (initParams.isBinary()) {
+            httpget.setHeader("Accept", BinaryStreamFormat.getAcceptHeader(initParams.isDeflate()));
+            httpget.setHeader(BinaryStreamFormat.BATCH_SIZE_HEADER, Integer.toString(initParams.getBatchSize()));
+        }
         // Create local execution context
         HttpContext localContext = new BasicHttpContext();
         //
@@ -142,13 +153,12 @@ public class RestRemoteWrapper extends AbstractWrapper {
         int tries = 0;
         AuthState authState = null;
         //
-        if (inputStream != null) {
+        if (inputStream != null || binaryStream != null) {
             try {
                 if(response != null && response.getEntity() != null) {
                         response.getEntity().consumeContent();
                 }
-                inputStream.close();
-                inputStream = null;
+                closeStreams();
             }
             catch (Exception e) {
                 logger.debug(e.getMessage(), e);
@@ -165,8 +175,17 @@ public class RestRemoteWrapper extends AbstractWrapper {
                 //
                 if (sc == HttpStatus.SC_OK) {
                     logger.debug(new StringBuilder().append("Wants to consume the structure packet from ").append(initParams.getRemoteContactPoint()));
-                    inputStream = XSTREAM.createObjectInputStream(response.getEntity().getContent());
-                    structure = (DataField[]) inputStream.readObject();
+                    String contentType = response.getEntity().getContentType() == null ? null : response.getEntity().getContentType().getValue();
+                    if (BinaryStreamFormat.isBinary(contentType)) {
+                        binaryStream = response.getEntity().getContent();
+                        if (BinaryStreamFormat.isDeflated(contentType))
+                            binaryStream = new InflaterInputStream(binaryStream);
+                        decoder = new BinaryStreamFormat.Decoder(binaryStream);
+                        structure = decoder.readStructure();
+                    } else {
+                        inputStream = XSTREAM.createObjectInputStream(response.getEntity().getContent());
+                        structure = (DataField[]) inputStream.readObject();
+                    }
                     logger.warn("Connection established for: " + initParams.getRemoteContactPoint());
                     break;
                 } else {
@@ -225,10 +244,44 @@ public class RestRemoteWrapper extends AbstractWrapper {
         }
     }
 
+    private void closeStreams() throws IOException {
+        if (inputStream != null) {
+            inputStream.close();
+            inputStream = null;
+        }
+        if (binaryStream != null) {
+            binaryStream.close();
+            binaryStream = null;
+            decoder = null;
+        }
+    }
+
+    private void readBinary() throws IOException {
+        ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+        while (isActive() && decoder != null) {
+            rows.clear();
+            if (!decoder.readBatch(rows))
+                throw new IOException("End of the stream.");
+            if (rows.isEmpty())
+                logger.debug("Received a keep alive message.");
+            for (StreamElement streamElement : rows) {
+                if (!manualDataInsertion(streamElement)) {
+                    response.getEntity().consumeContent();
+                    closeStreams();
+                    break;
+                }
+            }
+        }
+    }
+
     public void run() {
         StreamElement4Rest se = null;
         while (isActive()) {
             try {
+                if (decoder != null) {
+                    readBinary();
+                    continue;
+                }
                 while (isActive() && (se = (StreamElement4Rest) inputStream.readObject()) != null) {
                     StreamElement streamElement = se.toStreamElement();
                     if ( ! (streamElement.getFieldNames().length == 1 && streamElement.getFieldNames()[0].equals("keepalive"))) {
@@ -48,7 +48,6 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.StringTokenizer;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -102,7 +101,6 @@ public class RestStreamHanlder extends HttpServlet {
 
 		if(is2ndPass == null) {
             continuation.setAttribute("2ndPass", Boolean.TRUE);
-            continuation.setAttribute("status", new LinkedBlockingQueue<Boolean>(1));
             continuation.setTimeout(-1); // Disable the timeout on the continuation.
             continuation.suspend();
             final DefaultDistributionRequest streamingReq;
@@ -121,7 +119,9 @@ public class RestStreamHanlder extends HttpServlet {
                     }
                 }
                 //
-                RestDelivery deliverySystem = new RestDelivery(continuation);
+                String binaryType = BinaryStreamFormat.negotiate(request.getHeader("Accept"));
+                RestDelivery deliverySystem = new RestDelivery(continuation, binaryType, parseBatchSize(request.getHeader(BinaryStreamFormat.BATCH_SIZE_HEADER)));
+                continuation.setAttribute("delivery", deliverySystem);
                 streamingReq = DefaultDistributionRequest.create(deliverySystem, parser.getVSensorConfig(), parser.getQuery(), parser.getStartTime());
                 DataDistributer.getInstance(deliverySystem.getClass()).addListener(streamingReq);
 			}catch (Exception e) {
@@ -129,18 +129,13 @@ public class RestStreamHanlder extends HttpServlet {
                 continuation.complete();
             }
 		}else {
-            boolean status = false;
-            try{
-                status = !continuation.getServletResponse().getWriter().checkError();
-            } catch (Exception e) {
-                logger.debug(e.getMessage(), e);
-            }
+            // suspended before draining, so that the stream elements queued meanwhile resume it again
             continuation.suspend();
-            try {
-                ((LinkedBlockingQueue<Boolean>)continuation.getAttribute("status")).put(status);
-            } catch (InterruptedException e) {
-                logger.debug(e.getMessage(), e);
-            }
+            RestDelivery deliverySystem = (RestDelivery) continuation.getAttribute("delivery");
+            if (deliverySystem == null)
+                continuation.complete();
+            else
+                deliverySystem.drain();
 		}
 	}
 	/**
@@ -183,12 +178,17 @@ public class RestStreamHanlder extends HttpServlet {
 			//checking to see if there is an already registered notification id, in that case, we ignore (re)registeration.
 			
 			DeliverySystem delivery;
+			boolean binary = BinaryStreamFormat.negotiate(request.getHeader("Accept")) != null;
 			if (parser.pushType.equals("wp"))
 				delivery = new WPPushDelivery(localContactPoint,notificationId,response.getWriter(),parser.nClass,parser.nMessage);
             else if (parser.pushType.equals("ad")){
 				String regId = request.getParameter(PARAMETER_REG_ID);
 				delivery = new AndroidPushDelivery(localContactPoint, notificationId,response.getWriter(), parser.nClass, regId);
 			}
+			else if (binary) {
+				response.setContentType(BinaryStreamFormat.CONTENT_TYPE);
+				delivery = new PushDelivery(localContactPoint,notificationId,response.getOutputStream());
+			}
 			else
 				delivery = new PushDelivery(localContactPoint,notificationId,response.getWriter());
 
@@ -225,9 +225,12 @@ public class RestStreamHanlder extends HttpServlet {
 		try {
 			if (notification!=null) {
 				boolean status = true;
-				for (String s:request.getParameterValues(PushDelivery.DATA)){
-				     status = status && notification.manualDataInsertion(s);
-				}
+				if (BinaryStreamFormat.isBinary(request.getContentType()))
+					status = notification.manualDataInsertion(request.getInputStream());
+				else
+					for (String s:request.getParameterValues(PushDelivery.DATA)){
+					     status = status && notification.manualDataInsertion(s);
+					}
                 if (status)
                     response.setStatus(SUCCESS_200);
                 else
@@ -241,6 +244,17 @@ public class RestStreamHanlder extends HttpServlet {
 		}
 	}
 
+    private int parseBatchSize(String header) {
+        if (header == null)
+            return 1;
+        try {
+            return Integer.parseInt(header.trim());
+        } catch (NumberFormatException e) {
+            logger.debug("Invalid batch size: " + header);
+            return 1;
+        }
+    }
+
     /**
      *
      * @param request
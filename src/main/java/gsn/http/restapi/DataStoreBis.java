@@ -1,5 +1,6 @@
 package gsn.http.restapi;
 
+import gsn.LatestValueCache;
 import gsn.Main;
 import gsn.Mappings;
 import gsn.beans.DataField;
@@ -7,7 +8,6 @@ import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.data.*;
 import gsn.http.ac.DataSource;
-import gsn.storage.DataEnumerator;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -85,25 +85,13 @@ public class DataStoreBis {
 	}
 	
 	public static java.util.Map<String, Object> latestValues(String vsName) {
-		StringBuilder query = new StringBuilder("select * from ")
-				.append(vsName)
-				.append(" where timed = (select max(timed) from ")
-				.append(vsName).append(")");
 		java.util.Map<String, Object> toReturn = new HashMap<String, Object>();
-		try {
-			DataEnumerator result = Main.getStorage(vsName).executeQuery(query,
-					true);
-			if (result.hasMoreElements()) {
-				StreamElement se = result.nextElement();
-				toReturn.put("time", se.getTimeStamp());
-				for (String fn : se.getFieldNames()) {
-					toReturn.put(fn.toLowerCase(), (Double) se.getData(fn));
-				}
+		StreamElement se = LatestValueCache.getInstance().getLatest(vsName);
+		if (se != null) {
+			toReturn.put("time", se.getTimeStamp());
+			for (String fn : se.getFieldNames()) {
+				toReturn.put(fn.toLowerCase(), se.getData(fn));
 			}
-		} catch (SQLException e) {
-			logger.error("ERROR IN EXECUTING, query: " + query);
-			logger.error(e.getMessage(), e);
-			return null;
 		}
 		return toReturn;
 	}
@@ -28,6 +28,7 @@
 
 package gsn.http.restapi;
 
+import gsn.LatestValueCache;
 import gsn.Main;
 import gsn.Mappings;
 import gsn.beans.DataField;
@@ -35,7 +36,7 @@ import gsn.beans.StreamElement;
 import gsn.beans.VSensorConfig;
 import gsn.http.ac.DataSource;
 import gsn.http.ac.User;
-import gsn.storage.DataEnumerator;
+import gsn.storage.Rollups;
 import gsn.utils.geo.GridTools;
 import gsn.xpr.XprConditions;
 
@@ -98,24 +99,10 @@ public class RequestHandler {
             }
             */
             if (includeLatestVals){
-                if (Caching.isEnabled()){
-                    if (!Caching.isCacheValid(sensorConfig.getName())){
-                        Map<String, Double> se = getMostRecentValueFor(sensorConfig.getName());
-                        List<Double> latestValsList = new ArrayList<Double>();
-                        if (se != null){
-                            for (DataField df: sensorConfig.getOutputStructure()){
-                                latestValsList.add(se.get(df.getName().toLowerCase()));
-                            }
-                        }
-                        Caching.setLatestValsForSensor(sensorConfig.getName(), latestValsList);
-                    }
-                    sensor.setLatestValues(Caching.getLatestValsForSensor(sensorConfig.getName()));
-                } else {
-                    Map<String, Double> se = getMostRecentValueFor(sensorConfig.getName());
-                    if (se != null){
-                        for (DataField df: sensorConfig.getOutputStructure()){
-                            sensor.addLatestValue(se.get(df.getName().toLowerCase()));
-                        }
+                Map<String, Double> se = getMostRecentValueFor(sensorConfig.getName());
+                if (se != null){
+                    for (DataField df: sensorConfig.getOutputStructure()){
+                        sensor.addLatestValue(se.get(df.getName().toLowerCase()));
                     }
                 }
             }
@@ -721,21 +708,14 @@ public class RequestHandler {
     }
 
     public static Map<String, Double> getMostRecentValueFor(String virtual_sensor_name) {
-        StringBuilder query=  new StringBuilder("select * from " ).append(virtual_sensor_name).append( " where timed = (select max(timed) from " ).append(virtual_sensor_name).append(")");
         Map<String, Double> toReturn=new HashMap<String, Double>() ;
-        try {
-            DataEnumerator result = Main.getStorage(virtual_sensor_name).executeQuery( query , true );
-            if ( result.hasMoreElements( ) ){
-                StreamElement se = result.nextElement();
-                //toReturn.put("timed", se.getTimeStamp());
-                for (String fn: se.getFieldNames()){
-                    toReturn.put(fn.toLowerCase(), (Double)se.getData(fn));
-                }
+        StreamElement se = LatestValueCache.getInstance().getLatest(virtual_sensor_name);
+        if (se != null){
+            //toReturn.put("timed", se.getTimeStamp());
+            for (String fn: se.getFieldNames()){
+                Object value = se.getData(fn);
+                toReturn.put(fn.toLowerCase(), value instanceof Number ? ((Number) value).doubleValue() : null);
             }
-        } catch (SQLException e) {
-            logger.error("ERROR IN EXECUTING, query: "+query);
-            logger.error(e.getMessage(),e);
-            return null;
         }
         return toReturn;
     }
@@ -746,7 +726,10 @@ public class RequestHandler {
 
         boolean result = true;
 
-        long skip = getTableSize(sensor) / size;
+        // the coarsest rollup with at least size buckets over the period
+        Rollups rollups = Rollups.get(sensor);
+        int level = rollups != null && rollups.hasField(field) && to > from ? Rollups.getLevel((to - from) / size, false) : -1;
+        long skip = level >= 0 ? 0 : getTableSize(sensor) / size;
 
         /*
         logger.warn("skip = " + skip);
@@ -756,7 +739,24 @@ public class RequestHandler {
 
         try {
             conn = Main.getStorage(sensor).getConnection();
-            StringBuilder query = new StringBuilder("select timed, ")
+            StringBuilder query;
+            if (level >= 0) {
+                long width = (to - from) / size / Rollups.RESOLUTIONS[level] * Rollups.RESOLUTIONS[level];
+                // the buckets within the period
+                query = new StringBuilder("select min(")
+                        .append(Rollups.getColumn("timed", "min"))
+                        .append("), sum(")
+                        .append(Rollups.getColumn(field, "sum"))
+                        .append(")/sum(")
+                        .append(Rollups.getColumn(field, "count"))
+                        .append(") from ")
+                        .append(Rollups.getTableName(sensor, level))
+                        .append(" where timed >= ").append(Rollups.ceil(from, Rollups.RESOLUTIONS[level]))
+                        .append(" and timed < ").append(Rollups.floor(to + 1, Rollups.RESOLUTIONS[level]))
+                        .append(" group by floor(timed/").append(width)
+                        .append(") order by floor(timed/").append(width).append(")");
+            } else
+                query = new StringBuilder("select timed, ")
                     .append(field)
                     .append(" from ")
                     .append(sensor);
@@ -97,8 +97,6 @@ public class RestServlet extends HttpServlet {
        
         RequestHandler requestHandler = new RequestHandler(format);
 
-        Caching.enable();
-
         if (Main.getContainerConfig().isAcEnabled()) {     // added
             str_user = request.getParameter(PARAMETER_USERNAME);
             str_pass = request.getParameter(PARAMETER_PASSWORD);
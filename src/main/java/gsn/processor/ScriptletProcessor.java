@@ -28,6 +28,7 @@ package gsn.processor;
 
 import groovy.lang.*;
 import gsn.beans.DataField;
+import gsn.beans.DataTypes;
 import gsn.beans.StreamElement;
 import gsn.vsensor.AbstractVirtualSensor;
 import org.apache.log4j.Logger;
@@ -36,6 +37,9 @@ import java.io.Serializable;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This Processor (processing class) executes a scriptlet upon reception of a new  StreamElement and can be used to
@@ -96,7 +100,29 @@ import java.util.TreeMap;
  *      period, long, mandatoryif scriptlet-periodic is specified<br/>
  *      Define the period (in ms) between two execution of the scriptlet-periodic script.
  *      </li>
+ *      <li>
+ *      compile-static, boolean, optional (default false)<br/>
+ *      Compiles the scriptlet statically, see below.
+ *      </li>
+ *      <li>
+ *      threads, int, optional (default the number of processors)<br/>
+ *      Sets the number of threads evaluating a window of StreamElements in compile-static mode.
+ *      </li>
  * </ul>
+ * STATIC COMPILATION
+ * ------------------
+ * <p>
+ * With 'compile-static' enabled, the scriptlet is compiled once per input structure, with @CompileStatic, as the body of
+ * a method in which each field of the StreamElement received, each field of the output structure and TIMED are typed
+ * local variables (e.g. Double for a DOUBLE field, Integer for an INTEGER field). The fields are read and written
+ * without any Binding, and the evaluations don't share any state: they are not serialized, neither with each other nor
+ * with the 'scriplet-periodic' script, which is still evaluated dynamically. The scriptlet can't use the binding, the
+ * isdef function, undeclared variables or any state across evaluations.
+ * </p>
+ * <p>
+ * When an input stream delivers a whole window at once (i.e. the virtual sensor has no queue), its StreamElements are
+ * evaluated in parallel in compile-static mode and the results produced in order.
+ * </p>
  * PERIODICAL EXECUTION
  * --------------------
  * <p>
@@ -133,6 +159,27 @@ public class ScriptletProcessor extends AbstractVirtualSensor {
 
     private static final String PARAM_PERSITANT = "persistant";
 
+    private static final String PARAM_COMPILE_STATIC = "compile-static";
+
+    private static final String PARAM_THREADS = "threads";
+
+    /**
+     * The StreamElements of a window evaluated by the same task.
+     */
+    private static final int BATCH_GRAIN = 64;
+
+    /**
+     * A scriptlet compiled in compile-static mode for a given input structure.
+     */
+    public interface CompiledScriptlet {
+
+        /**
+         * @param row the values of the input fields.
+         * @return the values of the output fields, followed by TIMED.
+         */
+        Object[] apply(Object[] row, long timed);
+    }
+
     private Timer timer = null;
 
     /**
@@ -160,6 +207,50 @@ public class ScriptletProcessor extends AbstractVirtualSensor {
 
     private TimerTask periodicalTask = null;
 
+    /**
+     * The source of the scriptlet in compile-static mode, null otherwise.
+     */
+    private String staticScriptlet = null;
+
+    /**
+     * The compiled scriptlets, by input structure (see structureKey).
+     */
+    private final ConcurrentHashMap<String, CompiledScriptlet> compiledScriptlets = new ConcurrentHashMap<String, CompiledScriptlet>();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ForkJoinPool pool = null;
+
+    /**
+     * Evaluates a range of a window, the halves in parallel.
+     */
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final StreamElement[] window;
+        private final StreamElement[] results;
+        private final int from;
+        private final int to;
+
+        BatchTask(StreamElement[] window, StreamElement[] results, int from, int to) {
+            this.window = window;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= BATCH_GRAIN) {
+                for (int i = from; i < to; i++)
+                    results[i] = evaluateStatic(window[i]);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(window, results, from, middle), new BatchTask(window, results, middle, to));
+            }
+        }
+    }
+
     @Override
     public boolean initialize() {
         return initialize(
@@ -172,11 +263,38 @@ public class ScriptletProcessor extends AbstractVirtualSensor {
     public void dispose() {
         if (periodicalTask != null)
             periodicalTask.cancel();
+        if (pool != null)
+            pool.shutdown();
     }
 
     @Override
     public void dataAvailable(String inputStreamName, StreamElement se) {
-        evaluate(scriptlet, se, persistant);
+        if (staticScriptlet != null) {
+            StreamElement seo = evaluateStatic(se);
+            if (seo != null && persistant)
+                dataProduced(seo);
+        } else
+            evaluate(scriptlet, se, persistant);
+    }
+
+    /**
+     * Evaluates the scriptlet on each StreamElement of the window, in parallel in compile-static mode, and produces
+     * the results in order.
+     */
+    @Override
+    public void dataAvailable(String inputStreamName, StreamElement[] window) {
+        if (staticScriptlet == null) {
+            for (StreamElement se : window)
+                evaluate(scriptlet, se, persistant);
+            return;
+        }
+        StreamElement[] results = evaluate(window);
+        if (persistant) {
+            for (StreamElement seo : results) {
+                if (seo != null)
+                    dataProduced(seo);
+            }
+        }
     }
 
     protected boolean initialize(DataField[] outputStructure, TreeMap<String, String> parameters) {
@@ -233,6 +351,22 @@ public class ScriptletProcessor extends AbstractVirtualSensor {
             }
         }
 
+        if (ps1 != null && Boolean.parseBoolean(parameters.get(PARAM_COMPILE_STATIC))) {
+            staticScriptlet = ps1;
+            String t = parameters.get(PARAM_THREADS);
+            if (t != null) {
+                try {
+                    threads = Integer.parseInt(t.trim());
+                }
+                catch (NumberFormatException e) {
+                    logger.warn("The Initial Parameter >" + PARAM_THREADS + "< is not a number: " + t);
+                    return false;
+                }
+            }
+            if (threads > 1)
+                pool = new ForkJoinPool(threads);
+        }
+
         // Add the periodical task to the timer if needed.
         if (scriptletPeriodic != null && period >= 0) {
             periodicalTask = new TimerTask() {
@@ -319,6 +453,148 @@ public class ScriptletProcessor extends AbstractVirtualSensor {
         }
     }
 
+    /**
+     * Evaluates the scriptlet on each StreamElement of the window, in compile-static mode.
+     *
+     * @return the output StreamElements, null for the StreamElements which couldn't be evaluated.
+     */
+    protected StreamElement[] evaluate(StreamElement[] window) {
+        StreamElement[] results = new StreamElement[window.length];
+        if (pool != null && window.length > BATCH_GRAIN)
+            pool.invoke(new BatchTask(window, results, 0, window.length));
+        else {
+            for (int i = 0; i < window.length; i++)
+                results[i] = evaluateStatic(window[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Evaluates the scriptlet compiled for the structure of the StreamElement, in compile-static mode.
+     *
+     * @return the output StreamElement, or null if the scriptlet doesn't compile.
+     */
+    protected StreamElement evaluateStatic(StreamElement se) {
+        String key = structureKey(se);
+        CompiledScriptlet compiled = compiledScriptlets.get(key);
+        if (compiled == null) {
+            compiled = compileStatic(se.getFieldNames(), se.getFieldTypes());
+            CompiledScriptlet previous = compiledScriptlets.putIfAbsent(key, compiled);
+            if (previous != null)
+                compiled = previous;
+        }
+        Byte[] types = se.getFieldTypes();
+        Serializable[] values = se.getData();
+        Object[] row = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            // DOUBLE fields may hold Float values
+            if (types[i] == DataTypes.DOUBLE && values[i] instanceof Float)
+                row[i] = ((Float) values[i]).doubleValue();
+            else
+                row[i] = values[i];
+        }
+        Object[] out = compiled.apply(row, se.getTimeStamp());
+        if (out == null)
+            return null;
+        Serializable[] data = new Serializable[outputStructure.length];
+        for (int i = 0; i < outputStructure.length; i++)
+            data[i] = (Serializable) out[i];
+        StreamElement seo = new StreamElement(outputStructure, data);
+        Object timed = out[outputStructure.length];
+        if (timed != null)
+            seo.setTimeStamp((Long) timed);
+        return seo;
+    }
+
+    private static String structureKey(StreamElement se) {
+        StringBuilder key = new StringBuilder();
+        String[] names = se.getFieldNames();
+        Byte[] types = se.getFieldTypes();
+        for (int i = 0; i < names.length; i++)
+            key.append(names[i].toUpperCase()).append(':').append(types[i]).append(',');
+        return key.toString();
+    }
+
+    /**
+     * Compiles the scriptlet for the given input structure, the failures being logged once and evaluated to null.
+     */
+    protected CompiledScriptlet compileStatic(String[] fieldNames, Byte[] fieldTypes) {
+        TreeMap<String, String> locals = new TreeMap<String, String>();
+        StringBuilder source = new StringBuilder();
+        source.append("// start auto generated part --\n");
+        source.append("import static ").append(gsn.utils.services.EmailService.class.getCanonicalName()).append(".*;\n");
+        source.append("import static ").append(gsn.utils.services.TwitterService.class.getCanonicalName()).append(".*;\n");
+        source.append("@groovy.transform.CompileStatic\n");
+        source.append("class GsnCompiledScriptlet implements ").append(CompiledScriptlet.class.getCanonicalName()).append(" {\n");
+        source.append("Object[] apply(Object[] row, long timed) {\n");
+        for (int i = 0; i < fieldNames.length; i++) {
+            String name = fieldNames[i].toUpperCase();
+            String type = groovyType(fieldTypes[i]);
+            locals.put(name, type);
+            source.append(type).append(' ').append(name).append(" = (").append(type).append(") row[").append(i).append("];\n");
+        }
+        for (DataField df : outputStructure) {
+            String name = df.getName().toUpperCase();
+            if (!locals.containsKey(name)) {
+                String type = groovyType(df.getDataTypeID());
+                locals.put(name, type);
+                source.append(type).append(' ').append(name).append(" = null;\n");
+            }
+        }
+        if (!locals.containsKey("TIMED"))
+            source.append("Long TIMED = timed;\n");
+        source.append("def __scriptlet = { ->\n");
+        source.append("// end auto generated part --\n");
+        source.append(staticScriptlet);
+        source.append("\n// start auto generated part --\n");
+        source.append("};\n");
+        source.append("__scriptlet.call();\n");
+        source.append("Object[] out = new Object[").append(outputStructure.length + 1).append("];\n");
+        for (int i = 0; i < outputStructure.length; i++)
+            source.append("out[").append(i).append("] = ").append(outputStructure[i].getName().toUpperCase()).append(";\n");
+        source.append("out[").append(outputStructure.length).append("] = TIMED;\n");
+        source.append("return out;\n");
+        source.append("}\n}\n");
+        source.append("// end auto generated part --\n");
+        try {
+            GroovyClassLoader loader = new GroovyClassLoader(getClass().getClassLoader());
+            CompiledScriptlet compiled = (CompiledScriptlet) loader.parseClass(source.toString()).newInstance();
+            logger.debug("Compiled script: \n" + source.toString());
+            return compiled;
+        }
+        catch (Exception e) {
+            logger.error("Failed to compile the scriptlet " + e.getMessage());
+            return new CompiledScriptlet() {
+                public Object[] apply(Object[] row, long timed) {
+                    return null;
+                }
+            };
+        }
+    }
+
+    private static String groovyType(byte type) {
+        switch (type) {
+            case DataTypes.CHAR:
+            case DataTypes.VARCHAR:
+                return "String";
+            case DataTypes.INTEGER:
+                return "Integer";
+            case DataTypes.BIGINT:
+                return "Long";
+            case DataTypes.DOUBLE:
+                return "Double";
+            case DataTypes.FLOAT:
+                return "Float";
+            case DataTypes.TINYINT:
+                return "Byte";
+            case DataTypes.SMALLINT:
+                return "Short";
+            default:
+                // BINARY fields may hold a byte[] or a String
+                return "Object";
+        }
+    }
+
     private synchronized Timer getTimer() {
         if (timer == null)
             timer = new Timer(false);
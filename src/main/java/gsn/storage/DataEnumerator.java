@@ -38,6 +38,7 @@ import gsn.beans.StreamElement;
 import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.Vector;
 
@@ -78,6 +79,33 @@ public class DataEnumerator implements DataEnumeratorIF {
 
 	private boolean manualCloseConnection;
 
+	/**
+	 * Set when the connection was switched out of auto-commit for streaming
+	 * the result set, it is switched back on close.
+	 */
+	private boolean restoreAutoCommit = false;
+
+	/**
+	 * Number of columns of the result set and, for each of them (from 1), the
+	 * position of its value in the stream element or -1 for timed and pk.
+	 * Computed once from the meta data.
+	 */
+	private int              columnCount              = 0;
+
+	private int [ ]          columnToSlot;
+
+	/**
+	 * For the binary columns linked by the pk, the beginning of the link.
+	 */
+	private String [ ]       binaryLinks;
+
+	/**
+	 * If true, the same stream element is returned by all the calls to
+	 * <code>nextElement</code>, its values being replaced by the ones of the
+	 * next row.
+	 */
+	private boolean          reuseStreamElement       = false;
+
 	/**
 	 * Creats an empty data enumerator.
 	 */
@@ -94,8 +122,18 @@ public class DataEnumerator implements DataEnumeratorIF {
 	}
 	
 	public DataEnumerator ( StorageManager storageManager, PreparedStatement preparedStatement , boolean binaryLinked ,boolean manualClose) {
+		this(storageManager, preparedStatement, binaryLinked, manualClose, false);
+	}
+
+	/**
+	 * @param restoreAutoCommit true if the connection of the statement has
+	 *            been switched out of auto-commit for this result set and
+	 *            should be switched back on close.
+	 */
+	DataEnumerator ( StorageManager storageManager, PreparedStatement preparedStatement , boolean binaryLinked ,boolean manualClose, boolean restoreAutoCommit) {
 		this.storageManager = storageManager;
         this.manualCloseConnection=manualClose;
+        this.restoreAutoCommit=restoreAutoCommit;
 		if ( preparedStatement == null ) {
 			if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "resultSetToStreamElements" ).append( " is supplied with null input." ).toString( ) );
 			hasNext = false;
@@ -120,28 +158,36 @@ public class DataEnumerator implements DataEnumeratorIF {
 			// if the timed field is present in the result set.
 			String tableName = null;
             int problematicColumn = -1;
-            for ( int i = 1 ; i <= resultSet.getMetaData( ).getColumnCount( ) ; i++ ) {
+            ResultSetMetaData metaData = resultSet.getMetaData( );
+            columnCount = metaData.getColumnCount( );
+            columnToSlot = new int [ columnCount + 1 ];
+            binaryLinks = new String [ columnCount + 1 ];
+            for ( int i = 1 ; i <= columnCount ; i++ ) {
 				if (i == 1)
-                    tableName = resultSet.getMetaData().getTableName(1);
-                String colName = resultSet.getMetaData( ).getColumnLabel( i );
-				int colTypeInJDBCFormat = resultSet.getMetaData( ).getColumnType( i );
-				int colScale=resultSet.getMetaData().getScale(i);
+                    tableName = metaData.getTableName(1);
+                String colName = metaData.getColumnLabel( i );
+				int colTypeInJDBCFormat = metaData.getColumnType( i );
+				int colScale=metaData.getScale(i);
+				columnToSlot[ i ] = -1;
 				if ( colName.equalsIgnoreCase( "PK" ) ) {
 					indexofPK = i;
 				} else if ( colName.equalsIgnoreCase( "timed" ) ) {
 					indexOfTimedField = i;
 				} else {
+					columnToSlot[ i ] = fieldNames.size( );
 					fieldNames.add( colName );
                     byte gsnType = storageManager.convertLocalTypeToGSN(colTypeInJDBCFormat,colScale );
                     if (gsnType == -100){
                         logger.error("The type can't be converted to GSN form - error description: ");
                         logger.warn("Table name: " + tableName);
                         logger.warn("Column name: " +colName);
-                        logger.warn("Column type name: " +resultSet.getMetaData().getColumnTypeName(i));
+                        logger.warn("Column type name: " +metaData.getColumnTypeName(i));
                         logger.warn("Query result: " +preparedStatement.toString());
                         problematicColumn = i;
                     }
 					fieldTypes.add( gsnType );
+					if ( gsnType == DataTypes.BINARY && linkBinaryData )
+						binaryLinks[ i ] = "field?vs=" + metaData.getTableName( i ) + "&amp;field=" + colName + "&amp;pk=";
 				}
 			}
             if (problematicColumn != -1){
@@ -169,6 +215,16 @@ public class DataEnumerator implements DataEnumeratorIF {
 		return hasNext;
 	}
 
+	/**
+	 * Makes <code>nextElement</code> fill and return the same stream element
+	 * for all the rows instead of allocating one per row, which is only
+	 * possible if the caller doesn't keep any reference to the returned
+	 * elements (e.g. it writes them out one by one).
+	 */
+	public void setReuseStreamElement ( boolean reuseStreamElement ) {
+		this.reuseStreamElement = reuseStreamElement;
+	}
+
 	/**
 	 * Returns the next stream element or > IndexOutOfBoundsException("The
 	 * resultset doesn't have anymore elements or closed.")<
@@ -179,12 +235,12 @@ public class DataEnumerator implements DataEnumeratorIF {
 		long pkValue = -1;
 		try {
 			if ( indexofPK != -1 ) pkValue = resultSet.getLong( indexofPK );
-			Serializable [ ] output = new Serializable [ dataFieldNames.length ];
-			for ( int actualColIndex = 1 , innerIndex = 0 ; actualColIndex <= resultSet.getMetaData( ).getColumnCount( ) ; actualColIndex++ ) {
-				if ( actualColIndex == indexOfTimedField ) {
-					timestamp = resultSet.getLong( actualColIndex );
-					continue;
-				} else if ( actualColIndex == indexofPK )
+			if ( indexOfTimedField != -1 ) timestamp = resultSet.getLong( indexOfTimedField );
+			boolean reuse = reuseStreamElement && streamElement != null && timestamp > 0;
+			Serializable [ ] output = reuse ? streamElement.getData( ) : new Serializable [ dataFieldNames.length ];
+			for ( int actualColIndex = 1 ; actualColIndex <= columnCount ; actualColIndex++ ) {
+				int innerIndex = columnToSlot[ actualColIndex ];
+				if ( innerIndex == -1 )
 					continue;
 				else {
 					switch ( dataFieldTypes[ innerIndex ] ) {
@@ -212,7 +268,7 @@ public class DataEnumerator implements DataEnumeratorIF {
 						break;
 					case DataTypes.BINARY :
 						if ( linkBinaryData ) {
-							output[ innerIndex ] = "field?vs=" + resultSet.getMetaData( ).getTableName( actualColIndex ) + "&amp;field=" + resultSet.getMetaData( ).getColumnLabel( actualColIndex ) + "&amp;pk=" + pkValue;
+							output[ innerIndex ] = binaryLinks[ actualColIndex ] + pkValue;
                             resultSet.getBytes( actualColIndex );
                         }
 						else
@@ -221,10 +277,12 @@ public class DataEnumerator implements DataEnumeratorIF {
 					}
 					if (resultSet.wasNull())
 						output[innerIndex]=null;
-					innerIndex++;
 				}
 			}
-			streamElement = new StreamElement( dataFieldNames , dataFieldTypes , output , indexOfTimedField == -1 ? System.currentTimeMillis( ) : timestamp );
+			if ( reuse )
+				streamElement.setTimeStamp( timestamp );
+			else
+				streamElement = new StreamElement( dataFieldNames , dataFieldTypes , output , indexOfTimedField == -1 ? System.currentTimeMillis( ) : timestamp );
 			if ( indexofPK != -1 ) streamElement.setInternalPrimayKey( pkValue );
 			hasNext = resultSet.next( );
 			if ( hasNext == false )
@@ -241,6 +299,13 @@ public class DataEnumerator implements DataEnumeratorIF {
 		if(resultSet == null)
 			return;
 		try {
+			if (restoreAutoCommit && resultSet.getStatement() != null) {
+				restoreAutoCommit = false;
+				java.sql.Connection c = resultSet.getStatement().getConnection();
+				// ends the read only transaction of the cursor
+				c.rollback();
+				c.setAutoCommit(true);
+			}
 			if (!manualCloseConnection && resultSet.getStatement() != null) {
                 java.sql.Statement s = resultSet.getStatement();
                 java.sql.Connection c = s.getConnection();
@@ -0,0 +1,472 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/storage/Rollups.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.storage;
+
+import gsn.Main;
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.utils.GSNRuntimeException;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pre-aggregated copies of the output table of a virtual sensor, at 1 minute,
+ * 1 hour and 1 day resolutions. For each numeric output field
+ * <code>f</code>, a rollup table has the <code>f_min</code>,
+ * <code>f_max</code>, <code>f_avg</code>, <code>f_sum</code> and
+ * <code>f_count</code> columns, and one row per bucket, its
+ * <code>timed</code> being the beginning of the bucket. The same columns are
+ * kept for the timestamps of the stream elements (<code>timed_min</code>,
+ * ...), <code>timed_count</code> being the number of stream elements.
+ * <p>
+ * The tables are created, and filled from the output table, when the virtual
+ * sensor is loaded. They are then updated as the stream elements are
+ * persisted: the current bucket of each resolution is kept in memory and
+ * written when a stream element falls in another bucket, or at most every
+ * 10 seconds. The buckets lost by a crash are recovered when the virtual
+ * sensor is loaded again: a rollup not counting as many stream elements as
+ * the output table is filled again.
+ * <p>
+ * The rollups are maintained when the <code>rollups</code> init-param is
+ * true, for the virtual sensors keeping their whole history.
+ */
+public class Rollups {
+
+	private static final transient Logger logger = Logger.getLogger(Rollups.class);
+
+	public static final String ROLLUPS = "rollups";
+
+	/**
+	 * The resolutions of the rollups in ms, the finest first.
+	 */
+	public static final long[] RESOLUTIONS = { 60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L };
+
+	private static final String[] SUFFIXES = { "_rollup_1m", "_rollup_1h", "_rollup_1d" };
+
+	public static final String[] OPERATORS = { "min", "max", "avg", "sum", "count" };
+
+	private static final long WRITE_INTERVAL = 10 * 1000;
+
+	private static final ConcurrentHashMap<String, Rollups> rollups = new ConcurrentHashMap<String, Rollups>();
+
+	private static class Bucket {
+
+		final long timed;
+
+		final double[] min;
+
+		final double[] max;
+
+		final double[] sum;
+
+		final long[] count;
+
+		boolean stored = false;
+
+		boolean dirty = false;
+
+		Bucket(long timed, int fields) {
+			this.timed = timed;
+			min = new double[fields];
+			max = new double[fields];
+			sum = new double[fields];
+			count = new long[fields];
+		}
+	}
+
+	private final VSensorConfig config;
+
+	private final String name;
+
+	/**
+	 * The numeric output fields, lower cased.
+	 */
+	private final String[] fields;
+
+	private final boolean[] integer;
+
+	/**
+	 * The fields and the timestamp, as aggregated in the buckets.
+	 */
+	private final String[] sources;
+
+	private final DataField[] structure;
+
+	private final Bucket[] current = new Bucket[RESOLUTIONS.length];
+
+	private long lastWrite = System.currentTimeMillis();
+
+	private Rollups(VSensorConfig config, String[] fields, boolean[] integer) {
+		this.config = config;
+		this.name = config.getName().toLowerCase();
+		this.fields = fields;
+		this.integer = integer;
+		this.sources = new String[fields.length + 1];
+		System.arraycopy(fields, 0, sources, 0, fields.length);
+		sources[fields.length] = "timed";
+		this.structure = new DataField[sources.length * OPERATORS.length];
+		for (int i = 0; i < sources.length; i++)
+			for (int j = 0; j < OPERATORS.length; j++)
+				structure[i * OPERATORS.length + j] = new DataField(getColumn(sources[i], OPERATORS[j]), OPERATORS[j].equals("count") ? DataTypes.BIGINT : DataTypes.DOUBLE);
+	}
+
+	/**
+	 * @return the rollups of the virtual sensor, null if it has none.
+	 */
+	public static Rollups get(String vsName) {
+		return vsName == null ? null : rollups.get(vsName.toLowerCase());
+	}
+
+	public static String getTableName(String vsName, int level) {
+		return vsName.toLowerCase() + SUFFIXES[level];
+	}
+
+	public static String getColumn(String field, String operator) {
+		return field.toLowerCase() + "_" + operator;
+	}
+
+	/**
+	 * @return the beginning of the bucket of the given resolution the time falls in.
+	 */
+	public static long floor(long time, long resolution) {
+		return time - ((time % resolution) + resolution) % resolution;
+	}
+
+	/**
+	 * @return the beginning of the first bucket of the given resolution starting at or after the time.
+	 */
+	public static long ceil(long time, long resolution) {
+		long toReturn = floor(time, resolution);
+		return toReturn == time ? time : toReturn + resolution;
+	}
+
+	private static boolean isInteger(byte type) {
+		return type == DataTypes.TINYINT || type == DataTypes.SMALLINT || type == DataTypes.INTEGER || type == DataTypes.BIGINT;
+	}
+
+	private static boolean isNumeric(byte type) {
+		switch (type) {
+		case DataTypes.TINYINT:
+		case DataTypes.SMALLINT:
+		case DataTypes.INTEGER:
+		case DataTypes.BIGINT:
+		case DataTypes.FLOAT:
+		case DataTypes.DOUBLE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the missing rollup tables of the virtual sensor, filling them
+	 * from its output table, fills again the ones not matching it, and starts
+	 * maintaining them.
+	 *
+	 * @return null if the virtual sensor has no rollups.
+	 */
+	public static Rollups load(VSensorConfig config) throws SQLException {
+		// the virtual sensor is reloaded
+		Rollups previous = get(config.getName());
+		if (previous != null) {
+			previous.flush();
+			rollups.remove(previous.name, previous);
+		}
+		String enabled = config.getMainClassInitialParams().get(ROLLUPS);
+		if (enabled == null || !Boolean.parseBoolean(enabled.trim()))
+			return null;
+		if (config.getParsedStorageSize() != VSensorConfig.STORAGE_SIZE_NOT_SET) {
+			// the rollups would keep the deleted stream elements
+			logger.warn("The rollups of " + config.getName() + " are disabled, it doesn't keep its whole history.");
+			return null;
+		}
+		ArrayList<String> numeric = new ArrayList<String>();
+		ArrayList<Boolean> integers = new ArrayList<Boolean>();
+		for (DataField df : config.getOutputStructure()) {
+			if (isNumeric(df.getDataTypeID())) {
+				numeric.add(df.getName().toLowerCase());
+				integers.add(isInteger(df.getDataTypeID()));
+			}
+		}
+		if (numeric.isEmpty())
+			return null;
+		boolean[] integer = new boolean[integers.size()];
+		for (int i = 0; i < integer.length; i++)
+			integer[i] = integers.get(i);
+
+		Rollups toReturn = new Rollups(config, numeric.toArray(new String[numeric.size()]), integer);
+		StorageManager storage = Main.getStorage(config);
+		for (int level = 0; level < RESOLUTIONS.length; level++) {
+			String table = getTableName(config.getName(), level);
+			boolean exists;
+			try {
+				exists = storage.tableExists(table, toReturn.structure);
+			} catch (GSNRuntimeException e) {
+				// the output structure changed, the rollups are rebuilt
+				logger.warn("Rebuilding the " + table + " table: " + e.getMessage());
+				storage.executeDropTable(table);
+				exists = false;
+			}
+			if (!exists) {
+				storage.executeCreateTable(table, toReturn.structure, true);
+				toReturn.fill(storage, level);
+			} else if (!toReturn.isComplete(storage, level)) {
+				// the last buckets weren't written before GSN stopped
+				logger.warn("Filling again the " + table + " table, it doesn't match the " + config.getName() + " table.");
+				toReturn.execute(storage, "delete from " + table);
+				toReturn.fill(storage, level);
+			}
+		}
+		rollups.put(toReturn.name, toReturn);
+		return toReturn;
+	}
+
+	/**
+	 * Writes the current buckets and stops maintaining the rollups, called
+	 * when the virtual sensor is unloaded.
+	 */
+	public static void release(VSensorConfig config) {
+		Rollups toRelease = get(config.getName());
+		// unless the virtual sensor was reloaded in the meantime
+		if (toRelease != null && toRelease.config == config && rollups.remove(toRelease.name, toRelease))
+			toRelease.flush();
+	}
+
+	private void fill(StorageManager storage, int level) throws SQLException {
+		long resolution = RESOLUTIONS[level];
+		StringBuilder columns = new StringBuilder("timed");
+		StringBuilder values = new StringBuilder("floor(timed/" + resolution + ")*" + resolution);
+		for (String field : sources) {
+			for (String operator : OPERATORS) {
+				columns.append(", ").append(getColumn(field, operator));
+				values.append(", ").append(operator).append("(").append(field).append(")");
+			}
+		}
+		StringBuilder query = new StringBuilder("insert into ").append(getTableName(name, level)).append(" (").append(columns).append(") select ").append(values)
+				.append(" from ").append(name).append(" group by floor(timed/" + resolution + ")*" + resolution);
+		logger.info("The " + getTableName(name, level) + " table is filled with " + execute(storage, query.toString()) + " rows.");
+	}
+
+	private int execute(StorageManager storage, String query) throws SQLException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		try {
+			connection = storage.getConnection();
+			ps = connection.prepareStatement(query);
+			return ps.executeUpdate();
+		} finally {
+			storage.close(ps);
+			storage.close(connection);
+		}
+	}
+
+	/**
+	 * @return if the rollup counts all the stream elements of the output table.
+	 */
+	private boolean isComplete(StorageManager storage, int level) throws SQLException {
+		return count(storage, "select count(*) from " + name) == count(storage, "select sum(" + getColumn("timed", "count") + ") from " + getTableName(name, level));
+	}
+
+	private long count(StorageManager storage, String query) throws SQLException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			connection = storage.getConnection();
+			ps = connection.prepareStatement(query);
+			rs = ps.executeQuery();
+			return rs.next() ? rs.getLong(1) : 0;
+		} finally {
+			storage.close(rs);
+			storage.close(ps);
+			storage.close(connection);
+		}
+	}
+
+	public String[] getFields() {
+		return fields;
+	}
+
+	public boolean hasField(String field) {
+		for (String f : fields)
+			if (f.equalsIgnoreCase(field))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return if the field is an integer one: its average over the output
+	 *         table may be rounded by the database, unlike over the rollups.
+	 */
+	public boolean isInteger(String field) {
+		for (int i = 0; i < fields.length; i++)
+			if (fields[i].equalsIgnoreCase(field))
+				return integer[i];
+		return false;
+	}
+
+	/**
+	 * @param range the requested resolution in ms.
+	 * @param aligned if the buckets of the range must be made of whole rollup buckets.
+	 * @return the coarsest rollup meeting the resolution, -1 if the output
+	 *         table must be used.
+	 */
+	public static int getLevel(long range, boolean aligned) {
+		for (int level = RESOLUTIONS.length - 1; level >= 0; level--)
+			if (RESOLUTIONS[level] <= range && (!aligned || range % RESOLUTIONS[level] == 0))
+				return level;
+		return -1;
+	}
+
+	/**
+	 * Adds a persisted stream element to the current buckets.
+	 */
+	public synchronized void add(StreamElement se) {
+		for (int level = 0; level < RESOLUTIONS.length; level++) {
+			long timed = floor(se.getTimeStamp(), RESOLUTIONS[level]);
+			Bucket bucket = current[level];
+			if (bucket == null || bucket.timed != timed) {
+				if (bucket != null)
+					write(level, bucket);
+				bucket = current[level] = read(level, timed);
+			}
+			for (int i = 0; i < sources.length; i++) {
+				Object value = i == fields.length ? se.getTimeStamp() : se.getData(fields[i]);
+				if (!(value instanceof Number))
+					continue;
+				double v = ((Number) value).doubleValue();
+				if (bucket.count[i] == 0 || v < bucket.min[i])
+					bucket.min[i] = v;
+				if (bucket.count[i] == 0 || v > bucket.max[i])
+					bucket.max[i] = v;
+				bucket.sum[i] += v;
+				bucket.count[i]++;
+				bucket.dirty = true;
+			}
+		}
+		if (System.currentTimeMillis() - lastWrite >= WRITE_INTERVAL)
+			flush();
+	}
+
+	/**
+	 * Writes the current buckets.
+	 */
+	public synchronized void flush() {
+		for (int level = 0; level < RESOLUTIONS.length; level++)
+			if (current[level] != null)
+				write(level, current[level]);
+		lastWrite = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the bucket as stored in the rollup table, or an empty one.
+	 */
+	private Bucket read(int level, long timed) {
+		Bucket bucket = new Bucket(timed, sources.length);
+		StorageManager storage = Main.getStorage(config);
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			connection = storage.getConnection();
+			ps = connection.prepareStatement("select * from " + getTableName(name, level) + " where timed = ?");
+			ps.setLong(1, timed);
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				bucket.stored = true;
+				for (int i = 0; i < sources.length; i++) {
+					bucket.count[i] = rs.getLong(getColumn(sources[i], "count"));
+					bucket.min[i] = rs.getDouble(getColumn(sources[i], "min"));
+					bucket.max[i] = rs.getDouble(getColumn(sources[i], "max"));
+					bucket.sum[i] = rs.getDouble(getColumn(sources[i], "sum"));
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("Reading the " + timed + " bucket of " + getTableName(name, level) + " failed: " + e.getMessage(), e);
+		} finally {
+			storage.close(rs);
+			storage.close(ps);
+			storage.close(connection);
+		}
+		return bucket;
+	}
+
+	private void write(int level, Bucket bucket) {
+		if (!bucket.dirty)
+			return;
+		Serializable[] values = new Serializable[structure.length];
+		for (int i = 0; i < sources.length; i++) {
+			boolean empty = bucket.count[i] == 0;
+			values[i * OPERATORS.length] = empty ? null : bucket.min[i];
+			values[i * OPERATORS.length + 1] = empty ? null : bucket.max[i];
+			values[i * OPERATORS.length + 2] = empty ? null : bucket.sum[i] / bucket.count[i];
+			values[i * OPERATORS.length + 3] = empty ? null : bucket.sum[i];
+			values[i * OPERATORS.length + 4] = bucket.count[i];
+		}
+		StorageManager storage = Main.getStorage(config);
+		String table = getTableName(name, level);
+		Connection connection = null;
+		PreparedStatement ps = null;
+		try {
+			if (!bucket.stored) {
+				storage.executeInsert(table, structure, new StreamElement(structure, values, bucket.timed));
+				bucket.stored = true;
+			} else {
+				StringBuilder update = new StringBuilder("update ").append(table).append(" set ");
+				for (int i = 0; i < structure.length; i++)
+					update.append(i == 0 ? "" : ", ").append(structure[i].getName()).append(" = ?");
+				update.append(" where timed = ?");
+				connection = storage.getConnection();
+				ps = connection.prepareStatement(update.toString());
+				for (int i = 0; i < structure.length; i++) {
+					if (values[i] == null)
+						ps.setNull(i + 1, Types.DOUBLE);
+					else
+						ps.setObject(i + 1, values[i]);
+				}
+				ps.setLong(structure.length + 1, bucket.timed);
+				ps.executeUpdate();
+			}
+			bucket.dirty = false;
+		} catch (SQLException e) {
+			logger.error("Writing the " + bucket.timed + " bucket of " + table + " failed: " + e.getMessage(), e);
+		} finally {
+			storage.close(ps);
+			storage.close(connection);
+		}
+	}
+}
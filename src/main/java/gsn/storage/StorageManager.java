@@ -45,6 +45,12 @@ import gsn.utils.ValidityTools;
 import java.io.Serializable;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.dbcp.*;
 import org.apache.log4j.Logger;
@@ -57,11 +63,98 @@ public abstract class StorageManager {
 
     private BasicDataSource pool;
 
+    public static final int DEFAULT_MAX_PREPARED_STATEMENTS = 64;
+
+    private int maxPreparedStatements;
+
+    /**
+     * The insert statements prepared on each connection of the pool, by SQL.
+     * The connections handed out by the pool are wrappers, the statements are
+     * kept for the wrapped connections.
+     */
+    private final Map<Connection, Map<String, PreparedStatement>> preparedInserts = new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+
+    public static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+
+    /**
+     * The insert statement of each table, by table name.
+     */
+    private final ConcurrentHashMap<String, InsertStatement> insertStatements = new ConcurrentHashMap<String, InsertStatement>();
+
+    /**
+     * The SQL of an insert statement together with how to bind a stream
+     * element to it. The prepared statements themselves are kept for each
+     * connection and each SQL string, that is for each (connection, table,
+     * structure), see <code>prepareInsert</code>.
+     */
+    private static class InsertStatement {
+
+        final DataField[] fields;
+
+        final String sql;
+
+        /**
+         * Name, type and position in <code>fields</code> of the bound
+         * columns, timed excluded.
+         */
+        final String[] names;
+
+        final byte[] types;
+
+        final int[] positions;
+
+        InsertStatement(DataField[] fields, String sql) {
+            this.fields = fields;
+            this.sql = sql;
+            int count = 0;
+            for (DataField dataField : fields)
+                if (!dataField.getName().equalsIgnoreCase("timed"))
+                    count++;
+            names = new String[count];
+            types = new byte[count];
+            positions = new int[count];
+            int j = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].getName().equalsIgnoreCase("timed"))
+                    continue;
+                names[j] = fields[i].getName();
+                types[j] = fields[i].getDataTypeID();
+                positions[j++] = i;
+            }
+        }
+
+        boolean matches(DataField[] other) {
+            if (other == fields)
+                return true;
+            if (other.length != fields.length)
+                return false;
+            for (int i = 0; i < fields.length; i++)
+                if (!other[i].getName().equals(fields[i].getName()) || other[i].getDataTypeID() != fields[i].getDataTypeID())
+                    return false;
+            return true;
+        }
+
+        /**
+         * Looks the value up by position first, the stream elements usually
+         * having the same structure as the table.
+         */
+        Serializable valueOf(StreamElement streamElement, int column) {
+            String[] fieldNames = streamElement.getFieldNames();
+            int position = positions[column];
+            if (position < fieldNames.length && names[column].equalsIgnoreCase(fieldNames[position]))
+                return streamElement.getData()[position];
+            return streamElement.getData(names[column]);
+        }
+    }
+
     public void init(String databaseDriver, String username, String password, String databaseURL, int maxDBConnections) {
         this.databaseDriver = databaseDriver;
         pool = DataSources.getDataSource(new DBConnectionInfo(databaseDriver,databaseURL,username,password));
         pool.setMaxActive(maxDBConnections);
         pool.setMaxIdle(maxDBConnections);
+        // reuses the insert statements for each connection, see prepareInsert
+        maxPreparedStatements = System.getProperty("maxPreparedStatements") == null ? DEFAULT_MAX_PREPARED_STATEMENTS : Integer.parseInt(System.getProperty("maxPreparedStatements"));
+        pool.setAccessToUnderlyingConnectionAllowed(true);
 
         pool.setRemoveAbandoned(true);    // removing unused connections, used to clean after poorly written code
         pool.setRemoveAbandonedTimeout(300);    // 5 minutes
@@ -536,8 +629,36 @@ public abstract class StorageManager {
         return executeQuery(query, binaryFieldsLinked, getConnection());
     }
 
+    /**
+     * Executes the query so that the driver fetches the rows progressively
+     * (see <code>getStreamingFetchSize</code>) instead of loading the whole
+     * result set in memory before returning the first row.
+     */
     public DataEnumerator streamedExecuteQuery(String query, boolean binaryFieldsLinked, Connection conn) throws SQLException {
-        return new DataEnumerator(this, conn.prepareStatement(query), binaryFieldsLinked);
+        PreparedStatement ps = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        boolean restoreAutoCommit = false;
+        if (isStreamingTransactional() && conn.getAutoCommit()) {
+            conn.setAutoCommit(false);
+            restoreAutoCommit = true;
+        }
+        ps.setFetchSize(getStreamingFetchSize());
+        return new DataEnumerator(this, ps, binaryFieldsLinked, false, restoreAutoCommit);
+    }
+
+    /**
+     * The fetch size given to the driver for the streamed queries.
+     */
+    public int getStreamingFetchSize() {
+        return DEFAULT_STREAMING_FETCH_SIZE;
+    }
+
+    /**
+     * Returns true if the driver only fetches the rows progressively inside a
+     * transaction, the connection is then switched out of auto-commit for the
+     * time of the query.
+     */
+    protected boolean isStreamingTransactional() {
+        return false;
     }
 
 
@@ -633,79 +754,14 @@ public abstract class StorageManager {
 
     public void executeInsert(CharSequence tableName, DataField[] fields, StreamElement streamElement, Connection connection) throws SQLException {
         PreparedStatement ps = null;
-        String query = getStatementInsert(tableName, fields).toString();
+        InsertStatement insert = getInsertStatement(tableName, fields);
+        String query = insert.sql;
+        boolean failed = true;
         try {
-            ps = connection.prepareStatement(query);
-            int counter = 1;
-            for (DataField dataField : fields) {
-                if (dataField.getName().equalsIgnoreCase("timed"))
-                    continue;
-                Serializable value = streamElement.getData(dataField.getName());
-
-                switch (dataField.getDataTypeID()) {
-                    case DataTypes.VARCHAR:
-                        if (value == null)
-                            ps.setNull(counter, Types.VARCHAR);
-                        else
-                            ps.setString(counter, value.toString());
-                        break;
-                    case DataTypes.CHAR:
-                        if (value == null)
-                            ps.setNull(counter, Types.CHAR);
-                        else
-                            ps.setString(counter, value.toString());
-                        break;
-                    case DataTypes.INTEGER:
-                        if (value == null)
-                            ps.setNull(counter, Types.INTEGER);
-                        else
-                            ps.setInt(counter, ((Number) value).intValue());
-                        break;
-                    case DataTypes.SMALLINT:
-                        if (value == null)
-                            ps.setNull(counter, Types.SMALLINT);
-                        else
-                            ps.setShort(counter, ((Number) value).shortValue());
-                        break;
-                    case DataTypes.TINYINT:
-                        if (value == null)
-                            ps.setNull(counter, Types.TINYINT);
-                        else
-                            ps.setByte(counter, ((Number) value).byteValue());
-                        break;
-                    case DataTypes.DOUBLE:
-                        if (value == null)
-                            ps.setNull(counter, Types.DOUBLE);
-                        else
-                            ps.setDouble(counter, ((Number) value).doubleValue());
-                        break;
-                    case DataTypes.FLOAT:
-                        if (value == null)
-                            ps.setNull(counter, Types.FLOAT);
-                        else
-                            ps.setFloat(counter, ((Number) value).floatValue());
-                        break;
-                    case DataTypes.BIGINT:
-                        if (value == null)
-                            ps.setNull(counter, Types.BIGINT);
-                        else
-                            ps.setLong(counter, ((Number) value).longValue());
-                        break;
-                    case DataTypes.BINARY:
-                        if (value == null)
-                            ps.setNull(counter, Types.BINARY);
-                        else
-                            ps.setBytes(counter, (byte[]) value);
-                        break;
-                    default:
-                        logger.error("The type conversion is not supported for : "
-                                + dataField.getName() + "("
-                                + dataField.getDataTypeID() + ") : ");
-                }
-                counter++;
-            }
-            ps.setLong(counter, streamElement.getTimeStamp());
+            ps = prepareInsert(connection, query);
+            bindInsert(ps, insert, streamElement);
             ps.execute();
+            failed = false;
         } catch (GSNRuntimeException e) {
             //if (e.getType() == GSNRuntimeException.UNEXPECTED_VIRTUAL_SENSOR_REMOVAL) {
             //    if (logger.isDebugEnabled())
@@ -721,8 +777,210 @@ public abstract class StorageManager {
             throw e;
         }
         finally {
+            releaseInsert(connection, query, ps, failed);
+        }
+    }
+
+    /**
+     * Inserts all the stream elements with a single prepared statement, as one
+     * JDBC batch. If the connection is in auto-commit mode, the batch is
+     * executed in its own transaction, so that either all or none of the
+     * stream elements are inserted.
+     */
+    public void executeBatchInsert(CharSequence tableName, DataField[] fields, List<StreamElement> streamElements, Connection connection) throws SQLException {
+        if (streamElements.isEmpty())
+            return;
+        PreparedStatement ps = null;
+        InsertStatement insert = getInsertStatement(tableName, fields);
+        String query = insert.sql;
+        boolean autoCommit = connection.getAutoCommit();
+        boolean failed = true;
+        try {
+            if (autoCommit)
+                connection.setAutoCommit(false);
+            ps = prepareInsert(connection, query);
+            for (StreamElement streamElement : streamElements) {
+                bindInsert(ps, insert, streamElement);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            if (autoCommit)
+                connection.commit();
+            failed = false;
+        } catch (SQLException e) {
+            logger.warn("Error occurred on inserting a batch of " + streamElements.size() + " stream elements to the database, the batch is dropped due to: " + e.getMessage() + ". Query: " + query);
+            if (autoCommit)
+                connection.rollback();
+            throw e;
+        } finally {
+            releaseInsert(connection, query, ps, failed);
+            if (autoCommit)
+                connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @return the connection of the pool the given one wraps, null if it isn't a connection of the pool.
+     */
+    private static Connection getPooledConnection(Connection connection) {
+        return connection instanceof DelegatingConnection ? ((DelegatingConnection) connection).getInnermostDelegate() : null;
+    }
+
+    /**
+     * Prepares the insert statement on the connection, or reuses the one
+     * prepared on the same connection of the pool. Only the insert statements
+     * are kept, with their default settings; the other statements are
+     * prepared again and closed by their users.
+     */
+    private PreparedStatement prepareInsert(Connection connection, String query) throws SQLException {
+        Connection pooled = maxPreparedStatements > 0 ? getPooledConnection(connection) : null;
+        if (pooled == null)
+            return connection.prepareStatement(query);
+        Map<String, PreparedStatement> statements;
+        synchronized (preparedInserts) {
+            statements = preparedInserts.get(pooled);
+            if (statements == null) {
+                // forgets the connections closed by the pool
+                for (Iterator<Connection> it = preparedInserts.keySet().iterator(); it.hasNext();)
+                    if (it.next().isClosed())
+                        it.remove();
+                statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= maxPreparedStatements)
+                            return false;
+                        close(eldest.getValue());
+                        return true;
+                    }
+                };
+                preparedInserts.put(pooled, statements);
+            }
+        }
+        // a connection is used by one thread at a time
+        PreparedStatement ps = statements.get(query);
+        if (ps == null) {
+            ps = pooled.prepareStatement(query);
+            statements.put(query, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Closes the insert statement, unless it is kept for its connection. A
+     * statement which failed is not reused.
+     */
+    private void releaseInsert(Connection connection, String query, PreparedStatement ps, boolean failed) {
+        if (ps == null)
+            return;
+        Connection pooled = maxPreparedStatements > 0 ? getPooledConnection(connection) : null;
+        if (pooled == null) {
+            close(ps);
+            return;
+        }
+        Map<String, PreparedStatement> statements;
+        synchronized (preparedInserts) {
+            statements = preparedInserts.get(pooled);
+        }
+        if (failed) {
+            if (statements != null && statements.get(query) == ps)
+                statements.remove(query);
             close(ps);
+            return;
+        }
+        try {
+            ps.clearParameters();
+        } catch (SQLException e) {
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the insert statement of the table, which is only generated again
+     * if the structure of the table changed.
+     */
+    private InsertStatement getInsertStatement(CharSequence tableName, DataField[] fields) {
+        String key = tableName.toString();
+        InsertStatement insert = insertStatements.get(key);
+        if (insert == null || !insert.matches(fields)) {
+            insert = new InsertStatement(fields, getStatementInsert(tableName, fields).toString());
+            insertStatements.put(key, insert);
+        }
+        return insert;
+    }
+
+    /**
+     * Binds the fields of the stream element to the parameters of a statement
+     * generated by <code>getStatementInsert</code>. The setter is chosen from
+     * the type of the column, each value being unboxed once by it: the stream
+     * elements given to the storage only hold boxed values.
+     */
+    private void bindInsert(PreparedStatement ps, InsertStatement insert, StreamElement streamElement) throws SQLException {
+        int counter = 1;
+        for (int column = 0; column < insert.names.length; column++) {
+            Serializable value = insert.valueOf(streamElement, column);
+
+            switch (insert.types[column]) {
+                case DataTypes.VARCHAR:
+                    if (value == null)
+                        ps.setNull(counter, Types.VARCHAR);
+                    else
+                        ps.setString(counter, value.toString());
+                    break;
+                case DataTypes.CHAR:
+                    if (value == null)
+                        ps.setNull(counter, Types.CHAR);
+                    else
+                        ps.setString(counter, value.toString());
+                    break;
+                case DataTypes.INTEGER:
+                    if (value == null)
+                        ps.setNull(counter, Types.INTEGER);
+                    else
+                        ps.setInt(counter, ((Number) value).intValue());
+                    break;
+                case DataTypes.SMALLINT:
+                    if (value == null)
+                        ps.setNull(counter, Types.SMALLINT);
+                    else
+                        ps.setShort(counter, ((Number) value).shortValue());
+                    break;
+                case DataTypes.TINYINT:
+                    if (value == null)
+                        ps.setNull(counter, Types.TINYINT);
+                    else
+                        ps.setByte(counter, ((Number) value).byteValue());
+                    break;
+                case DataTypes.DOUBLE:
+                    if (value == null)
+                        ps.setNull(counter, Types.DOUBLE);
+                    else
+                        ps.setDouble(counter, ((Number) value).doubleValue());
+                    break;
+                case DataTypes.FLOAT:
+                    if (value == null)
+                        ps.setNull(counter, Types.FLOAT);
+                    else
+                        ps.setFloat(counter, ((Number) value).floatValue());
+                    break;
+                case DataTypes.BIGINT:
+                    if (value == null)
+                        ps.setNull(counter, Types.BIGINT);
+                    else
+                        ps.setLong(counter, ((Number) value).longValue());
+                    break;
+                case DataTypes.BINARY:
+                    if (value == null)
+                        ps.setNull(counter, Types.BINARY);
+                    else
+                        ps.setBytes(counter, (byte[]) value);
+                    break;
+                default:
+                    logger.error("The type conversion is not supported for : "
+                            + insert.names[column] + "("
+                            + insert.types[column] + ") : ");
+            }
+            counter++;
         }
+        ps.setLong(counter, streamElement.getTimeStamp());
     }
 
     /***************************************************************************
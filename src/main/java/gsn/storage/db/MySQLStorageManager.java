@@ -29,7 +29,6 @@ package gsn.storage.db;
 
 import gsn.beans.DataField;
 import gsn.beans.DataTypes;
-import gsn.storage.DataEnumerator;
 import gsn.storage.StorageManager;
 import org.apache.log4j.Logger;
 
@@ -236,13 +235,10 @@ public class MySQLStorageManager extends StorageManager {
     }
 
     @Override
-    public DataEnumerator streamedExecuteQuery(String query, boolean binaryFieldsLinked, Connection conn) throws SQLException {
-        PreparedStatement ps = null;
+    public int getStreamingFetchSize() {
         // Support streamed queries for MySQL -- see MySQL Implementation notes:
         // http://dev.mysql.com/doc/refman/5.0/en/connector-j-reference-implementation-notes.html
-        ps = conn.prepareStatement(query, java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-        ps.setFetchSize(Integer.MIN_VALUE);
-        return new DataEnumerator(this, ps, binaryFieldsLinked);
+        return Integer.MIN_VALUE;
     }
 
 }
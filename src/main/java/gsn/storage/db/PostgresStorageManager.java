@@ -74,6 +74,12 @@ public class PostgresStorageManager extends StorageManager {
         return -100;
     }
 
+    @Override
+    protected boolean isStreamingTransactional() {
+        // the driver only uses a cursor, honoring the fetch size, outside of auto-commit
+        return true;
+    }
+
     @Override
     public String getStatementDropIndex() {
         return "DROP TABLE IF EXISTS #NAME";
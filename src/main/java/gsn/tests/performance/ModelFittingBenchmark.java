@@ -0,0 +1,109 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/tests/performance/ModelFittingBenchmark.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.tests.performance;
+
+import gsn.utils.models.IOnlineModel;
+import gsn.utils.models.ModelFitting;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+/**
+ * Compares, for each model, the time per sample of the batch fitting
+ * (ModelFitting.FitAndMarkDirty on buffers of window_size samples) with the
+ * online models (ModelFitting.createOnlineModel), on a noisy sine with
+ * outliers.
+ * <p>
+ * Usage: ModelFittingBenchmark [nbSamples [windowSize [errorBound [iterations]]]]
+ */
+public class ModelFittingBenchmark {
+
+    private static final DecimalFormat format = new DecimalFormat("0.000");
+
+    public static void main(String[] args) {
+        int nbSamples = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int windowSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        double errorBound = args.length > 2 ? Double.parseDouble(args[2]) : 3;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        Random random = new Random(0);
+        double[] stream = new double[nbSamples];
+        long[] timestamps = new long[nbSamples];
+        for (int i = 0; i < nbSamples; i++) {
+            timestamps[i] = i * 1000L;
+            stream[i] = 10 * Math.sin(i / 200.0) + random.nextGaussian() * 0.5 + (random.nextInt(100) == 0 ? 20 : 0);
+        }
+
+        System.out.println("model, batch (us/sample), online (us/sample), batch dirty, online dirty");
+        for (int model = 0; model < ModelFitting.MODEL_NAMES.length; model++) {
+            // the first iteration warms the JIT up
+            double batch = 0;
+            double online = 0;
+            int batchDirty = 0;
+            int onlineDirty = 0;
+            for (int it = 0; it <= iterations; it++) {
+                long start = System.nanoTime();
+                batchDirty = runBatch(model, errorBound, windowSize, stream, timestamps);
+                long middle = System.nanoTime();
+                onlineDirty = runOnline(model, errorBound, windowSize, stream, timestamps);
+                long end = System.nanoTime();
+                if (it > 0) {
+                    batch += (middle - start) / 1000.0 / nbSamples / iterations;
+                    online += (end - middle) / 1000.0 / nbSamples / iterations;
+                }
+            }
+            System.out.println(ModelFitting.MODEL_NAMES[model] + ", " + format.format(batch) + ", " + format.format(online) + ", " + batchDirty + ", " + onlineDirty);
+        }
+    }
+
+    private static int runBatch(int model, double errorBound, int windowSize, double[] stream, long[] timestamps) {
+        double[] s = new double[windowSize];
+        long[] t = new long[windowSize];
+        double[] processed = new double[windowSize];
+        double[] dirtiness = new double[windowSize];
+        double[] quality = new double[windowSize];
+        int dirty = 0;
+        for (int i = 0; i + windowSize <= stream.length; i += windowSize) {
+            System.arraycopy(stream, i, s, 0, windowSize);
+            System.arraycopy(timestamps, i, t, 0, windowSize);
+            ModelFitting.FitAndMarkDirty(model, errorBound, windowSize, s, t, processed, dirtiness, quality);
+            for (int j = 0; j < windowSize; j++)
+                if (dirtiness[j] > 0)
+                    dirty++;
+        }
+        return dirty;
+    }
+
+    private static int runOnline(int model, double errorBound, int windowSize, double[] stream, long[] timestamps) {
+        IOnlineModel m = ModelFitting.createOnlineModel(model, errorBound, windowSize);
+        double[] result = new double[3];
+        int dirty = 0;
+        for (int i = 0; i < stream.length; i++)
+            if (!m.MarkDirty(timestamps[i], stream[i], result))
+                dirty++;
+        return dirty;
+    }
+}
@@ -384,6 +384,25 @@ public class GSNMonitor {
 
                 logger.warn("Sensor: " + sensor_name);
 
+                // archives being loaded, the last update time is then meaningless
+                String backfillState = element.getAttribute("backfill-state");
+                if (backfillState.equals("running")) {
+                    infosBuffer.append(sensor_name)
+                            .append(" backfilling: ")
+                            .append(Math.round(Double.parseDouble(element.getAttribute("backfill-progress")) * 100))
+                            .append("% (")
+                            .append(element.getAttribute("backfill-rows"))
+                            .append(" rows, ")
+                            .append(element.getAttribute("backfill-rate"))
+                            .append(" rows/s)\n");
+                } else if (backfillState.equals("failed")) {
+                    raiseStatusTo(STATUS_WARNING);
+                    warningsBuffer.append(sensor_name)
+                            .append(" backfill failed after ")
+                            .append(element.getAttribute("backfill-rows"))
+                            .append(" rows\n");
+                }
+
                 NodeList listOfField = element.getElementsByTagName("field");
                 for (int j = 0; j < listOfField.getLength(); j++) {
                     Element line = (Element) listOfField.item(j);
@@ -0,0 +1,168 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/TimeSeriesBuffer.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils;
+
+import java.util.Arrays;
+
+/**
+ * A time series of doubles in a ring of primitive arrays, keeping either the
+ * last maxCount values or the values at most maxAge ms older than the last
+ * one. A value with the timestamp of the last one replaces it.
+ * <p>
+ * The buffer is read through <code>decimate</code>, which keeps the minimum
+ * and the maximum of each of the given number of time intervals, typically
+ * the pixels of a chart.
+ */
+public class TimeSeriesBuffer {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int maxCount;
+
+	private final long maxAge;
+
+	private long[] times;
+
+	private double[] values;
+
+	// index of the oldest value
+	private int head = 0;
+
+	private int size = 0;
+
+	/**
+	 * @param maxCount the maximum number of values, or 0 for a buffer limited by age.
+	 * @param maxAge the maximum age of the values relative to the last one, in ms, ignored if maxCount is positive.
+	 */
+	public TimeSeriesBuffer(int maxCount, long maxAge) {
+		this.maxCount = maxCount;
+		this.maxAge = maxAge;
+		int capacity = maxCount > 0 ? maxCount : INITIAL_CAPACITY;
+		times = new long[capacity];
+		values = new double[capacity];
+	}
+
+	public synchronized void add(long time, double value) {
+		if (size > 0) {
+			int last = (head + size - 1) % times.length;
+			if (times[last] == time) {
+				values[last] = value;
+				return;
+			}
+		}
+		if (size == times.length) {
+			if (maxCount > 0) {
+				// overwrites the oldest value
+				head = (head + 1) % times.length;
+				size--;
+			} else
+				grow();
+		}
+		int tail = (head + size) % times.length;
+		times[tail] = time;
+		values[tail] = value;
+		size++;
+		if (maxCount <= 0) {
+			while (size > 1 && times[head] < time - maxAge) {
+				head = (head + 1) % times.length;
+				size--;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] t = new long[times.length * 2];
+		double[] v = new double[values.length * 2];
+		for (int i = 0; i < size; i++) {
+			t[i] = times[(head + i) % times.length];
+			v[i] = values[(head + i) % values.length];
+		}
+		times = t;
+		values = v;
+		head = 0;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the values to the given arrays, reduced to the minimum and the
+	 * maximum of each of the buckets time intervals between the first and the
+	 * last value, in the order of the buffer.
+	 *
+	 * @param outTimes array of at least 2 * buckets elements.
+	 * @param outValues array of at least 2 * buckets elements.
+	 * @return the number of values copied.
+	 */
+	public synchronized int decimate(int buckets, long[] outTimes, double[] outValues) {
+		if (size <= 2 * buckets) {
+			for (int i = 0; i < size; i++) {
+				outTimes[i] = times[(head + i) % times.length];
+				outValues[i] = values[(head + i) % values.length];
+			}
+			return size;
+		}
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			long t = times[(head + i) % times.length];
+			min = Math.min(min, t);
+			max = Math.max(max, t);
+		}
+		double span = (double) (max - min) + 1;
+		int[] lows = new int[buckets];
+		int[] highs = new int[buckets];
+		Arrays.fill(lows, -1);
+		for (int i = 0; i < size; i++) {
+			int k = (head + i) % times.length;
+			int b = (int) ((times[k] - min) / span * buckets);
+			if (lows[b] == -1) {
+				lows[b] = i;
+				highs[b] = i;
+			} else {
+				if (values[k] < values[(head + lows[b]) % values.length])
+					lows[b] = i;
+				if (values[k] > values[(head + highs[b]) % values.length])
+					highs[b] = i;
+			}
+		}
+		int n = 0;
+		for (int b = 0; b < buckets; b++) {
+			if (lows[b] == -1)
+				continue;
+			int first = Math.min(lows[b], highs[b]);
+			int second = Math.max(lows[b], highs[b]);
+			outTimes[n] = times[(head + first) % times.length];
+			outValues[n++] = values[(head + first) % values.length];
+			if (second != first) {
+				outTimes[n] = times[(head + second) % times.length];
+				outValues[n++] = values[(head + second) % values.length];
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,360 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/geo/BinaryGrid.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding of the rasters stored in the <code>grid</code> column, read
+ * in place from the bytes of the column.
+ * <p>
+ * The encoding is a little-endian header (magic "GSNG", version, flags, ncols,
+ * nrows, xllcorner, yllcorner, cellsize, nodata value and tile size) followed
+ * by the offsets of the tiles and the tiles. A tile holds the float64 (or
+ * float32) values of up to <code>tileSize</code> x <code>tileSize</code>
+ * cells, row by row, the first row being the northern one as in the ESRI
+ * ascii grids. A tile size of 0 makes a single tile of the whole grid. The
+ * tiles are optionally deflated one by one.
+ * <p>
+ * Reading a cell costs a few arithmetic operations on uncompressed grids and
+ * the inflation of one tile on compressed ones, whatever the size of the
+ * grid. The Java serialized <code>Double[][]</code> of the earlier versions
+ * is still accepted, but it is deserialized as a whole.
+ * <p>
+ * A BinaryGrid keeps the last inflated tile and is not thread safe.
+ */
+public class BinaryGrid {
+
+    public static final byte VERSION = 1;
+
+    private static final byte[] MAGIC = {'G', 'S', 'N', 'G'};
+
+    private static final int FLAG_FLOAT32 = 1;
+
+    private static final int FLAG_DEFLATE = 2;
+
+    private static final int HEADER_SIZE = 50;
+
+    private final ByteBuffer buffer;
+
+    private final double[][] legacy;
+
+    private final int ncols;
+
+    private final int nrows;
+
+    private final double xllcorner;
+
+    private final double yllcorner;
+
+    private final double cellsize;
+
+    private final double nodata;
+
+    private final boolean float32;
+
+    private final boolean deflate;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final int tilesPerRow;
+
+    private int cachedTile = -1;
+
+    private ByteBuffer cachedTileBuffer;
+
+    private BinaryGrid(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.legacy = null;
+        try {
+            for (int i = 0; i < MAGIC.length; i++)
+                if (buffer.get(i) != MAGIC[i])
+                    throw new IOException("Not a grid.");
+            if (buffer.get(4) != VERSION)
+                throw new IOException("Unsupported grid version: " + buffer.get(4));
+            int flags = buffer.get(5);
+            float32 = (flags & FLAG_FLOAT32) != 0;
+            deflate = (flags & FLAG_DEFLATE) != 0;
+            ncols = buffer.getInt(6);
+            nrows = buffer.getInt(10);
+            xllcorner = buffer.getDouble(14);
+            yllcorner = buffer.getDouble(22);
+            cellsize = buffer.getDouble(30);
+            nodata = buffer.getDouble(38);
+            int tileSize = buffer.getInt(46);
+            if (ncols < 0 || nrows < 0 || tileSize < 0)
+                throw new IOException("Invalid grid header.");
+            tileWidth = tileSize > 0 ? tileSize : Math.max(1, ncols);
+            tileHeight = tileSize > 0 ? tileSize : Math.max(1, nrows);
+            tilesPerRow = (ncols + tileWidth - 1) / tileWidth;
+            int tiles = tilesPerRow * ((nrows + tileHeight - 1) / tileHeight);
+            if (buffer.getInt(HEADER_SIZE + tiles * 4) > buffer.limit())
+                throw new IOException("Truncated grid.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated grid.", e);
+        }
+    }
+
+    private BinaryGrid(double[][] legacy) {
+        this.buffer = null;
+        this.legacy = legacy;
+        nrows = legacy.length;
+        ncols = nrows == 0 ? 0 : legacy[0].length;
+        xllcorner = Double.NaN;
+        yllcorner = Double.NaN;
+        cellsize = Double.NaN;
+        nodata = Double.NaN;
+        float32 = false;
+        deflate = false;
+        tileWidth = Math.max(1, ncols);
+        tileHeight = Math.max(1, nrows);
+        tilesPerRow = 1;
+    }
+
+    /**
+     * @param bytes the content of a grid column, in this encoding or in the
+     *              legacy serialized <code>Double[][]</code>, whose missing
+     *              cells are read as NaN.
+     */
+    public static BinaryGrid wrap(byte[] bytes) throws IOException {
+        if (bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED)
+            return new BinaryGrid(readLegacy(bytes));
+        return new BinaryGrid(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static double[][] readLegacy(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Double[][] values;
+        try {
+            values = (Double[][]) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (ClassCastException e) {
+            throw new IOException("Not a grid.", e);
+        } finally {
+            in.close();
+        }
+        double[][] grid = new double[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            grid[i] = new double[values[i].length];
+            for (int j = 0; j < values[i].length; j++)
+                grid[i][j] = values[i][j] == null ? Double.NaN : values[i][j];
+        }
+        return grid;
+    }
+
+    /**
+     * Encodes a grid of nrows x ncols values, the first row being the northern one.
+     *
+     * @param tileSize the side of the tiles in cells, 0 for a single tile.
+     * @param float32  stores the values in single precision.
+     * @param deflate  compresses each tile.
+     */
+    public static byte[] encode(double[][] values, double xllcorner, double yllcorner, double cellsize, double nodata, int tileSize, boolean float32, boolean deflate) {
+        int nrows = values.length;
+        int ncols = nrows == 0 ? 0 : values[0].length;
+        int tileWidth = tileSize > 0 ? tileSize : Math.max(1, ncols);
+        int tileHeight = tileSize > 0 ? tileSize : Math.max(1, nrows);
+        int tilesPerRow = (ncols + tileWidth - 1) / tileWidth;
+        int tilesPerColumn = (nrows + tileHeight - 1) / tileHeight;
+        int bytesPerValue = float32 ? 4 : 8;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (tilesPerRow * tilesPerColumn + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.put(VERSION);
+        header.put((byte) ((float32 ? FLAG_FLOAT32 : 0) | (deflate ? FLAG_DEFLATE : 0)));
+        header.putInt(ncols);
+        header.putInt(nrows);
+        header.putDouble(xllcorner);
+        header.putDouble(yllcorner);
+        header.putDouble(cellsize);
+        header.putDouble(nodata);
+        header.putInt(Math.max(0, tileSize));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Deflater deflater = deflate ? new Deflater() : null;
+        byte[] chunk = new byte[8192];
+        try {
+            for (int ty = 0; ty < tilesPerColumn; ty++)
+                for (int tx = 0; tx < tilesPerRow; tx++) {
+                    header.putInt(header.capacity() + body.size());
+                    int width = Math.min(tileWidth, ncols - tx * tileWidth);
+                    int height = Math.min(tileHeight, nrows - ty * tileHeight);
+                    ByteBuffer tile = ByteBuffer.allocate(width * height * bytesPerValue).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = ty * tileHeight; i < ty * tileHeight + height; i++)
+                        for (int j = tx * tileWidth; j < tx * tileWidth + width; j++) {
+                            if (float32)
+                                tile.putFloat((float) values[i][j]);
+                            else
+                                tile.putDouble(values[i][j]);
+                        }
+                    if (deflate) {
+                        deflater.reset();
+                        deflater.setInput(tile.array());
+                        deflater.finish();
+                        while (!deflater.finished())
+                            body.write(chunk, 0, deflater.deflate(chunk));
+                    } else {
+                        body.write(tile.array(), 0, tile.capacity());
+                    }
+                }
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+        header.putInt(header.capacity() + body.size());
+
+        byte[] bytes = new byte[header.capacity() + body.size()];
+        System.arraycopy(header.array(), 0, bytes, 0, header.capacity());
+        System.arraycopy(body.toByteArray(), 0, bytes, header.capacity(), body.size());
+        return bytes;
+    }
+
+    public int getNcols() {
+        return ncols;
+    }
+
+    public int getNrows() {
+        return nrows;
+    }
+
+    /**
+     * @return the corner and cell size of the grid, NaN for the legacy format.
+     */
+    public double getXllcorner() {
+        return xllcorner;
+    }
+
+    public double getYllcorner() {
+        return yllcorner;
+    }
+
+    public double getCellsize() {
+        return cellsize;
+    }
+
+    public double getNodata() {
+        return nodata;
+    }
+
+    /**
+     * @param xcell the column, from the west.
+     * @param ycell the row, from the north.
+     */
+    public double getCell(int xcell, int ycell) throws IOException {
+        if (xcell < 0 || xcell >= ncols || ycell < 0 || ycell >= nrows)
+            throw new IndexOutOfBoundsException("Cell (" + xcell + ", " + ycell + ") out of the " + ncols + "x" + nrows + " grid.");
+        if (legacy != null)
+            return legacy[ycell][xcell];
+        int tx = xcell / tileWidth;
+        int ty = ycell / tileHeight;
+        ByteBuffer tile = getTile(ty * tilesPerRow + tx);
+        int width = Math.min(tileWidth, ncols - tx * tileWidth);
+        return getValue(tile, (ycell - ty * tileHeight) * width + xcell - tx * tileWidth);
+    }
+
+    /**
+     * @return the cells from xmin to xmax and from ymin to ymax (inclusive), row by row.
+     */
+    public double[][] getWindow(int xmin, int xmax, int ymin, int ymax) throws IOException {
+        if (xmin < 0 || xmax >= ncols || ymin < 0 || ymax >= nrows || xmin > xmax || ymin > ymax)
+            throw new IndexOutOfBoundsException("Window [" + xmin + ", " + xmax + "] x [" + ymin + ", " + ymax + "] out of the " + ncols + "x" + nrows + " grid.");
+        double[][] window = new double[ymax - ymin + 1][xmax - xmin + 1];
+        if (legacy != null) {
+            for (int i = ymin; i <= ymax; i++)
+                System.arraycopy(legacy[i], xmin, window[i - ymin], 0, xmax - xmin + 1);
+            return window;
+        }
+        // tile by tile, to inflate each tile once
+        for (int ty = ymin / tileHeight; ty <= ymax / tileHeight; ty++)
+            for (int tx = xmin / tileWidth; tx <= xmax / tileWidth; tx++) {
+                ByteBuffer tile = getTile(ty * tilesPerRow + tx);
+                int width = Math.min(tileWidth, ncols - tx * tileWidth);
+                int top = ty * tileHeight;
+                int left = tx * tileWidth;
+                for (int i = Math.max(ymin, top); i <= Math.min(ymax, top + tileHeight - 1); i++)
+                    for (int j = Math.max(xmin, left); j <= Math.min(xmax, left + tileWidth - 1); j++)
+                        window[i - ymin][j - xmin] = getValue(tile, (i - top) * width + j - left);
+            }
+        return window;
+    }
+
+    public double[][] toArray() throws IOException {
+        if (ncols == 0 || nrows == 0)
+            return new double[nrows][ncols];
+        return getWindow(0, ncols - 1, 0, nrows - 1);
+    }
+
+    private double getValue(ByteBuffer tile, int index) {
+        return float32 ? tile.getFloat(index * 4) : tile.getDouble(index * 8);
+    }
+
+    private ByteBuffer getTile(int index) throws IOException {
+        if (index == cachedTile)
+            return cachedTileBuffer;
+        int offset = buffer.getInt(HEADER_SIZE + index * 4);
+        int length = buffer.getInt(HEADER_SIZE + index * 4 + 4) - offset;
+        int tx = index % tilesPerRow;
+        int ty = index / tilesPerRow;
+        int size = Math.min(tileWidth, ncols - tx * tileWidth) * Math.min(tileHeight, nrows - ty * tileHeight) * (float32 ? 4 : 8);
+        ByteBuffer tile;
+        if (deflate) {
+            byte[] inflated = new byte[size];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(buffer.array(), buffer.arrayOffset() + offset, length);
+                int read = 0;
+                while (read < inflated.length && !inflater.finished() && !inflater.needsInput())
+                    read += inflater.inflate(inflated, read, inflated.length - read);
+                if (read < inflated.length)
+                    throw new IOException("Truncated tile " + index + ".");
+            } catch (DataFormatException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+            tile = ByteBuffer.wrap(inflated);
+        } else {
+            if (length != size || offset < 0 || offset + length > buffer.limit())
+                throw new IOException("Truncated tile " + index + ".");
+            tile = ((ByteBuffer) buffer.duplicate().position(offset).limit(offset + length)).slice();
+        }
+        tile.order(ByteOrder.LITTLE_ENDIAN);
+        cachedTile = index;
+        cachedTileBuffer = tile;
+        return tile;
+    }
+}
@@ -32,9 +32,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.sql.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -48,61 +46,25 @@ public class GridTools {
         StringBuilder sb = new StringBuilder();
 
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            ObjectInputStream in = null;
-
-            in = new ObjectInputStream(bis);
-
-            Double deserial[][] = new Double[0][];
-
-            deserial = (Double[][]) in.readObject();
-            in.close();
-
-            logger.debug("deserial.length" + deserial.length);
-            logger.debug("deserial[0].length" + deserial[0].length);
-
-            for (int i = 0; i < deserial.length; i++) {
-
-                for (int j = 0; j < deserial[0].length; j++) {
-                    sb.append(deserial[i][j]).append(" ");
-                }
-                sb.append("\n");
-            }
-
+            appendCells(sb, BinaryGrid.wrap(bytes).toArray());
         } catch (IOException e) {
             logger.warn(e);
-        } catch (ClassNotFoundException e) {
-            logger.warn(e);
         }
 
         return sb.toString();
     }
 
+    /*
+    * reads a single cell, without decoding the whole grid
+    * */
     public static double deSerializeToCell(byte[] bytes, int xcell, int ycell) {
 
-        StringBuilder sb = new StringBuilder();
         double value = 0;
 
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            ObjectInputStream in = null;
-
-            in = new ObjectInputStream(bis);
-
-            Double deserial[][] = new Double[0][];
-
-            deserial = (Double[][]) in.readObject();
-            in.close();
-
-            logger.debug("deserial.length" + deserial.length);
-            logger.debug("deserial[0].length" + deserial[0].length);
-
-            value = deserial[ycell][xcell];
-
+            value = BinaryGrid.wrap(bytes).getCell(xcell, ycell);
         } catch (IOException e) {
             logger.warn(e);
-        } catch (ClassNotFoundException e) {
-            logger.warn(e);
         }
 
         return value;
@@ -113,69 +75,39 @@ public class GridTools {
         StringBuilder sb = new StringBuilder();
 
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            ObjectInputStream in = null;
-
-            in = new ObjectInputStream(bis);
-
-            Double deserial[][] = new Double[0][];
-
-            deserial = (Double[][]) in.readObject();
-            in.close();
-
-            logger.debug("deserial.length" + deserial.length);
-            logger.debug("deserial[0].length" + deserial[0].length);
-
-            for (int i = ymin; i <= ymax; i++) {
-
-                for (int j = xmin; j <= xmax; j++) {
-                    sb.append(deserial[i][j]).append(" ");
-                }
-                sb.append("\n");
-            }
-
+            appendCells(sb, BinaryGrid.wrap(bytes).getWindow(xmin, xmax, ymin, ymax));
         } catch (IOException e) {
             logger.warn(e);
-        } catch (ClassNotFoundException e) {
-            logger.warn(e);
         }
 
         return sb.toString();
     }
 
+    private static void appendCells(StringBuilder sb, double[][] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            for (int j = 0; j < cells[i].length; j++) {
+                sb.append(cells[i][j]).append(" ");
+            }
+            sb.append("\n");
+        }
+    }
+
     /*
-    * deserialization
+    * deserialization, the missing cells of the legacy grids are NaN
     * */
-    public static Double[][] deSerialize(byte[] bytes) {
+    public static double[][] deSerialize(byte[] bytes) {
 
-        Double deserial[][] = new Double[0][];
+        double deserial[][] = new double[0][];
 
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            ObjectInputStream in = null;
-
-            in = new ObjectInputStream(bis);
-
-            deserial = (Double[][]) in.readObject();
-            in.close();
+            deserial = BinaryGrid.wrap(bytes).toArray();
 
             if (logger.isDebugEnabled()) {
                 logger.debug("deserial.length" + deserial.length);
-                logger.debug("deserial[0].length" + deserial[0].length);
-            }
-
-            for (int i = 0; i < deserial.length; i++) {
-                StringBuilder sb = new StringBuilder();
-                for (int j = 0; j < deserial[0].length; j++) {
-                    sb.append(deserial[i][j]).append(" ");
-                }
-                logger.debug(sb.toString());
             }
 
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getMessage(), e);
         }
 
         return deserial;
@@ -258,16 +190,13 @@ public class GridTools {
 
         try {
         	connection = Main.getStorage(sensor).getConnection();
-            Statement statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            // forward only, one grid in memory at a time
+            Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             results = statement.executeQuery(query);
             ResultSetMetaData metaData;    // Additional information about the results
-            int numCols, numRows;          // How many rows and columns in the table
+            int numCols;                   // How many columns in the table
             metaData = results.getMetaData();       // Get metadata on them
             numCols = metaData.getColumnCount();    // How many columns?
-            results.last();                         // Move to last row
-            numRows = results.getRow();             // How many rows?
-
-            String s;
 
             byte typ[] = new byte[numCols];
             String columnLabel[] = new String[numCols];
@@ -281,24 +210,19 @@ public class GridTools {
             }
 
             Long timed = 0L;
-            double value = 0.0;
 
-            for (int row = 0; row < numRows; row++) {
-                sb = new StringBuilder("");
-                results.absolute(row + 1);                // Go to the specified row
+            while (results.next()) {
+                // null for a row without grid, rather than the value of the previous row
+                Double value = null;
                 for (int col = 0; col < numCols; col++) {
-                    Object o = results.getObject(col + 1); // Get value of the column
-                    if (o == null)
-                        s = "null";
-                    else
-                        s = o.toString();
                     if (columnLabel[col].equalsIgnoreCase("timed")) {
-                        timed = Long.valueOf(s);
+                        timed = results.getLong(col + 1);
                         continue;
                     }
                     if (typ[col] == DataTypes.BINARY) {
-                        byte[] bin = (byte[]) o;
-                        value = GridTools.deSerializeToCell(bin, xcell, ycell);
+                        byte[] bin = results.getBytes(col + 1);
+                        if (bin != null)
+                            value = GridTools.deSerializeToCell(bin, xcell, ycell);
                     }
                 }
 
@@ -532,12 +456,12 @@ public class GridTools {
 
                     if (typ[col] == DataTypes.BINARY) {
                         byte[] bin = (byte[]) o;
-                        Double[][] array = GridTools.deSerialize(bin);
+                        double[][] array = GridTools.deSerialize(bin);
                         JSONArray jsonArray = new JSONArray();
                         for (int i = 0; i < array.length; i++) {
                             JSONArray anArray = new JSONArray();
                             for (int j = 0; j < array[i].length; j++) {
-                                anArray.put(array[i][j]);
+                                anArray.put(Double.isNaN(array[i][j]) ? null : (Object) array[i][j]);
                             }
                             jsonArray.put(anArray);
                         }
@@ -25,6 +25,8 @@
 
 package gsn.utils.models;
 
+import java.io.Serializable;
+
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
 import gsn.vsensor.ModellingVirtualSensor;
@@ -56,6 +58,46 @@ public abstract class AbstractModel {
 
 
 	public abstract StreamElement[] query(StreamElement params);
+
+	private static final DataField[] POSITION = new DataField[]{new DataField("latitude","double"),new DataField("longitude","double")};
+
+	/**
+	 * Vectorized query, evaluating a field of the model at a batch of positions.
+	 * The default implementation queries the positions one by one, models should override it
+	 * when they can evaluate a batch at once.
+	 * @param field the output field to evaluate, converted to double (non numeric values are 0)
+	 * @return the values at the positions, in the same order
+	 */
+	public double[] query(String field, double[] latitudes, double[] longitudes) {
+		double[] values = new double[latitudes.length];
+		for (int i=0;i<latitudes.length;i++){
+			StreamElement[] r = query(new StreamElement(POSITION, new Serializable[]{latitudes[i],longitudes[i]}));
+			Serializable s = (r == null || r.length == 0) ? null : r[0].getData(field);
+			if (s instanceof Number){
+				values[i] = ((Number) s).doubleValue();
+			}else if (s instanceof Boolean){
+				values[i] = ((Boolean) s) ? 1.0 : 0.0;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return true if the queries can run concurrently, on disjoint batches of positions.
+	 */
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	/**
+	 * The area whose values may have changed with this stream element, for re-evaluating only a part of
+	 * a grid of values.
+	 * @return {min latitude, min longitude, max latitude, max longitude}, or null if the whole model
+	 * may have changed (default)
+	 */
+	public double[] getAffectedArea(StreamElement streamElement) {
+		return null;
+	}
 	
 
 	public abstract void setParam(String k, String string);
@@ -27,24 +27,26 @@ package gsn.utils.models;
 
 import gsn.utils.models.jgarch.armamodel.ARModel;
 import gsn.utils.models.jgarch.garchmodel.GarchModel;
-import gsn.utils.models.jgarch.util.ArrayUtils;
-import gsn.utils.models.jgarch.wrappers.REngineManager;
 import org.apache.log4j.Logger;
 
 import java.lang.Math;
 
-import java.util.List;
-
+/**
+ * Marks the values out of the AR(2) prediction +/- errorBound GARCH(1,1) standard deviations,
+ * over a sliding window. The models are fitted in Java, incrementally from one window to the next.
+ */
 public class ArmaGarchModel implements IModel {
 
-    private final transient Logger logger = Logger.getLogger(ArmaGarchModel.class);
+    private static final transient Logger logger = Logger.getLogger(ArmaGarchModel.class);
     private double[] stream;
 
     private int windowSize;
 
     private double errorBound = 3;
 
-    private double minVar = 1E-4;
+    static final double MIN_VAR = 1E-4;
+
+    private double minVar = MIN_VAR;
 
     ArmaGarchModel(int windowSize, double errorBound, double[] stream) {
         this.stream = stream;
@@ -68,71 +70,74 @@ public class ArmaGarchModel implements IModel {
             dirtyness[i] = 0;
         }
 
-        // Sliding Window
-        double[] tseries = new double[windowSize];
+        // Sliding Window, the models are updated from a window to the next one
+        ARModel ar = new ARModel(2, 1);
+        GarchModel gm = new GarchModel();
+        double[] result = new double[3];
 
         for (int i = 0; i <= (stream.length - windowSize - 1); i++) {
             int currIdx = i + windowSize;
 
-            System.arraycopy(stream, i, tseries, 0, windowSize);
-
-            /*
-            for (double t : tseries) {
-                System.out.print(t + ",");
-            }
-            */
-
-            //System.out.println();
-            //System.out.println(i + windowSize);
-
+            if (!markDirty(ar, gm, stream, i, windowSize, stream[currIdx], errorBound, minVar, result))
+                allClean = false;
 
-            // create and execute AR model
-            ARModel ar = new ARModel(tseries);
-            ar.run();
+            processed[currIdx] = result[0];
+            dirtyness[currIdx] = result[1];
+            quality[currIdx] = result[2];
+        }
 
-            // predict next value from AR model
-            double[] arPred = ar.getArPreds();
-            double predValue = arPred[0];     // estimated
+        return allClean;
+    }
 
-            // Get residuals from AR model and give them to GARCH model
-            double[] arResid = ar.getArResiduals();
-            GarchModel gm = new GarchModel(arResid);
-            gm.run();
+    /**
+     * Marks a value against the models fitted on the window of windowSize values before it.
+     *
+     * @param result receives the processed value, the dirtyness and the quality.
+     * @return true if the value is clean.
+     */
+    static boolean markDirty(ARModel ar, GarchModel gm, double[] stream, int from, int windowSize, double value, double errorBound, double minVar, double[] result) {
+        // execute AR model
+        ar.run(stream, from, windowSize);
 
-            // Predict +ve and -ve variance from GARCH model.
-            double predUVar = gm.getPredUVar();  // sigma
-            double predLVar = gm.getPredLVar();
+        // predict next value from AR model
+        double[] arPred = ar.getArPreds();
+        double predValue = arPred[0];     // estimated
 
-            //System.out.println(gm.getPredUVar());
-            //System.out.println(gm.getPredLVar());
+        // Get residuals from AR model and give them to GARCH model
+        double[] arResid = ar.getArResiduals();
+        gm.fit(arResid);
 
-            double quality_metric = 0;
-            if (predUVar != 0.0)
-                quality_metric = 1 / Math.sqrt(2 * Math.PI * predUVar * predUVar) * Math.exp(-((stream[currIdx] - predValue) * (stream[currIdx] - predValue)) / (2 * predUVar * predUVar));
+        // Predict +ve and -ve variance from GARCH model.
+        double predUVar = gm.getPredUVar();  // sigma
+        double predLVar = gm.getPredLVar();
 
-            quality[currIdx] = quality_metric;
+        double quality_metric = 0;
+        if (predUVar != 0.0)
+            quality_metric = 1 / Math.sqrt(2 * Math.PI * predUVar * predUVar) * Math.exp(-((value - predValue) * (value - predValue)) / (2 * predUVar * predUVar));
 
-            logger.warn("quality : " + currIdx + " : " + quality_metric + "U-var: " + predUVar + "L-var: " + predLVar);
+        result[2] = quality_metric;
 
-            if (predUVar > minVar) {
-                if ((stream[currIdx] <= predValue + errorBound * Math.sqrt(predUVar)) &&
-                        (stream[currIdx] >= predValue + errorBound * Math.sqrt(predLVar))) {
-                    processed[currIdx] = stream[currIdx];
-                    dirtyness[currIdx] = 0;
+        if (logger.isDebugEnabled())
+            logger.debug("quality : " + quality_metric + "U-var: " + predUVar + "L-var: " + predLVar);
 
-                } else {
-                    processed[currIdx] = predValue;
-                    dirtyness[currIdx] = 1;
-                    allClean = false;
-                }
+        if (predUVar > minVar) {
+            // predLVar is -predUVar, symmetric bounds
+            if ((value <= predValue + errorBound * Math.sqrt(predUVar)) &&
+                    (value >= predValue - errorBound * Math.sqrt(predUVar))) {
+                result[0] = value;
+                result[1] = 0;
 
             } else {
-                processed[currIdx] = stream[currIdx];
-                dirtyness[currIdx] = 0;
+                result[0] = predValue;
+                result[1] = 1;
+                return false;
             }
-        }
 
-        return allClean;
+        } else {
+            result[0] = value;
+            result[1] = 0;
+        }
+        return true;
     }
 
 }
@@ -25,6 +25,8 @@
 
 package gsn.utils.models;
 
+import java.util.Arrays;
+
 import gsn.beans.DataTypes;
 import gsn.beans.StreamElement;
 
@@ -37,7 +39,7 @@ import gsn.beans.StreamElement;
  */
 public class DummyModel extends AbstractModel {
 	
-	private StreamElement lastone;
+	private volatile StreamElement lastone;
 	private int defaultValue = 0;
 
 	@Override
@@ -58,6 +60,20 @@ public class DummyModel extends AbstractModel {
 		}
 	}
 
+	@Override
+	public double[] query(String field, double[] latitudes, double[] longitudes) {
+		// the same value everywhere
+		double[] values = super.query(field, new double[]{0}, new double[]{0});
+		double[] all = new double[latitudes.length];
+		Arrays.fill(all, values[0]);
+		return all;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
 	@Override
 	public void setParam(String k, String string) {
 		if (k.equalsIgnoreCase("default")){
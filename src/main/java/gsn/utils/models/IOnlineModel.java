@@ -0,0 +1,38 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/utils/models/IOnlineModel.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.models;
+
+/**
+ * The streaming counterpart of IModel, marking each sample when it arrives.
+ */
+public interface IOnlineModel {
+
+	/**
+	 * @param result receives the processed value, the dirtyness and the quality of the sample.
+	 * @return true if the sample is clean.
+	 */
+	boolean MarkDirty(long timestamp, double value, double[] result);
+}
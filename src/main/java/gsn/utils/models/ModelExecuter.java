@@ -28,7 +28,6 @@ package gsn.utils.models;
 import gsn.utils.models.jgarch.armamodel.ARModel;
 import gsn.utils.models.jgarch.garchmodel.GarchModel;
 import gsn.utils.models.jgarch.util.ArrayUtils;
-import gsn.utils.models.jgarch.wrappers.REngineManager;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -111,10 +110,6 @@ public class ModelExecuter {
 			System.out.println(gm.getPredLVar());
 		}
 
-
-		REngineManager rengineManager = REngineManager.getInstance();
-    	rengineManager.endEngine();
-
 	}
 
 
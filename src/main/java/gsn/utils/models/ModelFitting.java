@@ -27,7 +27,6 @@
 package gsn.utils.models;
 
 import gsn.utils.models.jgarch.util.ArrayUtils;
-import gsn.utils.models.jgarch.wrappers.REngineManager;
 
 import java.io.*;
 import java.util.Vector;
@@ -115,6 +114,30 @@ public class ModelFitting {
         return result;
     }
 
+    /*
+    * Returns the online model marking the samples one by one, or null for an unknown model.
+    * The polynomial models are fitted by recursive least squares over about windowSize samples,
+    * the chebyshev ones being the polynomials of the same degree.
+    * */
+    public static IOnlineModel createOnlineModel(int model, double errorBound, int windowSize) {
+        switch (model) {
+            case CONSTANT:
+                return new RecursivePolynomialModel(0, windowSize, errorBound);
+            case LINEAR:
+            case CHEBYSHEV_DEG1:
+                return new RecursivePolynomialModel(1, windowSize, errorBound);
+            case QUADRATIC:
+            case CHEBYSHEV_DEG2:
+                return new RecursivePolynomialModel(2, windowSize, errorBound);
+            case CHEBYSHEV_DEG3:
+                return new RecursivePolynomialModel(3, windowSize, errorBound);
+            case ARMA_GARCH:
+                return new OnlineArmaGarchModel(windowSize, errorBound);
+            default:
+                return null;
+        }
+    }
+
     public static Vector<Double> load_doubles(String fileName) throws IOException {
         File file = new File(fileName);
         BufferedReader bufRdr = new BufferedReader(new FileReader(file));
@@ -258,6 +281,6 @@ public class ModelFitting {
 
         appendOutputFile(outfile, datafile, model, window, error, RMSE, startTime, n_anomalies);
 
-        System.exit(0); // force exit, necessary for REngine
+        System.exit(0);
     }
 }
@@ -0,0 +1,73 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/utils/models/OnlineArmaGarchModel.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.models;
+
+import gsn.utils.models.jgarch.armamodel.ARModel;
+import gsn.utils.models.jgarch.garchmodel.GarchModel;
+
+/**
+ * ArmaGarchModel over the windowSize samples preceding each sample. The AR
+ * sums slide in O(1), but the GARCH likelihood is maximized again on every
+ * sample (from the previous estimates), in O(windowSize).
+ */
+public class OnlineArmaGarchModel implements IOnlineModel {
+
+	private final int windowSize;
+	private final double errorBound;
+
+	private final ARModel ar = new ARModel(2, 1);
+	private final GarchModel gm = new GarchModel();
+
+	// the last samples, from start to end, moved back to the beginning when the array is full
+	private final double[] history;
+	private int start = 0;
+	private int end = 0;
+
+	public OnlineArmaGarchModel(int windowSize, double errorBound) {
+		this.windowSize = Math.max(1, windowSize);
+		this.errorBound = errorBound;
+		history = new double[4 * this.windowSize];
+	}
+
+	public boolean MarkDirty(long timestamp, double value, double[] result) {
+		boolean clean = true;
+		if (end - start < windowSize) {
+			result[0] = value;
+			result[1] = 0;
+			result[2] = 0;
+		} else {
+			clean = ArmaGarchModel.markDirty(ar, gm, history, start, windowSize, value, errorBound, ArmaGarchModel.MIN_VAR, result);
+			start++;
+		}
+		if (end == history.length) {
+			System.arraycopy(history, start, history, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		history[end++] = value;
+		return clean;
+	}
+}
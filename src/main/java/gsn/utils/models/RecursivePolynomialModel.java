@@ -0,0 +1,162 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+* 
+* This file is part of GSN.
+* 
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+* 
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+* 
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+* 
+* File: src/gsn/utils/models/RecursivePolynomialModel.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.models;
+
+/**
+ * Online polynomial model of the stream, fitted by recursive least squares
+ * with a forgetting factor of 1 - 1/windowSize, i.e. over about the last
+ * windowSize samples.
+ * <p>
+ * The polynomial is kept in the time relative to the last sample: on a new
+ * sample its coefficients and covariance are shifted to the new origin, where
+ * the regressor is (1, 0, ..., 0). The prediction is then the constant
+ * coefficient and the update costs O(degree^3) whatever the window size.
+ * <p>
+ * A sample is dirty when it is further than errorBound from the prediction
+ * made before it. The processed value is the prediction, and the quality the
+ * density of the sample under a normal distribution of the prediction errors.
+ */
+public class RecursivePolynomialModel implements IOnlineModel {
+
+	private static final double INITIAL_COVARIANCE = 1E8;
+
+	private final int n;
+	private final double lambda;
+	private final int windowSize;
+	private final double errorBound;
+
+	private final double[] coefs;
+	private final double[][] covariance;
+	private final double[][] binomial;
+
+	// time origin (last sample) and unit of the relative time, in ms
+	private long origin;
+	private double scale = 0;
+
+	private long count = 0;
+	private double errorVariance = 0;
+
+	// work arrays
+	private final double[][] shift;
+	private final double[][] product;
+	private final double[] gain;
+
+	public RecursivePolynomialModel(int degree, int windowSize, double errorBound) {
+		this.n = degree + 1;
+		this.windowSize = Math.max(1, windowSize);
+		this.lambda = 1 - 1.0 / Math.max(2, windowSize);
+		this.errorBound = errorBound;
+		coefs = new double[n];
+		covariance = new double[n][n];
+		for (int i = 0; i < n; i++)
+			covariance[i][i] = INITIAL_COVARIANCE;
+		binomial = new double[n][n];
+		for (int k = 0; k < n; k++) {
+			binomial[k][0] = 1;
+			for (int j = 1; j <= k; j++)
+				binomial[k][j] = binomial[k - 1][j - 1] + (j < k ? binomial[k - 1][j] : 0);
+		}
+		shift = new double[n][n];
+		product = new double[n][n];
+		gain = new double[n];
+	}
+
+	public boolean MarkDirty(long timestamp, double value, double[] result) {
+		if (count > 0) {
+			if (scale == 0 && timestamp != origin)
+				scale = Math.abs(timestamp - origin) * (double) windowSize;
+			if (timestamp != origin)
+				shiftOrigin((timestamp - origin) / scale);
+		}
+		origin = timestamp;
+
+		double prediction = coefs[0];
+		double error = value - prediction;
+		boolean clean = true;
+		if (count <= n) {
+			// not enough samples for a prediction yet
+			result[0] = value;
+			result[1] = 0;
+			result[2] = 0;
+		} else {
+			clean = Math.abs(error) <= errorBound;
+			result[0] = prediction;
+			result[1] = clean ? 0 : 1;
+			result[2] = errorVariance > 0 ? 1 / Math.sqrt(2 * Math.PI * errorVariance) * Math.exp(-error * error / (2 * errorVariance)) : 0;
+			errorVariance = lambda * errorVariance + (1 - lambda) * error * error;
+		}
+
+		// update with the regressor (1, 0, ..., 0)
+		double denominator = lambda + covariance[0][0];
+		for (int i = 0; i < n; i++)
+			gain[i] = covariance[i][0] / denominator;
+		for (int i = 0; i < n; i++)
+			coefs[i] += gain[i] * error;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				product[i][j] = covariance[i][j] - gain[i] * covariance[0][j];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				covariance[i][j] = (product[i][j] + product[j][i]) / (2 * lambda);
+		count++;
+		return clean;
+	}
+
+	/**
+	 * Expresses the polynomial and the covariance in the time relative to a new origin, delta units later.
+	 */
+	private void shiftOrigin(double delta) {
+		// p(t + delta) = sum_j t^j sum_{k >= j} C(k, j) delta^(k - j) coefs[k]
+		for (int j = 0; j < n; j++) {
+			double power = 1;
+			for (int k = j; k < n; k++) {
+				shift[j][k] = binomial[k][j] * power;
+				power *= delta;
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			double c = 0;
+			for (int k = j; k < n; k++)
+				c += shift[j][k] * coefs[k];
+			coefs[j] = c;
+		}
+		// covariance = shift * covariance * shift'
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++) {
+				double c = 0;
+				for (int k = i; k < n; k++)
+					c += shift[i][k] * covariance[k][j];
+				product[i][j] = c;
+			}
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++) {
+				double c = 0;
+				for (int k = j; k < n; k++)
+					c += product[i][k] * shift[j][k];
+				covariance[i][j] = c;
+			}
+	}
+}
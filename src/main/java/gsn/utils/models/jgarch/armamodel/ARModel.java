@@ -26,11 +26,15 @@
 
 package gsn.utils.models.jgarch.armamodel;
 
-import gsn.utils.models.jgarch.wrappers.REngineManager;
-
-import org.rosuda.JRI.REXP;
-import org.rosuda.JRI.Rengine;
-
+/**
+ * Autoregressive model of order p with a mean, estimated by the Yule-Walker
+ * equations (Levinson-Durbin recursion), in Java.
+ * <p>
+ * When sliding over a stream with <code>run(stream, from, length)</code>, the
+ * sums giving the mean and the autocovariances are updated with the values
+ * leaving and entering the window instead of being recomputed, and computed
+ * again once per window length to bound the rounding errors.
+ */
 public class ARModel {
 	private double[] arResiduals;
 	
@@ -42,7 +46,22 @@ public class ARModel {
 	
 	private int predStep = 1;
 	
-	private int initialOffset = arOrder + 1;	
+	private double mean;
+	
+	private double[] coefficients;
+	
+	// sums over the current window of the stream: the values and the lagged products
+	private double[] stream;
+	
+	private int windowFrom = -1;
+	
+	private int windowLength;
+	
+	private int slides;
+	
+	private double sum;
+	
+	private double[] lagSums;
 	
 	
 	public double[] getArPreds() {
@@ -59,10 +78,20 @@ public class ARModel {
 		return arResiduals;
 	}
 
+	/**
+	 * @return the coefficients of the lags 1 to p.
+	 */
+	public double[] getCoefficients() {
+		return coefficients;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
 	public ARModel(double[] tSeries, int arOrder, int predStep){
 		this.tSeries = tSeries;		
 		this.arOrder = arOrder;
-		this.initialOffset = arOrder+1;
 		this.predStep = predStep;
 		
 	}
@@ -71,32 +100,112 @@ public class ARModel {
 		this.tSeries = tSeries;		
 	}
 	
+	/**
+	 * For sliding over a stream with <code>run(stream, from, length)</code>.
+	 */
+	public ARModel(int arOrder, int predStep){
+		this.arOrder = arOrder;
+		this.predStep = predStep;
+	}
+	
     public void run() {
+    	windowFrom = -1;
+    	run(tSeries, 0, tSeries.length);
+    }
+    
+    /**
+     * Fits the window of <code>length</code> values starting at <code>from</code>,
+     * incrementally if the previous window started at <code>from - 1</code>.
+     */
+    public void run(double[] stream, int from, int length) {
+    	if (stream == this.stream && from == windowFrom + 1 && length == windowLength && slides < length) {
+    		slide(from);
+    	} else {
+    		sums(stream, from, length);
+    	}
     	
-    	REngineManager rengineManager = REngineManager.getInstance();
-    	Rengine re = rengineManager.getREngine();	
-		
-		try {						
-			
-			REXP RarResiduals;
-			REXP RarPreds;
-			re.assign("valseries", tSeries);
-						
-			re.eval("valseries.ar=ar.mle(valseries, aic=FALSE, order.max="+ arOrder + ")");
-			RarResiduals=re.eval("valseries.ar$resid["+initialOffset + ":length(valseries)]");
-			RarResiduals=re.eval("valseries.ar$resid["+initialOffset + ":length(valseries)]");
-			
-			this.arResiduals = RarResiduals.asDoubleArray();
-			re.eval("valpred=predict(valseries.ar,n.ahead="+predStep+")");
-			RarPreds=re.eval("valpred$pred");
-			
-			this.arPreds = RarPreds.asDoubleArray(); 
-			
-		} catch (Exception e) {
-			System.out.println("EX:"+e);
-			e.printStackTrace();
-			rengineManager.endEngine();
-		} 
-	
+    	int p = Math.min(arOrder, Math.max(0, length - 1));
+    	mean = length == 0 ? 0 : sum / length;
+    	
+    	// biased autocovariances, as in R's ar.yw
+    	double[] acov = new double[p + 1];
+    	double first = 0;
+    	double last = 0;
+    	for (int k = 0; k <= p; k++) {
+    		if (k > 0) {
+    			first += stream[from + k - 1];
+    			last += stream[from + length - k];
+    		}
+    		acov[k] = (lagSums[k] - mean * ((sum - last) + (sum - first)) + (length - k) * mean * mean) / length;
+    	}
+    	coefficients = levinsonDurbin(acov, p);
+    	
+    	arResiduals = new double[Math.max(0, length - p)];
+    	for (int t = p; t < length; t++) {
+    		double e = stream[from + t] - mean;
+    		for (int j = 1; j <= p; j++)
+    			e -= coefficients[j - 1] * (stream[from + t - j] - mean);
+    		arResiduals[t - p] = e;
+    	}
+    	
+    	// predictions, the predicted values standing for the next ones
+    	double[] recent = new double[p + predStep];
+    	for (int j = 0; j < p; j++)
+    		recent[j] = stream[from + length - p + j] - mean;
+    	arPreds = new double[predStep];
+    	for (int s = 0; s < predStep; s++) {
+    		double pred = 0;
+    		for (int j = 1; j <= p; j++)
+    			pred += coefficients[j - 1] * recent[p + s - j];
+    		recent[p + s] = pred;
+    		arPreds[s] = pred + mean;
+    	}
+    }
+    
+    private void sums(double[] stream, int from, int length) {
+    	this.stream = stream;
+    	windowFrom = from;
+    	windowLength = length;
+    	slides = 0;
+    	sum = 0;
+    	lagSums = new double[arOrder + 1];
+    	for (int t = 0; t < length; t++) {
+    		double x = stream[from + t];
+    		sum += x;
+    		for (int k = 0; k <= arOrder && k <= t; k++)
+    			lagSums[k] += x * stream[from + t - k];
+    	}
+    }
+    
+    private void slide(int from) {
+    	double out = stream[from - 1];
+    	double in = stream[from + windowLength - 1];
+    	sum += in - out;
+    	for (int k = 0; k <= arOrder && k < windowLength; k++) {
+    		lagSums[k] += stream[from + windowLength - 1 - k] * in - out * stream[from - 1 + k];
+    	}
+    	windowFrom = from;
+    	slides++;
+    }
+    
+    /**
+     * @return the coefficients of the AR(p) model having these autocovariances.
+     */
+    private static double[] levinsonDurbin(double[] acov, int p) {
+    	double[] phi = new double[p];
+    	double error = acov[0];
+    	double[] previous = new double[p];
+    	for (int m = 0; m < p && error > 0; m++) {
+    		double acc = acov[m + 1];
+    		for (int j = 0; j < m; j++)
+    			acc -= phi[j] * acov[m - j];
+    		double reflection = acc / error;
+    		System.arraycopy(phi, 0, previous, 0, m);
+    		phi[m] = reflection;
+    		for (int j = 0; j < m; j++)
+    			phi[j] = previous[j] - reflection * previous[m - 1 - j];
+    		error *= 1 - reflection * reflection;
+    	}
+    	return phi;
     }
 }
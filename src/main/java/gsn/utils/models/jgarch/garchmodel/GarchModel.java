@@ -26,11 +26,14 @@
 
 package gsn.utils.models.jgarch.garchmodel;
 
-import gsn.utils.models.jgarch.wrappers.REngineManager;
-
-import org.rosuda.JRI.REXP;
-import org.rosuda.JRI.Rengine;
-
+/**
+ * GARCH(1,1) model h(t) = omega + alpha * e(t-1)^2 + beta * h(t-1), estimated
+ * by maximizing the Gaussian likelihood (BFGS), in Java.
+ * <p>
+ * The model is fitted on the series scaled to a unit variance, and a model
+ * fitted again (<code>fit</code>) starts from the previous estimates, which
+ * are usually close when sliding over a stream.
+ */
 public class GarchModel {
 	private double predUVar;
 	
@@ -40,59 +43,218 @@ public class GarchModel {
 	
 	private int garchOrder = 1;
 	private int archOrder = 1;
-	private int initialOffset = (archOrder > garchOrder) ? archOrder + 1: garchOrder +1;	
 	
+	private static final int MAX_ITERATIONS = 100;
+	
+	// the estimates on the scaled series, as log(omega), log(alpha / (1 - alpha - beta)) and log(beta / (1 - alpha - beta))
+	private double[] estimates = null;
+	
+	private double omega;
+	private double alpha;
+	private double beta;
+	
+	/**
+	 * @return the predicted conditional standard deviation.
+	 */
 	public double getPredUVar() {
 		return predUVar;
 	}
 
+	/**
+	 * @return the opposite of the predicted conditional standard deviation.
+	 */
 	public double getPredLVar() {
 		return predLVar;
 	}
 
+	public double getOmega() {
+		return omega;
+	}
+
+	public double getAlpha() {
+		return alpha;
+	}
+
+	public double getBeta() {
+		return beta;
+	}
+
 	public GarchModel(double[] tSeries, int archOrder, int garchOrder){
+		if (archOrder != 1 || garchOrder != 1)
+			throw new IllegalArgumentException("Only the GARCH(1,1) model is supported.");
 		this.tSeries = tSeries;
 		this.garchOrder = garchOrder;
 		this.archOrder = archOrder;
-		initialOffset = (archOrder > garchOrder) ? archOrder + 1: garchOrder +1;
 	}
 	
 	public GarchModel(double[] tSeries){
 		this.tSeries = tSeries;		
 	}
 	
-    public void run() {
-	// just making sure we have the right version of everything
-    	REngineManager rengineManager = REngineManager.getInstance();
-    	Rengine re = rengineManager.getREngine();
-	
-		
-		try {					
-			
-			REXP RpredUVar;
-			REXP RpredLVar;
-			
-			//re.eval("library(tseries)"); // not required since REngineManager.initREngine() calls it once when the REngine is created
-			
-			re.assign("nyse", tSeries);
-			re.eval("nyse.g=garch(nyse, order=c("+ garchOrder + ","+ archOrder + "))");
-			re.eval("u=tseries:::predict.garch(nyse.g,genuine=TRUE)");
-			
-			//System.out.println(RpredUVar=re.eval("u["+ initialOffset + ":dim(u)[1],1]"));
-			//System.out.println(RpredLVar=re.eval("u["+ initialOffset + ":dim(u)[1],2]"));
-			
-			RpredUVar=re.eval("u[dim(u)[1],1]");
-			RpredLVar=re.eval("u[dim(u)[1],2]");
-			
-			predUVar = RpredUVar.asDouble();
-			predLVar = RpredLVar.asDouble();
-			
-			
-		} catch (Exception e) {
-			System.out.println("EX:" + e);
-			e.printStackTrace();
-			rengineManager.endEngine();
-		} 
+	/**
+	 * For fitting successive series with <code>fit</code>.
+	 */
+	public GarchModel(){
+	}
 	
+    public void run() {
+    	fit(tSeries);
+    }
+    
+    public void fit(double[] series) {
+    	int n = series.length;
+    	double variance = 0;
+    	for (double e : series)
+    		variance += e * e;
+    	variance = n == 0 ? 0 : variance / n;
+    	if (!(variance > 0) || Double.isInfinite(variance)) {
+    		// constant series
+    		omega = alpha = beta = 0;
+    		predUVar = predLVar = 0;
+    		return;
+    	}
+    	double[] squares = new double[n];
+    	for (int t = 0; t < n; t++)
+    		squares[t] = series[t] * series[t] / variance;
+    	
+    	double[] u = estimates;
+    	if (u == null) {
+    		// omega = 0.9, alpha = beta = 0.05 on the scaled series, as R's tseries
+    		u = new double[]{Math.log(0.9), Math.log(0.05 / 0.9), Math.log(0.05 / 0.9)};
+    	}
+    	u = minimize(squares, u);
+    	estimates = u;
+    	
+    	double[] theta = parameters(u);
+    	double h = 1;
+    	for (int t = 1; t <= n; t++)
+    		h = theta[0] + theta[1] * squares[t - 1] + theta[2] * h;
+    	omega = theta[0] * variance;
+    	alpha = theta[1];
+    	beta = theta[2];
+    	predUVar = Math.sqrt(h * variance);
+    	predLVar = -predUVar;
+    }
+    
+    /**
+     * @return omega, alpha and beta from the unconstrained estimates, ensuring omega > 0, alpha, beta > 0 and alpha + beta < 1.
+     */
+    private static double[] parameters(double[] u) {
+    	double a = Math.exp(u[1]);
+    	double b = Math.exp(u[2]);
+    	double d = 1 + a + b;
+    	return new double[]{Math.exp(u[0]), a / d, b / d};
+    }
+    
+    /**
+     * The negative log-likelihood of the scaled squared series (up to constants) and its gradient.
+     *
+     * @return the negative log-likelihood, the gradient being stored in <code>gradient</code>.
+     */
+    private static double likelihood(double[] squares, double[] u, double[] gradient) {
+    	double[] theta = parameters(u);
+    	double omega = theta[0], alpha = theta[1], beta = theta[2];
+    	double h = 1;
+    	double dOmega = 0, dAlpha = 0, dBeta = 0;
+    	double f = 0, gOmega = 0, gAlpha = 0, gBeta = 0;
+    	for (int t = 0; t < squares.length; t++) {
+    		if (t > 0) {
+    			dOmega = 1 + beta * dOmega;
+    			dAlpha = squares[t - 1] + beta * dAlpha;
+    			dBeta = h + beta * dBeta;
+    			h = omega + alpha * squares[t - 1] + beta * h;
+    		}
+    		f += Math.log(h) + squares[t] / h;
+    		double w = (1 - squares[t] / h) / h;
+    		gOmega += w * dOmega;
+    		gAlpha += w * dAlpha;
+    		gBeta += w * dBeta;
+    	}
+    	// chain rule to the unconstrained estimates
+    	gradient[0] = 0.5 * gOmega * omega;
+    	gradient[1] = 0.5 * (gAlpha * alpha * (1 - alpha) - gBeta * alpha * beta);
+    	gradient[2] = 0.5 * (gBeta * beta * (1 - beta) - gAlpha * alpha * beta);
+    	return 0.5 * f;
+    }
+    
+    /**
+     * BFGS with a backtracking line search.
+     */
+    private static double[] minimize(double[] squares, double[] start) {
+    	int m = start.length;
+    	double[] u = start.clone();
+    	double[] g = new double[m];
+    	double f = likelihood(squares, u, g);
+    	double[][] inverse = identity(m);
+    	double[] next = new double[m];
+    	double[] nextG = new double[m];
+    	double[] d = new double[m];
+    	double[] s = new double[m];
+    	double[] y = new double[m];
+    	for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+    		double slope = 0;
+    		for (int i = 0; i < m; i++) {
+    			d[i] = 0;
+    			for (int j = 0; j < m; j++)
+    				d[i] -= inverse[i][j] * g[j];
+    			slope += d[i] * g[i];
+    		}
+    		if (!(slope < 0)) {
+    			// not a descent direction, back to the gradient
+    			inverse = identity(m);
+    			slope = 0;
+    			for (int i = 0; i < m; i++) {
+    				d[i] = -g[i];
+    				slope -= g[i] * g[i];
+    			}
+    			if (slope == 0)
+    				break;
+    		}
+    		double step = 1;
+    		double nextF;
+    		while (true) {
+    			for (int i = 0; i < m; i++)
+    				next[i] = u[i] + step * d[i];
+    			nextF = likelihood(squares, next, nextG);
+    			if (nextF <= f + 1e-4 * step * slope || step < 1e-10)
+    				break;
+    			step *= 0.5;
+    		}
+    		if (!(nextF <= f))
+    			break;
+    		double sy = 0;
+    		for (int i = 0; i < m; i++) {
+    			s[i] = next[i] - u[i];
+    			y[i] = nextG[i] - g[i];
+    			sy += s[i] * y[i];
+    		}
+    		boolean converged = f - nextF <= 1e-10 * (1 + Math.abs(f));
+    		System.arraycopy(next, 0, u, 0, m);
+    		System.arraycopy(nextG, 0, g, 0, m);
+    		f = nextF;
+    		if (converged)
+    			break;
+    		if (sy > 1e-12) {
+    			// inverse = (I - s y' / sy) inverse (I - y s' / sy) + s s' / sy
+    			double[] hy = new double[m];
+    			double yhy = 0;
+    			for (int i = 0; i < m; i++) {
+    				for (int j = 0; j < m; j++)
+    					hy[i] += inverse[i][j] * y[j];
+    				yhy += y[i] * hy[i];
+    			}
+    			for (int i = 0; i < m; i++)
+    				for (int j = 0; j < m; j++)
+    					inverse[i][j] += ((sy + yhy) * s[i] * s[j]) / (sy * sy) - (hy[i] * s[j] + s[i] * hy[j]) / sy;
+    		}
+    	}
+    	return u;
+    }
+    
+    private static double[][] identity(int m) {
+    	double[][] identity = new double[m][m];
+    	for (int i = 0; i < m; i++)
+    		identity[i][i] = 1;
+    	return identity;
     }
 }
@@ -195,4 +195,15 @@ public abstract class AbstractVirtualSensor {
 	 * be delivered to the virtual sensor for possible processing.
 	 */
 	public abstract void dataAvailable ( String inputStreamName , StreamElement streamElement );
+
+	/**
+	 * Called with the whole content of a window when the input stream delivers
+	 * it directly (i.e. without the queue of the virtual sensor). By default,
+	 * the stream elements are given in order to
+	 * <code>dataAvailable(String, StreamElement)</code>.
+	 */
+	public void dataAvailable ( String inputStreamName , StreamElement [ ] window ) {
+		for ( StreamElement streamElement : window )
+			dataAvailable( inputStreamName , streamElement );
+	}
 }
@@ -0,0 +1,153 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/vsensor/ChartRenderService.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.vsensor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Renders the charts in background threads and caches the last image of each
+ * chart for the HTTP layer (see <code>gsn.http.ChartDownload</code>).
+ * <p>
+ * The render requests of a chart are coalesced: a chart is rendered at most
+ * once per minimum interval, from its latest data, however many requests were
+ * made meanwhile. The number of threads is set by the
+ * <code>chartRenderThreads</code> system property (1 by default).
+ */
+public class ChartRenderService {
+
+    private static final transient Logger logger = Logger.getLogger(ChartRenderService.class);
+
+    private static ChartRenderService instance = null;
+
+    /**
+     * A chart rendered by the service.
+     */
+    public static abstract class Job {
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private volatile long lastRender = 0;
+
+        private volatile boolean cancelled = false;
+
+        /**
+         * @return the image, or null if it couldn't be rendered.
+         */
+        protected abstract byte[] render();
+
+        /**
+         * Called in the rendering thread with each new image.
+         */
+        protected void rendered(byte[] image) {
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+
+    private final ConcurrentHashMap<String, byte[]> images = new ConcurrentHashMap<String, byte[]>();
+
+    private ChartRenderService(int threads) {
+        executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ChartRenderService");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static synchronized ChartRenderService getInstance() {
+        if (instance == null)
+            instance = new ChartRenderService(System.getProperty("chartRenderThreads") == null ? 1 : Integer.parseInt(System.getProperty("chartRenderThreads")));
+        return instance;
+    }
+
+    private static String key(String vsName, String chartName) {
+        return vsName.toLowerCase() + "/" + chartName.toLowerCase();
+    }
+
+    /**
+     * Renders the chart once the minimum interval since its last rendering has
+     * elapsed, unless a rendering is already pending. The image is then cached
+     * under the given names.
+     */
+    public void request(final String vsName, final String chartName, final Job job, final long minInterval) {
+        if (job.cancelled || !job.scheduled.compareAndSet(false, true))
+            return;
+        long delay = Math.max(0, job.lastRender + minInterval - System.currentTimeMillis());
+        executor.schedule(new Runnable() {
+            public void run() {
+                synchronized (job) {
+                    if (job.cancelled)
+                        return;
+                    // when requested during the previous rendering
+                    long wait = job.lastRender + minInterval - System.currentTimeMillis();
+                    if (wait > 0) {
+                        executor.schedule(this, wait, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    // the data added from now on needs another rendering
+                    job.scheduled.set(false);
+                    try {
+                        byte[] image = job.render();
+                        job.lastRender = System.currentTimeMillis();
+                        if (image != null && !job.cancelled) {
+                            images.put(key(vsName, chartName), image);
+                            job.rendered(image);
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Rendering the chart " + chartName + " of " + vsName + " failed: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the pending renderings of the chart and removes its image from the cache.
+     */
+    public void cancel(String vsName, String chartName, Job job) {
+        job.cancelled = true;
+        // waits for a rendering in progress
+        synchronized (job) {
+            images.remove(key(vsName, chartName));
+        }
+    }
+
+    /**
+     * @return the last image of the chart, or null if it hasn't been rendered yet.
+     */
+    public byte[] getImage(String vsName, String chartName) {
+        return images.get(key(vsName, chartName));
+    }
+}
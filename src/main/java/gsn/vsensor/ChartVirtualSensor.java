@@ -31,12 +31,14 @@ import gsn.beans.DataTypes;
 import gsn.beans.StreamElement;
 import gsn.utils.Pair;
 import gsn.utils.ParamParser;
+import gsn.utils.TimeSeriesBuffer;
 import gsn.utils.Utils;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TreeMap;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
@@ -44,7 +46,6 @@ import org.apache.log4j.Logger;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
-import org.jfree.data.general.SeriesException;
 import org.jfree.data.time.FixedMillisecond;
 import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
@@ -56,12 +57,15 @@ import org.jfree.data.time.TimeSeriesCollection;
  * INPUT_STREAM_VAR_NAME:CHART_NAME[TYPE@SIZE]{WIDTH;HEIGHT} The typcal values
  * for width and height are 640 and 480. The Size means how many values the
  * system should use for plotting the diagram. <br>
- * VERY IMPORTANT : THIS A GENERAL PLOT DRAWING VIRTUAL SENSOR AND NOT
- * MEMORY/CPU FRIENDLY. ONE CAN USE THIS VIRTUAL SENSOR AS A STARTING POINT FOR
- * WRITING MORE ADVANCED AND OPTIMIZED CHART DRAWING PACKAGES. <br>
- * VERY IMPORTANT : IN THIS IMPLEMENTATION, THE LARGER THE SIZE OF THE HISTORY
- * USED FOR DRAWING, THE BIGGER THE OUTPUT PLOT SIZE (IN KILOBYTES) AND THE
- * HIGHER PROCESSING TIME.
+ * The charts are rendered by the <code>ChartRenderService</code>, outside of
+ * the thread delivering the data, at most once per <code>render-interval</code>
+ * ms (init-param, 1000 by default) and from the latest data. The history is
+ * kept in primitive ring buffers and reduced to the minimum and maximum of
+ * each pixel column before plotting. The last image of each chart is served by
+ * <code>/chart?vs=VS_NAME&amp;field=INPUT_STREAM_NAME</code>. Unless the
+ * <code>persist</code> init-param is false, the last images of all the charts
+ * are also produced as one stream element after the renderings, at most once
+ * per <code>render-interval</code> whatever the number of charts.
  * 
  */
 public class ChartVirtualSensor extends AbstractVirtualSensor {
@@ -69,19 +73,38 @@ public class ChartVirtualSensor extends AbstractVirtualSensor {
    private  final transient Logger               logger                             = Logger.getLogger( this.getClass() );
    
    /**
-    * The <code>GENERATE_COUNT</code> represents after how many inputs, the
-    * virtual sensor should generate data. By default it set to 1 meaning that
-    * for each stream element received, the virtual sensor plots a new diagram.
-    * If you want to make the virtual sensor plot after receiving each K stream
-    * elements, set <code>GENERATE_COUNT</code> to K.
+    * The minimum interval between two renderings of a chart, in ms.
     */
-   private final int                                   GENERATE_COUNT                     = 4;
+   private long                                        renderInterval                     = 1000;
    
-   private long                                        counter                            = 0;
+   /**
+    * Whether the images are produced as stream elements after each rendering.
+    */
+   private boolean                                     persist                            = true;
+   
+   private String                                      vsName;
    
    private final HashMap < String , ChartInfo > input_stream_name_to_ChartInfo_map = new HashMap < String , ChartInfo >( );
    
-   private int                                         counter_pref                       = 0;
+   private final HashMap < String , ChartRenderService.Job > input_stream_name_to_Job_map = new HashMap < String , ChartRenderService.Job >( );
+   
+   /**
+    * Produces the stream element of the charts, requested after each rendering
+    * and coalesced as the renderings.
+    */
+   private final ChartRenderService.Job                outputJob                          = new ChartRenderService.Job( ) {
+      protected byte [ ] render ( ) {
+         produceCharts( );
+         // the images are already cached under their charts
+         return null;
+      }
+   };
+   
+   /**
+    * The name of the output job in the ChartRenderService, not a valid input
+    * stream name.
+    */
+   private static final String                         OUTPUT_JOB                         = "";
    
    public boolean initialize ( ) {
       /**
@@ -108,6 +131,20 @@ public class ChartVirtualSensor extends AbstractVirtualSensor {
       chartInfo.setVerticalAxisTitle( params.get( "vertical-axis" ) );
       input_stream_name_to_ChartInfo_map.put( chartInfo.getInputStreamName( ) , chartInfo );
       chartInfo.initialize( );
+      renderInterval = ParamParser.getInteger( params.get( "render-interval" ) , 1000 );
+      if ( params.get( "persist" ) != null ) persist = Boolean.parseBoolean( params.get( "persist" ).trim( ) );
+      vsName = getVirtualSensorConfiguration( ).getName( );
+      for ( final ChartInfo chart : input_stream_name_to_ChartInfo_map.values( ) ) {
+         input_stream_name_to_Job_map.put( chart.getInputStreamName( ) , new ChartRenderService.Job( ) {
+            protected byte [ ] render ( ) {
+               return chart.writePlot( );
+            }
+            
+            protected void rendered ( byte [ ] image ) {
+               if ( persist ) ChartRenderService.getInstance( ).request( vsName , OUTPUT_JOB , outputJob , renderInterval );
+            }
+         } );
+      }
       return true;
    }
    
@@ -134,10 +171,16 @@ public class ChartVirtualSensor extends AbstractVirtualSensor {
        */
       chartInfo.addData( streamElement );
       /**
-       * counter checks to see if it's the time to do the plotting or not.
+       * The chart is rendered asynchronously, the requests made until then are
+       * coalesced.
        */
-      
-      if ( ++counter % GENERATE_COUNT != 0 ) return;
+      ChartRenderService.getInstance( ).request( vsName , inputStreamName , input_stream_name_to_Job_map.get( inputStreamName ) , renderInterval );
+   }
+   
+   /**
+    * Produces the last images of the charts, called by the output job.
+    */
+   private void produceCharts ( ) {
       /**
        * Creating the stream element(s) for output. For creating a stream
        * element one need to provide the field names (in the form of string
@@ -172,8 +215,7 @@ public class ChartVirtualSensor extends AbstractVirtualSensor {
        */
       
       for ( int i = 0 ; i < fieldNames.length ; i++ ) {
-         ChartInfo chart = input_stream_name_to_ChartInfo_map.get( fieldNames[ i ] );
-         charts[ i ] = chart.writePlot( ).toByteArray( );
+         charts[ i ] = ChartRenderService.getInstance( ).getImage( vsName , fieldNames[ i ] );
       }
       StreamElement output = new StreamElement( fieldNames , fieldTypes , charts , System.currentTimeMillis( ) );
       
@@ -181,14 +223,12 @@ public class ChartVirtualSensor extends AbstractVirtualSensor {
        * Informing container about existance of a stream element.
        */
       dataProduced( output );
-      /**
-       * For debugging purposes.
-       */
-      if ( logger.isDebugEnabled( ) ) logger.debug( new StringBuilder( ).append( "Data received under the name: " ).append( inputStreamName ).toString( ) );
    }
    
    public void dispose ( ) {
-
+      ChartRenderService.getInstance( ).cancel( vsName , OUTPUT_JOB , outputJob );
+      for ( Map.Entry < String , ChartRenderService.Job > entry : input_stream_name_to_Job_map.entrySet( ) )
+         ChartRenderService.getInstance( ).cancel( vsName , entry.getKey( ) , entry.getValue( ) );
    }
    
 }
@@ -219,15 +259,18 @@ class ChartInfo {
    
    private String                          inputStreamName;
    
-   private TimeSeriesCollection            dataCollectionForTheChart;
-   
-   private HashMap < String , TimeSeries > dataForTheChart = new HashMap < String , TimeSeries >( );
+   private LinkedHashMap < String , TimeSeriesBuffer > dataForTheChart = new LinkedHashMap < String , TimeSeriesBuffer >( );
    
    private ByteArrayOutputStream           byteArrayOutputStream;
    
    private JFreeChart                      chart;
    
-   private boolean                         changed         = true;
+   /**
+    * The decimated series, used by the rendering only.
+    */
+   private long [ ]                        plotTimes;
+   
+   private double [ ]                      plotValues;
    
    private boolean                         ready           = false;
    
@@ -240,7 +283,6 @@ class ChartInfo {
       // as
       // needed
       byteArrayOutputStream.reset( );
-      dataCollectionForTheChart = new TimeSeriesCollection( );
       rowData = "";
    }
    
@@ -279,57 +321,66 @@ public void setWidth ( int width ) {
    
    public void initialize ( ) {
       if ( !ready ) {
-         chart = ChartFactory.createTimeSeriesChart( plotTitle , "Time" , verticalAxisTitle , dataCollectionForTheChart , true , true , false );
+         chart = ChartFactory.createTimeSeriesChart( plotTitle , "Time" , verticalAxisTitle , new TimeSeriesCollection( ) , true , true , false );
          chart.setBorderVisible( true );
+         plotTimes = new long [ 2 * width ];
+         plotValues = new double [ 2 * width ];
          ready = true;
          if ( logger.isDebugEnabled( ) ) logger.debug( "The Chart Virtual Sensor is ready." );
       }
    }
    
    /**
-    * This method adds the specified stream elements to the timeSeries of the
+    * This method adds the specified stream elements to the time series of the
     * appropriate plot.
     * 
     * @param streamElement
     */
    public synchronized void addData ( StreamElement streamElement ) {
       for ( int i = 0 ; i < streamElement.getFieldNames( ).length ; i++ ) {
-         TimeSeries timeSeries = dataForTheChart.get( streamElement.getFieldNames( )[ i ] );
+         TimeSeriesBuffer timeSeries = dataForTheChart.get( streamElement.getFieldNames( )[ i ] );
          if ( timeSeries == null ) {
-            dataForTheChart.put( streamElement.getFieldNames( )[ i ] , timeSeries = new TimeSeries( streamElement.getFieldNames( )[ i ] , org.jfree.data.time.FixedMillisecond.class ) );
-            if(isTimeBased){
-            	timeSeries.setMaximumItemAge(historySize);
-            }else{
-                timeSeries.setMaximumItemCount(historySize);
-            }
-            dataCollectionForTheChart.addSeries( timeSeries );
+            if ( isTimeBased )
+               timeSeries = new TimeSeriesBuffer( 0 , historySize );
+            else
+               timeSeries = new TimeSeriesBuffer( historySize , 0 );
+            dataForTheChart.put( streamElement.getFieldNames( )[ i ] , timeSeries );
          }
-         try {
-            timeSeries.addOrUpdate( new FixedMillisecond( new Date( streamElement.getTimeStamp( ) ) ) , Double.parseDouble( streamElement.getData( )[ i ].toString( ) ) );
-         } catch ( SeriesException e ) {
-            logger.warn( e.getMessage( ) , e );
-         }
-         
+         if ( streamElement.getData( )[ i ] == null ) continue;
+         timeSeries.add( streamElement.getTimeStamp( ) , Double.parseDouble( streamElement.getData( )[ i ].toString( ) ) );
       }
-      changed = true;
    }
    
    /**
-    * Plots the chart and sends it in the form of ByteArrayOutputStream to
-    * outside.
+    * Plots the chart from the time series reduced to the width of the chart,
+    * called by one thread at a time.
     * 
-    * @return Returns the byteArrayOutputStream.
+    * @return Returns the PNG image.
     */
-   public synchronized ByteArrayOutputStream writePlot ( ) {
-      if ( !changed ) return byteArrayOutputStream;
+   public byte [ ] writePlot ( ) {
+      String [ ] names;
+      TimeSeriesBuffer [ ] buffers;
+      synchronized ( this ) {
+         names = dataForTheChart.keySet( ).toArray( new String [ dataForTheChart.size( ) ] );
+         buffers = dataForTheChart.values( ).toArray( new TimeSeriesBuffer [ dataForTheChart.size( ) ] );
+      }
+      TimeSeriesCollection dataCollectionForTheChart = new TimeSeriesCollection( );
+      for ( int i = 0 ; i < names.length ; i++ ) {
+         int count = buffers[ i ].decimate( width , plotTimes , plotValues );
+         TimeSeries timeSeries = new TimeSeries( names[ i ] );
+         for ( int j = 0 ; j < count ; j++ )
+            timeSeries.addOrUpdate( new FixedMillisecond( plotTimes[ j ] ) , plotValues[ j ] );
+         dataCollectionForTheChart.addSeries( timeSeries );
+      }
+      chart.getXYPlot( ).setDataset( dataCollectionForTheChart );
       byteArrayOutputStream.reset( );
       try {
          ChartUtilities.writeChartAsPNG( byteArrayOutputStream , chart , width , height , false , 8 );
-         
       } catch ( IOException e ) {
          logger.warn( e.getMessage( ) , e );
+         return null;
       }
-      return byteArrayOutputStream;
+      return byteArrayOutputStream.toByteArray( );
    }
    
    public boolean equals ( Object obj ) {
@@ -28,6 +28,7 @@ package gsn.vsensor;
 import gsn.beans.DataTypes;
 import gsn.beans.StreamElement;
 import gsn.utils.Helpers;
+import gsn.utils.models.IOnlineModel;
 import gsn.utils.models.ModelFitting;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
@@ -83,6 +84,7 @@ public class DataCleanVirtualSensor extends AbstractVirtualSensor {
     private static final String PARAM_METADATA_STATION = "station"; // name of station for metadata server
     private static final String PARAM_METADATA_SENSOR = "sensor"; // name of station for metadata server
     private static final String PARAM_LOGGING_INTERVAL = "logging-interval";
+    private static final String PARAM_MODE = "mode"; // batch (default), fitting window_size samples at once, or online, marking each sample when it arrives
 
     private static final int NORMAL_RESULT = 200; // normal result after http post
 
@@ -90,6 +92,9 @@ public class DataCleanVirtualSensor extends AbstractVirtualSensor {
     private int window_size = 0;
     private double error_bound = 0;
 
+    private IOnlineModel online_model = null;
+    private final double[] online_result = new double[3];
+
     private double[] stream;
     private long[] timestamps;
     private double[] processed;
@@ -190,6 +195,14 @@ public class DataCleanVirtualSensor extends AbstractVirtualSensor {
 
         }
 
+        String mode_str = params.get(PARAM_MODE);
+        if (mode_str != null && mode_str.trim().equalsIgnoreCase("online")) {
+            online_model = ModelFitting.createOnlineModel(model, error_bound, window_size);
+        } else if (mode_str != null && !mode_str.trim().equalsIgnoreCase("batch")) {
+            logger.warn("Parameter \"" + PARAM_MODE + "\" incorrect in Virtual Sensor file");
+            return false;
+        }
+
         stream = new double[window_size];
         timestamps = new long[window_size];
         processed = new double[window_size];
@@ -218,7 +231,11 @@ public class DataCleanVirtualSensor extends AbstractVirtualSensor {
 
         logging_counter++;
 
-        if (bufferCount < window_size) {
+        if (online_model != null) {
+            double value = (Double) data.getData()[0];
+            online_model.MarkDirty(data.getTimeStamp(), value, online_result);
+            produce(value, online_result[0], online_result[1], online_result[2], data.getTimeStamp());
+        } else if (bufferCount < window_size) {
             timestamps[bufferCount] = data.getTimeStamp();
             stream[bufferCount] = (Double) data.getData()[0];
             bufferCount++;
@@ -226,29 +243,33 @@ public class DataCleanVirtualSensor extends AbstractVirtualSensor {
             ModelFitting.FitAndMarkDirty(model, error_bound, window_size, stream, timestamps, processed, dirtiness, quality);
 
             for (int j = 0; j < processed.length; j++) {
-                StreamElement se = new StreamElement(new String[]{"stream", "processed", "dirtiness", "distance", "quality"},
-                        new Byte[]{DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE},
-                        new Serializable[]{stream[j], processed[j], dirtiness[j], processed[j] - stream[j], quality[j]},
-                        timestamps[j]);
-                dataProduced(se);
-                if ((dirtiness[j] > 0) && publish_to_metadata_server) {
-                    try {
-                        String request = outputAsXML(stream[j], processed[j], dirtiness[j], timestamps[j], timestamps[j]);
-                        boolean result = httpPost(metadata_server_url, request);
-                        if (!result) {
-                            logger.warn("Couldn't post request => " + request);
-                        } else {
-                            logger.warn("Posted => " + request);
-                        }
-                    } catch (Exception e) {
-                        logger.warn("Error while trying to post to metadata server. " + e.getMessage() + e);
-                    }
-                }
+                produce(stream[j], processed[j], dirtiness[j], quality[j], timestamps[j]);
             }
             bufferCount = 0;
         }
     }
 
+    private void produce(double stream, double processed, double dirtiness, double quality, long timestamp) {
+        StreamElement se = new StreamElement(new String[]{"stream", "processed", "dirtiness", "distance", "quality"},
+                new Byte[]{DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE, DataTypes.DOUBLE},
+                new Serializable[]{stream, processed, dirtiness, processed - stream, quality},
+                timestamp);
+        dataProduced(se);
+        if ((dirtiness > 0) && publish_to_metadata_server) {
+            try {
+                String request = outputAsXML(stream, processed, dirtiness, timestamp, timestamp);
+                boolean result = httpPost(metadata_server_url, request);
+                if (!result) {
+                    logger.warn("Couldn't post request => " + request);
+                } else {
+                    logger.warn("Posted => " + request);
+                }
+            } catch (Exception e) {
+                logger.warn("Error while trying to post to metadata server. " + e.getMessage() + e);
+            }
+        }
+    }
+
 
     public boolean httpPost(String url, String xmlString) {
 
@@ -29,6 +29,7 @@ package gsn.vsensor;
 
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
+import gsn.utils.geo.BinaryGrid;
 import gsn.utils.models.ModelLoader;
 
 import org.apache.log4j.Logger;
@@ -38,9 +39,6 @@ import weka.core.FastVector;
 import weka.core.Instance;
 import weka.core.Instances;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.TreeMap;
 
@@ -170,40 +168,28 @@ public class GridModelDataPredictVS extends AbstractVirtualSensor {
 			Double center_long = i.value(2);
 			
 			//filling the grid with predictions/extrapolations
-			Double[][] rawData = new Double[gridSize][gridSize];
+			double[][] rawData = new double[gridSize][gridSize];
 			for (int j=0;j<gridSize;j++){
 				for(int k=0;k<gridSize;k++){
 					i.setValue(1, center_lat - (cellSize*gridSize/2) + cellSize * j);
 					i.setValue(2, center_long - (cellSize*gridSize/2) + cellSize * k);
-					rawData[j][k] = ms.predict(i);
-					success = success && (rawData[j][k] != null);
+					Double prediction = ms.predict(i);
+					success = success && (prediction != null);
+					if (prediction != null)
+						rawData[j][k] = prediction;
 				}
 			}
 
 			//preparing the output
 			
 			Serializable[] stream = new Serializable[7];
-	        try {
-
-	            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-	            ObjectOutputStream oos = new ObjectOutputStream(bos);
-	            oos.writeObject(rawData);
-	            oos.flush();
-	            oos.close();
-	            bos.close();
-
-	            stream[0] = new Integer(gridSize);
-	            stream[1] = new Integer(gridSize);
-	            stream[2] = new Double(center_lat - (cellSize*gridSize/2));
-	            stream[3] = new Double(center_long - (cellSize*gridSize/2));
-	            stream[4] = new Double(cellSize);
-	            stream[5] = new Double(0);
-	            stream[6] = bos.toByteArray();
-
-	        } catch (IOException e) {
-	            logger.warn(e.getMessage(), e);
-	            success = false;
-	        }
+	        stream[0] = new Integer(gridSize);
+	        stream[1] = new Integer(gridSize);
+	        stream[2] = new Double(center_lat - (cellSize*gridSize/2));
+	        stream[3] = new Double(center_long - (cellSize*gridSize/2));
+	        stream[4] = new Double(cellSize);
+	        stream[5] = new Double(0);
+	        stream[6] = BinaryGrid.encode(rawData, (Double) stream[2], (Double) stream[3], cellSize, 0, 0, false, false);
 	        
 	        if(success){
 	        	StreamElement se = new StreamElement(getOutputFormat(), stream, data.getTimeStamp());
@@ -30,17 +30,32 @@ import gsn.VirtualSensor;
 import gsn.VirtualSensorInitializationFailedException;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
+import gsn.utils.geo.BinaryGrid;
 import gsn.utils.models.AbstractModel;
 
 import org.apache.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
+/**
+ * Rasterizes a model over a square grid, on each stream element.
+ * <p>
+ * The grid is evaluated by tiles of <code>tile_size</code> x <code>tile_size</code>
+ * cells (64 by default), each tile being a single vectorized query of the model.
+ * The tiles are evaluated in parallel on <code>threads</code> threads (the number
+ * of processors by default) when the model is thread safe. After the first grid,
+ * only the tiles in the area affected by the stream element are evaluated again:
+ * the area reported by the model or, if it reports none, the cells within
+ * <code>influence_radius</code> meters of the latitude and longitude of the
+ * stream element, when this parameter is set. Otherwise the whole grid is
+ * evaluated again.
+ */
 public class GridModelVS extends AbstractVirtualSensor {
 
     private static final transient Logger logger = Logger.getLogger(GridModelVS.class);
@@ -52,6 +67,9 @@ public class GridModelVS extends AbstractVirtualSensor {
     private static final String PARAM_CELL_SIZE = "cell_size";
     private static final String PARAM_X = "x_bottomLeft";
     private static final String PARAM_Y = "y_bottomLeft";
+    private static final String PARAM_TILE_SIZE = "tile_size";
+    private static final String PARAM_THREADS = "threads";
+    private static final String PARAM_INFLUENCE_RADIUS = "influence_radius";
 
 
     private AbstractModel modelVS = null;
@@ -64,6 +82,37 @@ public class GridModelVS extends AbstractVirtualSensor {
     private double XCellSize = 0;
     private double YCellSize = 0;
 
+    private int tileSize = 64;
+    private double influenceRadius = 0;
+    private ForkJoinPool pool = null;
+
+    // the last grid, updated tile by tile
+    private double[][] rawData = null;
+
+    /**
+     * Evaluates a list of tiles, the halves in parallel.
+     */
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[]> tiles;
+
+        TileTask(List<int[]> tiles) {
+            this.tiles = tiles;
+        }
+
+        protected void compute() {
+            if (tiles.size() <= 1) {
+                for (int[] tile : tiles)
+                    evaluateTile(tile[0], tile[1]);
+                return;
+            }
+            int middle = tiles.size() / 2;
+            invokeAll(new TileTask(tiles.subList(0, middle)), new TileTask(tiles.subList(middle, tiles.size())));
+        }
+    }
+
 
 
     public boolean initialize() {
@@ -105,6 +154,16 @@ public class GridModelVS extends AbstractVirtualSensor {
 			return false;
 		}
 
+        return initialize(params, modelVS);
+    }
+
+    /**
+     * Reads the parameters of the grid, the model being already resolved.
+     */
+    boolean initialize(TreeMap<String, String> params, AbstractModel model) {
+
+        modelVS = model;
+
         //get the field to query to build the grid (fields are converted to double)
         field = params.get(PARAM_FIELD);
 
@@ -179,6 +238,42 @@ public class GridModelVS extends AbstractVirtualSensor {
         YCellSize = cellSize *360.0 / (6356753*2*Math.PI);
         XCellSize = cellSize *360.0 / (6378137*Math.cos(Math.toRadians(y_BL))*2*Math.PI);
 
+        String tileSize_str = params.get(PARAM_TILE_SIZE);
+        if (tileSize_str != null) try {
+            tileSize = Integer.parseInt(tileSize_str.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Parameter \"" + PARAM_TILE_SIZE + "\" incorrect in Virtual Sensor file");
+            return false;
+        }
+        if (tileSize <= 0) {
+            logger.warn("Tile size should always be positive.");
+            return false;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String threads_str = params.get(PARAM_THREADS);
+        if (threads_str != null) try {
+            threads = Integer.parseInt(threads_str.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Parameter \"" + PARAM_THREADS + "\" incorrect in Virtual Sensor file");
+            return false;
+        }
+        // get the radius of the area affected by a stream element in meter, for models not reporting it
+        String radius_str = params.get(PARAM_INFLUENCE_RADIUS);
+        if (radius_str != null) try {
+            influenceRadius = Double.parseDouble(radius_str.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Parameter \"" + PARAM_INFLUENCE_RADIUS + "\" incorrect in Virtual Sensor file");
+            return false;
+        }
+
+        if (threads > 1 && modelVS != null && !modelVS.isThreadSafe()) {
+            logger.info("The model of " + params.get(PARAM_MODEL_VS) + " is not thread safe, the grid is evaluated by a single thread.");
+            threads = 1;
+        }
+        if (threads > 1)
+            pool = new ForkJoinPool(threads);
+
         return true;
     }
     
@@ -197,60 +292,104 @@ public class GridModelVS extends AbstractVirtualSensor {
 	public void dataAvailable(String inputStreamName, StreamElement data) { 
 		
 
-			DataField []fields = new DataField[]{new DataField("latitude","double"),new DataField("longitude","double")};
-			
-			//filling the grid with predictions/extrapolations
-			//if the model is slow to query this loop may take some time
-			Double[][] rawData = new Double[gridSize][gridSize];
-			for (int j=0;j<gridSize;j++){
-				for(int k=0;k<gridSize;k++){
-					double[] pos = new double[]{y_BL+YCellSize * j, x_BL+XCellSize * k};
-					StreamElement se = new StreamElement(fields, new Serializable[]{pos[0],pos[1]});
-					StreamElement r = modelVS.query(se)[0];
-					Serializable s = r.getData(field);
-					if (s instanceof Double){
-					    rawData[gridSize-j-1][k] = (Double) r.getData(field);
-					}else if(s instanceof Integer){
-						rawData[gridSize-j-1][k] = ((Integer) r.getData(field)).doubleValue();
-					}else if(s instanceof Boolean){
-						rawData[gridSize-j-1][k] = ((Boolean) r.getData(field)) ? 1.0 : 0.0;
-					}else {
-						rawData[gridSize-j-1][k] = 0.0;
-					}
+			//filling the grid with predictions/extrapolations, only the tiles affected by the new data after the first grid
+			//if the model is slow to query this may take some time
+			int[] affected = null;
+			if (rawData == null){
+				rawData = new double[gridSize][gridSize];
+			}else{
+				affected = getAffectedCells(data);
+			}
+			List<int[]> tiles = new ArrayList<int[]>();
+			for (int j=0;j<gridSize;j+=tileSize){
+				for(int k=0;k<gridSize;k+=tileSize){
+					if (affected == null || (j <= affected[1] && j + tileSize > affected[0] && k <= affected[3] && k + tileSize > affected[2]))
+						tiles.add(new int[]{j, k});
 				}
 			}
+			if (pool != null){
+				pool.invoke(new TileTask(tiles));
+			}else{
+				for (int[] tile : tiles)
+					evaluateTile(tile[0], tile[1]);
+			}
 
 			//preparing the output
 			
 			Serializable[] stream = new Serializable[7];
-	        try {
-
-	            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-	            ObjectOutputStream oos = new ObjectOutputStream(bos);
-	            oos.writeObject(rawData);
-	            oos.flush();
-	            oos.close();
-	            bos.close();
-
-	            stream[0] = new Integer(gridSize);
-	            stream[1] = new Integer(gridSize);
-	            stream[2] = new Double(x_BL);
-	            stream[3] = new Double(y_BL);
-	            stream[4] = new Double(cellSize);
-	            stream[5] = new Double(0);
-	            stream[6] = bos.toByteArray();
-	            
-	        	StreamElement se = new StreamElement(getOutputFormat(), stream, data.getTimeStamp());
-	        	dataProduced(se);
-
-	        } catch (IOException e) {
-	            logger.warn(e.getMessage(), e);
-	        }
+
+	        stream[0] = new Integer(gridSize);
+	        stream[1] = new Integer(gridSize);
+	        stream[2] = new Double(x_BL);
+	        stream[3] = new Double(y_BL);
+	        stream[4] = new Double(cellSize);
+	        stream[5] = new Double(0);
+	        stream[6] = BinaryGrid.encode(rawData, x_BL, y_BL, cellSize, 0, 0, false, false);
+
+	        StreamElement se = new StreamElement(getOutputFormat(), stream, data.getTimeStamp());
+	        dataProduced(se);
     }
 
+	/**
+	 * Evaluates the tile starting at the j-th cell from the south and the k-th cell from the west.
+	 */
+	private void evaluateTile(int j0, int k0) {
+		int jmax = Math.min(gridSize, j0 + tileSize);
+		int kmax = Math.min(gridSize, k0 + tileSize);
+		int n = (jmax - j0) * (kmax - k0);
+		double[] latitudes = new double[n];
+		double[] longitudes = new double[n];
+		int i = 0;
+		for (int j=j0;j<jmax;j++){
+			for(int k=k0;k<kmax;k++){
+				latitudes[i] = y_BL+YCellSize * j;
+				longitudes[i++] = x_BL+XCellSize * k;
+			}
+		}
+		double[] values = modelVS.query(field, latitudes, longitudes);
+		i = 0;
+		for (int j=j0;j<jmax;j++){
+			for(int k=k0;k<kmax;k++){
+				rawData[gridSize-j-1][k] = values[i++];
+			}
+		}
+	}
+
+	/**
+	 * @return the cells {jmin, jmax, kmin, kmax} covering the area affected by the stream element, null for the whole grid.
+	 */
+	private int[] getAffectedCells(StreamElement data) {
+		double[] area = modelVS.getAffectedArea(data);
+		if (area == null && influenceRadius > 0)
+			area = getInfluenceArea(data);
+		if (area == null || area.length < 4)
+			return null;
+		return new int[]{
+				(int) Math.max(0, Math.floor((area[0] - y_BL) / YCellSize)),
+				(int) Math.min(gridSize - 1, Math.ceil((area[2] - y_BL) / YCellSize)),
+				(int) Math.max(0, Math.floor((area[1] - x_BL) / XCellSize)),
+				(int) Math.min(gridSize - 1, Math.ceil((area[3] - x_BL) / XCellSize))};
+	}
+
+	/**
+	 * @return the area within the influence radius of the position of the stream element, null if it has no position.
+	 */
+	private double[] getInfluenceArea(StreamElement data) {
+		Serializable lat = data.getData("latitude");
+		Serializable lon = data.getData("longitude");
+		if (!(lat instanceof Number) || !(lon instanceof Number))
+			return null;
+		double dLat = influenceRadius *360.0 / (6356753*2*Math.PI);
+		double dLon = influenceRadius *360.0 / (6378137*Math.cos(Math.toRadians(y_BL))*2*Math.PI);
+		double y = ((Number) lat).doubleValue();
+		double x = ((Number) lon).doubleValue();
+		return new double[]{y - dLat, x - dLon, y + dLat, x + dLon};
+	}
+
 	
 	public void dispose() {
-
+		if (pool != null)
+			pool.shutdown();
     }
 
 
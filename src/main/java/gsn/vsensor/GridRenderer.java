@@ -153,7 +153,7 @@ public class GridRenderer extends AbstractVirtualSensor {
          cellsize = (Double) streamElement.getData("cellsize"); // must be in meters
          
         long timestamp = streamElement.getTimeStamp();
-        Double values[][] = GridTools.deSerialize((byte[]) streamElement.getData("grid"));
+        double values[][] = GridTools.deSerialize((byte[]) streamElement.getData("grid"));
         byte b[] = createImageFromArray(values);
         
         StreamElement se = new StreamElement(new String[]{"grid"},
@@ -175,7 +175,7 @@ public class GridRenderer extends AbstractVirtualSensor {
      * @return
      */
     
-    private byte[] createImageFromArray(Double[][] a) {
+    private byte[] createImageFromArray(double[][] a) {
     	
     	BufferedImage back;
     	
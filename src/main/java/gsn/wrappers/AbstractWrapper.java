@@ -33,7 +33,11 @@ import gsn.beans.AddressBean;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
 import gsn.beans.StreamSource;
+import gsn.beans.windowing.CompiledQueryRewriter;
 import gsn.beans.windowing.LocalTimeBasedSlidingHandler;
+import gsn.beans.windowing.MemoryWindow;
+import gsn.beans.windowing.MemoryWindowQueryRewriter;
+import gsn.beans.windowing.QueryRewriter;
 import gsn.beans.windowing.RemoteTimeBasedSlidingHandler;
 import gsn.beans.windowing.SlidingHandler;
 import gsn.beans.windowing.TupleBasedSlidingHandler;
@@ -78,6 +82,28 @@ public abstract class AbstractWrapper extends Thread {
 
 	public static final int GARBAGE_COLLECT_AFTER_SPECIFIED_NO_OF_ELEMENTS = 2;
 
+	/**
+	 * Address predicate selecting where the window of the stream source is
+	 * kept, either in the window storage (<code>sql</code>, default) or in
+	 * memory (<code>memory</code>). With <code>compiled</code> the window is
+	 * kept in memory and the stream source query is evaluated by a
+	 * <code>CompiledQuery</code> instead of the SQL engine.
+	 */
+	public static final String WINDOW_ENGINE = "window-engine";
+
+	public static final String WINDOW_ENGINE_SQL = "sql";
+
+	public static final String WINDOW_ENGINE_MEMORY = "memory";
+
+	public static final String WINDOW_ENGINE_COMPILED = "compiled";
+
+	/**
+	 * Not null when the window is kept in memory instead of the window storage.
+	 */
+	private MemoryWindow memoryWindow;
+
+	private boolean compiledQueries = false;
+
 	/**
 	 * Returns the view name created for this listener. Note that, GSN creates
 	 * one view per listener.
@@ -85,6 +111,7 @@ public abstract class AbstractWrapper extends Thread {
 	 * @throws SQLException
 	 */
 	public void addListener(StreamSource ss) throws SQLException {
+		selectWindowEngine(ss);
 		if (WindowType.isTimeBased(ss.getWindowingType())) {
 			if (timeBasedSlidingHandler == null) {
 				timeBasedSlidingHandler = isUsingRemoteTimestamp() == false ? new LocalTimeBasedSlidingHandler(
@@ -108,6 +135,82 @@ public abstract class AbstractWrapper extends Thread {
 			logger.debug("Adding listeners: " + ss.toString());
 	}
 
+	/**
+	 * The in-memory window is used if it is requested in the addressing and if
+	 * all the stream sources fed by this wrapper can be evaluated in memory.
+	 * Otherwise the wrapper keeps (or falls back to) the window storage.
+	 */
+	private void selectWindowEngine(StreamSource ss) throws SQLException {
+		if (activeAddressBean == null)
+			return;
+		String engine = activeAddressBean.getPredicateValueWithDefault(WINDOW_ENGINE, WINDOW_ENGINE_SQL).trim();
+		boolean supported;
+		if (engine.equalsIgnoreCase(WINDOW_ENGINE_MEMORY))
+			supported = MemoryWindowQueryRewriter.canHandle(ss);
+		else if (engine.equalsIgnoreCase(WINDOW_ENGINE_COMPILED))
+			supported = CompiledQueryRewriter.canHandle(ss);
+		else
+			return;
+		if (listeners.isEmpty()) {
+			if (supported) {
+				memoryWindow = new MemoryWindow();
+				compiledQueries = engine.equalsIgnoreCase(WINDOW_ENGINE_COMPILED);
+			}
+			else
+				logger.warn("The stream source " + ss.getAlias() + " can't be evaluated in memory, using the window storage instead.");
+		} else if (memoryWindow != null && !supported) {
+			fallbackToWindowStorage(ss);
+		}
+	}
+
+	/**
+	 * Moves the content of the in-memory window to the window table and
+	 * rebuilds the views of the current listeners on top of it.
+	 */
+	private void fallbackToWindowStorage(StreamSource ss) throws SQLException {
+		logger.warn("The stream source " + ss.getAlias() + " can't be evaluated in memory, moving the window of the wrapper " + getWrapperName() + " to the window storage.");
+		synchronized (listeners) {
+			for (StreamSource listener : listeners)
+				for (SlidingHandler slidingHandler : slidingHandlers.values())
+					if (slidingHandler.isInterestedIn(listener))
+						slidingHandler.removeStreamSource(listener);
+			List<StreamElement> content = memoryWindow.select(Long.MIN_VALUE, Long.MAX_VALUE, -1, 1);
+			memoryWindow = null;
+			compiledQueries = false;
+			Connection conn = null;
+			try {
+				conn = Main.getWindowStorage().getConnection();
+				for (int i = content.size() - 1; i >= 0; i--)
+					Main.getWindowStorage().executeInsert(aliasCodeS, getOutputFormat(), content.get(i), conn);
+			} finally {
+				Main.getWindowStorage().close(conn);
+			}
+			for (StreamSource listener : listeners)
+				for (SlidingHandler slidingHandler : slidingHandlers.values())
+					if (slidingHandler.isInterestedIn(listener))
+						slidingHandler.addStreamSource(listener);
+		}
+	}
+
+	/**
+	 * @return the in-memory window of this wrapper or null if the window is
+	 *         kept in the window storage.
+	 */
+	public MemoryWindow getMemoryWindow() {
+		return memoryWindow;
+	}
+
+	/**
+	 * Creates the query rewriter evaluating a stream source on the in-memory
+	 * window, to be used by the sliding handlers when
+	 * <code>getMemoryWindow</code> is not null.
+	 */
+	public QueryRewriter createMemoryWindowQueryRewriter() {
+		if (compiledQueries)
+			return new CompiledQueryRewriter(memoryWindow, isUsingRemoteTimestamp());
+		return new MemoryWindowQueryRewriter(memoryWindow, isUsingRemoteTimestamp());
+	}
+
 	public void addSlidingHandler(SlidingHandler slidingHandler) {
 		slidingHandlers.put(slidingHandler.getClass(), slidingHandler);
 	}
@@ -264,6 +367,101 @@ public abstract class AbstractWrapper extends Thread {
 		}
 	}
 
+	/**
+	 * Batch counterpart of <code>postStreamElement</code> for the wrappers
+	 * producing many stream elements at once (replays, backfills...). The out
+	 * of order elements are dropped in one scan, the others are inserted with a
+	 * single JDBC batch and the sliding handlers are then evaluated for each
+	 * of them, which gives the same windows as posting them one by one, since
+	 * the window views are bounded by the timestamp of the slide. The only
+	 * exception are the windows sliding on each tuple, which are not bounded:
+	 * if this wrapper feeds one of them, the stream elements are posted one by
+	 * one.
+	 * 
+	 * @param streamElements
+	 *            stream elements in increasing timestamp order.
+	 * @return If the method returns false, it means the insertion doesn't
+	 *         effected any input stream.
+	 */
+	protected Boolean postStreamElements(List<StreamElement> streamElements) {
+		try {
+			return storeStreamElements(streamElements);
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+			logger.error("Produced batch of " + streamElements.size() + " data items from the wrapper couldn't be propagated inside the system.");
+			return false;
+		}
+	}
+
+	/**
+	 * Same as <code>postStreamElements</code>, but throws if the stream
+	 * elements couldn't be stored in the window of the wrapper. The wrappers
+	 * acknowledging what they read (check points, acks...) use it so that they
+	 * only acknowledge the stored elements. Once stored, the errors of the
+	 * virtual sensors evaluating the elements are only logged, as retrying
+	 * wouldn't help: the elements would be out of order.
+	 * 
+	 * @throws SQLException
+	 *             if the stream elements (or, when sliding on each tuple, one
+	 *             of them and the next ones) couldn't be stored.
+	 */
+	protected boolean storeStreamElements(List<StreamElement> streamElements) throws SQLException {
+		if (streamElements == null || streamElements.isEmpty())
+			return false;
+		if (!isActive() || listeners.size() == 0)
+			return false;
+		boolean toReturn = false;
+		if (isSlidingOnEachTuple()) {
+			for (StreamElement streamElement : streamElements)
+				if (streamElement != null && insertIntoWrapperTable(streamElement))
+					toReturn = slide(Collections.singletonList(streamElement)) || toReturn;
+		} else {
+			List<StreamElement> inserted = insertIntoWrapperTable(streamElements);
+			if (inserted.isEmpty())
+				return false;
+			toReturn = slide(inserted);
+		}
+		try {
+			removeUselessValues();
+		} catch (SQLException e) {
+			logger.error(e.getMessage(), e);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Evaluates the sliding handlers for each of the stored stream elements.
+	 */
+	private boolean slide(List<StreamElement> inserted) {
+		boolean toReturn = false;
+		try {
+			for (StreamElement streamElement : inserted)
+				for (SlidingHandler slidingHandler : slidingHandlers.values())
+					toReturn = slidingHandler.dataAvailable(streamElement) || toReturn;
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			logger.error("The stored data items from the wrapper couldn't be propagated inside the system.");
+			return false;
+		} finally {
+			noOfCallsToPostSE += inserted.size();
+		}
+		return toReturn;
+	}
+
+	/**
+	 * @return true if one of the stream sources fed by this wrapper slides on
+	 *         each tuple.
+	 */
+	private boolean isSlidingOnEachTuple() {
+		synchronized (listeners) {
+			for (StreamSource listener : listeners)
+				if (listener.getWindowingType() == WindowType.TUPLE_BASED_SLIDE_ON_EACH_TUPLE
+						|| listener.getWindowingType() == WindowType.TIME_BASED_SLIDE_ON_EACH_TUPLE)
+					return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Updates the table representing the data items produced by the stream
 	 * element. Returns false if the update fails or doesn't change the state of
@@ -285,6 +483,11 @@ public abstract class AbstractWrapper extends Thread {
 				logger.debug("Out of order data item detected, it is not propagated into the system : [" + se.toString() + "]");
 				return false;
 			}
+			if (memoryWindow != null) {
+				memoryWindow.add(se);
+				lastInOrderTimestamp = se.getTimeStamp();
+				return true;
+			}
 			conn = Main.getWindowStorage().getConnection();
 			Main.getWindowStorage().executeInsert(aliasCodeS, getOutputFormat(), se, conn);
             lastInOrderTimestamp = se.getTimeStamp();
@@ -294,13 +497,55 @@ public abstract class AbstractWrapper extends Thread {
 		}
 	}
 
+	/**
+	 * Inserts the stream elements which are not out of order into the table,
+	 * using a single batch.
+	 * 
+	 * @return the inserted stream elements.
+	 * @throws SQLException
+	 */
+	public List<StreamElement> insertIntoWrapperTable(List<StreamElement> streamElements) throws SQLException {
+		if (listeners.size() == 0)
+			return Collections.emptyList();
+		Long previousInOrderTimestamp = lastInOrderTimestamp;
+		ArrayList<StreamElement> inOrder = new ArrayList<StreamElement>(streamElements.size());
+		for (StreamElement se : streamElements) {
+			if (se == null)
+				continue;
+			if (isOutOfOrder(se)) {
+				logger.debug("Out of order data item detected, it is not propagated into the system : [" + se.toString() + "]");
+				continue;
+			}
+			inOrder.add(se);
+			lastInOrderTimestamp = se.getTimeStamp();
+		}
+		if (memoryWindow != null) {
+			for (StreamElement se : inOrder)
+				memoryWindow.add(se);
+			return inOrder;
+		}
+		Connection conn = null;
+		try {
+			conn = Main.getWindowStorage().getConnection();
+			Main.getWindowStorage().executeBatchInsert(aliasCodeS, getOutputFormat(), inOrder, conn);
+			return inOrder;
+		} catch (SQLException e) {
+			lastInOrderTimestamp = previousInOrderTimestamp;
+			throw e;
+		} finally {
+			Main.getWindowStorage().close(conn);
+		}
+	}
+
     public boolean isOutOfOrder(StreamElement se) throws SQLException {
         if (listeners.size() == 0)
 			return false;
         Connection conn = null;
 		try {
 			// Checks if the stream element is out of order
-            if (lastInOrderTimestamp == null) {
+            if (lastInOrderTimestamp == null && memoryWindow != null) {
+                lastInOrderTimestamp = memoryWindow.getNewestTimestamp(); // Long.MIN_VALUE if empty
+            } else if (lastInOrderTimestamp == null) {
                 conn = Main.getWindowStorage().getConnection();
                 StringBuilder query = new StringBuilder();
 				query.append("select max(timed) from ").append(aliasCodeS);
@@ -357,6 +602,20 @@ public abstract class AbstractWrapper extends Thread {
 	 * 
 	 */
 	public StringBuilder getUselessWindow() {
+		long minTimed = getOldestUsefulTimestamp();
+		if (minTimed == -1)
+			return null;
+		StringBuilder sb = new StringBuilder("delete from ").append(
+				getDBAliasInStr()).append(" where ");
+		sb.append(" timed < ").append(minTimed);
+		return sb;
+	}
+
+	/**
+	 * Returns the oldest timestamp still needed by one of the sliding handlers
+	 * or -1 if nothing can be removed from the window.
+	 */
+	private long getOldestUsefulTimestamp() {
 		long minTimed = -1;
 		synchronized (slidingHandlers) {
 			for (SlidingHandler slidingHandler : slidingHandlers.values()) {
@@ -373,16 +632,14 @@ public abstract class AbstractWrapper extends Thread {
 		}
 
 		logger.debug("Oldest timestamp : " + minTimed);
-
-		if (minTimed == -1)
-			return null;
-		StringBuilder sb = new StringBuilder("delete from ").append(
-				getDBAliasInStr()).append(" where ");
-		sb.append(" timed < ").append(minTimed);
-		return sb;
+		return minTimed;
 	}
 
 	public int removeUselessValues() throws SQLException {
+		if (memoryWindow != null) {
+			long minTimed = getOldestUsefulTimestamp();
+			return minTimed == -1 ? 0 : memoryWindow.removeOlderThan(minTimed);
+		}
 		StringBuilder query = getUselessWindow();
 		if (query == null)
 			return 0;
@@ -407,6 +664,8 @@ public abstract class AbstractWrapper extends Thread {
 		for (SlidingHandler slidingHandler : slidingHandlers.values()) {
 			slidingHandler.dispose();
 		}
+		if (memoryWindow != null)
+			memoryWindow.clear();
 		Main.getWindowStorage().executeDropTable(aliasCodeS);
 	}
 
@@ -28,6 +28,7 @@ package gsn.wrappers;
 import gsn.beans.AddressBean;
 import gsn.beans.DataField;
 import gsn.beans.StreamElement;
+import gsn.utils.geo.BinaryGrid;
 import org.apache.log4j.Logger;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -56,6 +57,9 @@ public class GridDataWrapper extends AbstractWrapper {
     private static final String PARAM_TIME_FORMAT = "time-format";
     private static final String PARAM_EXTENSION = "extension";
     private static final String PARAM_RATE = "rate";
+    private static final String PARAM_PRECISION = "precision";
+    private static final String PARAM_TILE_SIZE = "tile-size";
+    private static final String PARAM_COMPRESSION = "compression";
 
     private static final String[] ESRI_Format = {"ncols",
             "nrows",
@@ -72,10 +76,15 @@ public class GridDataWrapper extends AbstractWrapper {
     private double yllcorner;
     private double cellsize;
     private double NODATA_value;
-    private Double[][] rawData;
+    private double[][] rawData;
 
     private long rate;
 
+    // encoding of the grid column, see BinaryGrid
+    private boolean float32;
+    private int tileSize;
+    private boolean deflate;
+
     public boolean initialize() {
         setName(getWrapperName() + "-" + (++threadCounter));
 
@@ -119,6 +128,25 @@ public class GridDataWrapper extends AbstractWrapper {
             return false;
         }
 
+        String precisionStr = addressBean.getPredicateValue(PARAM_PRECISION);
+        if (precisionStr != null && !precisionStr.equalsIgnoreCase("float32") && !precisionStr.equalsIgnoreCase("float64")) {
+            logger.warn("The > " + PARAM_PRECISION + " < parameter should be float32 or float64 for wrapper in VS " + this.getActiveAddressBean().getVirtualSensorName());
+            return false;
+        }
+        float32 = "float32".equalsIgnoreCase(precisionStr);
+
+        String tileSizeStr = addressBean.getPredicateValue(PARAM_TILE_SIZE);
+        if (tileSizeStr != null) {
+            try {
+                tileSize = Integer.parseInt(tileSizeStr.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("The > " + PARAM_TILE_SIZE + " < parameter is invalid for wrapper in VS " + this.getActiveAddressBean().getVirtualSensorName());
+                return false;
+            }
+        }
+
+        deflate = "deflate".equalsIgnoreCase(addressBean.getPredicateValue(PARAM_COMPRESSION));
+
         latestProcessedTimestamp = -1;
 
         return true;
@@ -259,7 +287,7 @@ public class GridDataWrapper extends AbstractWrapper {
                 logger.debug(raw);
 
                 if (raw.size() == nrows * ncols) {
-                    rawData = new Double[nrows][ncols];
+                    rawData = new double[nrows][ncols];
                     for (int i = 0; i < nrows; i++)
                         for (int j = 0; j < ncols; j++) {
                             rawData[i][j] = (Double) raw.get(i * ncols + j);
@@ -324,34 +352,23 @@ public class GridDataWrapper extends AbstractWrapper {
 
         Serializable[] stream = new Serializable[7];
 
-        try {
-
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(rawData);
-            oos.flush();
-            oos.close();
-            bos.close();
-
-            System.out.println("size => " + bos.toByteArray().length);
-
-            stream[0] = new Integer(ncols);
-            stream[1] = new Integer(nrows);
-            stream[2] = new Double(xllcorner);
-            stream[3] = new Double(yllcorner);
-            stream[4] = new Double(cellsize);
-            stream[5] = new Double(NODATA_value);
-            stream[6] = bos.toByteArray();
+        if (rawData == null) {
+            return false;
+        }
 
-            logger.debug("size => " + bos.toByteArray().length);
+        byte[] grid = BinaryGrid.encode(rawData, xllcorner, yllcorner, cellsize, NODATA_value, tileSize, float32, deflate);
 
-            //testDeserialize(bos.toByteArray());
+        stream[0] = new Integer(ncols);
+        stream[1] = new Integer(nrows);
+        stream[2] = new Double(xllcorner);
+        stream[3] = new Double(yllcorner);
+        stream[4] = new Double(cellsize);
+        stream[5] = new Double(NODATA_value);
+        stream[6] = grid;
 
+        logger.debug("size => " + grid.length);
 
-        } catch (IOException e) {
-            logger.warn(e.getMessage(), e);
-            success = false;
-        }
+        //testDeserialize(grid);
 
         StreamElement se = new StreamElement(getOutputFormat(), stream, timed);
 
@@ -368,22 +385,13 @@ public class GridDataWrapper extends AbstractWrapper {
     public static void testDeserialize(byte[] bytes) {
 
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            ObjectInputStream in = null;
-
-            in = new ObjectInputStream(bis);
-
-            Double deserial[][] = new Double[0][];
-
-            deserial = (Double[][]) in.readObject();
-            in.close();
+            double deserial[][] = BinaryGrid.wrap(bytes).toArray();
 
             logger.debug("deserial.length" + deserial.length);
-            logger.debug("deserial[0].length" + deserial[0].length);
 
             for (int i = 0; i < deserial.length; i++) {
                 StringBuilder sb = new StringBuilder();
-                for (int j = 0; j < deserial[0].length; j++) {
+                for (int j = 0; j < deserial[i].length; j++) {
                     sb.append(deserial[i][j]).append(" ");
                 }
                 System.out.println(sb.toString());
@@ -391,8 +399,6 @@ public class GridDataWrapper extends AbstractWrapper {
 
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getMessage(), e);
         }
     }
 
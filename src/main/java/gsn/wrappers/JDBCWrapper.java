@@ -44,6 +44,7 @@ import java.sql.ResultSet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -232,6 +233,7 @@ public class JDBCWrapper extends AbstractWrapper {
 
                 //logger.debug(query);
 
+                ArrayList<StreamElement> batch = new ArrayList<StreamElement>();
                 while (resultSet.next()) {
                     Serializable[] output = new Serializable[this.getOutputFormat().length];
 
@@ -274,15 +276,19 @@ public class JDBCWrapper extends AbstractWrapper {
                     }
 
                     StreamElement se = new StreamElement(dataFieldNames, dataFieldTypes, output, timed);
-                    latest_timed = se.getTimeStamp();
 
-                    //logger.warn(" Latest => " + latest_timed);
+                    batch.add(se);
 
-                    this.postStreamElement(se);
+                    //logger.warn(se);
+                }
 
-                    updateCheckPointFile(latest_timed);
+                if (!batch.isEmpty()) {
+                    this.postStreamElements(batch);
+                    latest_timed = batch.get(batch.size() - 1).getTimeStamp();
 
-                    //logger.warn(se);
+                    //logger.warn(" Latest => " + latest_timed);
+
+                    updateCheckPointFile(latest_timed);
                 }
 
             } catch (java.io.IOException e) {
@@ -0,0 +1,374 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/wrappers/general/CSVBackfill.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.wrappers.general;
+
+import gsn.beans.StreamElement;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Loads archived CSV files before a <code>CSVWrapper</code> starts following
+ * its live file.
+ * <p>
+ * The files (all the files of a directory, or the ones matching a glob such
+ * as <code>/data/archive/*.csv</code>, in the order of their names) are split
+ * into chunks of a few MB at line boundaries. The chunks are parsed in
+ * waves by a fork-join pool, the rows of a wave being merged by timestamp
+ * as the tasks join, and each wave is handed to a <code>Sink</code> in
+ * batches. The quoted fields of the archives are expected without line
+ * breaks.
+ * <p>
+ * The index of the wave and the number of its rows already loaded are saved
+ * after each batch, so an interrupted backfill resumes with the first row
+ * not loaded, and its progress is available to the monitoring through
+ * <code>getBackfill</code> until the wrapper is disposed.
+ */
+public class CSVBackfill {
+
+    private static final transient Logger logger = Logger.getLogger(CSVBackfill.class);
+
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final String DONE = "done";
+
+    /**
+     * The running and completed backfills, by virtual sensor.
+     */
+    private static final ConcurrentHashMap<String, CSVBackfill> backfills = new ConcurrentHashMap<String, CSVBackfill>();
+
+    private static final Comparator<StreamElement> BY_TIMESTAMP = new Comparator<StreamElement>() {
+        public int compare(StreamElement a, StreamElement b) {
+            return a.getTimeStamp() < b.getTimeStamp() ? -1 : (a.getTimeStamp() == b.getTimeStamp() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Destination of the rows, in batches in the order of their timestamps.
+     */
+    public interface Sink {
+        void load(List<StreamElement> rows) throws Exception;
+    }
+
+    private static class Chunk {
+
+        final File file;
+
+        final long from;
+
+        final long to;
+
+        Chunk(File file, long from, long to) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Parses a range of chunks, the halves in parallel.
+     */
+    private class ParseTask extends RecursiveTask<List<StreamElement>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+
+        ParseTask(List<Chunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        protected List<StreamElement> compute() {
+            if (chunks.size() == 1) {
+                Chunk chunk = chunks.get(0);
+                try {
+                    List<StreamElement> rows = new CSVTailReader(handler, chunk.file).readChunk(chunk.from, chunk.to);
+                    // stable, and linear on the usual chronological files
+                    Collections.sort(rows, BY_TIMESTAMP);
+                    bytesDone.addAndGet(chunk.to - chunk.from);
+                    return rows;
+                } catch (IOException e) {
+                    throw new RuntimeException("Reading " + chunk.file + " failed: " + e.getMessage(), e);
+                }
+            }
+            int middle = chunks.size() / 2;
+            ParseTask left = new ParseTask(chunks.subList(0, middle));
+            ParseTask right = new ParseTask(chunks.subList(middle, chunks.size()));
+            right.fork();
+            List<StreamElement> leftRows = left.compute();
+            return merge(leftRows, right.join());
+        }
+    }
+
+    private final String name;
+
+    private final CSVHandler handler;
+
+    private final String pattern;
+
+    private final int threads;
+
+    private final File checkPointFile;
+
+    private int filesTotal = 0;
+
+    private long bytesTotal = 0;
+
+    private final AtomicLong bytesDone = new AtomicLong();
+
+    private volatile long rows = 0;
+
+    private volatile long startTime = 0;
+
+    private volatile long endTime = 0;
+
+    private volatile boolean failed = false;
+
+    private volatile boolean stopped = false;
+
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    /**
+     * @param name the name of the virtual sensor, for the monitoring.
+     * @param handler an initialized handler, providing the columns and their formats.
+     * @param pattern a directory or a glob.
+     * @param threads the parallelism of the parsing.
+     */
+    public CSVBackfill(String name, CSVHandler handler, String pattern, int threads) {
+        this.name = name;
+        this.handler = handler;
+        this.pattern = pattern;
+        this.threads = Math.max(1, threads);
+        this.checkPointFile = new File(handler.getCheckPointFile() + ".backfill");
+    }
+
+    /**
+     * @return the backfill of the virtual sensor, null if it has none.
+     */
+    public static CSVBackfill getBackfill(String vsName) {
+        return backfills.get(vsName);
+    }
+
+    /**
+     * @return the files of the directory or matching the glob, sorted by name.
+     */
+    public static File[] listFiles(String pattern) {
+        File directory = new File(pattern);
+        FileFilter filter;
+        if (directory.isDirectory()) {
+            filter = new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isFile();
+                }
+            };
+        } else {
+            directory = directory.getAbsoluteFile().getParentFile();
+            final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + new File(pattern).getName());
+            filter = new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isFile() && matcher.matches(file.toPath().getFileName());
+                }
+            };
+        }
+        File[] files = directory == null ? null : directory.listFiles(filter);
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    public boolean isDone() throws IOException {
+        return readCheckPoint()[0] < 0;
+    }
+
+    /**
+     * Loads the files, resuming after the last loaded batch. A crash between
+     * the loading of a batch and the saving of the check point loads that
+     * batch again.
+     *
+     * @param batchSize the number of rows handed at once to the sink.
+     * @return the timestamp of the most recent row of the archives,
+     *         Long.MIN_VALUE if there is none. If the backfill was stopped by
+     *         <code>dispose</code>, the one of the most recent row loaded.
+     */
+    public long run(Sink sink, int batchSize) throws Exception {
+        long[] checkPoint = readCheckPoint();
+        maxTimestamp = checkPoint[1];
+        if (checkPoint[0] < 0)
+            return maxTimestamp;
+
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        File[] files = listFiles(pattern);
+        filesTotal = files.length;
+        for (File file : files) {
+            long size = file.length();
+            bytesTotal += size;
+            for (long from = 0; from < size; from += CHUNK_SIZE)
+                chunks.add(new Chunk(file, from, Math.min(size, from + CHUNK_SIZE)));
+        }
+        int next = (int) Math.min(checkPoint[0], chunks.size());
+        for (int i = 0; i < next; i++)
+            bytesDone.addAndGet(chunks.get(i).to - chunks.get(i).from);
+
+        if (!stopped)
+            backfills.put(name, this);
+        startTime = System.currentTimeMillis();
+        logger.warn("Backfilling " + name + " from " + files.length + " files (" + bytesTotal + " bytes) matching " + pattern + ", starting with the chunk " + next + " of " + chunks.size());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // bounds the number of rows in memory
+            int wave = threads * 2;
+            // the rows of the wave loaded before the interruption, parsed again in the same order
+            int loaded = (int) checkPoint[2];
+            int resumedEnd = (int) checkPoint[3];
+            while (next < chunks.size() && !stopped) {
+                int end = Math.min(chunks.size(), loaded > 0 && resumedEnd > next ? resumedEnd : next + wave);
+                List<StreamElement> parsed = pool.invoke(new ParseTask(chunks.subList(next, end)));
+                for (int from = Math.min(loaded, parsed.size()); from < parsed.size() && !stopped; from += batchSize) {
+                    List<StreamElement> batch = parsed.subList(from, Math.min(parsed.size(), from + batchSize));
+                    sink.load(batch);
+                    rows += batch.size();
+                    maxTimestamp = Math.max(maxTimestamp, batch.get(batch.size() - 1).getTimeStamp());
+                    loaded = from + batch.size();
+                    if (loaded < parsed.size())
+                        writeCheckPoint(Integer.toString(next), loaded, end);
+                }
+                if (stopped)
+                    break;
+                next = end;
+                loaded = 0;
+                writeCheckPoint(next < chunks.size() ? Integer.toString(next) : DONE, 0, 0);
+            }
+        } catch (Exception e) {
+            failed = true;
+            throw e;
+        } finally {
+            pool.shutdown();
+            endTime = System.currentTimeMillis();
+        }
+        if (stopped)
+            logger.warn("The backfill of " + name + " is stopped after " + rows + " rows, it will be resumed on the next start.");
+        else
+            logger.warn("Backfilled " + rows + " rows into " + name + " in " + (endTime - startTime) / 1000 + " s (" + (long) getRowsPerSecond() + " rows/s).");
+        return maxTimestamp;
+    }
+
+    /**
+     * Stops the backfill after the batch being loaded, if it is running, and
+     * removes it from the monitoring.
+     */
+    public void dispose() {
+        stopped = true;
+        backfills.remove(name, this);
+    }
+
+    /**
+     * @return the index of the next chunk, -1 once done, the most recent
+     *         timestamp loaded, and the number of rows already loaded and
+     *         the end of the wave starting with the next chunk.
+     */
+    private long[] readCheckPoint() throws IOException {
+        if (!checkPointFile.isFile())
+            return new long[] { 0, Long.MIN_VALUE, 0, 0 };
+        String[] parts = FileUtils.readFileToString(checkPointFile, "UTF-8").trim().split("\\s+");
+        long next = parts[0].equals(DONE) ? -1 : Long.parseLong(parts[0]);
+        long[] checkPoint = new long[] { next, Long.MIN_VALUE, 0, 0 };
+        for (int i = 1; i < parts.length && i < checkPoint.length; i++)
+            checkPoint[i] = Long.parseLong(parts[i]);
+        return checkPoint;
+    }
+
+    private void writeCheckPoint(String next, int loaded, int end) throws IOException {
+        FileUtils.writeStringToFile(checkPointFile, next + " " + maxTimestamp + " " + loaded + " " + end, "UTF-8");
+    }
+
+
+    /**
+     * Merges two lists sorted by timestamp, the rows of the first one first for equal timestamps.
+     */
+    static List<StreamElement> merge(List<StreamElement> a, List<StreamElement> b) {
+        if (a.isEmpty())
+            return b;
+        if (b.isEmpty())
+            return a;
+        ArrayList<StreamElement> merged = new ArrayList<StreamElement>(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size())
+            merged.add(b.get(j).getTimeStamp() < a.get(i).getTimeStamp() ? b.get(j++) : a.get(i++));
+        merged.addAll(a.subList(i, a.size()));
+        merged.addAll(b.subList(j, b.size()));
+        return merged;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFilesTotal() {
+        return filesTotal;
+    }
+
+    /**
+     * @return the parsed part of the archives, between 0 and 1.
+     */
+    public double getProgress() {
+        return bytesTotal == 0 ? (endTime > 0 ? 1 : 0) : (double) bytesDone.get() / bytesTotal;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public double getRowsPerSecond() {
+        if (startTime == 0)
+            return 0;
+        long elapsed = (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        return elapsed <= 0 ? 0 : rows * 1000.0 / elapsed;
+    }
+
+    public boolean isRunning() {
+        return startTime > 0 && endTime == 0;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+}
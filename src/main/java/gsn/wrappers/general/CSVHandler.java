@@ -38,6 +38,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -60,10 +61,24 @@ public class CSVHandler {
 
     private static Logger logger = Logger.getLogger(CSVHandler.class);
 
-    private static final String TIMESTAMP = "timed";
+    static final String TIMESTAMP = "timed";
+
+    /**
+     * Formatters are immutable and thread safe, each pattern is only compiled once.
+     */
+    private static final ConcurrentHashMap<String, DateTimeFormatter> formatters = new ConcurrentHashMap<String, DateTimeFormatter>();
+
+    public static DateTimeFormatter getFormatter(String pattern) throws IllegalArgumentException {
+        DateTimeFormatter fmt = formatters.get(pattern);
+        if (fmt == null) {
+            fmt = DateTimeFormat.forPattern(pattern);
+            formatters.put(pattern, fmt);
+        }
+        return fmt;
+    }
 
     public static DateTime parseTimeStamp(String format, String value) throws IllegalArgumentException {
-        DateTimeFormatter fmt = DateTimeFormat.forPattern(format);
+        DateTimeFormatter fmt = getFormatter(format);
         return fmt.parseDateTime(value);
     }
 
@@ -75,6 +90,11 @@ public class CSVHandler {
 
     private String checkPointFile;
 
+    /**
+     * The formatters of this handler, in its time zone.
+     */
+    private ConcurrentHashMap<String, DateTimeFormatter> zonedFormatters = new ConcurrentHashMap<String, DateTimeFormatter>();
+
     public boolean initialize(String dataFile, String inFields, String inFormats, char separator, char stringSeparator, int skipFirstXLines, String nullValues) {
         return initialize(dataFile, inFields, inFormats, separator, stringSeparator, skipFirstXLines, nullValues, LOCAL_TIMEZONE_ID, "check-poin/" + (new File(dataFile).getName() + ".chk-point"));
     }
@@ -86,6 +106,7 @@ public class CSVHandler {
         this.dataFile = dataFile; // check if it exist.
         this.separator = separator;
         this.timeZone = DateTimeZone.forID(timeZone);
+        this.zonedFormatters.clear();
         this.checkPointFile = checkpointFile;
         File file = new File(dataFile);
 
@@ -129,7 +150,7 @@ public class CSVHandler {
                 continue;
             else if (isTimeStampFormat(formats[i])) {
                 try {
-                    String tmp = DateTimeFormat.forPattern(getTimeStampFormat(formats[i])).print(System.currentTimeMillis());
+                    String tmp = getFormatter(getTimeStampFormat(formats[i])).print(System.currentTimeMillis());
                 } catch (IllegalArgumentException e) {
                     logger.error("Validating the time-format(" + formats[i] + ") used by the CSV-wrapper is failed. ");
                     return false;
@@ -166,18 +187,30 @@ public class CSVHandler {
 
     public ArrayList<TreeMap<String, Serializable>> work(Reader dataFile, String checkpointDir) throws IOException {
         ArrayList<TreeMap<String, Serializable>> items = null;
-        setupCheckPointFileIfNeeded();
-        String val = FileUtils.readFileToString(new File(checkPointFile), "UTF-8");
+        String val = readCheckPointFile();
         long lastItem = 0;
-        if (val != null && val.trim().length() > 0)
-            lastItem = Long.parseLong(val.trim());
+        if (val.length() > 0)
+            lastItem = Long.parseLong(val);
         items = parseValues(dataFile, lastItem);
 
         return items;
     }
 
     public void updateCheckPointFile(long timestamp) throws IOException {
-        FileUtils.writeStringToFile(new File(checkPointFile), Long.toString(timestamp), "UTF-8");
+        updateCheckPointFile(Long.toString(timestamp));
+    }
+
+    public void updateCheckPointFile(String content) throws IOException {
+        FileUtils.writeStringToFile(new File(checkPointFile), content, "UTF-8");
+    }
+
+    /**
+     * @return the trimmed content of the check point file, empty if there is no check point yet.
+     */
+    public String readCheckPointFile() throws IOException {
+        setupCheckPointFileIfNeeded();
+        String val = FileUtils.readFileToString(new File(checkPointFile), "UTF-8");
+        return val == null ? "" : val.trim();
     }
 
     private boolean loggedNoChange = false; // to avoid duplicate logging messages when there is no change
@@ -278,8 +311,7 @@ public class CSVHandler {
             String timeFormat = timeStampFormats.get(timeField);
             String timeValue = (String) streamElement.get(timeField);
             try {
-                DateTime x = DateTimeFormat.forPattern(timeFormat).withZone(getTimeZone()).parseDateTime(timeValue);
-                streamElement.put(timeField, x.getMillis());
+                streamElement.put(timeField, getZonedFormatter(timeFormat).parseMillis(timeValue));
             } catch (IllegalArgumentException e) {
                 logger.error("Parsing error: TimeFormat=" + timeFormat + " , TimeValue=" + timeValue);
                 logger.error(e.getMessage(), e);
@@ -290,6 +322,18 @@ public class CSVHandler {
         return streamElement;
     }
 
+    /**
+     * @return the formatter of the pattern in the time zone of this handler.
+     */
+    public DateTimeFormatter getZonedFormatter(String pattern) throws IllegalArgumentException {
+        DateTimeFormatter fmt = zonedFormatters.get(pattern);
+        if (fmt == null) {
+            fmt = getFormatter(pattern).withZone(getTimeZone());
+            zonedFormatters.put(pattern, fmt);
+        }
+        return fmt;
+    }
+
     public static String getTimeStampFormat(String input) {
         if (input.indexOf("timestampl(") >= 0)
             return input.substring("timestampl(".length(), input.indexOf(")")).trim();
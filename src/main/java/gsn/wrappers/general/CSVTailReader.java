@@ -0,0 +1,743 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/wrappers/general/CSVTailReader.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.wrappers.general;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+import gsn.beans.StreamElementSchema;
+import gsn.utils.CaseInsensitiveComparator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Follows a CSV file as it grows, reading only the bytes appended since the
+ * last check point instead of parsing the whole file on every poll.
+ * <p>
+ * The check point holds the offset of the first byte not yet processed and a
+ * CRC32 of the first bytes of the file (at most 1 KB). When the file becomes
+ * shorter than the offset or its first bytes change, it was truncated or
+ * rotated and is read again from its beginning. A check point written by the
+ * line based parsing (a single number) is honoured once: the rows up to that
+ * timestamp, or that number of rows with counter based check points, are
+ * skipped.
+ * <p>
+ * The appended bytes are read through a <code>FileChannel</code> into a
+ * reused buffer and split in place (the file is expected in UTF-8 or any
+ * ASCII compatible encoding): only the string and timestamp fields are
+ * decoded to strings, the numbers are parsed from the bytes and each row is
+ * boxed directly into the values of a stream element sharing the schema of
+ * the reader. A row which
+ * can't be parsed is logged and skipped, the incomplete last line is left for
+ * the next poll.
+ */
+public class CSVTailReader {
+
+    private static final transient Logger logger = Logger.getLogger(CSVTailReader.class);
+
+    private static final int FINGERPRINT_SIZE = 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NUMERIC = 0, BIGINT = 1, STRING = 2, TIMESTAMP = 3;
+
+    /**
+     * Exact powers of ten, a mantissa of at most 15 digits divided by one of
+     * them is correctly rounded.
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * Timestamp made of one or more columns, joined by the separator as the
+     * line based parsing does.
+     */
+    private static class TimestampField {
+
+        /**
+         * Position in the schema, -1 for the timestamp of the stream element.
+         */
+        final int field;
+
+        final int[] columns;
+
+        final String[] formats;
+
+        final boolean[] padded;
+
+        /**
+         * Formatter of the timestamp when none of its columns is empty.
+         */
+        final DateTimeFormatter formatter;
+
+        TimestampField(int field, int[] columns, String[] formats, boolean[] padded, DateTimeFormatter formatter) {
+            this.field = field;
+            this.columns = columns;
+            this.formats = formats;
+            this.padded = padded;
+            this.formatter = formatter;
+        }
+    }
+
+    private final CSVHandler handler;
+
+    private final File file;
+
+    private final StreamElementSchema schema;
+
+    private final byte separator;
+
+    private final byte quote;
+
+    /**
+     * Type and position in the schema of each column, -1 for the timestamp
+     * columns and the columns without field.
+     */
+    private final byte[] kinds;
+
+    private final int[] targets;
+
+    private final TimestampField[] timestamps;
+
+    private final byte[][] nulls;
+
+    private final StringBuilder timestampValue = new StringBuilder();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Bounds of the fields of the current line in the buffer.
+     */
+    private int[] starts = new int[16];
+
+    private int[] ends = new int[16];
+
+    private boolean[] escaped = new boolean[16];
+
+    private int fieldCount;
+
+    private long offset = 0;
+
+    private int fingerprintLength = 0;
+
+    private long fingerprint = 0;
+
+    private long pendingOffset = 0;
+
+    private int pendingFingerprintLength = 0;
+
+    private long pendingFingerprint = 0;
+
+    /**
+     * Filters inherited from a line based check point, until the first commit.
+     */
+    private long legacyTimestamp = Long.MIN_VALUE;
+
+    private long legacyRowsToSkip = 0;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param handler an initialized handler, providing the columns, their formats and the check point file.
+     * @param useCounterForCheckPoint how to interpret a check point left by the line based parsing.
+     */
+    public CSVTailReader(CSVHandler handler, boolean useCounterForCheckPoint) throws IOException {
+        this(handler, new File(handler.getDataFile()));
+        loadCheckPoint(useCounterForCheckPoint);
+    }
+
+    /**
+     * Creates a reader of another file with the same columns, without check
+     * point, to read it by chunks.
+     */
+    CSVTailReader(CSVHandler handler, File file) {
+        this.handler = handler;
+        this.file = file;
+        this.separator = (byte) handler.getSeparator();
+        this.quote = (byte) handler.getStringSeparator();
+
+        String[] fields = handler.getFields();
+        String[] formats = handler.getFormats();
+        // same fields, and in the same order, as the stream elements of the line based parsing
+        TreeMap<String, DataField> outputFields = new TreeMap<String, DataField>(new CaseInsensitiveComparator());
+        for (DataField field : handler.getDataFields())
+            if (!field.getName().equalsIgnoreCase(CSVHandler.TIMESTAMP))
+                outputFields.put(field.getName(), field);
+        schema = new StreamElementSchema(outputFields.values().toArray(new DataField[outputFields.size()]));
+
+        kinds = new byte[fields.length];
+        targets = new int[fields.length];
+        TreeMap<String, ArrayList<Integer>> timestampColumns = new TreeMap<String, ArrayList<Integer>>();
+        for (int i = 0; i < fields.length; i++) {
+            targets[i] = schema.indexOf(fields[i]);
+            if (CSVHandler.isTimeStampFormat(formats[i])) {
+                kinds[i] = TIMESTAMP;
+                targets[i] = -1;
+                if (!timestampColumns.containsKey(fields[i]))
+                    timestampColumns.put(fields[i], new ArrayList<Integer>());
+                timestampColumns.get(fields[i]).add(i);
+            } else if (formats[i].equalsIgnoreCase("numeric"))
+                kinds[i] = NUMERIC;
+            else if (formats[i].equalsIgnoreCase("bigint"))
+                kinds[i] = BIGINT;
+            else
+                kinds[i] = STRING;
+        }
+        timestamps = new TimestampField[timestampColumns.size()];
+        int t = 0;
+        for (String field : timestampColumns.keySet()) {
+            ArrayList<Integer> columns = timestampColumns.get(field);
+            int[] indexes = new int[columns.size()];
+            String[] patterns = new String[columns.size()];
+            boolean[] padded = new boolean[columns.size()];
+            StringBuilder pattern = new StringBuilder();
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = columns.get(i);
+                patterns[i] = CSVHandler.getTimeStampFormat(formats[indexes[i]]);
+                padded[i] = CSVHandler.isTimeStampLeftPaddedFormat(formats[indexes[i]]);
+                if (i > 0)
+                    pattern.append(handler.getSeparator());
+                pattern.append(patterns[i]);
+            }
+            int target = field.equalsIgnoreCase(CSVHandler.TIMESTAMP) ? -1 : schema.indexOf(field);
+            timestamps[t++] = new TimestampField(target, indexes, patterns, padded, handler.getZonedFormatter(pattern.toString()));
+        }
+
+        String[] nullValues = handler.getNulls();
+        nulls = new byte[nullValues.length][];
+        for (int i = 0; i < nullValues.length; i++)
+            nulls[i] = nullValues[i].trim().toLowerCase().getBytes(UTF8);
+    }
+
+    private void loadCheckPoint(boolean useCounterForCheckPoint) throws IOException {
+        String content = handler.readCheckPointFile();
+        if (content.length() == 0)
+            return;
+        String[] parts = content.split("\\s+");
+        if (parts.length == 3) {
+            offset = Long.parseLong(parts[0]);
+            fingerprintLength = Integer.parseInt(parts[1]);
+            fingerprint = Long.parseLong(parts[2]);
+        } else if (useCounterForCheckPoint) {
+            legacyRowsToSkip = Long.parseLong(parts[0]);
+        } else {
+            legacyTimestamp = Long.parseLong(parts[0]);
+        }
+        logger.warn("Following " + file + " from the offset " + offset);
+    }
+
+    public StreamElementSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the offset of the first byte of the file which isn't committed.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads the rows following the committed offset.
+     *
+     * @return at most <code>max</code> rows, empty if there is no new complete line.
+     */
+    public List<StreamElement> read(int max) throws IOException {
+        ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+        pendingOffset = offset;
+        pendingFingerprintLength = fingerprintLength;
+        pendingFingerprint = fingerprint;
+        if (!file.isFile())
+            return rows;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (!checkFingerprint(channel)) {
+                pendingOffset = 0;
+                pendingFingerprintLength = 0;
+                pendingFingerprint = 0;
+            }
+            pendingOffset = readLines(channel, pendingOffset, Long.MAX_VALUE, max, false, rows);
+            if (pendingFingerprintLength < FINGERPRINT_SIZE && pendingOffset > pendingFingerprintLength) {
+                pendingFingerprintLength = (int) Math.min(FINGERPRINT_SIZE, pendingOffset);
+                pendingFingerprint = checksum(channel, pendingFingerprintLength);
+            }
+        } finally {
+            raf.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the rows of the lines starting in the range, the first one
+     * excluded if it starts before the range. The last line of the file
+     * doesn't need to be terminated.
+     *
+     * @return the rows, in the order of the file.
+     */
+    List<StreamElement> readChunk(long from, long to) throws IOException {
+        ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long position = from;
+            if (from > 0) {
+                // the line starting before the range belongs to the previous chunk
+                ByteBuffer single = ByteBuffer.allocate(1);
+                position = from - 1;
+                while (true) {
+                    single.clear();
+                    if (channel.read(single, position) <= 0)
+                        return rows;
+                    position++;
+                    if (single.get(0) == '\n')
+                        break;
+                }
+            }
+            readLines(channel, position, to, Integer.MAX_VALUE, true, rows);
+        } finally {
+            raf.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Converts the lines starting at the position and before the limit, and
+     * the first lines of the file are skipped as configured.
+     *
+     * @param lastLineAtEof if true, a last line without line break is read, otherwise it is left for the next call.
+     * @return the position following the last line read.
+     */
+    private long readLines(FileChannel channel, long position, long limit, int max, boolean lastLineAtEof, List<StreamElement> rows) throws IOException {
+        int linesToSkip = position == 0 ? handler.getSkipFirstXLines() : 0;
+        buffer.clear();
+        boolean eof = false;
+        int start = 0;
+        while (rows.size() < max && !eof) {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read <= 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            int filled = buffer.position();
+            start = 0;
+            int end;
+            while (rows.size() < max && position + start < limit && (end = tokenize(start, filled, eof && lastLineAtEof)) >= 0) {
+                if (linesToSkip > 0)
+                    linesToSkip--;
+                else
+                    convert(rows);
+                start = end;
+            }
+            if (rows.size() >= max || eof || position + start >= limit)
+                break;
+            if (start == 0 && filled == buffer.capacity()) {
+                // a line longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+                continue;
+            }
+            // keeps the incomplete line
+            System.arraycopy(buffer.array(), start, buffer.array(), 0, filled - start);
+            buffer.position(filled - start);
+            position += start;
+            start = 0;
+        }
+        return position + start;
+    }
+
+    /**
+     * @return false if the file was truncated or replaced since the check point.
+     */
+    private boolean checkFingerprint(FileChannel channel) throws IOException {
+        if (offset == 0)
+            return true;
+        long size = channel.size();
+        if (size < offset) {
+            logger.warn(file + " is shorter than the check point (" + size + " < " + offset + "), it is read again from its beginning.");
+            return false;
+        }
+        if (checksum(channel, fingerprintLength) != fingerprint) {
+            logger.warn("The first bytes of " + file + " changed, it is read again from its beginning.");
+            return false;
+        }
+        return true;
+    }
+
+    private long checksum(FileChannel channel, int length) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(length);
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0)
+            ;
+        crc.reset();
+        crc.update(head.array(), 0, head.position());
+        return crc.getValue();
+    }
+
+    /**
+     * Persists the offset of the rows returned by the last call to <code>read</code>.
+     */
+    public void commit() throws IOException {
+        if (pendingOffset == offset && pendingFingerprint == fingerprint)
+            return;
+        offset = pendingOffset;
+        fingerprintLength = pendingFingerprintLength;
+        fingerprint = pendingFingerprint;
+        legacyTimestamp = Long.MIN_VALUE;
+        legacyRowsToSkip = 0;
+        handler.updateCheckPointFile(offset + " " + fingerprintLength + " " + fingerprint);
+    }
+
+    /**
+     * Splits the line starting at <code>start</code> into fields, following
+     * the quotes, a quote being escaped by doubling it.
+     *
+     * @param atEof if true, the end of the data also ends the line.
+     * @return the position following the line, -1 if the line is incomplete.
+     */
+    private int tokenize(int start, int limit, boolean atEof) {
+        byte[] bytes = buffer.array();
+        fieldCount = 0;
+        int fieldStart = start;
+        boolean inQuotes = false;
+        boolean fieldEscaped = false;
+        for (int i = start; i < limit; i++) {
+            byte b = bytes[i];
+            if (b == quote) {
+                if (inQuotes && i + 1 < limit && bytes[i + 1] == quote) {
+                    fieldEscaped = true;
+                    i++;
+                } else
+                    inQuotes = !inQuotes;
+            } else if (!inQuotes && (b == separator || b == '\n')) {
+                int fieldEnd = i;
+                if (b == '\n' && fieldEnd > fieldStart && bytes[fieldEnd - 1] == '\r')
+                    fieldEnd--;
+                addField(fieldStart, fieldEnd, fieldEscaped);
+                if (b == '\n')
+                    return i + 1;
+                fieldStart = i + 1;
+                fieldEscaped = false;
+            }
+        }
+        if (atEof && start < limit) {
+            int fieldEnd = limit;
+            if (bytes[fieldEnd - 1] == '\r')
+                fieldEnd--;
+            addField(fieldStart, Math.max(fieldStart, fieldEnd), fieldEscaped);
+            return limit;
+        }
+        return -1;
+    }
+
+    private void addField(int start, int end, boolean hasEscapes) {
+        if (fieldCount == starts.length) {
+            int length = starts.length * 2;
+            int[] s = new int[length];
+            int[] e = new int[length];
+            boolean[] x = new boolean[length];
+            System.arraycopy(starts, 0, s, 0, fieldCount);
+            System.arraycopy(ends, 0, e, 0, fieldCount);
+            System.arraycopy(escaped, 0, x, 0, fieldCount);
+            starts = s;
+            ends = e;
+            escaped = x;
+        }
+        byte[] bytes = buffer.array();
+        // removes the surrounding quotes
+        if (end - start >= 2 && bytes[start] == quote && bytes[end - 1] == quote) {
+            start++;
+            end--;
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = hasEscapes;
+        fieldCount++;
+    }
+
+    /**
+     * Converts the tokenized line and adds it to the rows, unless all its
+     * fields are null or it is filtered by the previous check point.
+     */
+    private void convert(List<StreamElement> rows) {
+        long timed = System.currentTimeMillis();
+        boolean timedFound = false;
+        Serializable[] data = new Serializable[schema.getFieldCount()];
+        boolean empty = true;
+        int columns = Math.min(kinds.length, fieldCount);
+        try {
+            for (int i = 0; i < columns; i++) {
+                if (kinds[i] == TIMESTAMP || isNull(i))
+                    continue;
+                empty = false;
+                if (targets[i] < 0)
+                    continue;
+                switch (kinds[i]) {
+                case NUMERIC:
+                    data[targets[i]] = toData(targets[i], parseDouble(i));
+                    break;
+                case BIGINT:
+                    data[targets[i]] = toData(targets[i], parseLong(i));
+                    break;
+                default:
+                    data[targets[i]] = decode(i);
+                }
+            }
+            for (TimestampField timestamp : timestamps) {
+                long millis = parseTimestamp(timestamp);
+                if (millis == Long.MIN_VALUE)
+                    continue;
+                empty = false;
+                if (timestamp.field < 0) {
+                    timed = millis;
+                    timedFound = true;
+                } else
+                    data[timestamp.field] = toData(timestamp.field, millis);
+            }
+        } catch (IllegalArgumentException e) {
+            // also covers the NumberFormatException
+            logger.error("A line of " + file + " is skipped: " + e.getMessage());
+            return;
+        }
+        if (empty)
+            return;
+        if (legacyRowsToSkip > 0) {
+            legacyRowsToSkip--;
+            return;
+        }
+        if (timedFound && timed <= legacyTimestamp)
+            return;
+        rows.add(new StreamElement(schema, data, timed));
+    }
+
+    /**
+     * @return the number boxed in the class expected for the type of the
+     *         field, truncated if the field is an integer one.
+     */
+    private Serializable toData(int field, double value) {
+        switch (schema.getFieldType(field)) {
+        case DataTypes.FLOAT:
+            return (float) value;
+        case DataTypes.DOUBLE:
+            return value;
+        default:
+            return toData(field, (long) value);
+        }
+    }
+
+    /**
+     * @return the number boxed in the class expected for the type of the
+     *         field.
+     */
+    private Serializable toData(int field, long value) {
+        switch (schema.getFieldType(field)) {
+        case DataTypes.TINYINT:
+            return (byte) value;
+        case DataTypes.SMALLINT:
+            return (short) value;
+        case DataTypes.INTEGER:
+            return (int) value;
+        case DataTypes.BIGINT:
+            return value;
+        case DataTypes.FLOAT:
+            return (float) value;
+        case DataTypes.DOUBLE:
+            return (double) value;
+        default:
+            throw new IllegalArgumentException("The field " + schema.getFieldName(field) + " isn't numeric.");
+        }
+    }
+
+    /**
+     * @return true if the field is empty or one of the null values, ignoring
+     *         the case and the surrounding spaces.
+     */
+    private boolean isNull(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        if (start == end)
+            return true;
+        byte[] bytes = buffer.array();
+        while (start < end && bytes[start] == ' ')
+            start++;
+        while (end > start && bytes[end - 1] == ' ')
+            end--;
+        for (byte[] value : nulls) {
+            if (value.length != end - start)
+                continue;
+            int i = 0;
+            while (i < value.length && Character.toLowerCase((char) (bytes[start + i] & 0xff)) == value[i])
+                i++;
+            if (i == value.length)
+                return true;
+        }
+        return false;
+    }
+
+    private String decode(int field) {
+        String value = new String(buffer.array(), starts[field], ends[field] - starts[field], UTF8);
+        if (escaped[field]) {
+            String q = String.valueOf((char) quote);
+            value = value.replace(q + q, q);
+        }
+        return value;
+    }
+
+    /**
+     * Parses plain decimal numbers from the bytes, the other notations are
+     * left to <code>Double.parseDouble</code>.
+     */
+    private double parseDouble(int field) {
+        byte[] bytes = buffer.array();
+        int i = starts[field];
+        int end = ends[field];
+        while (i < end && bytes[i] == ' ')
+            i++;
+        while (end > i && bytes[end - 1] == ' ')
+            end--;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+'))
+            negative = bytes[i++] == '-';
+        long mantissa = 0;
+        int count = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                count++;
+                if (mantissa > 0 || b != '0')
+                    digits++;
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimals >= 0)
+                    decimals++;
+            } else if (b == '.' && decimals < 0)
+                decimals = 0;
+            else
+                break;
+        }
+        if (i == end && count > 0 && digits <= 15 && decimals < POWERS_OF_TEN.length) {
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(decode(field));
+        } catch (NumberFormatException e) {
+            logger.error("Parsing to Numeric failed: Value to parse=" + decode(field));
+            throw e;
+        }
+    }
+
+    private long parseLong(int field) {
+        byte[] bytes = buffer.array();
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+'))
+            negative = bytes[i++] == '-';
+        long value = 0;
+        int digits = 0;
+        for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++)
+            value = value * 10 + (bytes[i] - '0');
+        if (i == end && digits > 0 && digits <= 18)
+            return negative ? -value : value;
+        try {
+            return Long.parseLong(decode(field));
+        } catch (NumberFormatException e) {
+            logger.error("Parsing to BigInt failed: Value to parse=" + decode(field));
+            throw e;
+        }
+    }
+
+    /**
+     * @return the timestamp, Long.MIN_VALUE if all its columns are null.
+     */
+    private long parseTimestamp(TimestampField timestamp) {
+        timestampValue.setLength(0);
+        DateTimeFormatter formatter = timestamp.formatter;
+        StringBuilder pattern = null;
+        for (int c = 0; c < timestamp.columns.length; c++) {
+            int column = timestamp.columns[c];
+            if (column >= fieldCount || isNull(column)) {
+                if (pattern == null) {
+                    // the rare case of some missing columns, the pattern is made of the present ones
+                    pattern = new StringBuilder();
+                    for (int p = 0; p < c; p++)
+                        appendPattern(pattern, timestamp.formats[p]);
+                }
+                continue;
+            }
+            if (timestampValue.length() > 0)
+                timestampValue.append((char) separator);
+            String value = decode(column);
+            if (timestamp.padded[c])
+                for (int p = value.length(); p < timestamp.formats[c].length(); p++)
+                    timestampValue.append('0');
+            timestampValue.append(value);
+            if (pattern != null)
+                appendPattern(pattern, timestamp.formats[c]);
+        }
+        if (timestampValue.length() == 0)
+            return Long.MIN_VALUE;
+        if (pattern != null)
+            formatter = handler.getZonedFormatter(pattern.toString());
+        try {
+            return formatter.parseMillis(timestampValue.toString());
+        } catch (IllegalArgumentException e) {
+            logger.error("Parsing error: TimeValue=" + timestampValue);
+            throw e;
+        }
+    }
+
+    private void appendPattern(StringBuilder pattern, String format) {
+        if (pattern.length() > 0)
+            pattern.append((char) separator);
+        pattern.append(format);
+    }
+}
@@ -29,16 +29,31 @@
 
 package gsn.wrappers.general;
 
+import gsn.ContainerImpl;
+import gsn.Main;
+import gsn.Mappings;
 import gsn.beans.AddressBean;
 import gsn.beans.DataField;
+import gsn.beans.InputStream;
 import gsn.beans.StreamElement;
+import gsn.beans.StreamSource;
+import gsn.beans.VSensorConfig;
+import gsn.storage.StorageManager;
+import gsn.vsensor.BridgeVirtualSensor;
 import gsn.wrappers.AbstractWrapper;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.commons.io.FileUtils;
@@ -67,6 +82,24 @@ public class CSVWrapper extends AbstractWrapper {
     boolean useCounterForCheckPoint = false;
     long processedLineCounter = 0; // counts lines processed when checkpoint use counter to track changes (instead of timestamp, by default)
 
+    /**
+     * Number of lines posted at once through <code>postStreamElements</code>,
+     * the check point is updated after each batch.
+     */
+    private int batchSize;
+
+    /**
+     * Set when the <code>tail</code> predicate is true: the file is followed
+     * from a byte offset instead of being parsed from its first line on every poll.
+     */
+    private CSVTailReader tailReader = null;
+
+    /**
+     * Set when the <code>backfill</code> predicate gives a directory or a glob
+     * of archived files, loaded before following the file.
+     */
+    private CSVBackfill backfill = null;
+
     public boolean initialize() {
         setName("CSVWrapper-Thread" + (++threadCounter));
         AddressBean addressBean = getActiveAddressBean();
@@ -83,6 +116,10 @@ public class CSVWrapper extends AbstractWrapper {
         String nullValues = addressBean.getPredicateValueWithDefault("bad-values", "");
         String strUseCounterForCheckPoint = addressBean.getPredicateValueWithDefault("use-counter-for-check-point", "false");
         samplingPeriodInMsc = addressBean.getPredicateValueAsInt("sampling", 10000);
+        batchSize = Math.max(1, addressBean.getPredicateValueAsInt("batch-size", 500));
+        boolean tail = addressBean.getPredicateValueWithDefault("tail", "false").equalsIgnoreCase("true");
+        String backfillFiles = addressBean.getPredicateValue("backfill");
+        int backfillThreads = addressBean.getPredicateValueAsInt("backfill-threads", Runtime.getRuntime().availableProcessors());
 
         /*
         DEBUG_INFO(dataFile);
@@ -117,14 +154,21 @@ public class CSVWrapper extends AbstractWrapper {
             if (!handler.initialize(dataFile.trim(), csvFields, csvFormats, csvSeparator.toCharArray()[0], csvStringQuote.toCharArray()[0], skipFirstXLine, nullValues, timezone, checkPointFile.toString()))
                 return false;
 
-            String val = FileUtils.readFileToString(new File(checkPointFile.toString()), "UTF-8");
-            long lastItem = 0;
-            if (val != null && val.trim().length() > 0)
-                lastItem = Long.parseLong(val.trim());
-            logger.warn("Latest item: "+lastItem);
+            if (backfillFiles != null && backfillFiles.trim().length() > 0)
+                backfill = new CSVBackfill(addressBean.getVirtualSensorName(), handler, backfillFiles.trim(), backfillThreads);
+
+            if (tail) {
+                tailReader = new CSVTailReader(handler, useCounterForCheckPoint);
+            } else {
+                String val = FileUtils.readFileToString(new File(checkPointFile.toString()), "UTF-8");
+                long lastItem = 0;
+                if (val != null && val.trim().length() > 0)
+                    lastItem = Long.parseLong(val.trim());
+                logger.warn("Latest item: "+lastItem);
 
-            if (useCounterForCheckPoint) {
-                processedLineCounter = lastItem;
+                if (useCounterForCheckPoint) {
+                    processedLineCounter = lastItem;
+                }
             }
 
         } catch (Exception e) {
@@ -141,6 +185,12 @@ public class CSVWrapper extends AbstractWrapper {
 
 
     public void run() {
+        if (backfill != null)
+            runBackfill();
+        if (tailReader != null) {
+            runTail();
+            return;
+        }
         Exception preivousError = null;
         long previousModTime = -1;
         long previousCheckModTime = -1;
@@ -167,23 +217,21 @@ public class CSVWrapper extends AbstractWrapper {
 
                     reader = new FileReader(handler.getDataFile());
                     output = handler.work(reader, checkPointDir);
+                    ArrayList<StreamElement> batch = new ArrayList<StreamElement>(Math.min(batchSize, output.size()));
                     for (TreeMap<String, Serializable> se : output) {
                         StreamElement streamElement = new StreamElement(se, getOutputFormat());
                         String [] ses = streamElement.getFieldNames();
-                        processedLineCounter++;
                         for (int i=0;i<ses.length; i++){
                             if ("anetz_snow_height".equalsIgnoreCase(ses[i]) || "mst_surface_temp".equalsIgnoreCase(ses[i])){
                                 logger.warn(dataFile+" : "+se);
                                 break;
                             }
                         }
-                        boolean insertionSuccess = postStreamElement(streamElement);
-
-                        if (!useCounterForCheckPoint)
-                            handler.updateCheckPointFile(streamElement.getTimeStamp()); // write latest processed timestamp
-                        else
-                            handler.updateCheckPointFile(processedLineCounter); // write latest processed line number
+                        batch.add(streamElement);
+                        if (batch.size() >= batchSize)
+                            postBatch(batch);
                     }
+                    postBatch(batch);
                 }
                 //if (output==null || output.size()==0) //More intelligent sleeping, being more proactive once the wrapper receives huge files.
                 Thread.sleep(samplingPeriodInMsc);
@@ -208,6 +256,196 @@ public class CSVWrapper extends AbstractWrapper {
         }
     }
 
+    /**
+     * Loads the archives, unless done by a previous run, and makes the live
+     * file start after their most recent row if it has no check point yet.
+     */
+    private void runBackfill() {
+        try {
+            if (backfill.isDone())
+                return;
+            long lastTimestamp = backfill.run(createBackfillSink(), batchSize);
+            if (lastTimestamp != Long.MIN_VALUE && backfill.isDone() && !useCounterForCheckPoint && handler.readCheckPointFile().length() == 0) {
+                handler.updateCheckPointFile(lastTimestamp);
+                if (tailReader != null)
+                    tailReader = new CSVTailReader(handler, false);
+            }
+        } catch (Exception e) {
+            logger.error("Backfilling from " + getActiveAddressBean().getPredicateValue("backfill") + " failed, it will be resumed on the next start: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a sink inserting the rows directly into the table of the virtual
+     *         sensor if it only copies the rows of this wrapper, posting them
+     *         otherwise.
+     */
+    private CSVBackfill.Sink createBackfillSink() throws SQLException {
+        final VSensorConfig config = Mappings.getVSensorConfig(getActiveAddressBean().getVirtualSensorName());
+        if (config == null || !isPassThrough(config))
+            return new CSVBackfill.Sink() {
+                public void load(List<StreamElement> rows) throws SQLException {
+                    // a failure stops the backfill, which resumes from this batch
+                    storeStreamElements(rows);
+                }
+            };
+        logger.warn("The archives are inserted directly into the table of " + config.getName() + ".");
+        final StorageManager storage = Main.getStorage(config.getName());
+        final String tableName = config.getName().toLowerCase();
+        final long lastStored = getLastTimestamp(storage, tableName);
+        return new CSVBackfill.Sink() {
+            public void load(List<StreamElement> rows) throws SQLException {
+                // a batch loaded again after a crash, or archives overlapping the stored rows
+                if (rows.get(0).getTimeStamp() <= lastStored)
+                    rows = removeStored(storage, tableName, rows);
+                if (!rows.isEmpty())
+                    ContainerImpl.getInstance().publishData(config, rows);
+            }
+        };
+    }
+
+    /**
+     * @return the most recent timestamp of the table, Long.MIN_VALUE if it is empty.
+     */
+    static long getLastTimestamp(StorageManager storage, String tableName) throws SQLException {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = storage.getConnection();
+            statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("select max(timed) from " + tableName);
+            long last = rs.next() ? rs.getLong(1) : Long.MIN_VALUE;
+            return rs.wasNull() ? Long.MIN_VALUE : last;
+        } finally {
+            storage.closeStatement(statement);
+            storage.close(connection);
+        }
+    }
+
+    /**
+     * @param rows sorted by timestamp.
+     * @return the rows without the ones already in the table, a stored row
+     *         matching a row of the same timestamp.
+     */
+    static List<StreamElement> removeStored(StorageManager storage, String tableName, List<StreamElement> rows) throws SQLException {
+        HashMap<Long, Integer> stored = new HashMap<Long, Integer>();
+        Connection connection = null;
+        PreparedStatement ps = null;
+        try {
+            connection = storage.getConnection();
+            ps = connection.prepareStatement("select timed from " + tableName + " where timed >= ? and timed <= ?");
+            ps.setLong(1, rows.get(0).getTimeStamp());
+            ps.setLong(2, rows.get(rows.size() - 1).getTimeStamp());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Integer count = stored.get(rs.getLong(1));
+                stored.put(rs.getLong(1), count == null ? 1 : count + 1);
+            }
+        } finally {
+            storage.close(ps);
+            storage.close(connection);
+        }
+        if (stored.isEmpty())
+            return rows;
+        ArrayList<StreamElement> toLoad = new ArrayList<StreamElement>(rows.size());
+        for (StreamElement se : rows) {
+            Integer count = stored.get(se.getTimeStamp());
+            if (count == null)
+                toLoad.add(se);
+            else if (count == 1)
+                stored.remove(se.getTimeStamp());
+            else
+                stored.put(se.getTimeStamp(), count - 1);
+        }
+        return toLoad;
+    }
+
+    /**
+     * @return true if the virtual sensor is a <code>BridgeVirtualSensor</code>
+     *         keeping the nulls, fed by this wrapper alone through
+     *         <code>select *</code> queries without window nor sampling, and
+     *         its fields are all produced by this wrapper.
+     */
+    private boolean isPassThrough(VSensorConfig config) {
+        if (!BridgeVirtualSensor.class.getName().equals(config.getProcessingClass()))
+            return false;
+        if ("false".equalsIgnoreCase(config.getMainClassInitialParams().get("allow-nulls")))
+            return false;
+        if (config.getInputStreams().size() != 1)
+            return false;
+        InputStream inputStream = config.getInputStreams().iterator().next();
+        if (inputStream.getSources().length != 1 || !isSelectAll(inputStream.getQuery()))
+            return false;
+        StreamSource source = inputStream.getSources()[0];
+        if (source.getWrapper() != this || !isSelectAll(source.getSqlQuery()) || source.getSamplingRate() != 1)
+            return false;
+        if (source.getStorageSize() != null && !source.getStorageSize().trim().equals("1"))
+            return false;
+        for (DataField field : config.getOutputStructure()) {
+            boolean found = false;
+            for (DataField produced : getOutputFormat())
+                found |= produced.getName().equalsIgnoreCase(field.getName());
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isSelectAll(String query) {
+        return query != null && query.trim().toLowerCase().matches("select\\s+\\*\\s+from\\s+\\w+\\s*;?");
+    }
+
+    /**
+     * Follows the file, posting the appended rows by batches and committing
+     * the offset after each batch.
+     */
+    private void runTail() {
+        String previousError = null;
+        while (isActive()) {
+            try {
+                List<StreamElement> batch;
+                do {
+                    batch = tailReader.read(batchSize);
+                    if (!batch.isEmpty())
+                        storeStreamElements(batch);
+                    // not committed if the batch couldn't be stored, it is read again on the next poll
+                    tailReader.commit();
+                } while (batch.size() >= batchSize && isActive());
+                previousError = null;
+            } catch (IOException e) {
+                if (!String.valueOf(e.getMessage()).equals(previousError))
+                    logger.error(e.getMessage() + " :: " + handler.getDataFile(), e);
+                previousError = String.valueOf(e.getMessage());
+            } catch (SQLException e) {
+                if (!String.valueOf(e.getMessage()).equals(previousError))
+                    logger.error("Storing the rows of " + handler.getDataFile() + " from the offset " + tailReader.getOffset() + " failed, they will be read again: " + e.getMessage(), e);
+                previousError = String.valueOf(e.getMessage());
+            }
+            try {
+                Thread.sleep(samplingPeriodInMsc);
+            } catch (InterruptedException e) {
+                logger.debug(e.getMessage(), e);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stores the batch, updates the check point with its last line and clears it.
+     */
+    private void postBatch(ArrayList<StreamElement> batch) throws IOException, SQLException {
+        if (batch.isEmpty())
+            return;
+        // the check point isn't updated if the batch couldn't be stored
+        storeStreamElements(batch);
+        processedLineCounter += batch.size();
+        if (!useCounterForCheckPoint)
+            handler.updateCheckPointFile(batch.get(batch.size() - 1).getTimeStamp()); // write latest processed timestamp
+        else
+            handler.updateCheckPointFile(processedLineCounter); // write latest processed line number
+        batch.clear();
+    }
+
     public DataField[] getOutputFormat() {
         return dataField;
     }
@@ -217,6 +455,8 @@ public class CSVWrapper extends AbstractWrapper {
     }
 
     public void dispose() {
+        if (backfill != null)
+            backfill.dispose();
         threadCounter--;
     }
 
@@ -0,0 +1,157 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/TestLatestValueCache.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StorageConfig;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.storage.StorageManager;
+
+import java.io.Serializable;
+import java.sql.DriverManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLatestValueCache {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.DOUBLE) };
+
+	private final LatestValueCache cache = LatestValueCache.getInstance();
+
+	private StorageConfig storageConfig;
+
+	private StorageManager storage;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		storageConfig = new StorageConfig();
+		storageConfig.setJdbcDriver("org.h2.Driver");
+		storageConfig.setJdbcURL("jdbc:h2:mem:latest;DB_CLOSE_DELAY=-1");
+		storageConfig.setJdbcUsername("sa");
+		storageConfig.setJdbcPassword("");
+		storage = Main.getStorage(config());
+		storage.executeCreateTable("cached", fields, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.release();
+		storage.executeDropTable("cached");
+	}
+
+	/**
+	 * @return a new configuration, as for each loading of the virtual sensor.
+	 */
+	private VSensorConfig config() {
+		VSensorConfig config = new VSensorConfig();
+		config.setName("cached");
+		config.setOutputStructure(fields);
+		config.setStorage(storageConfig);
+		return config;
+	}
+
+	private static StreamElement element(long timed, double value) {
+		return new StreamElement(fields, new Serializable[] { value }, timed);
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		VSensorConfig config = config();
+		cache.vsLoading(config);
+		assertNull(cache.getLatest("cached"));
+		// inserted without being published
+		storage.executeInsert("cached", fields, element(10, 1));
+		assertEquals(10, cache.getLatest("cached").getTimeStamp());
+		StreamElement published = element(20, 2);
+		cache.consume(published, config);
+		assertSame(published, cache.getLatest("cached"));
+		// older
+		cache.consume(element(15, 3), config);
+		assertSame(published, cache.getLatest("cached"));
+		StreamElement same = element(20, 4);
+		cache.consume(same, config);
+		assertSame(same, cache.getLatest("cached"));
+	}
+
+	@Test
+	public void testLoadingReadsTable() throws Exception {
+		storage.executeInsert("cached", fields, element(10, 1));
+		storage.executeInsert("cached", fields, element(30, 3));
+		storage.executeInsert("cached", fields, element(20, 2));
+		cache.vsLoading(config());
+		assertEquals(30, cache.getLatest("cached").getTimeStamp());
+		assertEquals(3.0, cache.getLatest("cached").getData("value"));
+	}
+
+	@Test
+	public void testUnload() throws Exception {
+		VSensorConfig config = config();
+		cache.vsLoading(config);
+		cache.consume(element(10, 1), config);
+		cache.vsUnLoading(config);
+		// published late by the unloaded virtual sensor
+		cache.consume(element(20, 2), config);
+		VSensorConfig reloaded = config();
+		cache.vsLoading(reloaded);
+		assertNull(cache.getLatest("cached"));
+		// the previous loading is unloaded after the new one is loaded
+		cache.vsUnLoading(config);
+		cache.consume(element(5, 5), reloaded);
+		assertEquals(5, cache.getLatest("cached").getTimeStamp());
+	}
+
+	@Test
+	public void testConsumeDuringUnload() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			final VSensorConfig config = config();
+			cache.vsLoading(config);
+			Thread producer = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100; j++)
+						cache.consume(element(j, j), config);
+				}
+			};
+			producer.start();
+			if (i % 2 == 0)
+				Thread.yield();
+			cache.vsUnLoading(config);
+			producer.join();
+			VSensorConfig reloaded = config();
+			cache.vsLoading(reloaded);
+			assertNull("iteration " + i, cache.getLatest("cached"));
+			cache.vsUnLoading(reloaded);
+		}
+	}
+}
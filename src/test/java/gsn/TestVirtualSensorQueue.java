@@ -0,0 +1,233 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/TestVirtualSensorQueue.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.utils.KeyValueImp;
+import gsn.vsensor.AbstractVirtualSensor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.collections.KeyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestVirtualSensorQueue {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.INTEGER) };
+
+	private static final List<Long> received = Collections.synchronizedList(new ArrayList<Long>());
+
+	private static final AtomicInteger running = new AtomicInteger();
+
+	private static volatile boolean concurrent = false;
+
+	// blocks the processing of the first element until counted down
+	private static volatile CountDownLatch gate;
+
+	private static volatile CountDownLatch entered;
+
+	/**
+	 * Records the elements it receives.
+	 */
+	public static class Recorder extends AbstractVirtualSensor {
+
+		public boolean initialize() {
+			return true;
+		}
+
+		public void dataAvailable(String inputStreamName, StreamElement streamElement) {
+			if (running.incrementAndGet() > 1)
+				concurrent = true;
+			try {
+				entered.countDown();
+				gate.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received.add(streamElement.getTimeStamp());
+			running.decrementAndGet();
+		}
+
+		public void dispose() {
+		}
+	}
+
+	private VirtualSensorQueue queue;
+
+	@Before
+	public void setUp() {
+		received.clear();
+		concurrent = false;
+		gate = new CountDownLatch(0);
+		entered = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		gate.countDown();
+		if (queue != null)
+			queue.close();
+	}
+
+	private static VirtualSensor pool(String... params) {
+		ArrayList<KeyValue> list = new ArrayList<KeyValue>();
+		for (int i = 0; i < params.length; i += 2)
+			list.add(new KeyValueImp(params[i], params[i + 1]));
+		VSensorConfig config = new VSensorConfig();
+		config.setName("queued");
+		config.setFileName("queued.xml");
+		config.setMainClass(Recorder.class.getName());
+		config.setOutputStructure(fields);
+		config.setMainClassInitialParams(list);
+		return new VirtualSensor(config);
+	}
+
+	private static StreamElement element(long timed) {
+		return new StreamElement(fields, new Serializable[] { (int) timed }, timed);
+	}
+
+	private void waitProcessed(long count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (queue.getProcessedCount() < count && System.currentTimeMillis() < end)
+			Thread.sleep(5);
+		assertEquals(count, queue.getProcessedCount());
+	}
+
+	/**
+	 * Puts a first element and waits until the processing class blocks on it.
+	 */
+	private void blockFirst() throws InterruptedException {
+		gate = new CountDownLatch(1);
+		assertTrue(queue.put("input", element(0)));
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCreate() {
+		assertNull(VirtualSensorQueue.create(pool()));
+		assertNull(VirtualSensorQueue.create(pool(VirtualSensorQueue.QUEUE_SIZE, "0")));
+		assertNull(VirtualSensorQueue.create(pool(VirtualSensorQueue.QUEUE_SIZE, "10", VirtualSensorQueue.QUEUE_OVERFLOW, "unknown")));
+		queue = VirtualSensorQueue.create(pool(VirtualSensorQueue.QUEUE_SIZE, "10", VirtualSensorQueue.QUEUE_OVERFLOW, "drop-oldest"));
+		assertNotNull(queue);
+		assertEquals(10, queue.getCapacity());
+		assertEquals(VirtualSensorQueue.OverflowPolicy.DROP_OLDEST, queue.getPolicy());
+	}
+
+	@Test
+	public void testInOrder() throws InterruptedException {
+		queue = new VirtualSensorQueue(pool(), 10, VirtualSensorQueue.OverflowPolicy.BLOCK, 2);
+		for (int i = 0; i < 200; i++)
+			assertTrue(queue.put("input", element(i)));
+		waitProcessed(200);
+		for (int i = 0; i < 200; i++)
+			assertEquals(i, (long) received.get(i));
+		assertFalse(concurrent);
+		assertEquals(0, queue.getDroppedCount());
+		assertTrue(queue.getMaxDepth() <= 10);
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		queue = new VirtualSensorQueue(pool(), 2, VirtualSensorQueue.OverflowPolicy.DROP_OLDEST, 2);
+		blockFirst();
+		for (int i = 1; i <= 4; i++)
+			assertTrue(queue.put("input", element(i)));
+		gate.countDown();
+		waitProcessed(3);
+		assertEquals(Arrays.asList(0L, 3L, 4L), received);
+		assertEquals(2, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testSample() throws InterruptedException {
+		queue = new VirtualSensorQueue(pool(), 2, VirtualSensorQueue.OverflowPolicy.SAMPLE, 2);
+		blockFirst();
+		assertTrue(queue.put("input", element(1)));
+		assertTrue(queue.put("input", element(2)));
+		// one out of two overflowing elements replaces the oldest
+		assertFalse(queue.put("input", element(3)));
+		assertTrue(queue.put("input", element(4)));
+		gate.countDown();
+		waitProcessed(3);
+		assertEquals(Arrays.asList(0L, 2L, 4L), received);
+		assertEquals(2, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testBlock() throws InterruptedException {
+		queue = new VirtualSensorQueue(pool(), 1, VirtualSensorQueue.OverflowPolicy.BLOCK, 2);
+		blockFirst();
+		assertTrue(queue.put("input", element(1)));
+		Thread wrapper = new Thread() {
+			public void run() {
+				try {
+					queue.put("input", element(2));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		wrapper.start();
+		wrapper.join(200);
+		assertTrue(wrapper.isAlive());
+		gate.countDown();
+		wrapper.join(10000);
+		assertFalse(wrapper.isAlive());
+		waitProcessed(3);
+		assertEquals(Arrays.asList(0L, 1L, 2L), received);
+		assertEquals(0, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		queue = new VirtualSensorQueue(pool(), 5, VirtualSensorQueue.OverflowPolicy.BLOCK, 2);
+		blockFirst();
+		assertTrue(queue.put("input", element(1)));
+		queue.close();
+		assertEquals(0, queue.getDepth());
+		assertFalse(queue.put("input", element(2)));
+		gate.countDown();
+		waitProcessed(1);
+		assertEquals(Arrays.asList(0L), received);
+	}
+}
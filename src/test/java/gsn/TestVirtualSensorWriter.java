@@ -0,0 +1,199 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/TestVirtualSensorWriter.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StorageConfig;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.storage.StorageManager;
+import gsn.utils.KeyValueImp;
+
+import java.io.Serializable;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.collections.KeyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestVirtualSensorWriter {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.INTEGER) };
+
+	private final List<Long> published = Collections.synchronizedList(new ArrayList<Long>());
+
+	private final VirtualSensorDataListener listener = new VirtualSensorDataListener() {
+		public void consume(StreamElement se, VSensorConfig config) {
+			published.add(se.getTimeStamp());
+		}
+	};
+
+	private StorageManager storage;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		storage = Main.getStorage(config(null));
+		storage.executeCreateTable("written", fields, true);
+		ContainerImpl.getInstance().addVSensorDataListener(listener);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ContainerImpl.getInstance().removeVSensorDataListener(listener);
+		storage.executeDropTable("written");
+	}
+
+	/**
+	 * @param groupCommit the group-commit parameter, null for none.
+	 */
+	private static VSensorConfig config(String groupCommit) {
+		StorageConfig storageConfig = new StorageConfig();
+		storageConfig.setJdbcDriver("org.h2.Driver");
+		storageConfig.setJdbcURL("jdbc:h2:mem:writer;DB_CLOSE_DELAY=-1");
+		storageConfig.setJdbcUsername("sa");
+		storageConfig.setJdbcPassword("");
+		ArrayList<KeyValue> params = new ArrayList<KeyValue>();
+		if (groupCommit != null) {
+			params.add(new KeyValueImp(VirtualSensorWriter.GROUP_COMMIT, groupCommit));
+			params.add(new KeyValueImp(VirtualSensorWriter.GROUP_COMMIT_SIZE, "3"));
+		}
+		VSensorConfig config = new VSensorConfig();
+		config.setName("written");
+		config.setOutputStructure(fields);
+		config.setStorage(storageConfig);
+		config.setMainClassInitialParams(params);
+		return config;
+	}
+
+	private static StreamElement element(long timed) {
+		return new StreamElement(fields, new Serializable[] { (int) timed }, timed);
+	}
+
+	private int count() throws SQLException {
+		Connection connection = storage.getConnection();
+		try {
+			ResultSet rs = storage.executeQueryWithResultSet(new StringBuilder("select count(*) from written"), connection);
+			rs.next();
+			int toReturn = rs.getInt(1);
+			rs.close();
+			return toReturn;
+		} finally {
+			storage.close(connection);
+		}
+	}
+
+	@Test
+	public void testWrite() throws SQLException {
+		VirtualSensorWriter writer = new VirtualSensorWriter(ContainerImpl.getInstance(), config(null));
+		writer.write(element(1));
+		writer.write(element(2));
+		assertEquals(2, count());
+		assertEquals(2, published.size());
+		try {
+			writer.write(element(2));
+			fail();
+		} catch (SQLException e) {
+			assertTrue(VirtualSensorWriter.isDuplicateEntry(e));
+		}
+		assertEquals(2, published.size());
+	}
+
+	@Test
+	public void testGroupCommit() throws SQLException {
+		// not flushed by the timer during the test
+		VirtualSensorWriter writer = new VirtualSensorWriter(ContainerImpl.getInstance(), config("600000"));
+		writer.write(element(1));
+		writer.write(element(2));
+		assertEquals(0, count());
+		assertTrue(published.isEmpty());
+		// the group is full
+		writer.write(element(3));
+		assertEquals(3, count());
+		assertEquals(3, published.size());
+		writer.write(element(4));
+		writer.flush();
+		assertEquals(4, count());
+		assertEquals(4, (long) published.get(3));
+		// nothing pending
+		writer.flush();
+		assertEquals(4, published.size());
+	}
+
+	@Test
+	public void testGroupWithDuplicate() throws SQLException {
+		VirtualSensorWriter writer = new VirtualSensorWriter(ContainerImpl.getInstance(), config("600000"));
+		writer.write(element(1));
+		writer.flush();
+		writer.write(element(2));
+		writer.write(element(1));
+		writer.write(element(3));
+		// the duplicate alone is dropped
+		assertEquals(3, count());
+		assertEquals(3, published.size());
+		assertEquals(2, (long) published.get(1));
+		assertEquals(3, (long) published.get(2));
+	}
+
+	@Test
+	public void testWriteBatchAfterGroup() throws SQLException {
+		VirtualSensorWriter writer = new VirtualSensorWriter(ContainerImpl.getInstance(), config("600000"));
+		writer.write(element(1));
+		List<StreamElement> batch = new ArrayList<StreamElement>();
+		batch.add(element(2));
+		batch.add(element(3));
+		writer.writeBatch(batch);
+		assertEquals(3, count());
+		// the pending group first
+		assertEquals(1, (long) published.get(0));
+		assertEquals(3, (long) published.get(2));
+	}
+
+	@Test
+	public void testIsDuplicateEntry() {
+		assertTrue(VirtualSensorWriter.isDuplicateEntry(new SQLException("Unique index or primary key violation", "23505")));
+		assertTrue(VirtualSensorWriter.isDuplicateEntry(new SQLException("Duplicate entry '1' for key 'timed'")));
+		assertFalse(VirtualSensorWriter.isDuplicateEntry(new SQLException("Table not found", "42S02")));
+		// the failed insert of a batch
+		BatchUpdateException batch = new BatchUpdateException("batch failed", null, new int[0]);
+		batch.setNextException(new SQLException("Unique index or primary key violation", "23505"));
+		assertTrue(VirtualSensorWriter.isDuplicateEntry(batch));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/acquisition2/TestH2SafeStorageBackend.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gsn.acquisition2.messages.DataMsg;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestH2SafeStorageBackend {
+
+  private SafeStorageDB storage;
+
+  private SafeStorageBackend backend;
+
+  @Before
+  public void setUp() throws Exception {
+    storage = new SafeStorageDB("jdbc:h2:mem:safestorage_test");
+    storage.executeSQL("create table if not exists SETUP (pk INTEGER NOT NULL AUTO_INCREMENT PRIMARY KEY, table_name varchar not null unique, requester varchar not null unique,created_at TIMESTAMP default CURRENT_TIMESTAMP() not null )");
+    backend = new H2SafeStorageBackend(storage);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    storage.dropAllTables();
+    storage.getConnection().close();
+  }
+
+  private static Serializable[] entry(int i) {
+    return new Serializable[] { i, "value " + i, i / 2.0 };
+  }
+
+  private int rows(String requester) throws Exception {
+    Statement stmt = storage.getConnection().createStatement();
+    ResultSet rs = stmt.executeQuery("select count(*) from " + storage.prepareTableIfNeeded(requester));
+    rs.next();
+    int rows = rs.getInt(1);
+    stmt.close();
+    return rows;
+  }
+
+  @Test
+  public void testAppendAndRead() throws Exception {
+    SafeStorageLog log = backend.open("requester", true);
+    long[] sequenceNumbers = new long[10];
+    for (int i = 0; i < 10; i++) {
+      sequenceNumbers[i] = log.append(entry(i));
+      if (i > 0)
+        assertTrue(sequenceNumbers[i] > sequenceNumbers[i - 1]);
+    }
+    List<DataMsg> read = log.read(-1, 4);
+    assertEquals(4, read.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(sequenceNumbers[i], read.get(i).getSequenceNumber());
+      assertEquals(i, read.get(i).getData()[0]);
+      assertEquals("value " + i, read.get(i).getData()[1]);
+      assertEquals(i / 2.0, read.get(i).getData()[2]);
+      assertTrue(read.get(i).getCreated_at() > 0);
+    }
+    // reading resumes after the last sequence number received, whether acknowledged or not
+    read = log.read(sequenceNumbers[3], 100);
+    assertEquals(6, read.size());
+    assertEquals(sequenceNumbers[4], read.get(0).getSequenceNumber());
+    assertEquals(sequenceNumbers[9], read.get(5).getSequenceNumber());
+  }
+
+  @Test
+  public void testAcknowledgeKeepsProcessed() throws Exception {
+    SafeStorageLog log = backend.open("requester", true);
+    long[] sequenceNumbers = new long[10];
+    for (int i = 0; i < 10; i++)
+      sequenceNumbers[i] = log.append(entry(i));
+    log.acknowledge(sequenceNumbers[5]);
+    List<DataMsg> read = log.read(-1, 100);
+    assertEquals(4, read.size());
+    assertEquals(sequenceNumbers[6], read.get(0).getSequenceNumber());
+    assertEquals(10, rows("requester"));
+    // acknowledging again or an older entry changes nothing
+    log.acknowledge(sequenceNumbers[2]);
+    assertEquals(4, log.read(-1, 100).size());
+  }
+
+  @Test
+  public void testAcknowledgeDeletesProcessed() throws Exception {
+    SafeStorageLog log = backend.open("requester", false);
+    long[] sequenceNumbers = new long[10];
+    for (int i = 0; i < 10; i++)
+      sequenceNumbers[i] = log.append(entry(i));
+    log.acknowledge(sequenceNumbers[5]);
+    assertEquals(4, rows("requester"));
+    List<DataMsg> read = log.read(-1, 100);
+    assertEquals(4, read.size());
+    assertEquals(sequenceNumbers[6], read.get(0).getSequenceNumber());
+    log.acknowledge(sequenceNumbers[9]);
+    assertEquals(0, rows("requester"));
+    assertEquals(0, log.read(-1, 100).size());
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    SafeStorageLog log = backend.open("requester", true);
+    SafeStorageLog other = backend.open("other", true);
+    long first = log.append(entry(1));
+    log.append(entry(2));
+    other.append(entry(3));
+    log.acknowledge(first);
+    // the unprocessed entries of a requester are found again by a new log
+    List<DataMsg> read = backend.open("requester", true).read(-1, 100);
+    assertEquals(1, read.size());
+    assertEquals(2, read.get(0).getData()[0]);
+    read = backend.open("other", true).read(-1, 100);
+    assertEquals(1, read.size());
+    assertEquals(3, read.get(0).getData()[0]);
+  }
+}
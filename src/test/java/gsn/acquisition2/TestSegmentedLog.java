@@ -0,0 +1,256 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/acquisition2/TestSegmentedLog.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.acquisition2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gsn.acquisition2.messages.DataMsg;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSegmentedLog {
+
+  // a few entries per segment
+  private static final int SEGMENT_SIZE = 256;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Serializable[] entry(long i) {
+    return new Serializable[] { (int) i, "value " + i };
+  }
+
+  private static void assertEntry(long sequenceNumber, DataMsg msg) {
+    assertEquals(sequenceNumber, msg.getSequenceNumber());
+    assertEquals((int) sequenceNumber, msg.getData()[0]);
+    assertEquals("value " + sequenceNumber, msg.getData()[1]);
+  }
+
+  private static File[] segments(File directory) {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".seg");
+      }
+    });
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static long baseSequence(File segment) {
+    return Long.parseLong(segment.getName().substring(0, segment.getName().length() - ".seg".length()));
+  }
+
+  /**
+   * @return the position of the entry in the segment.
+   */
+  private static int position(File segment, long sequenceNumber) throws Exception {
+    RandomAccessFile raf = new RandomAccessFile(segment, "r");
+    try {
+      int position = 0;
+      for (long sequence = baseSequence(segment); sequence < sequenceNumber; sequence++) {
+        raf.seek(position);
+        position += 16 + raf.readInt();
+      }
+      return position;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private SegmentedLog open(File directory, boolean keepProcessed) throws Exception {
+    return new SegmentedLog(directory, "consumer", keepProcessed, SEGMENT_SIZE, 0);
+  }
+
+  @Test
+  public void testSegmentRoll() throws Exception {
+    File directory = folder.newFolder("log");
+    SegmentedLog log = open(directory, true);
+    for (long i = 1; i <= 50; i++)
+      assertEquals(i, log.append(entry(i)));
+    assertTrue(segments(directory).length > 5);
+
+    List<DataMsg> read = log.read(0, 100);
+    assertEquals(50, read.size());
+    for (int i = 0; i < 50; i++)
+      assertEntry(i + 1, read.get(i));
+
+    // reads in chunks crossing the segment boundaries
+    long last = 0;
+    while (last < 50) {
+      read = log.read(last, 7);
+      assertFalse(read.isEmpty());
+      for (DataMsg msg : read)
+        assertEntry(++last, msg);
+    }
+
+    log.acknowledge(23);
+    read = log.read(0, 100);
+    assertEquals(27, read.size());
+    assertEntry(24, read.get(0));
+    log.close();
+
+    // the entries and the checkpoint survive a restart
+    log = open(directory, true);
+    read = log.read(0, 100);
+    assertEquals(27, read.size());
+    assertEntry(24, read.get(0));
+    assertEquals(51, log.append(entry(51)));
+    assertEntry(51, log.read(50, 100).get(0));
+    log.close();
+  }
+
+  @Test
+  public void testTruncatedTail() throws Exception {
+    File directory = folder.newFolder("log");
+    SegmentedLog log = open(directory, true);
+    for (long i = 1; i <= 20; i++)
+      log.append(entry(i));
+    log.close();
+    File[] files = segments(directory);
+    File lastSegment = files[files.length - 1];
+    assertTrue(baseSequence(lastSegment) < 20);
+
+    // a crash in the middle of the last entry
+    RandomAccessFile raf = new RandomAccessFile(lastSegment, "rw");
+    raf.setLength(position(lastSegment, 20) + 20);
+    raf.close();
+
+    log = open(directory, true);
+    List<DataMsg> read = log.read(0, 100);
+    assertEquals(19, read.size());
+    assertEntry(19, read.get(18));
+    // the lost entry's sequence number is reused
+    assertEquals(20, log.append(entry(20)));
+    assertEquals(21, log.append(entry(21)));
+    read = log.read(18, 100);
+    assertEquals(3, read.size());
+    assertEntry(21, read.get(2));
+    log.close();
+  }
+
+  @Test
+  public void testCorruptedTail() throws Exception {
+    File directory = folder.newFolder("log");
+    SegmentedLog log = open(directory, true);
+    for (long i = 1; i <= 20; i++)
+      log.append(entry(i));
+    log.close();
+
+    File[] files = segments(directory);
+    File lastSegment = files[files.length - 1];
+    int position = position(lastSegment, 20);
+    RandomAccessFile raf = new RandomAccessFile(lastSegment, "rw");
+    // flips a byte of the values of the last entry
+    raf.seek(position + 16);
+    int value = raf.read();
+    raf.seek(position + 16);
+    raf.write(value ^ 0xff);
+    raf.close();
+
+    log = open(directory, true);
+    List<DataMsg> read = log.read(0, 100);
+    assertEquals(19, read.size());
+    assertEntry(19, read.get(18));
+    assertEquals(20, log.append(entry(20)));
+    assertEntry(20, log.read(19, 100).get(0));
+    log.close();
+  }
+
+  @Test
+  public void testDeleteProcessed() throws Exception {
+    File directory = folder.newFolder("log");
+    SegmentedLog log = open(directory, false);
+    for (long i = 1; i <= 50; i++)
+      log.append(entry(i));
+    int segmentCount = segments(directory).length;
+
+    // another consumer holds the segments back
+    log.acknowledge("other", 0);
+    log.acknowledge(30);
+    assertEquals(segmentCount, segments(directory).length);
+
+    log.acknowledge("other", 30);
+    File[] files = segments(directory);
+    assertTrue(files.length < segmentCount);
+    // only the segments holding processed entries are deleted
+    assertTrue(baseSequence(files[0]) <= 31);
+    List<DataMsg> read = log.read(0, 100);
+    assertEquals(20, read.size());
+    assertEntry(31, read.get(0));
+
+    // the last segment is kept for the next appends
+    log.acknowledge(50);
+    log.acknowledge("other", 50);
+    assertEquals(1, segments(directory).length);
+    assertEquals(0, log.read(0, 100).size());
+    log.close();
+
+    // the sequence numbers go on after a restart
+    log = open(directory, false);
+    assertEquals(0, log.read(0, 100).size());
+    assertEquals(51, log.append(entry(51)));
+    log.close();
+  }
+
+  @Test
+  public void testBackendClear() throws Exception {
+    File directory = folder.newFolder("logs");
+    SegmentedSafeStorageBackend backend = new SegmentedSafeStorageBackend(directory, SEGMENT_SIZE, 0);
+    SafeStorageLog first = backend.open("ss_mem_vs/data/mem1", true);
+    SafeStorageLog second = backend.open("ss_mem_vs/data/mem2", false);
+    assertTrue(first == backend.open("ss_mem_vs/data/mem1", true));
+    for (long i = 1; i <= 20; i++) {
+      first.append(entry(i));
+      second.append(entry(i));
+    }
+    assertEquals(2, directory.listFiles().length);
+
+    backend.clear();
+    assertEquals(0, directory.listFiles().length);
+    try {
+      first.append(entry(21));
+      fail("a cleared log is closed");
+    } catch (IOException e) {
+    }
+
+    SafeStorageLog log = backend.open("ss_mem_vs/data/mem1", true);
+    assertEquals(0, log.read(0, 100).size());
+    assertEquals(1, log.append(entry(1)));
+    backend.clear();
+  }
+}
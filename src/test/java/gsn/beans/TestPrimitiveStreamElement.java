@@ -0,0 +1,98 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/TestPrimitiveStreamElement.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+
+import org.junit.Test;
+
+public class TestPrimitiveStreamElement {
+
+	private static final DataField[] fields = new DataField[] { new DataField("Temp", DataTypes.DOUBLE), new DataField("level", DataTypes.INTEGER),
+			new DataField("name", DataTypes.VARCHAR), new DataField("count", DataTypes.BIGINT), new DataField("flag", DataTypes.TINYINT) };
+
+	@Test
+	public void testSchemaIsShared() {
+		StreamElement se1 = new StreamElement(fields, new Serializable[] { 1.5, 2, "a", 3L, (byte) 1 }, 10);
+		StreamElement se2 = new StreamElement(fields, new Serializable[] { 2.5, null, "b", 4L, (byte) 0 }, 20);
+		assertSame(se1.getFieldNames(), se2.getFieldNames());
+		assertSame(StreamElementSchema.of(fields), StreamElementSchema.of(fields));
+		assertEquals("temp", se1.getFieldNames()[0]);
+		assertEquals(1.5, se1.getData("TEMP"));
+		assertEquals("b", se2.getData(" Name "));
+		assertEquals(Byte.valueOf(DataTypes.BIGINT), se2.getType("count"));
+		assertNull(se2.getData("level"));
+		assertNull(se2.getData("unknown"));
+		// keyed by the names and types rather than by the array
+		DataField[] copy = new DataField[] { new DataField("Temp", DataTypes.DOUBLE), new DataField("level", DataTypes.INTEGER),
+				new DataField("name", DataTypes.VARCHAR), new DataField("count", DataTypes.BIGINT), new DataField("flag", DataTypes.TINYINT) };
+		assertSame(StreamElementSchema.of(fields), StreamElementSchema.of(copy));
+		copy[1] = new DataField("level", DataTypes.DOUBLE);
+		assertNotSame(StreamElementSchema.of(fields), StreamElementSchema.of(copy));
+		assertEquals(DataTypes.DOUBLE, StreamElementSchema.of(copy).getFieldType(1));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		StreamElementSchema schema = StreamElementSchema.of(fields);
+		StreamElement se = new StreamElement(fields, new Serializable[] { 21.25, -7, "sensor", 1L << 40, (byte) 3 }, 1234);
+		PrimitiveStreamElement pse = PrimitiveStreamElement.from(schema, se);
+		assertEquals(21.25, pse.getDouble(0), 0);
+		assertEquals(-7, pse.getLong(1));
+		assertEquals(-7.0, pse.getDouble(1), 0);
+		assertEquals("sensor", pse.getString(2));
+		assertEquals(1L << 40, pse.getLong(3));
+		assertEquals(1234, pse.getTimeStamp());
+		StreamElement view = pse.toStreamElement();
+		assertArrayEquals(se.getData(), view.getData());
+		assertEquals(se.getTimeStamp(), view.getTimeStamp());
+		assertSame(se.getFieldNames(), view.getFieldNames());
+	}
+
+	@Test
+	public void testNulls() {
+		StreamElementSchema schema = StreamElementSchema.of(fields);
+		PrimitiveStreamElement pse = new PrimitiveStreamElement(schema, 1);
+		for (int i = 0; i < schema.getFieldCount(); i++)
+			assertTrue(pse.isNull(i));
+		pse.setDouble(0, 3.5);
+		pse.setString(2, "x");
+		assertFalse(pse.isNull(0));
+		assertTrue(pse.isNull(1));
+		assertEquals(3.5, pse.getData("temp"));
+		pse.setNull(2);
+		assertNull(pse.getData(2));
+		assertArrayEquals(new Serializable[] { 3.5, null, null, null, null }, pse.toStreamElement().getData());
+	}
+}
@@ -0,0 +1,121 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/TestCompiledQuery.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCompiledQuery {
+
+	private static final DataField[] fields = new DataField[] { new DataField("temp", DataTypes.DOUBLE), new DataField("station", "varchar(10)"),
+			new DataField("counter", DataTypes.INTEGER) };
+
+	private List<StreamElement> window;
+
+	@Before
+	public void setup() {
+		window = new ArrayList<StreamElement>();
+		// newest element first, as selected by the windows
+		for (int i = 10; i >= 1; i--)
+			window.add(new StreamElement(fields, new Serializable[] { i * 1.5, i % 2 == 0 ? "even" : "odd", i == 5 ? null : i }, i * 1000));
+	}
+
+	@Test
+	public void testUnsupportedQueries() {
+		assertNull(CompiledQuery.compile("select * from wrapper where temp > 1 or counter < 2", fields));
+		assertNull(CompiledQuery.compile("select temp, avg(counter) from wrapper", fields));
+		assertNull(CompiledQuery.compile("select * from wrapper w1, wrapper w2", fields));
+		assertNull(CompiledQuery.compile("select unknown from wrapper", fields));
+		assertNull(CompiledQuery.compile("select avg(station) from wrapper", fields));
+		assertNull(CompiledQuery.compile("select abs(temp) from wrapper", fields));
+		assertNull(CompiledQuery.compile("select * from wrapper order by temp", fields));
+		assertNull(CompiledQuery.compile("select * from wrapper where station > 3", fields));
+	}
+
+	@Test
+	public void testProjection() {
+		CompiledQuery query = CompiledQuery.compile("select timed, temp as t, wrapper.station from wrapper where counter >= 4 and station = 'even';", fields);
+		assertNotNull(query);
+		List<StreamElement> result = query.evaluate(window);
+		assertEquals(4, result.size()); // 10, 8, 6 and 4
+		assertEquals(10000, result.get(0).getTimeStamp());
+		assertEquals(2, result.get(0).getFieldNames().length);
+		assertEquals(15.0, result.get(0).getData("t"));
+		assertEquals("even", result.get(3).getData("station"));
+		assertEquals(4000, result.get(3).getTimeStamp());
+
+		result = CompiledQuery.compile("select * from wrapper where counter is null", fields).evaluate(window);
+		assertEquals(1, result.size());
+		assertEquals(5000, result.get(0).getTimeStamp());
+		assertEquals(3, result.get(0).getFieldNames().length);
+	}
+
+	@Test
+	public void testAggregates() {
+		CompiledQuery query = CompiledQuery.compile("select count(*), count(counter) as c, sum(counter), avg(temp), min(station), max(timed) as timed from wrapper where temp > -1", fields);
+		assertNotNull(query);
+		assertTrue(query.isAggregate());
+		List<StreamElement> result = query.evaluate(window);
+		assertEquals(1, result.size());
+		StreamElement se = result.get(0);
+		assertEquals(10000, se.getTimeStamp());
+		assertEquals(10L, se.getData("count(*)"));
+		assertEquals(9L, se.getData("c"));
+		assertEquals(50L, se.getData("sum(counter)"));
+		assertEquals(8.25, (Double) se.getData("avg(temp)"), 0.0001);
+		assertEquals("even", se.getData("min(station)"));
+
+		// like SQL, aggregating an empty window gives a single row
+		result = query.evaluate(new ArrayList<StreamElement>());
+		assertEquals(1, result.size());
+		assertEquals(0L, result.get(0).getData("count(*)"));
+		assertNull(result.get(0).getData("avg(temp)"));
+	}
+
+	@Test
+	public void testVirtualSensorTable() {
+		assertNull(CompiledQuery.compile("select * from wrapper where temp > 3", "memoryusage", fields));
+		assertNull(CompiledQuery.compile("select wrapper.temp from memoryusage", "memoryusage", fields));
+		CompiledQuery query = CompiledQuery.compile("select MemoryUsage.temp from MemoryUsage where counter > 8", "memoryusage", fields);
+		assertNotNull(query);
+		List<StreamElement> result = query.evaluate(window);
+		assertEquals(2, result.size());
+		assertEquals(15.0, result.get(0).getData("temp"));
+	}
+}
@@ -0,0 +1,97 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/TestMemoryWindow.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import static org.junit.Assert.assertEquals;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMemoryWindow {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.INTEGER) };
+
+	private MemoryWindow window;
+
+	@Before
+	public void setup() {
+		window = new MemoryWindow();
+		// more than the initial capacity, so that the ring has to grow
+		for (int i = 1; i <= 40; i++)
+			window.add(new StreamElement(fields, new Serializable[] { i }, i * 10));
+	}
+
+	@Test
+	public void testTimestamps() {
+		assertEquals(40, window.size());
+		assertEquals(400, window.getNewestTimestamp());
+		assertEquals(400, window.getTimestamp(0, Long.MAX_VALUE));
+		assertEquals(380, window.getTimestamp(2, Long.MAX_VALUE));
+		assertEquals(250, window.getTimestamp(0, 255));
+		assertEquals(240, window.getTimestamp(1, 250));
+		assertEquals(-1, window.getTimestamp(40, Long.MAX_VALUE));
+		assertEquals(-1, window.getTimestamp(0, 5));
+	}
+
+	@Test
+	public void testSelect() {
+		List<StreamElement> content = window.select(Long.MIN_VALUE, Long.MAX_VALUE, 3, 1);
+		assertEquals(3, content.size());
+		assertEquals(400, content.get(0).getTimeStamp());
+		assertEquals(380, content.get(2).getTimeStamp());
+
+		content = window.select(100, 200, -1, 1);
+		assertEquals(11, content.size());
+		assertEquals(200, content.get(0).getTimeStamp());
+		assertEquals(100, content.get(10).getTimeStamp());
+
+		// only the timestamps with timed % 100 < 50 are kept
+		content = window.select(Long.MIN_VALUE, Long.MAX_VALUE, 10, 0.5f);
+		assertEquals(5, content.size());
+		assertEquals(400, content.get(0).getTimeStamp());
+		assertEquals(340, content.get(1).getTimeStamp());
+	}
+
+	@Test
+	public void testRemoveOlderThan() {
+		assertEquals(10, window.removeOlderThan(110));
+		assertEquals(30, window.size());
+		assertEquals(110, window.getTimestamp(29, Long.MAX_VALUE));
+		window.add(new StreamElement(fields, new Serializable[] { 41 }, 410));
+		assertEquals(410, window.getNewestTimestamp());
+		assertEquals(31, window.select(Long.MIN_VALUE, Long.MAX_VALUE, -1, 1).size());
+		assertEquals(31, window.removeOlderThan(Long.MAX_VALUE));
+		assertEquals(Long.MIN_VALUE, window.getNewestTimestamp());
+		assertEquals(0, window.select(Long.MIN_VALUE, Long.MAX_VALUE, -1, 1).size());
+	}
+}
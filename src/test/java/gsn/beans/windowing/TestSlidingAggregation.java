@@ -0,0 +1,96 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/beans/windowing/TestSlidingAggregation.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.beans.windowing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestSlidingAggregation {
+
+	private static final DataField[] fields = new DataField[] { new DataField("temp", DataTypes.DOUBLE), new DataField("level", DataTypes.INTEGER) };
+
+	private static final String QUERY = "select count(*), count(level), sum(level), avg(temp), var_samp(temp), stddev_pop(level), min(temp), max(level) from wrapper where temp > 10";
+
+	/**
+	 * Slides tuple and time based windows over a random stream and compares the
+	 * incremental results with the evaluation of the whole window.
+	 */
+	@Test
+	public void testAgainstFullEvaluation() {
+		CompiledQuery query = CompiledQuery.compile(QUERY, fields);
+		MemoryWindow window = new MemoryWindow();
+		SlidingAggregation tupleBased = new SlidingAggregation(query);
+		SlidingAggregation timeBased = new SlidingAggregation(query);
+		Random random = new Random(42);
+		long timed = 0;
+		for (int i = 0; i < 2000; i++) {
+			timed += 1 + random.nextInt(20);
+			Integer level = random.nextInt(10) == 0 ? null : random.nextInt(1000) - 500;
+			window.add(new StreamElement(fields, new Serializable[] { random.nextDouble() * 40, level }, timed));
+
+			long lowerBound = window.getTimestamp(99, timed);
+			lowerBound = lowerBound == -1 ? Long.MIN_VALUE : lowerBound;
+			assertSame(query.evaluate(window.select(lowerBound, timed, -1, 1)).get(0), tupleBased.slide(window, lowerBound, timed, 1));
+			if (i % 3 == 0)
+				assertSame(query.evaluate(window.select(timed - 500, timed, -1, 0.5f)).get(0), timeBased.slide(window, timed - 500, timed, 0.5f));
+			if (i % 100 == 0)
+				window.removeOlderThan(timed - 3000);
+		}
+	}
+
+	@Test
+	public void testEmptyWindow() {
+		CompiledQuery query = CompiledQuery.compile(QUERY, fields);
+		MemoryWindow window = new MemoryWindow();
+		SlidingAggregation aggregation = new SlidingAggregation(query);
+		window.add(new StreamElement(fields, new Serializable[] { 20.0, 1 }, 10));
+		assertEquals(1L, aggregation.slide(window, 0, 10, 1).getData("count(*)"));
+		StreamElement se = aggregation.slide(window, 11, 20, 1);
+		assertEquals(0, aggregation.size());
+		assertEquals(0L, se.getData("count(*)"));
+		assertNull(se.getData("avg(temp)"));
+		assertNull(se.getData("max(level)"));
+	}
+
+	private static void assertSame(StreamElement expected, StreamElement actual) {
+		for (String name : expected.getFieldNames()) {
+			Serializable value = expected.getData(name);
+			if (value instanceof Double)
+				assertEquals(name, (Double) value, (Double) actual.getData(name), 1e-6);
+			else
+				assertEquals(name, value, actual.getData(name));
+		}
+	}
+}
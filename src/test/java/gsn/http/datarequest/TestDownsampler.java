@@ -0,0 +1,96 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/http/datarequest/TestDownsampler.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.http.datarequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestDownsampler {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.DOUBLE) };
+
+	private static List<Long> run(Downsampler sampler, double[] values) {
+		List<Long> kept = new ArrayList<Long>();
+		for (int i = 0; i < values.length; i++) {
+			StreamElement se = sampler.offer(new StreamElement(fields, new Serializable[] { values[i] }, i));
+			if (se != null)
+				kept.add(se.getTimeStamp());
+		}
+		StreamElement last = sampler.finish();
+		if (last != null)
+			kept.add(last.getTimeStamp());
+		return kept;
+	}
+
+	@Test
+	public void testSkip() {
+		List<Long> kept = run(Downsampler.skip(100, 10), new double[100]);
+		assertEquals(10, kept.size());
+		assertEquals(9L, (long) kept.get(0));
+		assertEquals(99L, (long) kept.get(9));
+
+		// the last group is incomplete
+		kept = run(Downsampler.skip(105, 10), new double[105]);
+		assertEquals(10, kept.size());
+		assertEquals(104L, (long) kept.get(9));
+
+		kept = run(Downsampler.skip(5, 10), new double[5]);
+		assertEquals(5, kept.size());
+	}
+
+	@Test
+	public void testLargestTriangle() {
+		double[] values = new double[100];
+		values[55] = 100;
+		long[] keys = new long[10];
+		double[] times = new double[10];
+		double[] averages = new double[10];
+		for (int b = 0; b < 10; b++) {
+			keys[b] = b;
+			times[b] = b * 10 + 4.5;
+			for (int i = 0; i < 10; i++)
+				averages[b] += values[b * 10 + i] / 10;
+		}
+		List<Long> kept = run(Downsampler.lttb("value", 10, keys, times, averages, 10), values);
+		// the first row, one per bucket, the last bucket giving the last row
+		assertEquals(11, kept.size());
+		assertEquals(0L, (long) kept.get(0));
+		assertTrue(kept.contains(55L));
+		assertEquals(99L, (long) kept.get(10));
+		for (int i = 1; i < kept.size(); i++)
+			assertTrue(kept.get(i - 1) < kept.get(i));
+	}
+}
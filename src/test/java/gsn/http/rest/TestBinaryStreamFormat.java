@@ -0,0 +1,138 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/http/rest/TestBinaryStreamFormat.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.http.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class TestBinaryStreamFormat {
+
+	private static final DataField[] fields = new DataField[] {
+		new DataField("temperature", DataTypes.DOUBLE),
+		new DataField("counter", DataTypes.INTEGER),
+		new DataField("total", DataTypes.BIGINT),
+		new DataField("label", DataTypes.VARCHAR),
+		new DataField("image", DataTypes.BINARY) };
+
+	private static StreamElement row(long timed, Serializable... values) {
+		return new StreamElement(fields, values, timed);
+	}
+
+	private static byte[] encode(boolean deflate, StreamElement[][] batches) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DeflaterOutputStream deflater = deflate ? new DeflaterOutputStream(bytes, true) : null;
+		BinaryStreamFormat.Encoder encoder = new BinaryStreamFormat.Encoder(deflate ? deflater : bytes);
+		encoder.writeStructure(fields);
+		for (StreamElement[] batch : batches) {
+			for (StreamElement se : batch)
+				encoder.addRow(se);
+			encoder.flush();
+		}
+		if (deflate)
+			deflater.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (boolean deflate : new boolean[] { false, true }) {
+			StreamElement[][] batches = new StreamElement[][] {
+				{ row(1000, 21.5, 1, 1L << 40, "a", new byte[] { 1, 2 }), row(990, -3.0, -7, -1L, "\u00e9t\u00e9", new byte[0]) },
+				{},
+				{ row(5000, null, 3, null, null, null) } };
+			byte[] encoded = encode(deflate, batches);
+
+			BinaryStreamFormat.Decoder decoder = new BinaryStreamFormat.Decoder(deflate ? new InflaterInputStream(new ByteArrayInputStream(encoded)) : new ByteArrayInputStream(encoded));
+			DataField[] structure = decoder.readStructure();
+			assertEquals(fields.length, structure.length);
+			assertEquals("label", structure[3].getName());
+			assertEquals(DataTypes.BIGINT, structure[2].getDataTypeID());
+
+			ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+			assertTrue(decoder.readBatch(rows));
+			assertEquals(2, rows.size());
+			assertEquals(1000, rows.get(0).getTimeStamp());
+			assertEquals(990, rows.get(1).getTimeStamp());
+			assertEquals(21.5, (Double) rows.get(0).getData("temperature"), 0);
+			assertEquals(-7, rows.get(1).getData("counter"));
+			assertEquals(1L << 40, rows.get(0).getData("total"));
+			assertEquals("\u00e9t\u00e9", rows.get(1).getData("label"));
+			assertArrayEquals(new byte[] { 1, 2 }, (byte[]) rows.get(0).getData("image"));
+
+			rows.clear();
+			assertTrue(decoder.readBatch(rows));
+			assertEquals(0, rows.size());
+
+			assertTrue(decoder.readBatch(rows));
+			assertEquals(5000, rows.get(0).getTimeStamp());
+			assertNull(rows.get(0).getData("temperature"));
+			assertEquals(3, rows.get(0).getData("counter"));
+
+			rows.clear();
+			assertFalse(decoder.readBatch(rows));
+		}
+	}
+
+	@Test
+	public void testFieldsByName() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryStreamFormat.Encoder encoder = new BinaryStreamFormat.Encoder(bytes);
+		encoder.setStructure(new DataField[] { fields[1], fields[0] });
+		encoder.addRow(row(7, 1.5, 2, 3L, "x", null));
+		encoder.flush();
+
+		BinaryStreamFormat.Decoder decoder = new BinaryStreamFormat.Decoder(new ByteArrayInputStream(bytes.toByteArray()));
+		decoder.setStructure(new DataField[] { fields[1], fields[0] });
+		ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+		decoder.readBatch(rows);
+		assertEquals(2, rows.get(0).getData("counter"));
+		assertEquals(1.5, (Double) rows.get(0).getData("temperature"), 0);
+	}
+
+	@Test
+	public void testNegotiate() {
+		assertNull(BinaryStreamFormat.negotiate(null));
+		assertNull(BinaryStreamFormat.negotiate("text/xml, */*"));
+		assertEquals(BinaryStreamFormat.CONTENT_TYPE, BinaryStreamFormat.negotiate(BinaryStreamFormat.getAcceptHeader(false)));
+		assertEquals(BinaryStreamFormat.CONTENT_TYPE_DEFLATE, BinaryStreamFormat.negotiate(BinaryStreamFormat.getAcceptHeader(true)));
+	}
+}
@@ -0,0 +1,279 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/http/rest/TestRestDelivery.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.http.rest;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRestDelivery {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.INTEGER) };
+
+	/**
+	 * Counts the resumes and the completions.
+	 */
+	private static class TestContinuation implements Continuation {
+
+		final ServletResponse response;
+
+		int resumed = 0;
+
+		int completed = 0;
+
+		TestContinuation(ServletResponse response) {
+			this.response = response;
+		}
+
+		public void setTimeout(long timeoutMs) {
+		}
+
+		public void suspend() {
+		}
+
+		public void suspend(ServletResponse response) {
+		}
+
+		public void resume() {
+			resumed++;
+		}
+
+		public void complete() {
+			completed++;
+		}
+
+		public boolean isSuspended() {
+			return true;
+		}
+
+		public boolean isResumed() {
+			return false;
+		}
+
+		public boolean isExpired() {
+			return false;
+		}
+
+		public boolean isInitial() {
+			return false;
+		}
+
+		public boolean isResponseWrapped() {
+			return false;
+		}
+
+		public ServletResponse getServletResponse() {
+			return response;
+		}
+
+		public void addContinuationListener(ContinuationListener listener) {
+		}
+
+		public void setAttribute(String name, Object attribute) {
+		}
+
+		public Object getAttribute(String name) {
+			return null;
+		}
+
+		public void removeAttribute(String name) {
+		}
+
+		public void undispatch() {
+		}
+	}
+
+	private ByteArrayOutputStream bytes;
+
+	private TestContinuation continuation;
+
+	private RestDelivery delivery;
+
+	@Before
+	public void setUp() throws IOException {
+		bytes = new ByteArrayOutputStream();
+		ServletResponse response = createNiceMock(ServletResponse.class);
+		expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+			public void write(int b) throws IOException {
+				bytes.write(b);
+			}
+		}).anyTimes();
+		replay(response);
+		continuation = new TestContinuation(response);
+		delivery = new RestDelivery(continuation, BinaryStreamFormat.CONTENT_TYPE, 1000);
+		delivery.writeStructure(fields);
+	}
+
+	private static StreamElement element(int i) {
+		return new StreamElement(fields, new Serializable[] { i }, i);
+	}
+
+	/**
+	 * Queues elements from..to, the queue being full after the last one when
+	 * starting from 1.
+	 */
+	private void fill(int from, int to) {
+		for (int i = from; i <= to; i++)
+			assertTrue(delivery.writeStreamElement(element(i)));
+	}
+
+	/**
+	 * @return the values written to the subscriber.
+	 */
+	private List<Integer> written() throws IOException {
+		BinaryStreamFormat.Decoder decoder = new BinaryStreamFormat.Decoder(new ByteArrayInputStream(bytes.toByteArray()));
+		decoder.readStructure();
+		List<StreamElement> rows = new ArrayList<StreamElement>();
+		while (decoder.readBatch(rows))
+			;
+		List<Integer> toReturn = new ArrayList<Integer>();
+		for (StreamElement se : rows)
+			toReturn.add((Integer) se.getData("value"));
+		return toReturn;
+	}
+
+	@Test
+	public void testQueueAndDrain() throws IOException {
+		delivery.writeStreamElement(element(1));
+		delivery.writeStreamElement(element(2));
+		// resumed once until drained
+		assertEquals(1, continuation.resumed);
+		assertTrue(delivery.drain());
+		delivery.writeStreamElement(element(3));
+		assertEquals(2, continuation.resumed);
+		assertTrue(delivery.drain());
+		assertEquals(3, written().size());
+		assertEquals(3, (int) written().get(2));
+		assertEquals(0, continuation.completed);
+	}
+
+	@Test
+	public void testBufferPolicy() throws IOException {
+		delivery.setPolicy(RestDelivery.SlowConsumerPolicy.buffer);
+		fill(1, RestDelivery.getOutboundBufferSize() - 1);
+		assertTrue(delivery.isWritable());
+		fill(RestDelivery.getOutboundBufferSize(), RestDelivery.getOutboundBufferSize());
+		// the distributer keeps the next elements
+		assertFalse(delivery.isWritable());
+		delivery.drain();
+		assertTrue(delivery.isWritable());
+		assertEquals(RestDelivery.getOutboundBufferSize(), written().size());
+	}
+
+	@Test
+	public void testDropPolicy() throws IOException {
+		delivery.setPolicy(RestDelivery.SlowConsumerPolicy.drop);
+		int size = RestDelivery.getOutboundBufferSize();
+		fill(1, size + 10);
+		assertFalse(delivery.isClosed());
+		delivery.drain();
+		List<Integer> written = written();
+		assertEquals(size, written.size());
+		assertEquals(size, (int) written.get(size - 1));
+	}
+
+	@Test
+	public void testCoalescePolicy() throws IOException {
+		delivery.setPolicy(RestDelivery.SlowConsumerPolicy.coalesce);
+		int size = RestDelivery.getOutboundBufferSize();
+		fill(1, size + 10);
+		assertTrue(delivery.isWritable());
+		delivery.drain();
+		List<Integer> written = written();
+		assertEquals(10, written.size());
+		// the first element over the size replaced the full queue
+		assertEquals(size + 1, (int) written.get(0));
+		assertEquals(size + 10, (int) written.get(9));
+	}
+
+	@Test
+	public void testDisconnectPolicy() throws IOException {
+		delivery.setPolicy(RestDelivery.SlowConsumerPolicy.disconnect);
+		int size = RestDelivery.getOutboundBufferSize();
+		fill(1, size);
+		assertFalse(delivery.writeStreamElement(element(size + 1)));
+		assertTrue(delivery.isClosed());
+		assertFalse(delivery.writeStreamElement(element(size + 2)));
+		assertFalse(delivery.drain());
+		assertEquals(1, continuation.completed);
+		assertTrue(written().isEmpty());
+	}
+
+	@Test
+	public void testWritableListener() throws IOException {
+		final AtomicInteger calls = new AtomicInteger();
+		delivery.setWritableListener(new Runnable() {
+			public void run() {
+				calls.incrementAndGet();
+			}
+		});
+		delivery.writeStreamElement(element(1));
+		delivery.drain();
+		// the queue wasn't full
+		assertEquals(0, calls.get());
+		fill(1, RestDelivery.getOutboundBufferSize());
+		assertFalse(delivery.isWritable());
+		delivery.drain();
+		assertEquals(1, calls.get());
+		assertTrue(delivery.isWritable());
+	}
+
+	@Test
+	public void testKeepAlive() throws IOException {
+		assertTrue(delivery.writeKeepAliveStreamElement());
+		assertEquals(1, continuation.resumed);
+		delivery.drain();
+		// not a row
+		assertTrue(written().isEmpty());
+		delivery.close();
+		assertFalse(delivery.writeKeepAliveStreamElement());
+		assertFalse(delivery.drain());
+		assertEquals(1, continuation.completed);
+	}
+}
@@ -192,6 +192,48 @@ public class TestScriptletProcessor {
         processor.evaluate(processor.scriptlet, se, true);
     }
 
+    @Test
+    public void testCompileStatic() {
+        TreeMap<String,String> parameters = new TreeMap<String,String>();
+        parameters.put("scriptlet", "def x = 2; SPEED = SPEED * x + TEMPERATURE; if (ANGLE < 0) { ATM = -ANGLE.doubleValue(); TIMED = 42L; return; }; ATM = 0d;");
+        parameters.put("compile-static", "true");
+        parameters.put("threads", "4");
+        ScriptletProcessor processor = new ScriptletProcessor();
+        assertTrue(processor.initialize(dataFields2, parameters));
+
+        StreamElement se = new StreamElement(dataFields1, data1);
+        se.setTimeStamp(123456L);
+        StreamElement seo = processor.evaluateStatic(se);
+        assertEquals(23, seo.getData("temperature"));
+        assertEquals(2.34 * 2 + 23, (Double) seo.getData("speed"), 1e-9);
+        assertEquals(9.0, seo.getData("atm"));
+        assertEquals(42L, seo.getTimeStamp());
+
+        StreamElement[] window = new StreamElement[1000];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = new StreamElement(dataFields1, new Serializable[]{i, 1.0, i % 2, 0.0});
+            window[i].setTimeStamp(i + 1);
+        }
+        StreamElement[] results = processor.evaluate(window);
+        for (int i = 0; i < window.length; i++) {
+            assertEquals(2.0 + i, (Double) results[i].getData("speed"), 1e-9);
+            assertEquals(0.0, results[i].getData("atm"));
+            assertEquals(i + 1, results[i].getTimeStamp());
+        }
+        processor.dispose();
+    }
+
+    @Test
+    public void testCompileStaticWithTypeError() {
+        TreeMap<String,String> parameters = new TreeMap<String,String>();
+        parameters.put("scriptlet", "TEMPERATURE = 'not an integer';");
+        parameters.put("compile-static", "true");
+        ScriptletProcessor processor = new ScriptletProcessor();
+        assertTrue(processor.initialize(dataFields2, parameters));
+        assertNull(processor.evaluateStatic(new StreamElement(dataFields1, data1)));
+        processor.dispose();
+    }
+
     //
 
     private ScriptletProcessor getProcessor(DataField[] outputStructure, String scriptlet) {
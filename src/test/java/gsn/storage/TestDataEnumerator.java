@@ -0,0 +1,162 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/storage/TestDataEnumerator.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gsn.Main;
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+import gsn.storage.db.H2StorageManager;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDataEnumerator {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.DOUBLE), new DataField("name", "varchar(10)"), new DataField("image", DataTypes.BINARY) };
+
+	private static final String URL = "jdbc:h2:mem:data_enumerator;DB_CLOSE_DELAY=-1";
+
+	private StorageManager sm;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		sm = StorageManagerFactory.getInstance("org.h2.Driver", "sa", "", URL, Main.DEFAULT_MAX_DB_CONNECTIONS);
+		sm.executeCreateTable("streamed", fields, true);
+		for (int i = 1; i <= 5; i++)
+			sm.executeInsert("streamed", fields, new StreamElement(fields, new Serializable[] { i == 3 ? null : (double) i, "n" + i, new byte[] { (byte) i } }, i * 10));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sm.executeDropTable("streamed");
+	}
+
+	@Test
+	public void testStreamedQuery() throws Exception {
+		DataEnumerator result = sm.streamedExecuteQuery("select name, pk, timed, value from streamed order by timed asc", false);
+		List<StreamElement> rows = new ArrayList<StreamElement>();
+		while (result.hasMoreElements())
+			rows.add(result.nextElement());
+		result.close();
+		assertEquals(5, rows.size());
+		for (int i = 1; i <= 5; i++) {
+			StreamElement se = rows.get(i - 1);
+			// pk and timed aren't fields
+			assertEquals(2, se.getFieldNames().length);
+			assertEquals(i * 10, se.getTimeStamp());
+			assertEquals("n" + i, se.getData("name"));
+			assertEquals(i == 3 ? null : (Double) (double) i, se.getData("value"));
+		}
+		assertNotSame(rows.get(0), rows.get(1));
+	}
+
+	@Test
+	public void testBinaryLinks() throws Exception {
+		DataEnumerator result = sm.streamedExecuteQuery("select pk, timed, image from streamed order by timed asc", true);
+		long pk = 0;
+		while (result.hasMoreElements()) {
+			StreamElement se = result.nextElement();
+			assertTrue(se.getInternalPrimayKey() > pk);
+			pk = se.getInternalPrimayKey();
+			// as named by H2
+			assertEquals("field?vs=STREAMED&amp;field=IMAGE&amp;pk=" + pk, se.getData("image"));
+		}
+		result.close();
+	}
+
+	@Test
+	public void testReuseStreamElement() throws Exception {
+		DataEnumerator result = sm.streamedExecuteQuery("select timed, value, name from streamed order by timed asc", false);
+		result.setReuseStreamElement(true);
+		StreamElement first = result.nextElement();
+		assertEquals("n1", first.getData("name"));
+		StreamElement se = null;
+		while (result.hasMoreElements()) {
+			se = result.nextElement();
+			assertSame(first, se);
+			// the null of the third row isn't kept
+			if (se.getTimeStamp() == 40)
+				assertEquals(4.0, se.getData("value"));
+		}
+		result.close();
+		assertEquals(50, se.getTimeStamp());
+		assertEquals("n5", se.getData("name"));
+	}
+
+	@Test
+	public void testTransactionalStreaming() throws Exception {
+		StorageManager transactional = new H2StorageManager() {
+			protected boolean isStreamingTransactional() {
+				return true;
+			}
+		};
+		transactional.init("org.h2.Driver", "sa", "", URL, 1);
+		Connection connection = transactional.getConnection();
+		DataEnumerator result = transactional.streamedExecuteQuery("select timed, value from streamed", false, connection);
+		assertFalse(connection.getAutoCommit());
+		int rows = 0;
+		while (result.hasMoreElements()) {
+			result.nextElement();
+			rows++;
+		}
+		result.close();
+		assertEquals(5, rows);
+		// switched back on close
+		Connection raw = DriverManager.getConnection(URL, "sa", "");
+		try {
+			raw.setAutoCommit(false);
+			result = new DataEnumerator(sm, raw.prepareStatement("select timed, value from streamed"), false, true, true);
+			result.nextElement();
+			result.close();
+			assertTrue(raw.getAutoCommit());
+		} finally {
+			raw.close();
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testEmptyResult() throws Exception {
+		DataEnumerator result = sm.streamedExecuteQuery("select timed, value from streamed where timed > 100", false);
+		assertFalse(result.hasMoreElements());
+		result.close();
+		result.nextElement();
+	}
+}
@@ -0,0 +1,223 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/storage/TestRollups.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gsn.Main;
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StorageConfig;
+import gsn.beans.StreamElement;
+import gsn.beans.VSensorConfig;
+import gsn.http.datarequest.AbstractQuery;
+import gsn.http.datarequest.AggregationCriterion;
+import gsn.http.datarequest.StandardCriterion;
+import gsn.utils.KeyValueImp;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections.KeyValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRollups {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.DOUBLE), new DataField("level", DataTypes.INTEGER) };
+
+	// not aligned on the rollup buckets
+	private static final long START = 1400000000000L + 17321;
+
+	private static final long STEP = 7000;
+
+	private static final int ROWS = 2000;
+
+	private VSensorConfig config;
+
+	private StorageManager storage;
+
+	private int inserted = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		StorageConfig sc = new StorageConfig();
+		sc.setJdbcDriver("org.h2.Driver");
+		sc.setJdbcURL("jdbc:h2:mem:rollups;DB_CLOSE_DELAY=-1");
+		sc.setJdbcUsername("sa");
+		sc.setJdbcPassword("");
+		config = new VSensorConfig();
+		config.setName("rolled");
+		config.setOutputStructure(fields);
+		config.setStorage(sc);
+		ArrayList<KeyValue> params = new ArrayList<KeyValue>();
+		params.add(new KeyValueImp(Rollups.ROLLUPS, "true"));
+		config.setMainClassInitialParams(params);
+		storage = Main.getStorage(config);
+		storage.executeCreateTable("rolled", fields, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Rollups.release(config);
+		for (int level = 0; level < Rollups.RESOLUTIONS.length; level++)
+			storage.executeDropTable(Rollups.getTableName("rolled", level));
+		storage.executeDropTable("rolled");
+	}
+
+	private void insert(int count, Rollups rollups) throws Exception {
+		for (int i = 0; i < count; i++, inserted++) {
+			// a few missing values
+			Double value = inserted % 13 == 0 ? null : Math.sin(inserted / 10.0) * 100;
+			StreamElement se = new StreamElement(fields, new Serializable[] { value, inserted % 5 }, START + inserted * STEP);
+			storage.executeInsert("rolled", fields, se);
+			if (rollups != null)
+				rollups.add(se);
+		}
+	}
+
+	private static AbstractQuery query(String aggregation, String[] columns, String... criteria) throws Exception {
+		ArrayList<StandardCriterion> list = new ArrayList<StandardCriterion>();
+		for (String criterion : criteria)
+			list.add(new StandardCriterion(criterion));
+		return new AbstractQuery(null, new AggregationCriterion(aggregation), "rolled", columns, list);
+	}
+
+	private List<double[]> execute(StringBuilder query) throws Exception {
+		List<double[]> toReturn = new ArrayList<double[]>();
+		Connection connection = storage.getConnection();
+		try {
+			ResultSet rs = storage.executeQueryWithResultSet(query, connection);
+			int columns = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				double[] row = new double[columns];
+				for (int i = 0; i < columns; i++)
+					row[i] = rs.getObject(i + 1) == null ? Double.NaN : rs.getDouble(i + 1);
+				toReturn.add(row);
+			}
+			rs.close();
+		} finally {
+			storage.close(connection);
+		}
+		return toReturn;
+	}
+
+	private static void assertSameRows(List<double[]> expected, List<double[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).length, actual.get(i).length);
+			for (int j = 0; j < expected.get(i).length; j++) {
+				double e = expected.get(i)[j];
+				// the database may truncate the averages of the timestamps
+				assertEquals("row " + i + ", column " + j, e, actual.get(i)[j], Math.max(1, Math.abs(e) * 1e-9));
+			}
+		}
+	}
+
+	@Test
+	public void testRollupsMatchOutputTable() throws Exception {
+		insert(ROWS / 2, null);
+		Rollups rollups = Rollups.load(config);
+		assertNotNull(rollups);
+		// persisted after the loading
+		insert(ROWS / 2, rollups);
+		long end = START + (ROWS - 1) * STEP;
+		String[] columns = new String[] { "timed", "value" };
+		AbstractQuery[] queries = new AbstractQuery[] {
+				query("3600000:avg", columns, "and::rolled:timed:geq:" + (START + 100000), "and::rolled:timed:leq:" + (end - 5000)),
+				query("60000:min", columns, "and::rolled:timed:ge:" + (START + 61000), "and::rolled:timed:le:" + (end - 61000)),
+				query("600000:max", columns),
+				query("7200000:sum", columns, "and::rolled:timed:geq:" + Rollups.ceil(START, 3600000), "and::rolled:timed:le:" + Rollups.floor(end, 3600000)),
+				query("3600000:avg", columns, "and::rolled:timed:geq:" + (START + 1234567)),
+				query("120000:sum", columns, "and::rolled:timed:leq:" + (START + 3333333)) };
+		StringBuilder[] fromRollups = new StringBuilder[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+			fromRollups[i] = queries[i].getStandardQuery();
+			assertTrue(fromRollups[i].toString(), fromRollups[i].toString().contains("_rollup_"));
+		}
+		Rollups.release(config);
+		for (int i = 0; i < queries.length; i++) {
+			StringBuilder fromOutputTable = queries[i].getStandardQuery();
+			assertFalse(fromOutputTable.toString().contains("_rollup_"));
+			List<double[]> expected = execute(fromOutputTable);
+			assertFalse(expected.isEmpty());
+			assertSameRows(expected, execute(fromRollups[i]));
+		}
+	}
+
+	@Test
+	public void testOutputTableQueries() throws Exception {
+		insert(100, null);
+		assertNotNull(Rollups.load(config));
+		String[] columns = new String[] { "timed", "value" };
+		// no whole bucket in the time range
+		assertFalse(query("60000:avg", columns, "and::rolled:timed:geq:" + (START + 1000), "and::rolled:timed:le:" + (START + 40000)).getStandardQuery().toString().contains("_rollup_"));
+		// the buckets don't make the aggregation intervals
+		assertFalse(query("90000:avg", columns).getStandardQuery().toString().contains("_rollup_"));
+		// other criteria
+		assertFalse(query("60000:avg", columns, "or::rolled:timed:geq:" + START, "and::rolled:timed:le:" + (START + 600000)).getStandardQuery().toString().contains("_rollup_"));
+		assertFalse(query("60000:avg", columns, "and::rolled:value:geq:10").getStandardQuery().toString().contains("_rollup_"));
+		assertFalse(query("60000:avg", columns, "and:not:rolled:timed:geq:" + START).getStandardQuery().toString().contains("_rollup_"));
+		// the primary keys and the averages of integers
+		assertFalse(query("60000:min", new String[] { "pk", "value" }).getStandardQuery().toString().contains("_rollup_"));
+		assertFalse(query("60000:avg", new String[] { "timed", "level" }).getStandardQuery().toString().contains("_rollup_"));
+		assertTrue(query("60000:max", new String[] { "timed", "level" }).getStandardQuery().toString().contains("_rollup_"));
+	}
+
+	@Test
+	public void testReconcile() throws Exception {
+		insert(300, null);
+		Rollups rollups = Rollups.load(config);
+		insert(200, rollups);
+		// the last buckets aren't written before a crash, and the next stream elements aren't added
+		insert(100, null);
+		Rollups.load(config);
+		for (int level = 0; level < Rollups.RESOLUTIONS.length; level++) {
+			List<double[]> count = execute(new StringBuilder("select sum(timed_count), sum(value_count) from " + Rollups.getTableName("rolled", level)));
+			assertEquals(600, count.get(0)[0], 0);
+			// the missing values aren't counted
+			assertEquals(600 - 47, count.get(0)[1], 0);
+		}
+	}
+
+	@Test
+	public void testOptIn() throws Exception {
+		config.setMainClassInitialParams(new ArrayList<KeyValue>());
+		assertNull(Rollups.load(config));
+		assertNull(Rollups.get("rolled"));
+		assertFalse(storage.tableExists(Rollups.getTableName("rolled", 0)));
+	}
+}
@@ -0,0 +1,178 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/storage/TestStorageManager.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gsn.Main;
+import gsn.beans.DataField;
+import gsn.beans.DataTypes;
+import gsn.beans.StreamElement;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStorageManager {
+
+	private static final DataField[] fields = new DataField[] { new DataField("value", DataTypes.DOUBLE), new DataField("name", "varchar(10)") };
+
+	private StorageManager sm;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		sm = StorageManagerFactory.getInstance("org.h2.Driver", "sa", "", "jdbc:h2:mem:storage_manager;DB_CLOSE_DELAY=-1", Main.DEFAULT_MAX_DB_CONNECTIONS);
+		sm.executeCreateTable("inserted", fields, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sm.executeDropTable("inserted");
+	}
+
+	private static StreamElement element(long timed, Double value, String name) {
+		return new StreamElement(fields, new Serializable[] { value, name }, timed);
+	}
+
+	private int count(String query) throws SQLException {
+		Connection connection = sm.getConnection();
+		try {
+			ResultSet rs = sm.executeQueryWithResultSet(new StringBuilder(query), connection);
+			rs.next();
+			int toReturn = rs.getInt(1);
+			rs.close();
+			return toReturn;
+		} finally {
+			sm.close(connection);
+		}
+	}
+
+	@Test
+	public void testTableExists() throws SQLException {
+		assertTrue(sm.tableExists("inserted", fields));
+		assertFalse(sm.tableExists("not_created"));
+		assertFalse(sm.tableExists("not_created", fields));
+	}
+
+	@Test
+	public void testInsertStatementsReused() throws SQLException {
+		Connection connection = sm.getConnection();
+		try {
+			sm.executeInsert("inserted", fields, element(1, 1.0, "a"), connection);
+			// the values of a missing field aren't kept from the previous insert
+			sm.executeInsert("inserted", fields, element(2, null, null), connection);
+			List<StreamElement> batch = new ArrayList<StreamElement>();
+			for (int i = 3; i <= 10; i++)
+				batch.add(element(i, (double) i, "b"));
+			sm.executeBatchInsert("inserted", fields, batch, connection);
+		} finally {
+			sm.close(connection);
+		}
+		// on another connection of the pool
+		sm.executeInsert("inserted", fields, element(11, 11.0, "c"));
+		sm.executeInsert("inserted", fields, element(12, 12.0, "c"));
+		assertEquals(12, count("select count(*) from inserted"));
+		assertEquals(1, count("select count(*) from inserted where value is null and name is null"));
+		assertEquals(8, count("select count(*) from inserted where name = 'b'"));
+	}
+
+	@Test
+	public void testFailedInsert() throws SQLException {
+		sm.executeInsert("inserted", fields, element(1, 1.0, "a"));
+		try {
+			// the time stamps are unique
+			sm.executeInsert("inserted", fields, element(1, 2.0, "a"));
+			fail();
+		} catch (SQLException e) {
+		}
+		List<StreamElement> batch = new ArrayList<StreamElement>();
+		batch.add(element(2, 2.0, "a"));
+		batch.add(element(1, 3.0, "a"));
+		Connection connection = sm.getConnection();
+		try {
+			sm.executeBatchInsert("inserted", fields, batch, connection);
+			fail();
+		} catch (SQLException e) {
+		} finally {
+			sm.close(connection);
+		}
+		// the batch was rolled back, the statement can still be used
+		sm.executeInsert("inserted", fields, element(2, 2.0, "a"));
+		assertEquals(2, count("select count(*) from inserted"));
+	}
+
+	@Test
+	public void testStructureChange() throws SQLException {
+		sm.executeInsert("inserted", fields, element(1, 1.0, "a"));
+		sm.executeDropTable("inserted");
+		DataField[] other = new DataField[] { new DataField("value", DataTypes.INTEGER) };
+		sm.executeCreateTable("inserted", other, true);
+		sm.executeInsert("inserted", other, new StreamElement(other, new Serializable[] { 5 }, 2));
+		assertEquals(5, count("select value from inserted"));
+		sm.executeDropTable("inserted");
+		sm.executeCreateTable("inserted", fields, true);
+		sm.executeInsert("inserted", fields, element(3, 3.0, "a"));
+		assertEquals(1, count("select count(*) from inserted"));
+	}
+
+	@Test
+	public void testStatementSettingsNotShared() throws SQLException {
+		for (int i = 1; i <= 5; i++)
+			sm.executeInsert("inserted", fields, element(i, (double) i, "a"));
+		Connection connection = sm.getConnection();
+		try {
+			// as the data distributer does
+			PreparedStatement ps = connection.prepareStatement("select * from inserted");
+			ps.setMaxRows(2);
+			ps.setFetchSize(2);
+			ps.close();
+			ps = connection.prepareStatement("select * from inserted");
+			assertEquals(0, ps.getMaxRows());
+			ResultSet rs = ps.executeQuery();
+			int rows = 0;
+			while (rs.next())
+				rows++;
+			assertEquals(5, rows);
+			rs.close();
+			ps.close();
+		} finally {
+			sm.close(connection);
+		}
+	}
+}
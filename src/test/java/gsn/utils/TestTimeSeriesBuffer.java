@@ -0,0 +1,82 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/TestTimeSeriesBuffer.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestTimeSeriesBuffer {
+
+	@Test
+	public void testCount() {
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(10, 0);
+		for (int i = 0; i < 25; i++)
+			buffer.add(i * 10, i);
+		buffer.add(240, -1);
+		assertEquals(10, buffer.size());
+		long[] times = new long[20];
+		double[] values = new double[20];
+		assertEquals(10, buffer.decimate(10, times, values));
+		assertEquals(150, times[0]);
+		assertEquals(15, values[0], 0);
+		assertEquals(240, times[9]);
+		assertEquals(-1, values[9], 0);
+	}
+
+	@Test
+	public void testAge() {
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(0, 1000);
+		for (int i = 0; i < 10000; i++)
+			buffer.add(i, i);
+		assertEquals(1001, buffer.size());
+		long[] times = new long[2000];
+		double[] values = new double[2000];
+		assertEquals(1001, buffer.decimate(1000, times, values));
+		assertEquals(8999, times[0]);
+		assertEquals(9999, times[1000]);
+	}
+
+	@Test
+	public void testDecimate() {
+		TimeSeriesBuffer buffer = new TimeSeriesBuffer(100000, 0);
+		for (int i = 0; i < 100000; i++)
+			buffer.add(i, i == 51234 ? 1000 : Math.sin(i / 1000.0));
+		long[] times = new long[200];
+		double[] values = new double[200];
+		int n = buffer.decimate(100, times, values);
+		assertEquals(200, n);
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			if (i > 0)
+				assertTrue(times[i] > times[i - 1]);
+			max = Math.max(max, values[i]);
+		}
+		// the spikes are kept
+		assertEquals(1000, max, 0);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/geo/TestBinaryGrid.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.geo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class TestBinaryGrid {
+
+	private static double[][] grid(int nrows, int ncols) {
+		double[][] values = new double[nrows][ncols];
+		for (int i = 0; i < nrows; i++)
+			for (int j = 0; j < ncols; j++)
+				values[i][j] = i * 1000 + j + 0.25;
+		return values;
+	}
+
+	@Test
+	public void testCellsAndWindows() throws IOException {
+		double[][] values = grid(7, 10);
+		int[] tileSizes = { 0, 3, 4, 16 };
+		for (int tileSize : tileSizes)
+			for (boolean deflate : new boolean[] { false, true })
+				for (boolean float32 : new boolean[] { false, true }) {
+					BinaryGrid grid = BinaryGrid.wrap(BinaryGrid.encode(values, 1.5, 2.5, 50, -9999, tileSize, float32, deflate));
+					assertEquals(10, grid.getNcols());
+					assertEquals(7, grid.getNrows());
+					assertEquals(2.5, grid.getYllcorner(), 0);
+					assertEquals(-9999, grid.getNodata(), 0);
+					assertEquals(values[6][9], grid.getCell(9, 6), 0);
+					assertEquals(values[3][0], grid.getCell(0, 3), 0);
+					double[][] window = grid.getWindow(2, 8, 1, 5);
+					assertEquals(5, window.length);
+					for (int i = 0; i < window.length; i++)
+						assertArrayEquals(new double[] { values[i + 1][2], values[i + 1][3], values[i + 1][4], values[i + 1][5], values[i + 1][6], values[i + 1][7], values[i + 1][8] }, window[i], 0);
+					double[][] all = grid.toArray();
+					for (int i = 0; i < values.length; i++)
+						assertArrayEquals(values[i], all[i], 0);
+				}
+	}
+
+	@Test
+	public void testCompactness() {
+		double[][] values = new double[100][100];
+		byte[] plain = BinaryGrid.encode(values, 0, 0, 1, 0, 0, false, false);
+		assertTrue(plain.length < 100 * 100 * 8 + 100);
+		assertTrue(BinaryGrid.encode(values, 0, 0, 1, 0, 0, true, false).length < 100 * 100 * 4 + 100);
+		assertTrue(BinaryGrid.encode(values, 0, 0, 1, 0, 32, false, true).length < plain.length / 10);
+	}
+
+	@Test
+	public void testLegacy() throws IOException {
+		Double[][] values = new Double[][] { { 1.0, 2.0, 3.0 }, { 4.0, null, 6.0 } };
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(values);
+		oos.close();
+
+		BinaryGrid grid = BinaryGrid.wrap(bos.toByteArray());
+		assertEquals(3, grid.getNcols());
+		assertEquals(2, grid.getNrows());
+		assertEquals(6.0, grid.getCell(2, 1), 0);
+		assertTrue(Double.isNaN(grid.getCell(1, 1)));
+		assertArrayEquals(new double[] { 2.0, 3.0 }, grid.getWindow(1, 2, 0, 0)[0], 0);
+	}
+
+	@Test
+	public void testTruncated() {
+		byte[] bytes = BinaryGrid.encode(grid(4, 4), 0, 0, 1, 0, 2, false, false);
+		byte[] truncated = new byte[bytes.length - 8];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		try {
+			BinaryGrid.wrap(truncated).toArray();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/models/TestArmaGarch.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gsn.utils.models.jgarch.armamodel.ARModel;
+import gsn.utils.models.jgarch.garchmodel.GarchModel;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestArmaGarch {
+
+	private static double[] ar2(int n, double phi1, double phi2, double mean, long seed) {
+		Random random = new Random(seed);
+		double[] x = new double[n];
+		for (int t = 0; t < n; t++)
+			x[t] = (t > 0 ? phi1 * (x[t - 1] - mean) : 0) + (t > 1 ? phi2 * (x[t - 2] - mean) : 0) + mean + random.nextGaussian();
+		return x;
+	}
+
+	private static double[] garch(int n, double omega, double alpha, double beta, long seed) {
+		Random random = new Random(seed);
+		double[] e = new double[n];
+		double h = omega / (1 - alpha - beta);
+		for (int t = 0; t < n; t++) {
+			if (t > 0)
+				h = omega + alpha * e[t - 1] * e[t - 1] + beta * h;
+			e[t] = Math.sqrt(h) * random.nextGaussian();
+		}
+		return e;
+	}
+
+	@Test
+	public void testYuleWalker() {
+		ARModel ar = new ARModel(ar2(20000, 0.5, -0.3, 10, 1));
+		ar.run();
+		assertEquals(0.5, ar.getCoefficients()[0], 0.03);
+		assertEquals(-0.3, ar.getCoefficients()[1], 0.03);
+		assertEquals(10, ar.getMean(), 0.05);
+		assertEquals(20000 - 2, ar.getArResiduals().length);
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		double[] x = ar2(500, 0.6, 0.2, -3, 2);
+		ARModel sliding = new ARModel(2, 2);
+		for (int i = 0; i + 100 <= x.length; i++) {
+			sliding.run(x, i, 100);
+			double[] window = new double[100];
+			System.arraycopy(x, i, window, 0, 100);
+			ARModel fresh = new ARModel(window, 2, 2);
+			fresh.run();
+			assertArrayEquals(fresh.getCoefficients(), sliding.getCoefficients(), 1e-9);
+			assertArrayEquals(fresh.getArPreds(), sliding.getArPreds(), 1e-9);
+			assertArrayEquals(fresh.getArResiduals(), sliding.getArResiduals(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testGarch() {
+		double[] e = garch(20000, 0.1, 0.1, 0.8, 3);
+		GarchModel gm = new GarchModel(e);
+		gm.run();
+		assertEquals(0.1, gm.getAlpha(), 0.03);
+		assertEquals(0.8, gm.getBeta(), 0.06);
+		assertEquals(gm.getPredUVar(), -gm.getPredLVar(), 0);
+		assertTrue(gm.getPredUVar() > 0);
+
+		// warm start on the next window gives the cold estimates
+		double[] next = new double[e.length - 1];
+		System.arraycopy(e, 1, next, 0, next.length);
+		gm.fit(next);
+		GarchModel cold = new GarchModel(next);
+		cold.run();
+		assertEquals(cold.getAlpha(), gm.getAlpha(), 1e-3);
+		assertEquals(cold.getBeta(), gm.getBeta(), 1e-3);
+		assertEquals(cold.getPredUVar(), gm.getPredUVar(), 1e-3 * cold.getPredUVar());
+	}
+
+	@Test
+	public void testMarkDirty() {
+		double[] x = ar2(600, 0.5, 0, 0, 4);
+		x[400] += 50;
+		double[] processed = new double[x.length];
+		double[] dirtyness = new double[x.length];
+		double[] quality = new double[x.length];
+		new ArmaGarchModel(100, 3, x).FitAndMarkDirty(processed, dirtyness, quality);
+		assertEquals(1, dirtyness[400], 0);
+		int dirty = 0;
+		for (double d : dirtyness)
+			dirty += d;
+		assertTrue(dirty < 20);
+	}
+}
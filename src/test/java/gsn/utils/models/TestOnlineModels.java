@@ -0,0 +1,100 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/utils/models/TestOnlineModels.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.utils.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestOnlineModels {
+
+	@Test
+	public void testPolynomials() {
+		for (int degree = 0; degree <= 3; degree++) {
+			RecursivePolynomialModel m = new RecursivePolynomialModel(degree, 50, 1e-3);
+			double[] result = new double[3];
+			for (int i = 0; i < 500; i++) {
+				double t = i / 100.0;
+				double value = 3;
+				for (int k = 1; k <= degree; k++)
+					value += Math.pow(t - 2, k) * (k % 2 == 0 ? -1 : 1);
+				assertTrue(m.MarkDirty(1000000L + i * 60000L, value, result));
+				if (i > 20)
+					assertEquals(value, result[0], 1e-4);
+				assertEquals(0, result[1], 0);
+			}
+		}
+	}
+
+	@Test
+	public void testOutlier() {
+		Random random = new Random(5);
+		RecursivePolynomialModel m = new RecursivePolynomialModel(1, 100, 1);
+		double[] result = new double[3];
+		int dirty = 0;
+		for (int i = 0; i < 1000; i++) {
+			double value = 0.01 * i + 0.1 * random.nextGaussian() + (i == 700 ? 5 : 0);
+			boolean clean = m.MarkDirty(i * 1000L, value, result);
+			if (i == 700) {
+				assertFalse(clean);
+				assertEquals(1, result[1], 0);
+				assertEquals(7, result[0], 0.2);
+			}
+			if (!clean)
+				dirty++;
+		}
+		assertEquals(1, dirty);
+	}
+
+	@Test
+	public void testArmaGarch() {
+		Random random = new Random(4);
+		IOnlineModel m = ModelFitting.createOnlineModel(ModelFitting.ARMA_GARCH, 3, 100);
+		double[] result = new double[3];
+		double x = 0;
+		int dirty = 0;
+		for (int i = 0; i < 600; i++) {
+			x = 0.5 * x + random.nextGaussian();
+			boolean clean = m.MarkDirty(i, i == 400 ? x + 50 : x, result);
+			if (i == 400)
+				assertFalse(clean);
+			if (!clean)
+				dirty++;
+		}
+		assertTrue(dirty < 20);
+	}
+
+	@Test
+	public void testAllModels() {
+		for (int model = 0; model < ModelFitting.MODEL_NAMES.length; model++)
+			assertNotNull(ModelFitting.createOnlineModel(model, 1, 10));
+	}
+}
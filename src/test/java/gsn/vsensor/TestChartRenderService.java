@@ -0,0 +1,112 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/vsensor/TestChartRenderService.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.vsensor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestChartRenderService {
+
+	private final ChartRenderService service = ChartRenderService.getInstance();
+
+	/**
+	 * Counts its renderings, the image being the count.
+	 */
+	private static class CountingJob extends ChartRenderService.Job {
+
+		final AtomicInteger renders = new AtomicInteger();
+
+		final AtomicInteger rendered = new AtomicInteger();
+
+		protected byte[] render() {
+			return new byte[] { (byte) renders.incrementAndGet() };
+		}
+
+		protected void rendered(byte[] image) {
+			rendered.incrementAndGet();
+		}
+	}
+
+	private static void waitFor(AtomicInteger counter, int value) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (counter.get() < value && System.currentTimeMillis() < end)
+			Thread.sleep(5);
+		assertEquals(value, counter.get());
+	}
+
+	@Test
+	public void testCoalescing() throws InterruptedException {
+		CountingJob job = new CountingJob();
+		service.request("chart_vs", "coalesced", job, 300);
+		waitFor(job.rendered, 1);
+		assertArrayEquals(new byte[] { 1 }, service.getImage("CHART_VS", "Coalesced"));
+		// within the interval, all the requests make a single rendering
+		for (int i = 0; i < 100; i++)
+			service.request("chart_vs", "coalesced", job, 300);
+		waitFor(job.rendered, 2);
+		Thread.sleep(400);
+		assertEquals(2, job.renders.get());
+		assertArrayEquals(new byte[] { 2 }, service.getImage("chart_vs", "coalesced"));
+		service.cancel("chart_vs", "coalesced", job);
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		CountingJob job = new CountingJob();
+		service.request("chart_vs", "cancelled", job, 200);
+		waitFor(job.rendered, 1);
+		service.request("chart_vs", "cancelled", job, 200);
+		service.cancel("chart_vs", "cancelled", job);
+		assertNull(service.getImage("chart_vs", "cancelled"));
+		Thread.sleep(300);
+		assertEquals(1, job.renders.get());
+		service.request("chart_vs", "cancelled", job, 200);
+		Thread.sleep(50);
+		assertEquals(1, job.renders.get());
+		assertNull(service.getImage("chart_vs", "cancelled"));
+	}
+
+	@Test
+	public void testNoImage() throws InterruptedException {
+		final AtomicInteger renders = new AtomicInteger();
+		ChartRenderService.Job job = new ChartRenderService.Job() {
+			protected byte[] render() {
+				renders.incrementAndGet();
+				return null;
+			}
+		};
+		service.request("chart_vs", "", job, 100);
+		waitFor(renders, 1);
+		// as the output job of the ChartVirtualSensor, nothing is cached
+		assertNull(service.getImage("chart_vs", ""));
+		service.cancel("chart_vs", "", job);
+	}
+}
@@ -0,0 +1,188 @@
+/**
+* Global Sensor Networks (GSN) Source Code
+* Copyright (c) 2006-2014, Ecole Polytechnique Federale de Lausanne (EPFL)
+*
+* This file is part of GSN.
+*
+* GSN is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* GSN is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with GSN.  If not, see <http://www.gnu.org/licenses/>.
+*
+* File: src/gsn/vsensor/TestGridModelVS.java
+*
+* @author gsn_devs
+*
+*/
+
+package gsn.vsensor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gsn.beans.DataField;
+import gsn.beans.StreamElement;
+import gsn.utils.geo.BinaryGrid;
+import gsn.utils.models.AbstractModel;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestGridModelVS {
+
+	private static final int GRID_SIZE = 100;
+
+	private static final double X = 6.5;
+
+	private static final double Y = 46.5;
+
+	private static final DataField[] POSITION = new DataField[] { new DataField("latitude", "double"), new DataField("longitude", "double") };
+
+	// the degrees of 30 meters
+	private static final double BUMP_LAT = 30 * 360.0 / (6356753 * 2 * Math.PI);
+
+	private static final double BUMP_LON = 30 * 360.0 / (6378137 * Math.cos(Math.toRadians(Y)) * 2 * Math.PI);
+
+	/**
+	 * A thread safe model varying with the position, raised by a bump of 30
+	 * meters around a position.
+	 */
+	private static class FieldModel extends AbstractModel {
+
+		final AtomicInteger queried = new AtomicInteger();
+
+		volatile double bumpLat = Double.NaN;
+
+		volatile double bumpLon = Double.NaN;
+
+		double value(double lat, double lon) {
+			double v = Math.sin(lat * 1000) + Math.cos(lon * 1000);
+			if (Math.abs(lat - bumpLat) <= BUMP_LAT && Math.abs(lon - bumpLon) <= BUMP_LON)
+				v += 10;
+			return v;
+		}
+
+		public double[] query(String field, double[] latitudes, double[] longitudes) {
+			queried.addAndGet(latitudes.length);
+			double[] values = new double[latitudes.length];
+			for (int i = 0; i < latitudes.length; i++)
+				values[i] = value(latitudes[i], longitudes[i]);
+			return values;
+		}
+
+		public boolean isThreadSafe() {
+			return true;
+		}
+
+		public StreamElement pushData(StreamElement streamElement) {
+			return null;
+		}
+
+		public StreamElement[] query(StreamElement params) {
+			return null;
+		}
+
+		public void setParam(String k, String string) {
+		}
+	}
+
+	/**
+	 * Keeps the last grid instead of producing it.
+	 */
+	private static class TestGrid extends GridModelVS {
+
+		StreamElement produced;
+
+		protected synchronized void dataProduced(StreamElement streamElement) {
+			produced = streamElement;
+		}
+
+		double[][] render(double lat, double lon) throws IOException {
+			dataAvailable("input", new StreamElement(POSITION, new Serializable[] { lat, lon }, System.currentTimeMillis()));
+			return BinaryGrid.wrap((byte[]) produced.getData("grid")).getWindow(0, GRID_SIZE - 1, 0, GRID_SIZE - 1);
+		}
+	}
+
+	private static TestGrid grid(AbstractModel model, int threads, String influenceRadius) {
+		TreeMap<String, String> params = new TreeMap<String, String>();
+		params.put("field", "value");
+		params.put("grid_size", String.valueOf(GRID_SIZE));
+		params.put("cell_size", "10");
+		params.put("x_bottomLeft", String.valueOf(X));
+		params.put("y_bottomLeft", String.valueOf(Y));
+		params.put("tile_size", "16");
+		params.put("threads", String.valueOf(threads));
+		if (influenceRadius != null)
+			params.put("influence_radius", influenceRadius);
+		TestGrid grid = new TestGrid();
+		assertTrue(grid.initialize(params, model));
+		return grid;
+	}
+
+	private static void assertGridEquals(double[][] expected, double[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertArrayEquals("row " + i, expected[i], actual[i], 0);
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws IOException {
+		FieldModel model = new FieldModel();
+		TestGrid sequential = grid(model, 1, null);
+		TestGrid parallel = grid(model, 4, null);
+		try {
+			double[][] expected = sequential.render(Y, X);
+			assertEquals(GRID_SIZE * GRID_SIZE, model.queried.get());
+			assertGridEquals(expected, parallel.render(Y, X));
+			// the northern row first
+			double yCell = 10 * 360.0 / (6356753 * 2 * Math.PI);
+			double xCell = 10 * 360.0 / (6378137 * Math.cos(Math.toRadians(Y)) * 2 * Math.PI);
+			assertEquals(model.value(Y, X), expected[GRID_SIZE - 1][0], 0);
+			assertEquals(model.value(Y + yCell * (GRID_SIZE - 1), X + xCell * 7), expected[0][7], 0);
+		} finally {
+			sequential.dispose();
+			parallel.dispose();
+		}
+	}
+
+	@Test
+	public void testIncrementalRendering() throws IOException {
+		FieldModel model = new FieldModel();
+		TestGrid incremental = grid(model, 4, "50");
+		TestGrid full = grid(model, 1, null);
+		try {
+			incremental.render(Y, X);
+			assertEquals(GRID_SIZE * GRID_SIZE, model.queried.get());
+			double lat = Y + BUMP_LAT * 10;
+			double lon = X + BUMP_LON * 20;
+			model.bumpLat = lat;
+			model.bumpLon = lon;
+			model.queried.set(0);
+			double[][] updated = incremental.render(lat, lon);
+			// a few tiles around the position
+			assertTrue(model.queried.get() > 0);
+			assertTrue(model.queried.get() < GRID_SIZE * GRID_SIZE / 4);
+			assertGridEquals(full.render(lat, lon), updated);
+			// without a position the whole grid is evaluated again
+			model.queried.set(0);
+			incremental.dataAvailable("input", new StreamElement(new DataField[0], new Serializable[0], System.currentTimeMillis()));
+			assertEquals(GRID_SIZE * GRID_SIZE, model.queried.get());
+		} finally {
+			incremental.dispose();
+			full.dispose();
+		}
+	}
+}
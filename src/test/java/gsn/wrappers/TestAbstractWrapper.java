@@ -30,6 +30,7 @@ package gsn.wrappers;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import gsn.Main;
 import gsn.beans.AddressBean;
@@ -43,9 +44,13 @@ import gsn.utils.GSNRuntimeException;
 import gsn.utils.KeyValueImp;
 
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -61,6 +66,10 @@ public class TestAbstractWrapper {
 		DriverManager.registerDriver( new org.h2.Driver( ) );
 
 		sm = StorageManagerFactory.getInstance( "org.h2.Driver","sa","" ,"jdbc:h2:mem:gsn_mem_db", Main.DEFAULT_MAX_DB_CONNECTIONS);
+		// the wrappers keep their windows in the window storage of the container
+		Field windowStorage = Main.class.getDeclaredField("windowStorage");
+		windowStorage.setAccessible(true);
+		windowStorage.set(null, sm);
 //		StorageManager.getInstance ( ).initialize ( "com.mysql.jdbc.Driver","root","" , "jdbc:mysql://localhost/gsn");
 	}
 
@@ -146,4 +155,107 @@ public class TestAbstractWrapper {
 		wrapper.releaseResources();
 	}
 
+	private MockWrapper batchWrapper() throws SQLException {
+		MockWrapper wrapper = new MockWrapper();
+		sm.executeCreateTable(wrapper.getDBAliasInStr(), wrapper.getOutputFormat(),true);
+		AddressBean addressBean = new AddressBean("test");
+		wrapper.setActiveAddressBean(addressBean);
+		assertTrue(wrapper.initialize());
+		StreamSource  ss = new StreamSource().setAlias("my-stream").setAddressing(new AddressBean[] {addressBean}).setSqlQuery("select * from wrapper").setRawHistorySize("10").setInputStream(new InputStream());
+		ss.setSamplingRate(1);
+		ss.setWrapper(wrapper );
+		assertTrue(ss.validate());
+		return wrapper;
+	}
+
+	private static StreamElement element(DataField[] fields, long timed) {
+		return new StreamElement(fields, new Serializable[]{(int) timed}, timed);
+	}
+
+	private int count(MockWrapper wrapper) throws SQLException {
+		Connection conn = sm.getConnection();
+		try {
+			ResultSet rs = sm.executeQueryWithResultSet(new StringBuilder("select count(*) from ").append(wrapper.getDBAliasInStr()), conn);
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			sm.close(conn);
+		}
+	}
+
+	@Test
+	public void testOutOfOrderBatch() throws SQLException {
+		MockWrapper wrapper = batchWrapper();
+		DataField[] fields = wrapper.getOutputFormat();
+		List<StreamElement> batch = new ArrayList<StreamElement>();
+		batch.add(element(fields, 1000));
+		batch.add(element(fields, 2000));
+		batch.add(null);
+		batch.add(element(fields, 1500));
+		batch.add(element(fields, 2000));
+		batch.add(element(fields, 3000));
+		List<StreamElement> inserted = wrapper.insertIntoWrapperTable(batch);
+		assertEquals(3, inserted.size());
+		assertEquals(3000, inserted.get(2).getTimeStamp());
+		assertEquals(3, count(wrapper));
+		// out of order with the previous batch
+		batch.clear();
+		batch.add(element(fields, 2500));
+		assertTrue(wrapper.insertIntoWrapperTable(batch).isEmpty());
+		// the same as element by element
+		assertFalse(wrapper.insertIntoWrapperTable(element(fields, 2500)));
+		assertTrue(wrapper.insertIntoWrapperTable(element(fields, 3500)));
+		assertEquals(4, count(wrapper));
+		wrapper.releaseResources();
+	}
+
+	@Test
+	public void testFailedBatch() throws SQLException {
+		MockWrapper wrapper = batchWrapper();
+		DataField[] fields = wrapper.getOutputFormat();
+		List<StreamElement> batch = new ArrayList<StreamElement>();
+		batch.add(element(fields, 1000));
+		wrapper.insertIntoWrapperTable(batch);
+		sm.executeDropTable(wrapper.getDBAliasInStr());
+		batch.clear();
+		batch.add(element(fields, 5000));
+		try {
+			wrapper.insertIntoWrapperTable(batch);
+			fail();
+		} catch (SQLException e) {
+		}
+		// the wrappers acknowledging what they read are told about the failure
+		try {
+			wrapper.storeStreamElements(batch);
+			fail();
+		} catch (SQLException e) {
+		}
+		assertFalse(wrapper.postStreamElements(batch));
+		sm.executeCreateTable(wrapper.getDBAliasInStr(), fields, true);
+		// the failed batch didn't move the last in order timestamp
+		batch.clear();
+		batch.add(element(fields, 2000));
+		assertEquals(1, wrapper.insertIntoWrapperTable(batch).size());
+		wrapper.releaseResources();
+	}
+
+	@Test
+	public void testPostStreamElements() throws SQLException {
+		MockWrapper wrapper = new MockWrapper();
+		assertFalse(wrapper.postStreamElements(new ArrayList<StreamElement>()));
+		// without listener nothing is inserted
+		List<StreamElement> batch = new ArrayList<StreamElement>();
+		batch.add(element(wrapper.getOutputFormat(), 1000));
+		assertFalse(wrapper.postStreamElements(batch));
+		assertTrue(wrapper.insertIntoWrapperTable(batch).isEmpty());
+		wrapper = batchWrapper();
+		batch.clear();
+		for (int i = 1; i <= 5; i++)
+			batch.add(element(wrapper.getOutputFormat(), i * 1000));
+		batch.add(element(wrapper.getOutputFormat(), 4500));
+		wrapper.postStreamElements(batch);
+		assertEquals(5, count(wrapper));
+		wrapper.releaseResources();
+	}
+
 }
@@ -28,13 +28,24 @@ package gsn.wrappers.general;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gsn.Main;
+import gsn.beans.DataField;
+import gsn.beans.StreamElement;
+import gsn.storage.StorageManager;
+import gsn.storage.StorageManagerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.sql.DriverManager;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.commons.io.FileUtils;
@@ -156,6 +167,184 @@ public class CSVWrapperTest {
 		
 	}
 	
+	@Test
+	public void testTailReader() throws IOException {
+		String fields = "TIMED, air_temp , TIMEd , AiR_TeMp2, comments";
+		String formats = "Timestamp(d.M.y ) , Numeric , timestamp(k:m) , numeric ,String   ";
+		File data = new File(CHECK_POINT_DIR, "tail.csv");
+		FileUtils.writeStringToFile(data, "#header\n01.01.2009,1.5,10:10,10,\"Ali, Salehi\"\n01.01.2009,2,10:11,NaN,\"x\"\"y\"\r\n01.01.2009,3,10:1", "UTF-8");
+		CSVHandler handler = new CSVHandler();
+		assertEquals(true,handler.initialize(data.getPath(), fields,formats,',','\"',1,"NaN", CSVHandler.LOCAL_TIMEZONE_ID, new File(CHECK_POINT_DIR, "tail.chk").getPath()));
+		handler.updateCheckPointFile("");
+		CSVTailReader reader = new CSVTailReader(handler, false);
+		List<StreamElement> rows = reader.read(10);
+		assertEquals(2, rows.size());
+		assertEquals(1.5, rows.get(0).getData("air_temp"));
+		assertEquals(10.0, rows.get(0).getData("air_temp2"));
+		assertEquals("Ali, Salehi", rows.get(0).getData("comments"));
+		assertNull(rows.get(1).getData("air_temp2"));
+		assertEquals("x\"y", rows.get(1).getData("comments"));
+		assertEquals(CSVHandler.parseTimeStamp("d.M.y,k:m", "01.01.2009,10:11").getMillis(), rows.get(1).getTimeStamp());
+		// a batch which couldn't be stored isn't committed, it is read again
+		assertEquals(2, reader.read(10).size());
+		reader.commit();
+		// the incomplete line is only read once completed
+		assertEquals(0, reader.read(10).size());
+		FileUtils.writeStringToFile(data, "2,12,\"z\"\n", "UTF-8", true);
+		rows = new CSVTailReader(handler, false).read(10);
+		assertEquals(1, rows.size());
+		assertEquals(12.0, rows.get(0).getData("air_temp2"));
+		// a rotated file is read from its beginning, skipping its header
+		FileUtils.writeStringToFile(data, "#header\n02.01.2009,4,10:10,13,\"w\"\n", "UTF-8");
+		rows = new CSVTailReader(handler, false).read(10);
+		assertEquals(1, rows.size());
+		assertEquals(4.0, rows.get(0).getData("air_temp"));
+	}
+
+	@Test
+	public void testBackfill() throws Exception {
+		String fields = "TIMED, air_temp";
+		String formats = "Timestamp(d.M.y k:m) , Numeric";
+		File archives = new File(CHECK_POINT_DIR, "archives");
+		FileUtils.deleteDirectory(archives);
+		File first = new File(archives, "2009.csv");
+		FileUtils.writeStringToFile(first, "01.01.2009 10:00,1\n01.01.2009 10:02,3\n01.01.2009 10:01,2", "UTF-8");
+		FileUtils.writeStringToFile(new File(archives, "2010.csv"), "01.01.2010 10:00,4\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(archives, "notes.txt"), "not a csv file\n", "UTF-8");
+		CSVHandler handler = new CSVHandler();
+		assertEquals(true,handler.initialize(first.getPath(), fields,formats,',','\"',0,"", CSVHandler.LOCAL_TIMEZONE_ID, new File(CHECK_POINT_DIR, "backfill.chk").getPath()));
+		// a line belongs to the chunk in which it starts
+		CSVTailReader reader = new CSVTailReader(handler, first);
+		assertEquals(1, reader.readChunk(0, 1).size());
+		assertEquals(2, reader.readChunk(1, first.length()).size());
+		assertEquals(3, reader.readChunk(0, 20).size() + reader.readChunk(20, first.length()).size());
+
+		new File(handler.getCheckPointFile() + ".backfill").delete();
+		assertEquals(2, CSVBackfill.listFiles(new File(archives, "*.csv").getPath()).length);
+		final ArrayList<StreamElement> loaded = new ArrayList<StreamElement>();
+		CSVBackfill.Sink sink = new CSVBackfill.Sink() {
+			public void load(List<StreamElement> rows) {
+				loaded.addAll(rows);
+			}
+		};
+		CSVBackfill backfill = new CSVBackfill("backfill", handler, new File(archives, "*.csv").getPath(), 2);
+		long last = backfill.run(sink, 2);
+		assertEquals(4, loaded.size());
+		for (int i = 0; i < loaded.size(); i++)
+			assertEquals((double) i + 1, loaded.get(i).getData("air_temp"));
+		assertEquals(loaded.get(3).getTimeStamp(), last);
+		assertEquals(true, backfill.isDone());
+		assertEquals(1.0, backfill.getProgress(), 0);
+		// nothing is loaded again
+		assertEquals(last, new CSVBackfill("backfill", handler, archives.getPath(), 2).run(sink, 2));
+		assertEquals(4, loaded.size());
+	}
+
+	@Test
+	public void testBackfillResume() throws Exception {
+		File archives = new File(CHECK_POINT_DIR, "archives");
+		FileUtils.deleteDirectory(archives);
+		// a chunk per file
+		for (int file = 0; file < 5; file++) {
+			StringBuilder lines = new StringBuilder();
+			for (int i = 0; i < 10; i++)
+				lines.append("01.01.2009 ").append(10 + file).append(":").append(10 + i).append(",").append(file * 10 + i).append("\n");
+			FileUtils.writeStringToFile(new File(archives, "200" + file + ".csv"), lines.toString(), "UTF-8");
+		}
+		CSVHandler handler = new CSVHandler();
+		assertEquals(true,handler.initialize(new File(archives, "2000.csv").getPath(), "TIMED, air_temp","Timestamp(d.M.y k:m) , Numeric",',','\"',0,"", CSVHandler.LOCAL_TIMEZONE_ID, new File(CHECK_POINT_DIR, "resume.chk").getPath()));
+		new File(handler.getCheckPointFile() + ".backfill").delete();
+
+		final ArrayList<StreamElement> loaded = new ArrayList<StreamElement>();
+		CSVBackfill.Sink failing = new CSVBackfill.Sink() {
+			public void load(List<StreamElement> rows) throws IOException {
+				// in the middle of the second wave of 2 chunks
+				if (loaded.size() > 25)
+					throw new IOException("crash");
+				loaded.addAll(rows);
+			}
+		};
+		try {
+			new CSVBackfill("resume", handler, archives.getPath(), 1).run(failing, 3);
+			fail();
+		} catch (IOException e) {
+		}
+		assertEquals(26, loaded.size());
+		assertFalse(new CSVBackfill("resume", handler, archives.getPath(), 1).isDone());
+
+		// resumed with waves of 4 chunks
+		CSVBackfill.Sink sink = new CSVBackfill.Sink() {
+			public void load(List<StreamElement> rows) {
+				loaded.addAll(rows);
+			}
+		};
+		CSVBackfill backfill = new CSVBackfill("resume", handler, archives.getPath(), 2);
+		backfill.run(sink, 3);
+		assertEquals(true, backfill.isDone());
+		assertEquals(50, loaded.size());
+		HashSet<Serializable> values = new HashSet<Serializable>();
+		for (StreamElement se : loaded)
+			values.add(se.getData("air_temp"));
+		assertEquals(50, values.size());
+		for (int i = 1; i < loaded.size(); i++)
+			assertTrue(loaded.get(i).getTimeStamp() > loaded.get(i - 1).getTimeStamp());
+	}
+
+	@Test
+	public void testBackfillDispose() throws Exception {
+		File archives = new File(CHECK_POINT_DIR, "archives");
+		FileUtils.deleteDirectory(archives);
+		FileUtils.writeStringToFile(new File(archives, "2009.csv"), "01.01.2009 10:00,1\n01.01.2009 10:01,2\n01.01.2009 10:02,3\n", "UTF-8");
+		CSVHandler handler = new CSVHandler();
+		assertEquals(true,handler.initialize(new File(archives, "2009.csv").getPath(), "TIMED, air_temp","Timestamp(d.M.y k:m) , Numeric",',','\"',0,"", CSVHandler.LOCAL_TIMEZONE_ID, new File(CHECK_POINT_DIR, "dispose.chk").getPath()));
+		new File(handler.getCheckPointFile() + ".backfill").delete();
+		final ArrayList<StreamElement> loaded = new ArrayList<StreamElement>();
+		final CSVBackfill backfill = new CSVBackfill("dispose", handler, archives.getPath(), 1);
+		CSVBackfill.Sink sink = new CSVBackfill.Sink() {
+			public void load(List<StreamElement> rows) {
+				assertTrue(CSVBackfill.getBackfill("dispose") == backfill);
+				loaded.addAll(rows);
+				backfill.dispose();
+			}
+		};
+		backfill.run(sink, 1);
+		assertEquals(1, loaded.size());
+		assertNull(CSVBackfill.getBackfill("dispose"));
+		assertFalse(backfill.isDone());
+		// the remaining rows are loaded on the next start
+		loaded.clear();
+		new CSVBackfill("dispose", handler, archives.getPath(), 1).run(new CSVBackfill.Sink() {
+			public void load(List<StreamElement> rows) {
+				loaded.addAll(rows);
+			}
+		}, 1);
+		assertEquals(2, loaded.size());
+		assertEquals(2.0, loaded.get(0).getData("air_temp"));
+	}
+
+	@Test
+	public void testRemoveStored() throws Exception {
+		DriverManager.registerDriver(new org.h2.Driver());
+		StorageManager sm = StorageManagerFactory.getInstance("org.h2.Driver", "sa", "", "jdbc:h2:mem:csv_backfill", Main.DEFAULT_MAX_DB_CONNECTIONS);
+		DataField[] fields = new DataField[] { new DataField("air_temp", "double") };
+		sm.executeCreateTable("backfilled", fields, false);
+		assertEquals(Long.MIN_VALUE, CSVWrapper.getLastTimestamp(sm, "backfilled"));
+		ArrayList<StreamElement> rows = new ArrayList<StreamElement>();
+		for (int i = 1; i <= 6; i++)
+			rows.add(new StreamElement(fields, new Serializable[] { (double) i }, i == 4 ? 3 : i));
+		// a batch partially loaded before a crash, with two rows of the same timestamp
+		sm.executeInsert("backfilled", fields, rows.get(0));
+		sm.executeInsert("backfilled", fields, rows.get(2));
+		assertEquals(3, CSVWrapper.getLastTimestamp(sm, "backfilled"));
+		List<StreamElement> toLoad = CSVWrapper.removeStored(sm, "backfilled", rows);
+		assertEquals(4, toLoad.size());
+		assertEquals(2.0, toLoad.get(0).getData("air_temp"));
+		assertEquals(3, toLoad.get(1).getTimeStamp());
+		assertEquals(5.0, toLoad.get(2).getData("air_temp"));
+		assertEquals(2, CSVWrapper.removeStored(sm, "backfilled", rows.subList(4, 6)).size());
+		sm.executeDropTable("backfilled");
+	}
+
 	@Test
 	public void testTimeStampParser() throws IOException {
 		DateTime toReturn = CSVHandler.parseTimeStamp("d.M.y k:m","01.10.2008 06:20");